@@ -35,6 +35,7 @@ public class AppConfig {
     private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
     private int serverPort = 8765;
+    private int deviceUploadPort = 8766;
     private boolean autoStart = true;
     private boolean minimizeToTray = true;
     private boolean startMinimized = false;
@@ -48,6 +49,46 @@ public class AppConfig {
     private boolean wifiEnabled = true;
     private boolean bluetoothEnabled = true;
     private int connectionTimeout = 30000;
+    private int idleTimeoutSeconds = 45;
+    private int heartbeatIntervalSeconds = 15;
+
+    private String transport = "auto";
+    private boolean tcpNoDelay = true;
+    private int socketSendBufferSize = 0;
+    private int socketReceiveBufferSize = 0;
+
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 128 * 1024;
+    private int outboundQueueCapacity = 256;
+    private int inboundQueueCapacity = 128;
+    private int maxFramePayloadLength = 1024 * 1024;
+    private int maxMessageSize = 64 * 1024 * 1024;
+    private int streamBufferSize = 256 * 1024;
+    private int uploadWriteBufferSize = 4 * 1024 * 1024;
+    private int maxConcurrentTransfers = 2;
+    private long globalBandwidthLimit = 0;
+    private long deviceBandwidthLimit = 0;
+
+    private boolean tlsEnabled = true;
+    private boolean tlsRequired = false;
+    private int tlsSessionCacheSize = 256;
+    private int tlsSessionTimeoutSeconds = 24 * 60 * 60;
+
+    private boolean outboxEnabled = true;
+    private int outboxMaxEntries = 1000;
+    private int outboxMaxAgeMinutes = 24 * 60;
+    private int requestTimeoutSeconds = 15;
+    private int callStateMaxAgeMillis = 5000;
+
+    private boolean batchingEnabled = true;
+    private int batchLingerMillis = 5;
+    private int batchMaxMessages = 64;
+    private int batchMaxBytes = 64 * 1024;
+
+    private boolean compressionEnabled = true;
+    private int compressionThreshold = 256;
+    private int compressionLevel = 6;
+    private boolean transferCompressionEnabled = true;
 
     private String theme = "kde-breeze-dark";
     private double windowWidth = 900;
@@ -58,6 +99,8 @@ public class AppConfig {
     private List<PairedDevice> pairedDevices = new ArrayList<>();
     private String encryptedMasterKey;
     private String downloadDir = System.getProperty("user.home") + "/Downloads/PhoneUnison";
+    private String syncDir = System.getProperty("user.home") + "/PhoneUnison Sync";
+    private boolean folderSyncEnabled = false;
 
     public String getDownloadDir() {
         return downloadDir;
@@ -67,6 +110,28 @@ public class AppConfig {
         this.downloadDir = downloadDir;
     }
 
+    /**
+     * Folder kept in step with the phone's by folder sync.
+     */
+    public String getSyncDir() {
+        return syncDir;
+    }
+
+    public void setSyncDir(String syncDir) {
+        this.syncDir = syncDir;
+    }
+
+    /**
+     * Whether paired phones may read and write the sync folder. Off until the user turns it on.
+     */
+    public boolean isFolderSyncEnabled() {
+        return folderSyncEnabled;
+    }
+
+    public void setFolderSyncEnabled(boolean folderSyncEnabled) {
+        this.folderSyncEnabled = folderSyncEnabled;
+    }
+
     public String getTheme() {
         return theme;
     }
@@ -103,6 +168,13 @@ public class AppConfig {
         }
     }
 
+    /**
+     * Directory holding the configuration and other per-user state such as the TLS identity.
+     */
+    public static Path getConfigDirectory() {
+        return getConfigPath().getParent();
+    }
+
     private static Path getConfigPath() {
         String appData = System.getenv("APPDATA");
         if (appData == null) {
@@ -143,6 +215,17 @@ public class AppConfig {
         this.serverPort = serverPort;
     }
 
+    /**
+     * Port of the phone's HTTP server that files are sent to.
+     */
+    public int getDeviceUploadPort() {
+        return deviceUploadPort;
+    }
+
+    public void setDeviceUploadPort(int deviceUploadPort) {
+        this.deviceUploadPort = deviceUploadPort;
+    }
+
     public boolean isAutoStart() {
         return autoStart;
     }
@@ -231,6 +314,354 @@ public class AppConfig {
         this.connectionTimeout = connectionTimeout;
     }
 
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * SO_SNDBUF for device connections in bytes; 0 keeps the OS default.
+     */
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public void setSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+    }
+
+    /**
+     * SO_RCVBUF for device connections in bytes; 0 keeps the OS default.
+     */
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    /**
+     * Maximum number of frames queued per traffic class for each device.
+     */
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Number of decoded messages a device may have waiting for its handler before reads pause.
+     */
+    public int getInboundQueueCapacity() {
+        return inboundQueueCapacity;
+    }
+
+    public void setInboundQueueCapacity(int inboundQueueCapacity) {
+        this.inboundQueueCapacity = inboundQueueCapacity;
+    }
+
+    /**
+     * Largest single WebSocket frame accepted; bigger messages must be fragmented.
+     */
+    public int getMaxFramePayloadLength() {
+        return maxFramePayloadLength;
+    }
+
+    public void setMaxFramePayloadLength(int maxFramePayloadLength) {
+        this.maxFramePayloadLength = maxFramePayloadLength;
+    }
+
+    /**
+     * Largest message accepted across all of its fragments.
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Bytes of a fragmented message that may wait for the decoder before reads pause.
+     */
+    public int getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    public void setStreamBufferSize(int streamBufferSize) {
+        this.streamBufferSize = streamBufferSize;
+    }
+
+    /**
+     * Bytes of an upload that may wait for the disk before reads pause.
+     */
+    public int getUploadWriteBufferSize() {
+        return uploadWriteBufferSize;
+    }
+
+    public void setUploadWriteBufferSize(int uploadWriteBufferSize) {
+        this.uploadWriteBufferSize = uploadWriteBufferSize;
+    }
+
+    /**
+     * Number of files sent to phones at the same time; the rest wait in the queue.
+     */
+    public int getMaxConcurrentTransfers() {
+        return maxConcurrentTransfers;
+    }
+
+    public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+    }
+
+    /**
+     * Cap on all file transfers together, in bytes per second; 0 for none.
+     */
+    public long getGlobalBandwidthLimit() {
+        return globalBandwidthLimit;
+    }
+
+    public void setGlobalBandwidthLimit(long globalBandwidthLimit) {
+        this.globalBandwidthLimit = globalBandwidthLimit;
+    }
+
+    /**
+     * Cap on the file transfers of each device, in bytes per second; 0 for none.
+     */
+    public long getDeviceBandwidthLimit() {
+        return deviceBandwidthLimit;
+    }
+
+    public void setDeviceBandwidthLimit(long deviceBandwidthLimit) {
+        this.deviceBandwidthLimit = deviceBandwidthLimit;
+    }
+
+    /**
+     * Whether the server accepts wss:// once a TLS identity exists. Plain ws:// is still accepted
+     * on the same port unless {@link #isTlsRequired()} is set.
+     */
+    public boolean isTlsEnabled() {
+        return tlsEnabled;
+    }
+
+    public void setTlsEnabled(boolean tlsEnabled) {
+        this.tlsEnabled = tlsEnabled;
+    }
+
+    public boolean isTlsRequired() {
+        return tlsRequired;
+    }
+
+    public void setTlsRequired(boolean tlsRequired) {
+        this.tlsRequired = tlsRequired;
+    }
+
+    /**
+     * Number of TLS sessions kept for resumption.
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    /**
+     * How long a phone may resume its TLS session instead of doing a full handshake.
+     */
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+    }
+
+    /**
+     * Whether messages for a paired phone that is not connected are kept on disk and sent
+     * when it reconnects, instead of being dropped.
+     */
+    public boolean isOutboxEnabled() {
+        return outboxEnabled;
+    }
+
+    public void setOutboxEnabled(boolean outboxEnabled) {
+        this.outboxEnabled = outboxEnabled;
+    }
+
+    /**
+     * Messages kept per device while it is away; the oldest are dropped beyond this.
+     */
+    public int getOutboxMaxEntries() {
+        return outboxMaxEntries;
+    }
+
+    public void setOutboxMaxEntries(int outboxMaxEntries) {
+        this.outboxMaxEntries = outboxMaxEntries;
+    }
+
+    /**
+     * Kept messages older than this are no longer sent on reconnect.
+     */
+    public int getOutboxMaxAgeMinutes() {
+        return outboxMaxAgeMinutes;
+    }
+
+    public void setOutboxMaxAgeMinutes(int outboxMaxAgeMinutes) {
+        this.outboxMaxAgeMinutes = outboxMaxAgeMinutes;
+    }
+
+    /**
+     * How long a request to the phone waits for its reply before giving up.
+     */
+    public int getRequestTimeoutSeconds() {
+        return requestTimeoutSeconds;
+    }
+
+    public void setRequestTimeoutSeconds(int requestTimeoutSeconds) {
+        this.requestTimeoutSeconds = requestTimeoutSeconds;
+    }
+
+    /**
+     * Call state events that waited longer than this after arriving are dropped rather than
+     * shown, since the call has most likely moved on.
+     */
+    public int getCallStateMaxAgeMillis() {
+        return callStateMaxAgeMillis;
+    }
+
+    public void setCallStateMaxAgeMillis(int callStateMaxAgeMillis) {
+        this.callStateMaxAgeMillis = callStateMaxAgeMillis;
+    }
+
+    /**
+     * Whether bursts of notifications to phones that support it are sent as BATCH frames.
+     */
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    public void setBatchingEnabled(boolean batchingEnabled) {
+        this.batchingEnabled = batchingEnabled;
+    }
+
+    /**
+     * How long the first message of a batch waits for others to join it.
+     */
+    public int getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    public void setBatchLingerMillis(int batchLingerMillis) {
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    public void setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Whether files sent to a phone that accepts it may be deflated on the way, when their type
+     * and first bytes suggest it pays off.
+     */
+    public boolean isTransferCompressionEnabled() {
+        return transferCompressionEnabled;
+    }
+
+    public void setTransferCompressionEnabled(boolean transferCompressionEnabled) {
+        this.transferCompressionEnabled = transferCompressionEnabled;
+    }
+
+    /**
+     * A device that sends nothing for this long is considered gone and its channel is closed.
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    /**
+     * Interval of the heartbeat probes used to measure round-trip time.
+     */
+    public int getHeartbeatIntervalSeconds() {
+        return heartbeatIntervalSeconds;
+    }
+
+    public void setHeartbeatIntervalSeconds(int heartbeatIntervalSeconds) {
+        this.heartbeatIntervalSeconds = heartbeatIntervalSeconds;
+    }
+
     public double getWindowWidth() {
         return windowWidth;
     }
@@ -4,36 +4,108 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
+/**
+ * Receives files the phone pushes to {@code /upload}.
+ *
+ * <p>{@code POST /upload?filename=&transferId=&offset=&total=} sends the bytes of a transfer
+ * from {@code offset} on; an optional {@code Upload-CRC32} header (hex) is checked against the
+ * body, and an optional {@code Upload-SHA256} header (hex) against the whole file once it is
+ * complete. {@code GET /upload?transferId=} answers with the offset the next POST must start at.
+ * Responses carry {@code Transfer-Id}, {@code Upload-Offset} and, when known,
+ * {@code Upload-Length}. A POST that does not start where the transfer stands is answered with
+ * 409 and the right offset. Uploads without a transfer id get one, but are not kept after a
+ * failure since the sender cannot resume them.
+ *
+ * <p>A file whose SHA-256 is already in the download directory is not received again: the POST
+ * is answered 200 with {@code Upload-Duplicate: true} before its body, which the sender may stop
+ * sending. Only a paired phone gets that answer, since it tells whether the file is here; anyone
+ * else's upload is received in full. A file name Windows cannot store is answered with 400.
+ *
+ * <p>A body may be sent with {@code Content-Encoding: deflate} (see {@link TransferCompression});
+ * it is inflated by the writer, and offsets, lengths and checksums refer to the inflated bytes.
+ * A compressed body has no length of its own, so the sender must pass {@code total}; without it
+ * the upload is answered with 400. A body that inflates, or runs, past the total is refused.
+ */
 public class BasicFileUploadHandler extends SimpleChannelInboundHandler<HttpObject> {
 
     private static final Logger logger = LoggerFactory.getLogger(BasicFileUploadHandler.class);
     private static final String UPLOAD_URI = "/upload";
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+    static final String TRANSFER_ID_HEADER = "Transfer-Id";
+    static final String OFFSET_HEADER = "Upload-Offset";
+    static final String LENGTH_HEADER = "Upload-Length";
+    static final String CRC32_HEADER = "Upload-CRC32";
+    static final String SHA256_HEADER = "Upload-SHA256";
+    static final String DUPLICATE_HEADER = "Upload-Duplicate";
+    private static final String RESERVED_CHARACTERS = "<>:\"/\\|?*";
+    private static final Pattern RESERVED_NAMES = Pattern.compile("CON|PRN|AUX|NUL|COM[0-9]|LPT[0-9]");
     private final String uploadDir;
+    private final int writeBufferSize;
+    private final TransferControl.Registry transfers;
+    private final ContentIndex index;
+    private final Predicate<InetAddress> pairedHosts;
 
     public BasicFileUploadHandler(String uploadDir) {
+        this(uploadDir, DEFAULT_WRITE_BUFFER_SIZE, null, null, address -> false);
+    }
+
+    /**
+     * @param writeBufferSize bytes that may wait for the disk before the connection stops reading
+     * @param transfers       tracks each upload so it can be shown, paused and rate-limited;
+     *                        may be null
+     * @param index           hashes of the files in {@code uploadDir}; may be null
+     * @param pairedHosts     tells whether a remote address belongs to a paired phone, which
+     *                        alone is told that a file is already here
+     */
+    public BasicFileUploadHandler(String uploadDir, int writeBufferSize, TransferControl.Registry transfers,
+                                  ContentIndex index, Predicate<InetAddress> pairedHosts) {
         this.uploadDir = uploadDir;
+        this.writeBufferSize = writeBufferSize;
+        this.transfers = transfers;
+        this.index = index;
+        this.pairedHosts = pairedHosts;
     }
 
+    // Set while the current request belongs to this handler
     private boolean isUploading = false;
-    private FileOutputStream fileOutputStream;
-    private File currentFile;
+    private UploadWriter writer;
+    // Sent when the body ends, for a request refused before any of it was written
+    private String rejection;
+    private HttpResponseStatus rejectionStatus;
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
         if (msg instanceof HttpRequest) {
             HttpRequest request = (HttpRequest) msg;
-            if (request.uri().startsWith(UPLOAD_URI) && request.method() == HttpMethod.POST) {
-                isUploading = true;
-                String fileName = getFileName(request);
-                startUpload(fileName);
-                return;
+            if (request.uri().startsWith(UPLOAD_URI)) {
+                if (request.method() == HttpMethod.POST) {
+                    isUploading = true;
+                    startUpload(ctx, request);
+                    return;
+                }
+                if (request.method() == HttpMethod.GET) {
+                    isUploading = true;
+                    queryUpload(ctx, request);
+                    return;
+                }
             }
         }
 
@@ -41,101 +113,281 @@ public class BasicFileUploadHandler extends SimpleChannelInboundHandler<HttpObje
             if (msg instanceof HttpContent) {
                 HttpContent content = (HttpContent) msg;
                 ByteBuf buf = content.content();
-                try {
-                    if (buf.isReadable()) {
-                        byte[] bytes = new byte[buf.readableBytes()];
-                        buf.readBytes(bytes);
-                        if (fileOutputStream != null) {
-                            fileOutputStream.write(bytes);
-                        }
-                    }
-
-                    if (msg instanceof LastHttpContent) {
-                        finishUpload(ctx);
-                    }
-                } catch (IOException e) {
-                    logger.error("Error writing file chunk", e);
-                    cleanupUpload();
-                    sendResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error writing file");
+                if (buf.isReadable() && writer != null) {
+                    // The writer releases it once the chunk is on disk
+                    writer.write(buf.retain());
+                }
+
+                if (msg instanceof LastHttpContent) {
+                    finishUpload(ctx);
                 }
             }
         } else {
-            ctx.fireChannelRead(msg);
+            // The aggregator and WebSocket handlers downstream release what they are given
+            ctx.fireChannelRead(ReferenceCountUtil.retain(msg));
         }
     }
 
-    private String getFileName(HttpRequest request) {
+    private void startUpload(ChannelHandlerContext ctx, HttpRequest request) {
         QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
-        if (decoder.parameters().containsKey("filename")) {
-            return decoder.parameters().get("filename").get(0);
+        String transferId = parameter(decoder, "transferId");
+        boolean resumable = transferId != null;
+        String coding = request.headers().get(HttpHeaderNames.CONTENT_ENCODING, TransferCompression.IDENTITY)
+                .trim().toLowerCase(Locale.ROOT);
+        if (!coding.equals(TransferCompression.IDENTITY) && !coding.equals(TransferCompression.DEFLATE)) {
+            reject(HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding " + coding);
+            return;
+        }
+        long offset;
+        long total;
+        long crc;
+        try {
+            offset = Long.parseLong(parameter(decoder, "offset", "0"));
+            String totalParam = parameter(decoder, "total");
+            if (totalParam == null && coding.equals(TransferCompression.DEFLATE)) {
+                reject(HttpResponseStatus.BAD_REQUEST, "A deflated upload needs its total");
+                return;
+            }
+            total = totalParam != null ? Long.parseLong(totalParam)
+                    : offset == 0 && coding.equals(TransferCompression.IDENTITY) ? HttpUtil.getContentLength(request, -1L) : -1;
+            String crcHeader = request.headers().get(CRC32_HEADER);
+            crc = crcHeader != null ? Long.parseUnsignedLong(crcHeader.trim(), 16) : -1;
+        } catch (NumberFormatException e) {
+            reject(HttpResponseStatus.BAD_REQUEST, "Invalid offset, total or checksum");
+            return;
+        }
+        String digest = request.headers().get(SHA256_HEADER);
+        if (digest != null && !ContentIndex.isDigest(digest.trim())) {
+            reject(HttpResponseStatus.BAD_REQUEST, "Invalid SHA-256");
+            return;
+        }
+        if (!resumable) {
+            transferId = UUID.randomUUID().toString();
+        } else if (!UploadJournal.isValidTransferId(transferId) || offset < 0) {
+            reject(HttpResponseStatus.BAD_REQUEST, "Invalid transfer id or offset");
+            return;
+        }
+        String fileName = getFileName(decoder);
+        if (fileName != null && !isValidFileName(fileName)) {
+            reject(HttpResponseStatus.BAD_REQUEST, "Invalid file name");
+            return;
+        }
+        UploadJournal journal = UploadJournal.acquire(Path.of(uploadDir), transferId);
+        if (journal == null) {
+            reject(HttpResponseStatus.CONFLICT, "Transfer " + transferId + " is already being uploaded");
+            return;
+        }
+        TransferControl control = TransferControl.NONE;
+        if (transfers != null) {
+            InetSocketAddress remote = (InetSocketAddress) ctx.channel().remoteAddress();
+            control = transfers.incoming(transferId, remote.getAddress().getHostAddress(), fileName, total);
+        }
+        boolean paired = ctx.channel().remoteAddress() instanceof InetSocketAddress remote
+                && remote.getAddress() != null && pairedHosts.test(remote.getAddress());
+        UploadWriter started = new UploadWriter(ctx.channel(), journal, fileName, offset, total, crc,
+                digest != null ? digest.trim() : null, index, paired, coding, resumable, control, writeBufferSize);
+        writer = started;
+        logger.info("Starting upload {} of {} at offset {} ({} bytes, {})", transferId,
+                fileName != null ? fileName : "recorded file", offset, total < 0 ? "unknown" : total, coding);
+        String id = transferId;
+        TransferControl tracked = control;
+        started.result().whenComplete((result, error) -> ctx.executor().execute(() -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            tracked.finished(result != null && result.savedAs() != null,
+                    cause instanceof CancellationException ? null : cause);
+            uploadDone(ctx, started, id, result, cause);
+        }));
+    }
+
+    private void uploadDone(ChannelHandlerContext ctx, UploadWriter finished, String transferId,
+                            UploadWriter.Result result, Throwable error) {
+        if (error instanceof CancellationException) {
+            logger.info("Upload {} interrupted after {} bytes; it can be resumed", transferId,
+                    finished.getBytesWritten());
+            return;
+        }
+        if (error instanceof UploadJournal.ConflictException conflict) {
+            logger.warn("Upload {} refused: {}", transferId, conflict.getMessage());
+            sendResponse(ctx, HttpResponseStatus.CONFLICT, conflict.getMessage(), transferId,
+                    conflict.getOffset(), -1);
+            return;
+        }
+        if (error instanceof UploadWriter.ChecksumException) {
+            logger.warn("Upload {} rejected: {}", transferId, error.getMessage());
+            sendResponse(ctx, HttpResponseStatus.BAD_REQUEST, error.getMessage());
+            return;
+        }
+        if (error != null) {
+            logger.error("Failed to save upload {}", transferId, error);
+            sendResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error saving file");
+            return;
+        }
+        if (result.duplicate()) {
+            logger.info("Upload {} is already in the download directory as {}", transferId, result.savedAs());
+            FullHttpResponse response = response(HttpResponseStatus.OK, "Already received", transferId,
+                    result.offset(), result.totalLength());
+            response.headers().set(DUPLICATE_HEADER, true);
+            ctx.writeAndFlush(response);
+            return;
+        }
+        double millis = finished.getElapsedMillis();
+        long bytes = finished.getBytesWritten();
+        String rate = String.format("%.1f", bytes / 1e3 / Math.max(millis, 1));
+        if (result.savedAs() != null) {
+            logger.info("Upload completed: {} ({} bytes in {} ms, {} MB/s, {} bytes on the wire as {}, reads paused {} times)",
+                    result.savedAs().toAbsolutePath(), bytes, Math.round(millis), rate, finished.getWireBytes(),
+                    finished.getCoding(), finished.getPauseCount());
+            sendResponse(ctx, HttpResponseStatus.OK, "Upload complete", transferId,
+                    result.offset(), result.totalLength());
+        } else {
+            logger.info("Upload {} at {} of {} ({} bytes in {} ms, {} MB/s)", transferId, result.offset(),
+                    result.totalLength(), bytes, Math.round(millis), rate);
+            sendResponse(ctx, HttpResponseStatus.ACCEPTED, "Chunk received", transferId,
+                    result.offset(), result.totalLength());
+        }
+    }
+
+    private void queryUpload(ChannelHandlerContext ctx, HttpRequest request) {
+        String transferId = parameter(new QueryStringDecoder(request.uri()), "transferId");
+        if (!UploadJournal.isValidTransferId(transferId)) {
+            reject(HttpResponseStatus.BAD_REQUEST, "Invalid transfer id");
+            return;
+        }
+        Path dir = Path.of(uploadDir);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return UploadJournal.query(dir, transferId);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, UploadWriter.EXECUTOR).whenComplete((state, error) -> ctx.executor().execute(() -> {
+            if (error != null) {
+                logger.error("Failed to read upload journal {}", transferId, error);
+                sendResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error reading transfer");
+            } else if (state == null) {
+                sendResponse(ctx, HttpResponseStatus.NOT_FOUND, "Unknown transfer");
+            } else {
+                sendResponse(ctx, HttpResponseStatus.OK, Long.toString(state[0]), transferId, state[0], state[1]);
+            }
+        }));
+    }
+
+    private static String parameter(QueryStringDecoder decoder, String name) {
+        return parameter(decoder, name, null);
+    }
+
+    private static String parameter(QueryStringDecoder decoder, String name, String defaultValue) {
+        List<String> values = decoder.parameters().get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    /**
+     * The requested file name without any directory part, or null if none was given.
+     */
+    private String getFileName(QueryStringDecoder decoder) {
+        String name = parameter(decoder, "filename");
+        if (name == null) {
+            return null;
         }
-        return "received_file_" + System.currentTimeMillis();
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).trim();
+        return name.isEmpty() || name.equals(".") || name.equals("..") ? null : name;
     }
 
-    private void startUpload(String fileName) {
-        File dir = new File(uploadDir);
-        if (!dir.exists()) {
-            dir.mkdirs();
+    /**
+     * Whether a name can be saved as given on Windows: no reserved characters, no trailing dot
+     * or space and no device name such as {@code CON} or {@code NUL.txt}.
+     */
+    static boolean isValidFileName(String name) {
+        if (name.length() > 255 || name.endsWith(".") || name.endsWith(" ")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || RESERVED_CHARACTERS.indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        int dot = name.indexOf('.');
+        String stem = (dot < 0 ? name : name.substring(0, dot)).trim().toUpperCase(Locale.ROOT);
+        if (RESERVED_NAMES.matcher(stem).matches()) {
+            return false;
         }
-        currentFile = new File(dir, fileName);
         try {
-            fileOutputStream = new FileOutputStream(currentFile);
-            logger.info("Starting upload: {}", currentFile.getAbsolutePath());
-        } catch (IOException e) {
-            logger.error("Failed to open file for writing", e);
+            Path.of(name);
+            return true;
+        } catch (InvalidPathException e) {
+            return false;
         }
     }
 
+    private void reject(HttpResponseStatus status, String message) {
+        rejectionStatus = status;
+        rejection = message;
+    }
+
     private void finishUpload(ChannelHandlerContext ctx) {
-        try {
-            if (fileOutputStream != null) {
-                fileOutputStream.close();
-            }
-            logger.info("Upload completed: {}", currentFile.getAbsolutePath());
-            sendResponse(ctx, HttpResponseStatus.OK, "Upload complete");
-        } catch (IOException e) {
-            logger.error("Failed to close file", e);
-            sendResponse(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error saving file");
-        } finally {
-            isUploading = false;
-            fileOutputStream = null;
+        UploadWriter finished = writer;
+        isUploading = false;
+        writer = null;
+        if (finished != null) {
+            // Answered once the body is on disk
+            finished.finish();
+        } else if (rejection != null) {
+            sendResponse(ctx, rejectionStatus, rejection);
+            rejection = null;
         }
     }
 
     private void cleanupUpload() {
-        try {
-            if (fileOutputStream != null) {
-                fileOutputStream.close();
-            }
-        } catch (IOException ignored) {
-        } finally {
-            isUploading = false;
-            fileOutputStream = null;
-            if (currentFile != null && currentFile.exists()) {
-                currentFile.delete();
-            }
+        isUploading = false;
+        rejection = null;
+        if (writer != null) {
+            writer.abort();
+            writer = null;
         }
     }
 
     private void sendResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
+        sendResponse(ctx, status, message, null, -1, -1);
+    }
+
+    private void sendResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String message,
+                              String transferId, long offset, long total) {
+        if (ctx.channel().isActive()) {
+            ctx.writeAndFlush(response(status, message, transferId, offset, total));
+        }
+    }
+
+    private static FullHttpResponse response(HttpResponseStatus status, String message,
+                                             String transferId, long offset, long total) {
         FullHttpResponse response = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1, status);
         response.content().writeBytes(message.getBytes());
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
         response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        if (transferId != null) {
+            response.headers().set(TRANSFER_ID_HEADER, transferId);
+            response.headers().set(OFFSET_HEADER, offset);
+            if (total >= 0) {
+                response.headers().set(LENGTH_HEADER, total);
+            }
+        }
+        return response;
+    }
 
-        ctx.writeAndFlush(response);
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (writer != null) {
+            logger.warn("Connection closed during upload");
+        }
+        cleanupUpload();
+        super.channelInactive(ctx);
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         logger.error("Upload error", cause);
-        try {
-            if (fileOutputStream != null) {
-                fileOutputStream.close();
-            }
-        } catch (IOException ignored) {
-        }
+        cleanupUpload();
         ctx.close();
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-channel permessage-deflate counters. Two probe handlers sit on either side of the
+ * deflate codec: the raw side sees uncompressed frames, the wire side sees what actually
+ * crosses the network, and the time between the two is the compression cost.
+ */
+public final class CompressionStats {
+
+    public static final AttributeKey<CompressionStats> KEY = AttributeKey.valueOf("phoneunison.compressionStats");
+
+    /** RSV1 marks a frame compressed by permessage-deflate. */
+    private static final int RSV1 = 0x4;
+    private static final int MIN_SAMPLES = 32;
+    private static final double POOR_RATIO = 0.95;
+    private static final int PROBE_INTERVAL = 64;
+
+    private final AtomicLong outboundRawBytes = new AtomicLong();
+    private final AtomicLong outboundWireBytes = new AtomicLong();
+    private final AtomicLong inboundRawBytes = new AtomicLong();
+    private final AtomicLong inboundWireBytes = new AtomicLong();
+    private final AtomicLong framesCompressed = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    // Only touched from the channel's event loop
+    private long writeStartNanos;
+    private long writeRawBytes;
+    private long deflatedRawBytes;
+    private long deflatedWireBytes;
+    private long readStartNanos;
+    private boolean readCompressed;
+    private int framesSinceProbe;
+
+    /**
+     * Filters that let frames below {@code threshold} bytes bypass compression entirely. Once
+     * enough frames have been sampled and deflate is barely shrinking them (for example when
+     * the channel carries binary frames of already compressed data), larger frames skip it too,
+     * with every {@value #PROBE_INTERVAL}th frame still compressed to notice if that changes.
+     */
+    public WebSocketExtensionFilterProvider filterProvider(int threshold) {
+        WebSocketExtensionFilter encoderFilter = frame -> {
+            if (frame.content().readableBytes() < threshold) {
+                return true;
+            }
+            if (framesCompressed.get() < MIN_SAMPLES || deflatedWireBytes < deflatedRawBytes * POOR_RATIO) {
+                return false;
+            }
+            return ++framesSinceProbe % PROBE_INTERVAL != 0;
+        };
+        return new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return encoderFilter;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+    }
+
+    public ChannelHandler rawSide() {
+        return new RawSideHandler();
+    }
+
+    public ChannelHandler wireSide() {
+        return new WireSideHandler();
+    }
+
+    public long getOutboundRawBytes() {
+        return outboundRawBytes.get();
+    }
+
+    public long getOutboundWireBytes() {
+        return outboundWireBytes.get();
+    }
+
+    public long getInboundRawBytes() {
+        return inboundRawBytes.get();
+    }
+
+    public long getInboundWireBytes() {
+        return inboundWireBytes.get();
+    }
+
+    public long getFramesCompressed() {
+        return framesCompressed.get();
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+
+    /**
+     * Wire bytes divided by raw bytes for outbound frames; 1.0 means no saving.
+     */
+    public double getOutboundRatio() {
+        long raw = outboundRawBytes.get();
+        return raw == 0 ? 1.0 : (double) outboundWireBytes.get() / raw;
+    }
+
+    public double getInboundRatio() {
+        long raw = inboundRawBytes.get();
+        return raw == 0 ? 1.0 : (double) inboundWireBytes.get() / raw;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "out %d -> %d bytes (%.2f), in %d -> %d bytes (%.2f), %d compressed / %d skipped, cpu %d/%d us",
+                outboundRawBytes.get(), outboundWireBytes.get(), getOutboundRatio(),
+                inboundWireBytes.get(), inboundRawBytes.get(), getInboundRatio(),
+                framesCompressed.get(), framesSkipped.get(),
+                compressNanos.get() / 1000, decompressNanos.get() / 1000);
+    }
+
+    private class RawSideHandler extends ChannelDuplexHandler {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof WebSocketFrame frame) {
+                writeRawBytes = frame.content().readableBytes();
+                outboundRawBytes.addAndGet(writeRawBytes);
+                writeStartNanos = System.nanoTime();
+            }
+            ctx.write(msg, promise);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof WebSocketFrame frame) {
+                inboundRawBytes.addAndGet(frame.content().readableBytes());
+                if (readCompressed) {
+                    decompressNanos.addAndGet(System.nanoTime() - readStartNanos);
+                    readCompressed = false;
+                }
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private class WireSideHandler extends ChannelDuplexHandler {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof WebSocketFrame frame) {
+                int wireBytes = frame.content().readableBytes();
+                outboundWireBytes.addAndGet(wireBytes);
+                if ((frame.rsv() & RSV1) != 0) {
+                    deflatedRawBytes += writeRawBytes;
+                    deflatedWireBytes += wireBytes;
+                    framesCompressed.incrementAndGet();
+                    compressNanos.addAndGet(System.nanoTime() - writeStartNanos);
+                } else {
+                    framesSkipped.incrementAndGet();
+                }
+            }
+            ctx.write(msg, promise);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof WebSocketFrame frame) {
+                inboundWireBytes.addAndGet(frame.content().readableBytes());
+                readCompressed = (frame.rsv() & RSV1) != 0;
+                readStartNanos = System.nanoTime();
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
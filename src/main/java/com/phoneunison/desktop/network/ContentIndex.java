@@ -0,0 +1,288 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent index from SHA-256 digest to file for the download directory, so content that is
+ * already here is not received again.
+ *
+ * <p>Each entry also keeps the file's size and modification time. A lookup only returns a file
+ * that still has both, so a file edited or deleted behind the index's back is never mistaken
+ * for the content it used to hold; such entries are dropped when found. Files finished by an
+ * upload are added with the digest computed while they streamed in. {@link #rescan} hashes
+ * whatever the index does not know yet, e.g. files copied into the folder by hand.
+ *
+ * <p>The index is a text file of {@code digest size mtime name} lines, appended to as files
+ * are added and rewritten in full when stale entries pile up. Hashing and file I/O block, so
+ * callers stay off the event loop.
+ *
+ * <p>SHA-256 is used rather than a non-cryptographic hash because a collision would hand the
+ * phone the wrong file; the JDK implementation uses the CPU's SHA extensions where present.
+ */
+public final class ContentIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndex.class);
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int READ_BUFFER = 256 * 1024;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private record Entry(String digest, Path file, long size, long modified) {
+    }
+
+    private final Path indexFile;
+    private final Path directory;
+    private final Map<String, Entry> byDigest = new ConcurrentHashMap<>();
+    private final Map<Path, Entry> byFile = new ConcurrentHashMap<>();
+    private int staleLines;
+
+    public ContentIndex(Path indexFile, Path directory) {
+        this.indexFile = indexFile;
+        this.directory = directory;
+        load();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        return HEX.formatHex(digest);
+    }
+
+    /**
+     * Whether a string looks like a digest this index produces.
+     */
+    public static boolean isDigest(String value) {
+        return value != null && value.length() == 64 && value.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    /**
+     * A file in the download directory with this content, or null if there is none.
+     */
+    public Path find(String digest) {
+        if (digest == null) {
+            return null;
+        }
+        Entry entry = byDigest.get(digest.toLowerCase());
+        if (entry == null || !entry.file.startsWith(directory.toAbsolutePath().normalize())) {
+            return null;
+        }
+        if (!matches(entry)) {
+            remove(entry);
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * Records a file whose digest is already known, e.g. from hashing it as it arrived.
+     */
+    public void add(String digest, Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            put(new Entry(digest.toLowerCase(), file.toAbsolutePath().normalize(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()), true);
+        } catch (IOException e) {
+            logger.warn("Could not index {}", file, e);
+        }
+    }
+
+    /**
+     * The digest of any file, from the index when it has not changed since it was hashed,
+     * otherwise by reading it once.
+     */
+    public String digestOf(Path file) throws IOException {
+        Path normalized = file.toAbsolutePath().normalize();
+        Entry entry = byFile.get(normalized);
+        if (entry != null && matches(entry)) {
+            return entry.digest;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(normalized, BasicFileAttributes.class);
+        String digest = hash(normalized);
+        // Files outside the download directory are cached for this run only
+        put(new Entry(digest, normalized, attributes.size(), attributes.lastModifiedTime().toMillis()),
+                normalized.startsWith(directory.toAbsolutePath().normalize()));
+        return digest;
+    }
+
+    /**
+     * Hashes the files in the download directory the index does not know yet.
+     */
+    public void rescan() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        int hashed = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    Entry entry = byFile.get(file.toAbsolutePath().normalize());
+                    if (entry == null || !matches(entry)) {
+                        digestOf(file);
+                        hashed++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not scan {}", directory, e);
+        }
+        if (hashed > 0) {
+            logger.info("Indexed {} new file(s) in {}", hashed, directory);
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private boolean matches(Entry entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(entry.file, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.size() == entry.size
+                    && attributes.lastModifiedTime().toMillis() == entry.modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void put(Entry entry, boolean persist) {
+        Entry previous = byFile.put(entry.file, entry);
+        if (previous != null) {
+            byDigest.remove(previous.digest, previous);
+        }
+        byDigest.put(entry.digest, entry);
+        if (!persist) {
+            return;
+        }
+        synchronized (this) {
+            if (previous != null) {
+                staleLines++;
+            }
+            try (BufferedWriter out = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(line(entry));
+            } catch (IOException e) {
+                logger.warn("Could not update content index {}", indexFile, e);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        byDigest.remove(entry.digest, entry);
+        byFile.remove(entry.file, entry);
+        synchronized (this) {
+            if (++staleLines > 64 && staleLines > byFile.size()) {
+                rewrite();
+            }
+        }
+    }
+
+    private String line(Entry entry) {
+        Path relative = entry.file.startsWith(directory.toAbsolutePath().normalize())
+                ? directory.toAbsolutePath().normalize().relativize(entry.file) : entry.file;
+        return entry.digest + ' ' + entry.size + ' ' + entry.modified + ' ' + relative + '\n';
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            try {
+                Files.createDirectories(indexFile.getParent());
+            } catch (IOException e) {
+                logger.warn("Could not create {}", indexFile.getParent(), e);
+            }
+            return;
+        }
+        Path base = directory.toAbsolutePath().normalize();
+        try {
+            List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+            int valid = 0;
+            for (String line : lines) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length < 4 || !isDigest(parts[0])) {
+                    staleLines++;
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(parts[0], base.resolve(parts[3]).normalize(),
+                            Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    // Later lines win, as they were appended later
+                    put(entry, false);
+                    valid++;
+                } catch (RuntimeException e) {
+                    staleLines++;
+                }
+            }
+            // Lines for files that were indexed again later
+            staleLines += valid - byFile.size();
+        } catch (IOException e) {
+            logger.warn("Could not read content index {}", indexFile, e);
+        }
+    }
+
+    // Called with this locked
+    private void rewrite() {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Entry entry : byFile.values()) {
+                if (entry.file.startsWith(directory.toAbsolutePath().normalize())) {
+                    out.write(line(entry));
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not compact content index {}", indexFile, e);
+            return;
+        }
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            staleLines = 0;
+        } catch (IOException e) {
+            logger.warn("Could not replace content index {}", indexFile, e);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AES-256-GCM encryption of the WebSocket frames of one device channel.
+ *
+ * <p>Both sides derive a key per direction from an ECDH agreement made during pairing, using
+ * HKDF-SHA256 with a label per direction. Every sealed frame is a binary frame laid out as
+ * {@code [kind:1][counter:8][ciphertext][tag:16]}: the kind says whether the plaintext was a
+ * text or a binary frame and is authenticated along with it, and the counter is the GCM nonce.
+ * Counters only ever increase, so a nonce is never reused and a replayed or reordered frame
+ * is rejected.
+ *
+ * <p>Each fragment of a fragmented message is sealed on its own and keeps its place on the wire:
+ * the first is a binary frame, the rest continuation frames. Their kind is
+ * {@link #KIND_CONTINUATION} after the first, with {@link #FLAG_MORE} set on all but the last,
+ * so a fragment cannot be moved, cut short or passed off as a whole message. A large message
+ * therefore streams through the cipher one fragment at a time, within the frame size limit.
+ *
+ * <p>Frames are sealed and opened in place inside their buffers by the {@link #handler()},
+ * which runs on the channel's event loop. That keeps the counter in wire order and lets each
+ * event loop thread reuse one {@link Cipher} instance for all of its channels.
+ */
+public final class CryptoSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(CryptoSession.class);
+
+    public static final AttributeKey<CryptoSession> KEY = AttributeKey.valueOf("phoneunison.cryptoSession");
+    public static final String ALGORITHM = "aes-256-gcm";
+
+    /** Bytes in front of the ciphertext: the frame kind and the counter. */
+    public static final int HEADER_LENGTH = 1 + Long.BYTES;
+    public static final int TAG_LENGTH = 16;
+
+    public static final int KIND_TEXT = 0;
+    public static final int KIND_BINARY = 1;
+    public static final int KIND_CONTINUATION = 2;
+    /** Set on the kind of every fragment but the last of a message. */
+    public static final int FLAG_MORE = 0x80;
+    private static final int NONCE_LENGTH = 12;
+    private static final byte[] DESKTOP_LABEL = "PhoneUnison frame key desktop".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PHONE_LABEL = "PhoneUnison frame key phone".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    });
+
+    private final SecretKey sealKey;
+    private final SecretKey openKey;
+    // Counters, nonce and AAD scratch space are only touched from the channel's event loop
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+    private final byte[] aad = new byte[1];
+    private long sealCounter;
+    private long openCounter = -1;
+
+    private final AtomicLong framesSealed = new AtomicLong();
+    private final AtomicLong framesOpened = new AtomicLong();
+    private final AtomicLong framesRejected = new AtomicLong();
+    private final AtomicLong bytesSealed = new AtomicLong();
+    private final AtomicLong bytesOpened = new AtomicLong();
+
+    CryptoSession(SecretKey sealKey, SecretKey openKey) {
+        this.sealKey = sealKey;
+        this.openKey = openKey;
+    }
+
+    /**
+     * Derives the desktop side of a session from its private key and the phone's X.509 encoded
+     * EC public key.
+     */
+    public static CryptoSession establish(PrivateKey privateKey, byte[] peerPublicKey)
+            throws GeneralSecurityException {
+        PublicKey peer = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(peerPublicKey));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(privateKey);
+        agreement.doPhase(peer, true);
+        byte[] secret = agreement.generateSecret();
+        return new CryptoSession(deriveKey(secret, DESKTOP_LABEL), deriveKey(secret, PHONE_LABEL));
+    }
+
+    /**
+     * HKDF-SHA256 (RFC 5869) of the ECDH secret with an empty salt and the direction's label as
+     * info. One block of output is exactly an AES-256 key.
+     */
+    static SecretKey deriveKey(byte[] secret, byte[] label) throws GeneralSecurityException {
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(new byte[hmac.getMacLength()], "HmacSHA256"));
+        byte[] pseudoRandomKey = hmac.doFinal(secret);
+        hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        hmac.update(label);
+        hmac.update((byte) 1);
+        return new SecretKeySpec(hmac.doFinal(), "AES");
+    }
+
+    /**
+     * Encrypts the readable bytes of {@code buf} in place. The buffer needs
+     * {@value #HEADER_LENGTH} bytes of headroom before its reader index, where the header is
+     * written; the tag is appended after the ciphertext. On return the readable bytes are the
+     * sealed frame.
+     *
+     * @param kind one of the {@code KIND_} constants, with {@link #FLAG_MORE} for a fragment
+     *             that is not the last of its message
+     */
+    public void seal(ByteBuf buf, int kind) throws GeneralSecurityException {
+        int headerIndex = buf.readerIndex() - HEADER_LENGTH;
+        if (headerIndex < 0) {
+            throw new IllegalArgumentException("No room for the frame header");
+        }
+        int length = buf.readableBytes();
+        buf.ensureWritable(TAG_LENGTH);
+        long counter = sealCounter++;
+        buf.setByte(headerIndex, kind);
+        buf.setLong(headerIndex + 1, counter);
+
+        Cipher cipher = init(Cipher.ENCRYPT_MODE, sealKey, counter, kind);
+        int dataIndex = buf.readerIndex();
+        int sealed = cipher.doFinal(buf.nioBuffer(dataIndex, length), buf.nioBuffer(dataIndex, length + TAG_LENGTH));
+        buf.readerIndex(headerIndex);
+        buf.writerIndex(dataIndex + sealed);
+        framesSealed.incrementAndGet();
+        bytesSealed.addAndGet(length);
+    }
+
+    /**
+     * Verifies and decrypts a sealed frame in place, leaving only the plaintext readable.
+     *
+     * @return the kind the frame was sealed with
+     * @throws GeneralSecurityException if the frame was tampered with, replayed or malformed
+     */
+    public int open(ByteBuf buf) throws GeneralSecurityException {
+        int length = buf.readableBytes() - HEADER_LENGTH - TAG_LENGTH;
+        if (length < 0) {
+            throw new GeneralSecurityException("Sealed frame too short: " + buf.readableBytes() + " bytes");
+        }
+        int headerIndex = buf.readerIndex();
+        int kind = buf.getUnsignedByte(headerIndex);
+        if ((kind & ~FLAG_MORE) > KIND_CONTINUATION) {
+            throw new GeneralSecurityException("Unknown frame kind " + kind);
+        }
+        long counter = buf.getLong(headerIndex + 1);
+        if (counter <= openCounter) {
+            throw new GeneralSecurityException("Replayed frame counter " + counter + " after " + openCounter);
+        }
+        Cipher cipher = init(Cipher.DECRYPT_MODE, openKey, counter, kind);
+        int dataIndex = headerIndex + HEADER_LENGTH;
+        int opened = cipher.doFinal(buf.nioBuffer(dataIndex, length + TAG_LENGTH), buf.nioBuffer(dataIndex, length));
+        openCounter = counter;
+        buf.setIndex(dataIndex, dataIndex + opened);
+        framesOpened.incrementAndGet();
+        bytesOpened.addAndGet(opened);
+        return kind;
+    }
+
+    private Cipher init(int mode, SecretKey key, long counter, int kind) throws GeneralSecurityException {
+        for (int i = 0; i < Long.BYTES; i++) {
+            nonce[NONCE_LENGTH - 1 - i] = (byte) (counter >>> (8 * i));
+        }
+        Cipher cipher = CIPHER.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        aad[0] = (byte) kind;
+        cipher.updateAAD(aad);
+        return cipher;
+    }
+
+    /**
+     * Handler that seals outbound frames and opens inbound ones. It belongs right in front of
+     * the handler that encodes and decodes messages, behind the WebSocket protocol handler.
+     */
+    public ChannelHandler handler() {
+        return new CipherHandler();
+    }
+
+    public long getFramesSealed() {
+        return framesSealed.get();
+    }
+
+    public long getFramesOpened() {
+        return framesOpened.get();
+    }
+
+    public long getFramesRejected() {
+        return framesRejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sealed %d frames / %d bytes, opened %d frames / %d bytes, rejected %d",
+                framesSealed.get(), bytesSealed.get(), framesOpened.get(), bytesOpened.get(), framesRejected.get());
+    }
+
+    private class CipherHandler extends ChannelDuplexHandler {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!isData(msg)) {
+                ctx.write(msg, promise);
+                return;
+            }
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            boolean last = frame.isFinalFragment();
+            int kind = (frame instanceof ContinuationWebSocketFrame ? KIND_CONTINUATION
+                    : frame instanceof BinaryWebSocketFrame ? KIND_BINARY : KIND_TEXT) | (last ? 0 : FLAG_MORE);
+            ByteBuf content = frame.content();
+            ByteBuf buf;
+            if (isExclusive(content)) {
+                buf = content.retain();
+            } else {
+                // Shared bytes (broadcasts, the cached heartbeat ack) are copied before sealing
+                buf = ctx.alloc().buffer(HEADER_LENGTH + content.readableBytes() + TAG_LENGTH);
+                buf.setIndex(HEADER_LENGTH, HEADER_LENGTH).writeBytes(content, content.readerIndex(),
+                        content.readableBytes());
+            }
+            frame.release();
+            try {
+                seal(buf, kind);
+            } catch (GeneralSecurityException e) {
+                buf.release();
+                promise.setFailure(e);
+                return;
+            }
+            ctx.write((kind & ~FLAG_MORE) == KIND_CONTINUATION
+                    ? new ContinuationWebSocketFrame(last, 0, buf) : new BinaryWebSocketFrame(last, 0, buf), promise);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (!isData(msg)) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            if (frame instanceof TextWebSocketFrame) {
+                // Plain text after the key exchange would be a downgrade
+                reject(ctx, frame, "unsealed text frame");
+                return;
+            }
+            boolean last = frame.isFinalFragment();
+            boolean continuation = frame instanceof ContinuationWebSocketFrame;
+            ByteBuf content = frame.content();
+            if (content.nioBufferCount() != 1) {
+                content = ctx.alloc().buffer(content.readableBytes()).writeBytes(content);
+                frame.release();
+            }
+            int kind;
+            try {
+                kind = open(content);
+                if (((kind & FLAG_MORE) == 0) != last || ((kind & ~FLAG_MORE) == KIND_CONTINUATION) != continuation) {
+                    throw new GeneralSecurityException("Sealed kind " + kind + " does not match its frame");
+                }
+            } catch (GeneralSecurityException e) {
+                framesRejected.incrementAndGet();
+                logger.warn("Closing {}: {}", ctx.channel().remoteAddress(), e.getMessage());
+                content.release();
+                closeWith(ctx, WebSocketCloseStatus.POLICY_VIOLATION);
+                return;
+            }
+            ctx.fireChannelRead(switch (kind & ~FLAG_MORE) {
+                case KIND_TEXT -> new TextWebSocketFrame(last, 0, content);
+                case KIND_BINARY -> new BinaryWebSocketFrame(last, 0, content);
+                default -> new ContinuationWebSocketFrame(last, 0, content);
+            });
+        }
+
+        private static boolean isData(Object msg) {
+            return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+                    || msg instanceof ContinuationWebSocketFrame;
+        }
+
+        private boolean isExclusive(ByteBuf content) {
+            return content.refCnt() == 1 && content.unwrap() == null && !content.isReadOnly()
+                    && content.readerIndex() >= HEADER_LENGTH && content.nioBufferCount() == 1;
+        }
+
+        private void reject(ChannelHandlerContext ctx, WebSocketFrame frame, String reason) {
+            framesRejected.incrementAndGet();
+            logger.warn("Closing {}: {}", ctx.channel().remoteAddress(), reason);
+            ReferenceCountUtil.release(frame);
+            closeWith(ctx, WebSocketCloseStatus.POLICY_VIOLATION);
+        }
+
+        private void closeWith(ChannelHandlerContext ctx, WebSocketCloseStatus status) {
+            // Written from this handler so the close frame itself is not sealed
+            ctx.writeAndFlush(new CloseWebSocketFrame(status)).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * rsync-style delta encoding, so a file that changed in a few places is synced by sending only
+ * those places.
+ *
+ * <p>The side holding the old copy describes it as a {@link Signature}: per block of the file, a
+ * weak rolling checksum and the first {@value #STRONG_BYTES} bytes of its SHA-256. Blocks are
+ * hashed in parallel, a few megabytes of the file per task on a pool with one thread per core.
+ * The side holding the new copy slides a block-sized window over it a byte at a time. The weak
+ * checksum rolls along in constant time per byte, and only a window whose weak checksum appears
+ * in the signature is hashed to confirm the match. Matches become copy instructions and the
+ * rest literal bytes. The delta ends with the SHA-256 of the new file, which {@link #patch}
+ * checks once it has rebuilt it.
+ *
+ * <p>Both formats are big-endian. A signature is a magic number, the file length (long), the
+ * block size (int) and the block count (int), then per block the weak checksum (int) and the
+ * strong one. A delta is a magic number, the new length (long) and the block size (int), then
+ * operations: {@code COPY} first block (int) and count (int), {@code LITERAL} length (int) and
+ * bytes, and {@code END} with the SHA-256 of the result.
+ */
+public final class DeltaSync {
+
+    /**
+     * A signature or delta that is malformed, or a delta that did not rebuild the file it was
+     * made from.
+     */
+    public static final class DeltaException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DeltaException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What a delta holds: how much of the new file it copies from the old one and how much it
+     * carries itself.
+     */
+    public record Delta(long length, long literalBytes, long copiedBytes, String sha256) {
+    }
+
+    static final int STRONG_BYTES = 16;
+    static final int MIN_BLOCK_SIZE = 2 * 1024;
+    static final int MAX_BLOCK_SIZE = 128 * 1024;
+    private static final int SIGNATURE_MAGIC = 0x50555331;
+    private static final int DELTA_MAGIC = 0x50554431;
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_LITERAL = 2;
+    private static final int MAX_LITERAL = 64 * 1024;
+    // Enough for a 2 TB file at the largest block size
+    private static final int MAX_BLOCKS = 1 << 24;
+    // Arrays for a signature start this big and grow as its blocks arrive
+    private static final int INITIAL_BLOCKS = 1024;
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int READ_BUFFER = 1024 * 1024;
+    // CPU-bound, so platform threads, one per core
+    private static final ExecutorService HASHERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), Thread.ofPlatform().daemon().name("sync-hash-", 0).factory());
+
+    private DeltaSync() {
+    }
+
+    /**
+     * Block size for a file of this length: about its square root, as rsync picks, so that both
+     * the signature and the bytes resent around a change stay small.
+     */
+    static int blockSize(long length) {
+        long size = ((long) Math.sqrt(length) + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * The rsync checksum of a block: the sum of its bytes in the low half and the sum of the
+     * running sums in the high half, each modulo 2^16.
+     */
+    static int checksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    /**
+     * Block checksums of a file, for the other side to make a delta against.
+     */
+    public static final class Signature {
+
+        private final long length;
+        private final int blockSize;
+        private final int[] weak;
+        private final byte[] strong;
+
+        Signature(long length, int blockSize, int[] weak, byte[] strong) {
+            this.length = length;
+            this.blockSize = blockSize;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        /**
+         * The signature of a file that does not exist yet; a delta against it is all literal.
+         */
+        public static Signature empty() {
+            return new Signature(0, MIN_BLOCK_SIZE, new int[0], new byte[0]);
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getBlockCount() {
+            return weak.length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(SIGNATURE_MAGIC);
+            data.writeLong(length);
+            data.writeInt(blockSize);
+            data.writeInt(weak.length);
+            for (int i = 0; i < weak.length; i++) {
+                data.writeInt(weak[i]);
+                data.write(strong, i * STRONG_BYTES, STRONG_BYTES);
+            }
+            data.flush();
+        }
+
+        public static Signature readFrom(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != SIGNATURE_MAGIC) {
+                throw new DeltaException("Not a signature");
+            }
+            long length = data.readLong();
+            int blockSize = data.readInt();
+            int count = data.readInt();
+            if (length < 0 || blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE
+                    || count < 0 || count > MAX_BLOCKS || count != (length + blockSize - 1) / blockSize) {
+                throw new DeltaException("Invalid signature header");
+            }
+            // The count is the sender's word, so memory follows the blocks actually sent
+            int[] weak = new int[Math.min(count, INITIAL_BLOCKS)];
+            byte[] strong = new byte[weak.length * STRONG_BYTES];
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (i == weak.length) {
+                        int capacity = (int) Math.min(count, 2L * weak.length);
+                        weak = Arrays.copyOf(weak, capacity);
+                        strong = Arrays.copyOf(strong, capacity * STRONG_BYTES);
+                    }
+                    weak[i] = data.readInt();
+                    data.readFully(strong, i * STRONG_BYTES, STRONG_BYTES);
+                }
+            } catch (EOFException e) {
+                throw new DeltaException("Signature ends before its " + count + " blocks");
+            }
+            return new Signature(length, blockSize, weak, strong);
+        }
+
+        int blockLength(int block) {
+            return (int) Math.min(blockSize, length - (long) block * blockSize);
+        }
+
+        boolean strongEquals(int block, byte[] hash) {
+            return Arrays.equals(strong, block * STRONG_BYTES, (block + 1) * STRONG_BYTES, hash, 0, STRONG_BYTES);
+        }
+    }
+
+    /**
+     * Computes the signature of a file, hashing its segments in parallel.
+     */
+    public static Signature signature(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            int blockSize = blockSize(length);
+            int count = (int) ((length + blockSize - 1) / blockSize);
+            int[] weak = new int[count];
+            byte[] strong = new byte[count * STRONG_BYTES];
+            int blocksPerSegment = Math.max(1, SEGMENT_BYTES / blockSize);
+            if (count <= blocksPerSegment) {
+                hashBlocks(channel, length, blockSize, 0, count, weak, strong);
+                return new Signature(length, blockSize, weak, strong);
+            }
+            List<Future<Void>> segments = new ArrayList<>();
+            for (int first = 0; first < count; first += blocksPerSegment) {
+                int from = first;
+                int blocks = Math.min(blocksPerSegment, count - first);
+                segments.add(HASHERS.submit(() -> {
+                    hashBlocks(channel, length, blockSize, from, blocks, weak, strong);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> segment : segments) {
+                    segment.get();
+                }
+            } catch (InterruptedException e) {
+                segments.forEach(segment -> segment.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing " + file);
+            } catch (ExecutionException e) {
+                segments.forEach(segment -> segment.cancel(true));
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+            return new Signature(length, blockSize, weak, strong);
+        }
+    }
+
+    // Reads the blocks with positional reads, so segments share the channel
+    private static void hashBlocks(FileChannel channel, long length, int blockSize, int first, int blocks,
+                                   int[] weak, byte[] strong) throws IOException {
+        long start = (long) first * blockSize;
+        int size = (int) Math.min((long) blocks * blockSize, length - start);
+        byte[] data = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("File shrank while hashing");
+            }
+        }
+        MessageDigest digest = ContentIndex.newDigest();
+        byte[] hash = new byte[32];
+        for (int i = 0; i < blocks; i++) {
+            int offset = i * blockSize;
+            int n = Math.min(blockSize, size - offset);
+            weak[first + i] = checksum(data, offset, n);
+            digest.update(data, offset, n);
+            try {
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            System.arraycopy(hash, 0, strong, (first + i) * STRONG_BYTES, STRONG_BYTES);
+        }
+    }
+
+    /**
+     * Writes the delta that turns the file {@code basis} describes into {@code file}.
+     */
+    public static Delta delta(Path file, Signature basis, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return new Encoder(in, Files.size(file), basis, out).encode();
+        }
+    }
+
+    /**
+     * Rebuilds a file into {@code target} from {@code basis}, which may be null or missing, and
+     * a delta made against the basis's signature. Returns the SHA-256 of the result.
+     *
+     * @throws DeltaException if the delta is malformed or the result is not what it describes
+     */
+    public static String patch(Path basis, InputStream delta, Path target) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+        if (in.readInt() != DELTA_MAGIC) {
+            throw new DeltaException("Not a delta");
+        }
+        long length = in.readLong();
+        int blockSize = in.readInt();
+        if (length < 0 || blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new DeltaException("Invalid delta header");
+        }
+        MessageDigest digest = ContentIndex.newDigest();
+        byte[] buffer = new byte[Math.max(MAX_LITERAL, 256 * 1024)];
+        long written = 0;
+        try (FileChannel base = basis != null && Files.isRegularFile(basis)
+                ? FileChannel.open(basis, StandardOpenOption.READ) : null;
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long baseLength = base != null ? base.size() : 0;
+            while (true) {
+                int op = in.readUnsignedByte();
+                if (op == OP_END) {
+                    break;
+                }
+                long count;
+                if (op == OP_COPY) {
+                    long first = in.readInt();
+                    int blocks = in.readInt();
+                    long offset = first * blockSize;
+                    if (first < 0 || blocks <= 0 || offset + (long) (blocks - 1) * blockSize >= baseLength) {
+                        throw new DeltaException("Copy past the end of the basis");
+                    }
+                    count = Math.min((long) blocks * blockSize, baseLength - offset);
+                    checkLength(written + count, length);
+                    for (long done = 0; done < count; ) {
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, count - done));
+                        while (chunk.hasRemaining()) {
+                            if (base.read(chunk, offset + done + chunk.position()) < 0) {
+                                throw new IOException("Basis shrank while patching");
+                            }
+                        }
+                        digest.update(buffer, 0, chunk.limit());
+                        writeFully(out, ByteBuffer.wrap(buffer, 0, chunk.limit()));
+                        done += chunk.limit();
+                    }
+                } else if (op == OP_LITERAL) {
+                    int n = in.readInt();
+                    if (n <= 0 || n > MAX_LITERAL) {
+                        throw new DeltaException("Invalid literal length " + n);
+                    }
+                    count = n;
+                    checkLength(written + count, length);
+                    in.readFully(buffer, 0, n);
+                    digest.update(buffer, 0, n);
+                    writeFully(out, ByteBuffer.wrap(buffer, 0, n));
+                } else {
+                    throw new DeltaException("Unknown delta operation " + op);
+                }
+                written += count;
+            }
+            byte[] expected = new byte[32];
+            in.readFully(expected);
+            if (written != length || !MessageDigest.isEqual(expected, digest.digest())) {
+                throw new DeltaException("Patched file does not match the delta's SHA-256");
+            }
+            out.force(false);
+            return ContentIndex.toHex(expected);
+        }
+    }
+
+    private static void checkLength(long written, long length) throws DeltaException {
+        if (written > length) {
+            throw new DeltaException("Delta produces more than its declared " + length + " bytes");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // Slides a window over the new file and writes the delta; one instance per file
+    private static final class Encoder {
+
+        private final InputStream in;
+        private final long length;
+        private final Signature basis;
+        private final DataOutputStream out;
+        private final int blockSize;
+        // Weak checksum in the high half and block index in the low, sorted
+        private final long[] index;
+        // One bit per 16-bit tag of the weak checksums present, to skip most windows cheaply
+        private final long[] tags = new long[1024];
+        private final MessageDigest fileDigest = ContentIndex.newDigest();
+        private final MessageDigest blockDigest = ContentIndex.newDigest();
+        private final byte[] hash = new byte[32];
+        private final byte[] buf;
+        private int pos;
+        private int end;
+        // Start of the bytes not yet matched, which go out as a literal
+        private int literal;
+        private boolean eof;
+        private int copyStart = -1;
+        private int copyCount;
+        private long literalBytes;
+        private long copiedBytes;
+
+        Encoder(InputStream in, long length, Signature basis, OutputStream out) {
+            this.in = in;
+            this.length = length;
+            this.basis = basis;
+            this.out = new DataOutputStream(out);
+            this.blockSize = basis.getBlockCount() > 0 ? basis.blockSize : blockSize(length);
+            this.buf = new byte[Math.max(READ_BUFFER, MAX_LITERAL + 2 * blockSize)];
+            // A short last block is only matched at the very end of the file
+            int full = basis.length % basis.blockSize == 0 ? basis.getBlockCount() : basis.getBlockCount() - 1;
+            index = new long[full];
+            for (int i = 0; i < full; i++) {
+                index[i] = ((long) basis.weak[i] << 32) | i;
+                int tag = tag(basis.weak[i]);
+                tags[tag >>> 6] |= 1L << tag;
+            }
+            Arrays.sort(index);
+        }
+
+        Delta encode() throws IOException {
+            out.writeInt(DELTA_MAGIC);
+            out.writeLong(length);
+            out.writeInt(blockSize);
+            int a = 0;
+            int b = 0;
+            boolean rolling = false;
+            while (true) {
+                if (end - pos <= blockSize) {
+                    fill();
+                }
+                if (end - pos < blockSize) {
+                    break;
+                }
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        int x = buf[pos + i] & 0xff;
+                        a += x;
+                        b += (blockSize - i) * x;
+                    }
+                    rolling = true;
+                }
+                int block = find((a & 0xffff) | (b << 16), blockSize);
+                if (block >= 0) {
+                    copy(block, blockSize);
+                    rolling = false;
+                    continue;
+                }
+                if (pos - literal >= MAX_LITERAL) {
+                    flushLiteral();
+                }
+                if (pos + blockSize >= end) {
+                    // At the end of the file, with no next byte to roll in
+                    pos++;
+                    rolling = false;
+                    continue;
+                }
+                int outByte = buf[pos] & 0xff;
+                a += (buf[pos + blockSize] & 0xff) - outByte;
+                b += a - blockSize * outByte;
+                pos++;
+            }
+            int tail = end - pos;
+            int last = basis.getBlockCount() - 1;
+            if (tail > 0 && last >= 0 && basis.blockLength(last) == tail
+                    && checksum(buf, pos, tail) == basis.weak[last] && strongMatches(last, tail)) {
+                copy(last, tail);
+            }
+            pos = end;
+            flushLiteral();
+            flushCopy();
+            out.writeByte(OP_END);
+            byte[] sha256 = fileDigest.digest();
+            out.write(sha256);
+            out.flush();
+            return new Delta(literalBytes + copiedBytes, literalBytes, copiedBytes, ContentIndex.toHex(sha256));
+        }
+
+        private static int tag(int weak) {
+            return (weak ^ (weak >>> 16)) & 0xffff;
+        }
+
+        // The basis block matching the window at pos, preferring the one after the last copy
+        private int find(int weak, int size) throws IOException {
+            int tag = tag(weak);
+            if ((tags[tag >>> 6] & (1L << tag)) == 0) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(index, (long) weak << 32);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            if (i >= index.length || (int) (index[i] >>> 32) != weak) {
+                return -1;
+            }
+            blockDigest.update(buf, pos, size);
+            try {
+                blockDigest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            int found = -1;
+            for (; i < index.length && (int) (index[i] >>> 32) == weak; i++) {
+                int block = (int) index[i];
+                if (basis.strongEquals(block, hash)) {
+                    if (block == copyStart + copyCount) {
+                        return block;
+                    }
+                    if (found < 0) {
+                        found = block;
+                    }
+                }
+            }
+            return found;
+        }
+
+        private boolean strongMatches(int block, int size) {
+            blockDigest.update(buf, pos, size);
+            return basis.strongEquals(block, blockDigest.digest());
+        }
+
+        private void copy(int block, int size) throws IOException {
+            flushLiteral();
+            if (copyStart >= 0 && block != copyStart + copyCount) {
+                flushCopy();
+            }
+            if (copyStart < 0) {
+                copyStart = block;
+            }
+            copyCount++;
+            fileDigest.update(buf, pos, size);
+            copiedBytes += size;
+            pos += size;
+            literal = pos;
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyStart >= 0) {
+                out.writeByte(OP_COPY);
+                out.writeInt(copyStart);
+                out.writeInt(copyCount);
+                copyStart = -1;
+                copyCount = 0;
+            }
+        }
+
+        private void flushLiteral() throws IOException {
+            if (pos > literal) {
+                flushCopy();
+            }
+            while (pos > literal) {
+                int n = Math.min(pos - literal, MAX_LITERAL);
+                out.writeByte(OP_LITERAL);
+                out.writeInt(n);
+                out.write(buf, literal, n);
+                fileDigest.update(buf, literal, n);
+                literalBytes += n;
+                literal += n;
+            }
+        }
+
+        // Keeps the unsent literal and the window, and reads as much as fits after them
+        private void fill() throws IOException {
+            if (eof) {
+                return;
+            }
+            if (literal > 0) {
+                System.arraycopy(buf, literal, buf, 0, end - literal);
+                pos -= literal;
+                end -= literal;
+                literal = 0;
+            }
+            while (end < buf.length) {
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    eof = true;
+                    return;
+                }
+                end += n;
+            }
+        }
+    }
+}
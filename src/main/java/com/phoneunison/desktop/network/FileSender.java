@@ -0,0 +1,493 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * HTTP client that pushes files to the phone's upload server.
+ *
+ * <p>It runs on the server's event loops. The body is written as {@link DefaultFileRegion}s of
+ * up to {@value #SLICE_BYTES} bytes, so the kernel copies the file to the socket (sendfile on
+ * epoll, {@code transferTo} on NIO) without it passing through the heap. Between slices the
+ * transfer's {@link TransferControl} is consulted: a paused transfer holds its connection until
+ * resumed, a cancelled one closes it, and a bandwidth cap delays the next slice, which is then at
+ * most a quarter second of the cap. Connections are kept alive and reused by the next transfer to
+ * the same phone; if a reused connection turns out to be closed before the phone answered, the
+ * transfer is retried once on a new one. The phone
+ * may answer before the body is through, e.g. when it already has a file with the declared
+ * SHA-256; the rest is then not sent and the connection is closed rather than reused.
+ *
+ * <p>If the phone accepts compressed uploads, a file that {@link TransferCompression} finds
+ * worth it is sent deflated instead. Those slices are read and deflated on a virtual thread and
+ * written as chunks, giving up the zero-copy path for fewer bytes on the wire.
+ */
+public final class FileSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSender.class);
+
+    private static final AttributeKey<Transfer> TRANSFER = AttributeKey.valueOf("fileSender.transfer");
+    private static final long SLICE_BYTES = 4 * 1024 * 1024;
+    private static final int DEFLATE_SLICE_BYTES = 1024 * 1024;
+    private static final long MIN_SLICE_BYTES = 16 * 1024;
+    private static final ExecutorService ENCODER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("file-sender-deflate-", 0).factory());
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private final Bootstrap bootstrap;
+    private final Map<InetSocketAddress, Queue<Channel>> idle = new ConcurrentHashMap<>();
+
+    public FileSender(EventLoopGroup group, Class<? extends SocketChannel> channelClass) {
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(channelClass)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(64 * 1024));
+                        ch.pipeline().addLast(new ResponseHandler());
+                    }
+                });
+    }
+
+    /**
+     * Sends a file to {@code http://host:port/upload}. The future completes once the phone has
+     * answered 200, or fails with a {@link CancellationException} if the transfer was cancelled.
+     *
+     * @param compress whether the phone accepts deflated bodies; if so, the start of the file is
+     *                 read here to decide, so the caller should not be an event loop
+     */
+    public CompletableFuture<Void> send(String host, int port, File file, String sha256, boolean compress,
+                                        TransferControl control) {
+        String coding = compress ? TransferCompression.choose(file) : TransferCompression.IDENTITY;
+        Transfer transfer = new Transfer(new InetSocketAddress(host, port), file, sha256, coding,
+                control != null ? control : TransferControl.NONE);
+        start(transfer, true);
+        return transfer.result;
+    }
+
+    /**
+     * Closes the kept-alive connections. Transfers in progress are left to finish.
+     */
+    public void close() {
+        for (Queue<Channel> channels : idle.values()) {
+            Channel channel;
+            while ((channel = channels.poll()) != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private void start(Transfer transfer, boolean mayReuse) {
+        Channel reused = mayReuse ? pollIdle(transfer.address) : null;
+        if (reused != null) {
+            reused.eventLoop().execute(() -> transmit(reused, transfer, true));
+            return;
+        }
+        bootstrap.connect(transfer.address).addListener((ChannelFuture future) -> {
+            if (future.isSuccess()) {
+                transmit(future.channel(), transfer, false);
+            } else {
+                transfer.result.completeExceptionally(future.cause());
+            }
+        });
+    }
+
+    private void transmit(Channel channel, Transfer transfer, boolean reused) {
+        long length = transfer.file.length();
+        if (!transfer.file.isFile()) {
+            offerIdle(transfer.address, channel);
+            transfer.result.completeExceptionally(new FileNotFoundException(transfer.file.getPath()));
+            return;
+        }
+        transfer.reused = reused;
+        transfer.length = length;
+        transfer.position = 0;
+        transfer.acquired = 0;
+        transfer.wireBytes = 0;
+        transfer.startedAt = System.nanoTime();
+        transfer.control.started(0, length);
+        channel.attr(TRANSFER).set(transfer);
+
+        boolean deflate = transfer.coding.equals(TransferCompression.DEFLATE);
+        if (deflate) {
+            transfer.deflater = new Deflater(TransferCompression.LEVEL);
+        }
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+                "/upload?filename=" + URLEncoder.encode(transfer.file.getName(), StandardCharsets.UTF_8)
+                        + "&total=" + length);
+        request.headers()
+                .set(HttpHeaderNames.HOST, transfer.address.getHostString() + ":" + transfer.address.getPort())
+                .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_OCTET_STREAM)
+                .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        if (deflate) {
+            // Its compressed length is only known once it is sent
+            request.headers().set(HttpHeaderNames.CONTENT_ENCODING, TransferCompression.DEFLATE);
+            HttpUtil.setTransferEncodingChunked(request, true);
+        } else {
+            request.headers().set(HttpHeaderNames.CONTENT_LENGTH, length);
+        }
+        if (transfer.sha256 != null) {
+            request.headers().set(BasicFileUploadHandler.SHA256_HEADER, transfer.sha256);
+        }
+        channel.write(request);
+        writeNext(channel, transfer);
+    }
+
+    // Writes the next slice of the body, or waits for the user or the bandwidth cap
+    private void writeNext(Channel channel, Transfer transfer) {
+        TransferControl control = transfer.control;
+        if (channel.attr(TRANSFER).get() != transfer) {
+            return;
+        }
+        if (control.isCancelled()) {
+            failed(channel, new CancellationException("Transfer cancelled"));
+            channel.close();
+            return;
+        }
+        if (control.isPaused()) {
+            transfer.waiting = true;
+            control.onChange(() -> channel.eventLoop().execute(() -> wake(channel, transfer)));
+            if (!control.isPaused()) {
+                wake(channel, transfer);
+            }
+            return;
+        }
+        if (transfer.deflater != null) {
+            deflateNext(channel, transfer);
+            return;
+        }
+        long count = Math.min(sliceBytes(control, SLICE_BYTES), transfer.length - transfer.position);
+        if (count == 0) {
+            channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            return;
+        }
+        // A slice taken from the bucket before a pause is not paid for again
+        long delay = 0;
+        if (transfer.acquired < count) {
+            delay = control.acquire(count - transfer.acquired);
+            transfer.acquired = count;
+        }
+        if (delay > 0) {
+            channel.eventLoop().schedule(() -> writeSlice(channel, transfer, count), delay, TimeUnit.NANOSECONDS);
+        } else {
+            writeSlice(channel, transfer, count);
+        }
+    }
+
+    /**
+     * At most a quarter second of the transfer's rate cap, so a capped transfer moves in steps the
+     * bucket can pace and a pause or cancel takes effect within that time.
+     */
+    private static long sliceBytes(TransferControl control, long max) {
+        long rate = control.getRateLimit();
+        return rate > 0 ? Math.max(MIN_SLICE_BYTES, Math.min(max, rate / 4)) : max;
+    }
+
+    private void writeSlice(Channel channel, Transfer transfer, long count) {
+        if (channel.attr(TRANSFER).get() != transfer) {
+            return;
+        }
+        TransferControl control = transfer.control;
+        if (control.isCancelled() || control.isPaused()) {
+            // Changed while the slice waited for the bucket
+            writeNext(channel, transfer);
+            return;
+        }
+        transfer.acquired = Math.max(0, transfer.acquired - count);
+        // The region opens the file itself and closes it once written
+        channel.writeAndFlush(new DefaultFileRegion(transfer.file, transfer.position, count))
+                .addListener((ChannelFuture future) -> {
+                    if (!future.isSuccess()) {
+                        failed(channel, future.cause());
+                        channel.close();
+                        return;
+                    }
+                    transfer.position += count;
+                    transfer.control.transferred(count);
+                    writeNext(channel, transfer);
+                });
+    }
+
+    // Deflates the next slice off the event loop; the last one also finishes the stream
+    private void deflateNext(Channel channel, Transfer transfer) {
+        int count = (int) Math.min(sliceBytes(transfer.control, DEFLATE_SLICE_BYTES),
+                transfer.length - transfer.position);
+        if (transfer.deflater.finished()) {
+            transfer.deflater.end();
+            channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            return;
+        }
+        long position = transfer.position;
+        boolean last = position + count == transfer.length;
+        Deflater deflater = transfer.deflater;
+        ENCODER.execute(() -> {
+            ByteBuf encoded;
+            try {
+                encoded = deflate(channel, transfer.file, deflater, position, count, last);
+            } catch (IOException | RuntimeException e) {
+                // Also a deflater ended under it, once the transfer has left the channel
+                channel.eventLoop().execute(() -> {
+                    failed(channel, e);
+                    channel.close();
+                });
+                return;
+            }
+            channel.eventLoop().execute(() -> {
+                long delay = transfer.control.acquire(encoded.readableBytes());
+                if (delay > 0) {
+                    channel.eventLoop().schedule(() -> writeDeflated(channel, transfer, encoded, count),
+                            delay, TimeUnit.NANOSECONDS);
+                } else {
+                    writeDeflated(channel, transfer, encoded, count);
+                }
+            });
+        });
+    }
+
+    private static ByteBuf deflate(Channel channel, File source, Deflater deflater, long position, int count,
+                                   boolean last) throws IOException {
+        byte[] input = new byte[count];
+        try (FileChannel file = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException(source + " shrank while being sent");
+                }
+            }
+        }
+        deflater.setInput(input);
+        if (last) {
+            deflater.finish();
+        }
+        ByteBuf out = channel.alloc().heapBuffer(Math.max(256, count / 2));
+        byte[] scratch = new byte[64 * 1024];
+        while (last ? !deflater.finished() : !deflater.needsInput()) {
+            int n = deflater.deflate(scratch);
+            out.writeBytes(scratch, 0, n);
+        }
+        return out;
+    }
+
+    private void writeDeflated(Channel channel, Transfer transfer, ByteBuf encoded, int count) {
+        if (channel.attr(TRANSFER).get() != transfer) {
+            encoded.release();
+            return;
+        }
+        if (transfer.control.isCancelled()) {
+            // Cancelled while the slice waited for the bucket; a pause waits for the next one
+            encoded.release();
+            writeNext(channel, transfer);
+            return;
+        }
+        int size = encoded.readableBytes();
+        channel.writeAndFlush(new DefaultHttpContent(encoded)).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                failed(channel, future.cause());
+                channel.close();
+                return;
+            }
+            transfer.position += count;
+            transfer.wireBytes += size;
+            transfer.control.transferred(count);
+            transfer.control.encoded(transfer.coding, transfer.position, transfer.wireBytes);
+            writeNext(channel, transfer);
+        });
+    }
+
+    private void wake(Channel channel, Transfer transfer) {
+        if (transfer.waiting) {
+            transfer.waiting = false;
+            writeNext(channel, transfer);
+        }
+    }
+
+    // Ends the channel's transfer, once, with an error or a retry on a new connection
+    private void failed(Channel channel, Throwable cause) {
+        Transfer transfer = channel.attr(TRANSFER).getAndSet(null);
+        if (transfer == null) {
+            return;
+        }
+        // A retry starts a new stream with a deflater of its own
+        endDeflater(transfer);
+        if (transfer.reused && !transfer.retried && !(cause instanceof CancellationException)) {
+            // The phone most likely closed the idle connection while it sat in the pool
+            transfer.retried = true;
+            logger.debug("Kept-alive connection to {} failed, retrying on a new one", transfer.address);
+            start(transfer, false);
+            return;
+        }
+        transfer.result.completeExceptionally(cause);
+    }
+
+    // Frees the deflater's native memory now rather than when it is collected; ending it twice is harmless
+    private static void endDeflater(Transfer transfer) {
+        if (transfer.deflater != null) {
+            transfer.deflater.end();
+        }
+    }
+
+    private Channel pollIdle(InetSocketAddress address) {
+        Queue<Channel> channels = idle.get(address);
+        if (channels == null) {
+            return null;
+        }
+        Channel channel;
+        while ((channel = channels.poll()) != null) {
+            if (channel.isActive()) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    private void offerIdle(InetSocketAddress address, Channel channel) {
+        if (!channel.isActive()) {
+            return;
+        }
+        Queue<Channel> channels = idle.computeIfAbsent(address, key -> new ConcurrentLinkedQueue<>());
+        channels.add(channel);
+        channel.closeFuture().addListener(future -> channels.remove(channel));
+    }
+
+    private final class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            Transfer transfer = ctx.channel().attr(TRANSFER).getAndSet(null);
+            if (transfer == null) {
+                return;
+            }
+            // The phone may answer before the body is all sent, as it does for a duplicate
+            endDeflater(transfer);
+            if (HttpUtil.isKeepAlive(response) && transfer.position == transfer.length) {
+                offerIdle(transfer.address, ctx.channel());
+            } else {
+                ctx.close();
+            }
+            if (!HttpResponseStatus.OK.equals(response.status())) {
+                transfer.result.completeExceptionally(new IOException("Phone answered " + response.status()));
+                return;
+            }
+            if (response.headers().contains(BasicFileUploadHandler.DUPLICATE_HEADER, "true", true)) {
+                logger.info("{} is already on {}; nothing sent", transfer.file.getName(), transfer.address);
+                transfer.result.complete(null);
+                return;
+            }
+            long wireBytes = transfer.deflater != null ? transfer.wireBytes : transfer.length;
+            transfer.control.encoded(transfer.coding, transfer.length, wireBytes);
+            double millis = Math.max(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - transfer.startedAt) / 1e3, 1);
+            logger.info("Sent {} to {} ({} bytes in {} ms, {} MB/s, {} bytes on the wire as {}, {} connection)",
+                    transfer.file.getName(), transfer.address, transfer.length, Math.round(millis),
+                    String.format("%.1f", transfer.length / 1e3 / millis), wireBytes, transfer.coding,
+                    transfer.reused ? "reused" : "new");
+            transfer.result.complete(null);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            failed(ctx.channel(), new ClosedChannelException());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.debug("File sender connection error", cause);
+            failed(ctx.channel(), cause);
+            ctx.close();
+        }
+    }
+
+    private static final class Transfer {
+        final InetSocketAddress address;
+        final File file;
+        final String sha256;
+        final String coding;
+        final TransferControl control;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        // Touched only on the event loop of the channel carrying the transfer
+        boolean reused;
+        boolean retried;
+        // Paused, with a wake-up registered
+        boolean waiting;
+        long length;
+        long position;
+        // Taken from the bucket for the next slice, which has not been written yet
+        long acquired;
+        long startedAt;
+        // Set while the body is sent deflated
+        Deflater deflater;
+        long wireBytes;
+
+        Transfer(InetSocketAddress address, File file, String sha256, String coding, TransferControl control) {
+            this.address = address;
+            this.file = file;
+            this.sha256 = sha256;
+            this.coding = coding;
+            this.control = control;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Serves folder sync under {@code /sync}, so a folder kept on both the phone and the PC is
+ * brought up to date by sending only the blocks that changed (see {@link DeltaSync}).
+ *
+ * <p>The phone drives a sync. {@code GET /sync/manifest} lists the files in the sync folder as
+ * {@code size mtime path} lines, which it compares with its own copy. For a file that is newer on
+ * the phone it fetches {@code GET /sync/signature?path=}, makes a delta against it and posts that
+ * to {@code /sync/patch?path=&mtime=}; the file is rebuilt next to the old one, checked against
+ * the delta's SHA-256 and moved into place in one rename. For a file that is newer on the PC it
+ * posts its own signature to {@code /sync/delta?path=} and gets back the delta to apply. A file
+ * one side lacks is synced against an empty signature. Deletions are not mirrored.
+ *
+ * <p>Only a phone that is connected and paired may sync; requests from any other host get
+ * 403. Paths are relative to the sync folder, with {@code /} separators; anything resolving
+ * outside it, including through a link inside it, is refused. Request bodies are spooled to a temporary file off the event loop, and
+ * reads pause while the disk falls behind.
+ */
+public class FolderSyncHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderSyncHandler.class);
+    private static final String SYNC_URI = "/sync/";
+    private static final String TEMP_SUFFIX = ".sync-tmp";
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final Path root;
+    private final Predicate<InetAddress> pairedHosts;
+
+    // Set while the current request belongs to this handler; touched on the event loop only
+    private boolean isSyncing;
+    private String action;
+    private boolean isPaired;
+    private QueryStringDecoder query;
+    private Path spool;
+    private FileChannel spoolChannel;
+    private CompletableFuture<Void> spooled;
+    private long pendingBytes;
+    private boolean readsPaused;
+
+    /**
+     * @param pairedHosts tells whether a remote address belongs to a paired phone
+     */
+    public FolderSyncHandler(Path root, Predicate<InetAddress> pairedHosts) {
+        this.root = root.toAbsolutePath().normalize();
+        this.pairedHosts = pairedHosts;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (msg instanceof HttpRequest request && request.uri().startsWith(SYNC_URI)) {
+            isSyncing = true;
+            startRequest(ctx, request);
+            return;
+        }
+        if (!isSyncing) {
+            // The upload handler and those after it release what they are given
+            ctx.fireChannelRead(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        if (msg instanceof HttpContent content) {
+            ByteBuf buf = content.content();
+            if (buf.isReadable() && spooled != null) {
+                spool(ctx, buf.retain());
+            }
+            if (msg instanceof LastHttpContent) {
+                isSyncing = false;
+                finishRequest(ctx);
+            }
+        }
+    }
+
+    private void startRequest(ChannelHandlerContext ctx, HttpRequest request) {
+        query = new QueryStringDecoder(request.uri());
+        action = query.path().substring(SYNC_URI.length());
+        spooled = null;
+        isPaired = ctx.channel().remoteAddress() instanceof InetSocketAddress remote
+                && remote.getAddress() != null && pairedHosts.test(remote.getAddress());
+        if (!isPaired) {
+            // Nothing of the body is kept
+            action = null;
+        } else if (request.method() == HttpMethod.POST && (action.equals("patch") || action.equals("delta"))) {
+            try {
+                spool = Files.createTempFile("phoneunison-sync", ".bin");
+                spoolChannel = FileChannel.open(spool, StandardOpenOption.WRITE);
+                spooled = CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                logger.error("Could not spool sync request", e);
+                action = null;
+            }
+        } else if (request.method() != HttpMethod.GET || !(action.equals("manifest") || action.equals("signature"))) {
+            action = null;
+        }
+    }
+
+    // Appends a chunk of the body to the spool file, in order, off the event loop
+    private void spool(ChannelHandlerContext ctx, ByteBuf chunk) {
+        int size = chunk.readableBytes();
+        FileChannel channel = spoolChannel;
+        pendingBytes += size;
+        if (pendingBytes > MAX_PENDING_BYTES && !readsPaused) {
+            readsPaused = true;
+            ctx.channel().config().setAutoRead(false);
+        }
+        spooled = spooled.handleAsync((ignored, error) -> {
+            try {
+                if (error != null) {
+                    throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                }
+                for (ByteBuffer buffer : chunk.nioBuffers()) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                chunk.release();
+                ctx.executor().execute(() -> spooled(ctx, size));
+            }
+        }, UploadWriter.EXECUTOR);
+    }
+
+    private void spooled(ChannelHandlerContext ctx, int size) {
+        pendingBytes -= size;
+        if (readsPaused && pendingBytes <= MAX_PENDING_BYTES / 2) {
+            readsPaused = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private void finishRequest(ChannelHandlerContext ctx) {
+        String path = parameter("path");
+        Path file = path != null ? resolve(path) : null;
+        if (!isPaired) {
+            logger.warn("Sync request from {} refused, it is not a paired phone", ctx.channel().remoteAddress());
+            sendText(ctx, HttpResponseStatus.FORBIDDEN, "Not paired");
+            return;
+        }
+        if (action == null) {
+            sendText(ctx, HttpResponseStatus.NOT_FOUND, "Unknown sync request");
+            return;
+        }
+        switch (action) {
+            case "manifest" -> respondLater(ctx, CompletableFuture.supplyAsync(this::manifest, UploadWriter.EXECUTOR));
+            case "signature" -> {
+                if (file == null) {
+                    sendText(ctx, HttpResponseStatus.BAD_REQUEST, "Invalid path");
+                    return;
+                }
+                respondLater(ctx, CompletableFuture.supplyAsync(() -> signature(file), UploadWriter.EXECUTOR));
+            }
+            case "patch", "delta" -> {
+                Path body = spool;
+                FileChannel channel = spoolChannel;
+                CompletableFuture<Void> written = spooled.whenComplete((ignored, error) -> closeQuietly(channel));
+                spool = null;
+                spoolChannel = null;
+                spooled = null;
+                if (file == null) {
+                    written.whenComplete((ignored, error) -> deleteQuietly(body));
+                    sendText(ctx, HttpResponseStatus.BAD_REQUEST, "Invalid path");
+                    return;
+                }
+                long mtime = parseLong(parameter("mtime"));
+                boolean patching = action.equals("patch");
+                CompletableFuture<Object> result = written.thenApplyAsync(ignored -> patching
+                        ? patch(file, body, mtime) : delta(file, body), UploadWriter.EXECUTOR);
+                result.whenComplete((ignored, error) -> deleteQuietly(body));
+                respondLater(ctx, result);
+            }
+            default -> throw new IllegalStateException(action);
+        }
+    }
+
+    // Sends what the work produced once it is done, or the error it failed with
+    private void respondLater(ChannelHandlerContext ctx, CompletableFuture<?> work) {
+        work.whenComplete((result, error) -> ctx.executor().execute(() -> {
+            Throwable cause = error;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof FileNotFoundException) {
+                sendText(ctx, HttpResponseStatus.NOT_FOUND, "No such file");
+            } else if (cause instanceof DeltaSync.DeltaException) {
+                logger.warn("Sync request refused: {}", cause.getMessage());
+                sendText(ctx, HttpResponseStatus.BAD_REQUEST, cause.getMessage());
+            } else if (cause != null) {
+                logger.error("Sync request failed", cause);
+                sendText(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Sync failed");
+            } else if (result instanceof FullHttpResponse response) {
+                ctx.writeAndFlush(response);
+            } else if (result instanceof DeltaFile delta) {
+                sendDelta(ctx, delta);
+            }
+        }));
+    }
+
+    private FullHttpResponse manifest() {
+        StringBuilder lines = new StringBuilder();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && !file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                        lines.append(attributes.size()).append(' ')
+                                .append(attributes.lastModifiedTime().toMillis()).append(' ')
+                                .append(root.relativize(file).toString().replace('\\', '/')).append('\n');
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                throw new CompletionException(e);
+            }
+        }
+        return response(HttpResponseStatus.OK, "text/plain; charset=UTF-8",
+                Unpooled.copiedBuffer(lines, StandardCharsets.UTF_8));
+    }
+
+    private FullHttpResponse signature(Path file) {
+        try {
+            checkInsideRoot(file);
+            if (!Files.isRegularFile(file)) {
+                throw new FileNotFoundException(file.toString());
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DeltaSync.signature(file).writeTo(out);
+            return response(HttpResponseStatus.OK, HttpHeaderValues.APPLICATION_OCTET_STREAM.toString(),
+                    Unpooled.wrappedBuffer(out.toByteArray()));
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private FullHttpResponse patch(Path file, Path body, long mtime) {
+        Path temp = file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(body))) {
+            checkInsideRoot(file);
+            Files.createDirectories(file.getParent());
+            long received = Files.size(body);
+            String sha256 = DeltaSync.patch(file, in, temp);
+            if (mtime > 0) {
+                Files.setLastModifiedTime(temp, FileTime.fromMillis(mtime));
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Synced {} from a {} byte delta ({} bytes)", root.relativize(file), received, Files.size(file));
+            FullHttpResponse response = response(HttpResponseStatus.OK, "text/plain",
+                    Unpooled.copiedBuffer("Synced", StandardCharsets.UTF_8));
+            response.headers().set(BasicFileUploadHandler.SHA256_HEADER, sha256);
+            return response;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    private DeltaFile delta(Path file, Path body) {
+        Path out = null;
+        try {
+            checkInsideRoot(file);
+            if (!Files.isRegularFile(file)) {
+                throw new FileNotFoundException(file.toString());
+            }
+            DeltaSync.Signature signature;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(body))) {
+                signature = DeltaSync.Signature.readFrom(in);
+            }
+            out = Files.createTempFile("phoneunison-delta", ".bin");
+            DeltaSync.Delta delta;
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(out))) {
+                delta = DeltaSync.delta(file, signature, stream);
+            }
+            logger.info("Delta for {}: {} of {} bytes sent as literals", root.relativize(file),
+                    delta.literalBytes(), delta.length());
+            return new DeltaFile(out, Files.size(out), delta.sha256());
+        } catch (IOException e) {
+            deleteQuietly(out);
+            throw new CompletionException(e);
+        }
+    }
+
+    private record DeltaFile(Path path, long size, String sha256) {
+    }
+
+    private void sendDelta(ChannelHandlerContext ctx, DeltaFile delta) {
+        if (!ctx.channel().isActive()) {
+            deleteQuietly(delta.path());
+            return;
+        }
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_OCTET_STREAM)
+                .set(HttpHeaderNames.CONTENT_LENGTH, delta.size())
+                .set(BasicFileUploadHandler.SHA256_HEADER, delta.sha256());
+        try {
+            ctx.write(response);
+            if (ctx.pipeline().get(SslHandler.class) == null) {
+                // Zero-copy unless TLS has to see the bytes
+                ctx.write(new DefaultFileRegion(delta.path().toFile(), 0, delta.size()));
+                ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT)
+                        .addListener(future -> deleteQuietly(delta.path()));
+            } else {
+                if (ctx.pipeline().get(ChunkedWriteHandler.class) == null) {
+                    ctx.pipeline().addBefore(ctx.name(), "chunked", new ChunkedWriteHandler());
+                }
+                ctx.writeAndFlush(new HttpChunkedInput(new ChunkedNioFile(delta.path().toFile())))
+                        .addListener(future -> deleteQuietly(delta.path()));
+            }
+        } catch (IOException e) {
+            logger.error("Could not send delta", e);
+            deleteQuietly(delta.path());
+            ctx.close();
+        }
+    }
+
+    /**
+     * The file a request names inside the sync folder, or null if it names none. Links are
+     * followed later, by {@link #checkInsideRoot}, on the thread that touches the file.
+     */
+    private Path resolve(String relative) {
+        if (relative.isEmpty() || relative.endsWith(TEMP_SUFFIX)) {
+            return null;
+        }
+        try {
+            Path resolved = root.resolve(relative.replace('\\', '/')).normalize();
+            return resolved.startsWith(root) && !resolved.equals(root) ? resolved : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Refuses a file whose nearest existing ancestor, itself included, really lies outside the
+     * sync folder once links are followed. Touches the disk, so it runs off the event loop.
+     */
+    private void checkInsideRoot(Path file) throws IOException {
+        if (!Files.exists(root)) {
+            // Nothing in it yet, so nothing can link out of it
+            return;
+        }
+        Path realRoot = root.toRealPath();
+        Path existing = file;
+        while (!Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            existing = existing.getParent();
+        }
+        Path real;
+        try {
+            real = existing.toRealPath();
+        } catch (NoSuchFileException e) {
+            // A link to nowhere
+            throw new DeltaSync.DeltaException("Invalid path");
+        }
+        if (!real.startsWith(realRoot)) {
+            throw new DeltaSync.DeltaException("Invalid path");
+        }
+    }
+
+    private String parameter(String name) {
+        List<String> values = query.parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static FullHttpResponse response(HttpResponseStatus status, String contentType, ByteBuf content) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        return response;
+    }
+
+    private void sendText(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
+        if (ctx.channel().isActive()) {
+            ctx.writeAndFlush(response(status, "text/plain", Unpooled.copiedBuffer(message, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void cleanup() {
+        isSyncing = false;
+        if (spooled != null) {
+            Path body = spool;
+            FileChannel channel = spoolChannel;
+            spooled.whenComplete((ignored, error) -> {
+                closeQuietly(channel);
+                deleteQuietly(body);
+            });
+            spooled = null;
+            spool = null;
+            spoolChannel = null;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}", path, e);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cleanup();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (isSyncing) {
+            logger.error("Sync error", cause);
+            cleanup();
+            ctx.close();
+        } else {
+            super.exceptionCaught(ctx, cause);
+        }
+    }
+}
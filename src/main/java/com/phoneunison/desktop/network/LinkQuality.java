@@ -0,0 +1,105 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.util.AttributeKey;
+
+/**
+ * Round-trip time and jitter estimates for one device link, fed from heartbeats.
+ *
+ * <p>RTT is measured when the phone echoes the timestamp of a desktop heartbeat probe and is
+ * smoothed the way TCP does it (RFC 6298). Jitter follows RFC 3550: the smoothed variation of
+ * one-way transit time between consecutive phone heartbeats, which works even without echoes
+ * because a constant clock offset between the devices cancels out.
+ */
+public final class LinkQuality {
+
+    public static final AttributeKey<LinkQuality> KEY = AttributeKey.valueOf("phoneunison.linkQuality");
+
+    private long samples;
+    private double smoothedRtt;
+    private double rttVariation;
+    private double lastRtt;
+    private double jitter;
+    private long lastTransit;
+    private boolean hasTransit;
+    private long lastHeartbeatAt;
+
+    /**
+     * Records a probe echo: {@code sentAt} is the desktop timestamp the phone sent back.
+     */
+    public synchronized void recordEcho(long sentAt, long now) {
+        double rtt = Math.max(0, now - sentAt);
+        if (samples == 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+        } else {
+            rttVariation += (Math.abs(smoothedRtt - rtt) - rttVariation) / 4;
+            smoothedRtt += (rtt - smoothedRtt) / 8;
+        }
+        lastRtt = rtt;
+        samples++;
+    }
+
+    /**
+     * Records the arrival of a phone heartbeat stamped with the phone's clock.
+     */
+    public synchronized void recordHeartbeat(long senderTimestamp, long now) {
+        lastHeartbeatAt = now;
+        if (senderTimestamp <= 0) {
+            return;
+        }
+        long transit = now - senderTimestamp;
+        if (hasTransit) {
+            jitter += (Math.abs(transit - lastTransit) - jitter) / 16;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+    }
+
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Smoothed RTT in milliseconds, or -1 before the first echo.
+     */
+    public synchronized double getSmoothedRttMillis() {
+        return samples == 0 ? -1 : smoothedRtt;
+    }
+
+    public synchronized double getLastRttMillis() {
+        return samples == 0 ? -1 : lastRtt;
+    }
+
+    public synchronized double getRttVariationMillis() {
+        return rttVariation;
+    }
+
+    public synchronized double getJitterMillis() {
+        return jitter;
+    }
+
+    public synchronized long getLastHeartbeatAt() {
+        return lastHeartbeatAt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("rtt %.1f ms (var %.1f, %d samples), jitter %.1f ms",
+                samples == 0 ? -1 : smoothedRtt, rttVariation, samples, jitter);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects bursts of small messages for one device channel into {@link Message#BATCH} frames.
+ *
+ * <p>Messages are serialized as they are added. The first one starts a short linger window;
+ * whatever arrives within it goes out in one frame, which is sent early once it reaches the
+ * message or byte cap. A message that is alone in its window is sent as a normal frame.
+ *
+ * <p>Pending messages live on the channel's event loop; the counters can be read from any thread.
+ */
+public final class MessageBatcher {
+
+    public static final AttributeKey<MessageBatcher> KEY = AttributeKey.valueOf("phoneunison.messageBatcher");
+
+    /** Capability a phone lists when pairing if it reads BATCH frames. */
+    public static final String CAPABILITY = "batch";
+
+    private final Channel channel;
+    private final BiConsumer<String, WebSocketFrame> sink;
+    private final long lingerNanos;
+    private final int maxMessages;
+    private final int maxBytes;
+
+    private final List<ByteBuf> parts = new ArrayList<>();
+    private String firstType;
+    private int bytes;
+    private ScheduledFuture<?> lingerTask;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong singles = new AtomicLong();
+
+    /**
+     * @param sink receives each frame with the message type it is queued under
+     */
+    public MessageBatcher(Channel channel, BiConsumer<String, WebSocketFrame> sink, int lingerMillis,
+            int maxMessages, int maxBytes) {
+        this.channel = channel;
+        this.sink = sink;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Whether a message type comes in bursts worth batching. Control messages are never held
+     * back, and clipboard updates keep their own coalescing in the {@link OutboundQueue}.
+     */
+    public static boolean isBatchable(String type) {
+        return Message.NOTIFICATION.equals(type) || Message.NOTIFICATION_ACTION.equals(type);
+    }
+
+    public void add(Message message) {
+        ByteBuf part = MessageCodec.encodeContent(channel, message);
+        pending.incrementAndGet();
+        if (channel.eventLoop().inEventLoop()) {
+            offer(message.getType(), part);
+        } else {
+            channel.eventLoop().execute(() -> offer(message.getType(), part));
+        }
+    }
+
+    /**
+     * Sends whatever is waiting now, so that a message that is not batched does not overtake it.
+     */
+    public void flush() {
+        if (pending.get() == 0) {
+            return;
+        }
+        if (channel.eventLoop().inEventLoop()) {
+            send();
+        } else {
+            channel.eventLoop().execute(this::send);
+        }
+    }
+
+    /**
+     * Releases everything still waiting, e.g. once the channel has closed.
+     */
+    public void clear() {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::clear);
+            return;
+        }
+        cancelLinger();
+        release();
+    }
+
+    private void offer(String type, ByteBuf part) {
+        if (!channel.isActive()) {
+            pending.decrementAndGet();
+            part.release();
+            return;
+        }
+        if (!parts.isEmpty() && bytes + part.readableBytes() > maxBytes) {
+            send();
+        }
+        if (parts.isEmpty()) {
+            firstType = type;
+        }
+        parts.add(part);
+        bytes += part.readableBytes();
+        if (parts.size() >= maxMessages || bytes >= maxBytes) {
+            send();
+        } else if (lingerTask == null) {
+            lingerTask = channel.eventLoop().schedule(this::send, lingerNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void send() {
+        cancelLinger();
+        if (parts.isEmpty()) {
+            return;
+        }
+        messages.addAndGet(parts.size());
+        if (parts.size() == 1) {
+            singles.incrementAndGet();
+            sink.accept(firstType, MessageCodec.frame(MessageCodec.getWireFormat(channel), parts.get(0)));
+            parts.clear();
+            bytes = 0;
+            pending.decrementAndGet();
+            return;
+        }
+        WebSocketFrame frame;
+        try {
+            frame = MessageCodec.encodeBatch(channel, parts);
+        } finally {
+            release();
+        }
+        batches.incrementAndGet();
+        sink.accept(Message.BATCH, frame);
+    }
+
+    private void cancelLinger() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+    }
+
+    private void release() {
+        for (ByteBuf part : parts) {
+            part.release();
+        }
+        pending.addAndGet(-parts.size());
+        parts.clear();
+        bytes = 0;
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Frames sent, batched or not.
+     */
+    public long getFrameCount() {
+        return batches.get() + singles.get();
+    }
+
+    @Override
+    public String toString() {
+        long frames = getFrameCount();
+        return String.format("%d messages in %d frames (%d batches), %.1f messages/frame",
+                getMessageCount(), frames, getBatchCount(), frames == 0 ? 0.0 : (double) getMessageCount() / frames);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Netty transports in order of preference. Native transports are only picked when their
+ * native library loads on this host, so Windows and macOS always end up on NIO.
+ */
+public enum NettyTransport {
+
+    /**
+     * Linux io_uring. The incubator transport is not a compile-time dependency; it is used
+     * when its jar is on the classpath and the kernel supports it.
+     */
+    IO_URING("io_uring") {
+        private static final String PACKAGE = "io.netty.incubator.channel.uring.";
+
+        @Override
+        boolean isAvailable() {
+            try {
+                return (Boolean) Class.forName(PACKAGE + "IOUring").getMethod("isAvailable").invoke(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            try {
+                return (EventLoopGroup) Class.forName(PACKAGE + "IOUringEventLoopGroup")
+                        .getConstructor(int.class).newInstance(threads);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("io_uring transport unavailable", e);
+            }
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return loadClass(PACKAGE + "IOUringServerSocketChannel", ServerChannel.class);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return loadClass(PACKAGE + "IOUringSocketChannel", SocketChannel.class);
+        }
+    },
+
+    EPOLL("epoll") {
+        @Override
+        boolean isAvailable() {
+            try {
+                return Epoll.isAvailable();
+            } catch (LinkageError e) {
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+    },
+
+    NIO("nio") {
+        @Override
+        boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+    private final String id;
+
+    NettyTransport(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    abstract boolean isAvailable();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> socketChannelClass();
+
+    /**
+     * Picks a transport for the configured preference: "auto" takes the best available one,
+     * any other id asks for that transport and falls back to NIO if it cannot be loaded.
+     */
+    public static NettyTransport select(String preference) {
+        if (preference != null && !preference.isEmpty() && !"auto".equalsIgnoreCase(preference)) {
+            for (NettyTransport transport : values()) {
+                if (transport.id.equalsIgnoreCase(preference)) {
+                    if (transport.isAvailable()) {
+                        return transport;
+                    }
+                    logger.warn("Transport {} is not available on this host, falling back to NIO", preference);
+                    return NIO;
+                }
+            }
+            logger.warn("Unknown transport '{}', selecting automatically", preference);
+        }
+        for (NettyTransport transport : values()) {
+            if (transport.isAvailable()) {
+                return transport;
+            }
+        }
+        return NIO;
+    }
+
+    private static <T> Class<? extends T> loadClass(String name, Class<T> type) {
+        try {
+            return Class.forName(name).asSubclass(type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Transport class not found: " + name, e);
+        }
+    }
+}
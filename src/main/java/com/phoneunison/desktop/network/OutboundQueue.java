@@ -0,0 +1,298 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.TrafficClass;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, prioritized outbound queue for one device channel.
+ *
+ * <p>Frames are only written while the channel is writable, so a slow phone fills this queue
+ * instead of Netty's unbounded outbound buffer. Higher {@link TrafficClass}es are always
+ * drained first. When a class is full, the oldest {@linkplain TrafficClass#isDroppable droppable}
+ * frame makes room; a frame that may not be dropped is refused instead, failing its promise with
+ * {@link QueueFullException}. Types registered with {@link #coalesceLatest(String)} keep only
+ * their newest queued frame.
+ *
+ * <p>All queue state is confined to the channel's event loop; the counters can be read from
+ * any thread.
+ */
+public final class OutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    public static final AttributeKey<OutboundQueue> KEY = AttributeKey.valueOf("phoneunison.outboundQueue");
+
+    /**
+     * A frame that may not be dropped found its traffic class full, so it was not queued.
+     */
+    public static final class QueueFullException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    private final Channel channel;
+    private final int capacityPerClass;
+    // Iterated in TrafficClass order, highest first
+    private final EnumMap<TrafficClass, ArrayDeque<Entry>> queues = new EnumMap<>(TrafficClass.class);
+    private final Set<String> coalescedTypes = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong totalQueuedNanos = new AtomicLong();
+    private final AtomicLong maxQueuedNanos = new AtomicLong();
+
+    public OutboundQueue(Channel channel, int capacityPerClass) {
+        this.channel = channel;
+        this.capacityPerClass = capacityPerClass;
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            queues.put(trafficClass, new ArrayDeque<>());
+        }
+        coalesceLatest(Message.CLIPBOARD);
+    }
+
+    /**
+     * Only the newest queued frame of this type is sent; older ones are discarded.
+     */
+    public void coalesceLatest(String type) {
+        coalescedTypes.add(type);
+    }
+
+    public void enqueue(String type, WebSocketFrame frame) {
+        enqueue(type, frame, channel.voidPromise());
+    }
+
+    /**
+     * Queues a frame; {@code promise} completes once it is written, or fails if it is dropped,
+     * refused or the channel closes first.
+     */
+    public ChannelFuture enqueue(String type, WebSocketFrame frame, ChannelPromise promise) {
+        Entry entry = new Entry(type, TrafficClass.of(type), frame, promise, System.nanoTime());
+        if (channel.eventLoop().inEventLoop()) {
+            offer(entry);
+        } else {
+            channel.eventLoop().execute(() -> offer(entry));
+        }
+        return promise;
+    }
+
+    /**
+     * Writes queued frames until the channel stops being writable. Called again by the
+     * pipeline whenever writability comes back.
+     */
+    public void drain() {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::drain);
+            return;
+        }
+        if (!channel.isActive()) {
+            clear();
+            return;
+        }
+        boolean wrote = false;
+        while (channel.isWritable()) {
+            Entry entry = poll();
+            if (entry == null) {
+                break;
+            }
+            write(entry);
+            wrote = true;
+        }
+        if (wrote) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * Releases everything still queued, e.g. once the channel has closed.
+     */
+    public void clear() {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(this::clear);
+            return;
+        }
+        for (ArrayDeque<Entry> queue : queues.values()) {
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                depth.decrementAndGet();
+                dropped.incrementAndGet();
+                discard(entry, new ClosedChannelException());
+            }
+        }
+    }
+
+    private void offer(Entry entry) {
+        enqueued.incrementAndGet();
+        if (!channel.isActive()) {
+            dropped.incrementAndGet();
+            discard(entry, new ClosedChannelException());
+            return;
+        }
+        if (depth.get() == 0 && channel.isWritable()) {
+            write(entry);
+            channel.flush();
+            return;
+        }
+
+        ArrayDeque<Entry> queue = queues.get(entry.trafficClass);
+        if (coalescedTypes.contains(entry.type)) {
+            Iterator<Entry> it = queue.iterator();
+            while (it.hasNext()) {
+                Entry queued = it.next();
+                if (queued.type.equals(entry.type)) {
+                    it.remove();
+                    depth.decrementAndGet();
+                    coalesced.incrementAndGet();
+                    discard(queued, new QueueFullException(queued.type + " superseded by a newer one"));
+                }
+            }
+        }
+        if (queue.size() >= capacityPerClass && !makeRoom(queue, entry)) {
+            return;
+        }
+        queue.add(entry);
+        depth.incrementAndGet();
+        drain();
+    }
+
+    /**
+     * Drops the oldest droppable frame of a full class, or refuses the new one if there is none
+     * or it is not droppable itself. Returns whether the new frame may be queued.
+     */
+    private boolean makeRoom(ArrayDeque<Entry> queue, Entry entry) {
+        if (TrafficClass.isDroppable(entry.type)) {
+            Iterator<Entry> it = queue.iterator();
+            while (it.hasNext()) {
+                Entry queued = it.next();
+                if (TrafficClass.isDroppable(queued.type)) {
+                    it.remove();
+                    depth.decrementAndGet();
+                    dropped.incrementAndGet();
+                    discard(queued, new QueueFullException("Dropped for a newer " + entry.type));
+                    logger.debug("Outbound {} queue full for {}, dropped {}", entry.trafficClass,
+                            channel.remoteAddress(), queued.type);
+                    return true;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        discard(entry, new QueueFullException("Outbound " + entry.trafficClass + " queue full, "
+                + entry.type + " not sent"));
+        logger.warn("Outbound {} queue full for {}, refused {}", entry.trafficClass, channel.remoteAddress(),
+                entry.type);
+        return false;
+    }
+
+    private static void discard(Entry entry, Throwable cause) {
+        ReferenceCountUtil.release(entry.frame);
+        if (!entry.promise.isVoid()) {
+            entry.promise.tryFailure(cause);
+        }
+    }
+
+    private Entry poll() {
+        for (ArrayDeque<Entry> queue : queues.values()) {
+            Entry entry = queue.poll();
+            if (entry != null) {
+                depth.decrementAndGet();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void write(Entry entry) {
+        long queuedNanos = System.nanoTime() - entry.enqueuedAt;
+        totalQueuedNanos.addAndGet(queuedNanos);
+        maxQueuedNanos.accumulateAndGet(queuedNanos, Math::max);
+        written.incrementAndGet();
+        channel.write(entry.frame, entry.promise);
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Frames refused because their class was full and they could not be dropped.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public double getAverageQueuedMillis() {
+        long count = written.get();
+        return count == 0 ? 0 : totalQueuedNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxQueuedMillis() {
+        return maxQueuedNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth %d, written %d, dropped %d, refused %d, coalesced %d, "
+                        + "queued avg %.2f ms / max %.2f ms",
+                getDepth(), getWrittenCount(), getDroppedCount(), getRejectedCount(), getCoalescedCount(),
+                getAverageQueuedMillis(), getMaxQueuedMillis());
+    }
+
+    private record Entry(String type, TrafficClass trafficClass, WebSocketFrame frame, ChannelPromise promise,
+            long enqueuedAt) {
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+/**
+ * Byte-rate limiter shared by the transfers it caps.
+ *
+ * <p>The bucket refills at the configured rate and holds at most a quarter second of it, so an
+ * idle period does not turn into a burst. Taking more than is available is allowed: the bucket
+ * goes into debt and the caller is told how long to wait before moving more, which lets
+ * transfers take whole chunks without splitting them. A rate of zero or less means unlimited.
+ */
+public final class TokenBucket {
+
+    private static final long MIN_BURST = 64 * 1024;
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = Math.min(tokens, burst());
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Takes {@code bytes} from the bucket and returns how many nanoseconds the caller should wait
+     * before moving more, 0 if it may go on now.
+     */
+    public synchronized long acquire(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst(), tokens + (now - refilledAt) * bytesPerSecond / 1e9);
+        refilledAt = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1e9 / bytesPerSecond);
+    }
+
+    private double burst() {
+        return Math.max(MIN_BURST, bytesPerSecond / 4.0);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether an upload body is worth compressing, and with what.
+ *
+ * <p>Files whose format is already compressed (photos, video, most audio, archives, PDF and
+ * Office documents) are sent as they are without looking inside. Anything else is probed: the
+ * first {@value #PROBE_BYTES} bytes are deflated once, and the body is compressed only if that
+ * saves at least a tenth. Text, logs, CSV, WAV and BMP typically shrink to well under half;
+ * random or encrypted data does not and is sent as is.
+ *
+ * <p>The coding is HTTP's {@code deflate} (zlib) at the fastest level, which keeps up with a
+ * Wi-Fi link on one core; a higher level would save little more on the data that passes the
+ * probe.
+ */
+public final class TransferCompression {
+
+    /** {@code Content-Encoding} of a body sent as it is. */
+    public static final String IDENTITY = "identity";
+    /** {@code Content-Encoding} of a zlib-compressed body. */
+    public static final String DEFLATE = "deflate";
+
+    static final int PROBE_BYTES = 64 * 1024;
+    static final int LEVEL = Deflater.BEST_SPEED;
+    // Below this the probe says little and the saving would be a few hundred bytes at most
+    private static final int MIN_PROBE_BYTES = 1024;
+    private static final double MAX_RATIO = 0.9;
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif",
+            "mp4", "mov", "avi", "mkv", "webm", "3gp",
+            "mp3", "flac", "aac", "m4a", "ogg", "opus",
+            "zip", "rar", "7z", "gz", "tgz", "xz", "bz2", "zst", "apk", "jar",
+            "pdf", "docx", "xlsx", "pptx", "odt");
+
+    private TransferCompression() {
+    }
+
+    /**
+     * Whether the name says the content is already compressed.
+     */
+    public static boolean isCompressedType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_TYPES.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The coding to send a file with. Reads the first bytes of the file, so it belongs off the
+     * event loop.
+     */
+    public static String choose(File file) {
+        if (isCompressedType(file.getName())) {
+            return IDENTITY;
+        }
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            sample = in.readNBytes(PROBE_BYTES);
+        } catch (IOException e) {
+            // Sending it will fail the same way and report why
+            return IDENTITY;
+        }
+        return probe(sample, sample.length) ? DEFLATE : IDENTITY;
+    }
+
+    /**
+     * Whether the first {@code length} bytes of a body deflate well enough to compress it.
+     */
+    static boolean probe(byte[] sample, int length) {
+        if (length < MIN_PROBE_BYTES) {
+            return false;
+        }
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] scratch = new byte[8 * 1024];
+            long limit = (long) (length * MAX_RATIO);
+            while (!deflater.finished()) {
+                deflater.deflate(scratch);
+                if (deflater.getBytesWritten() >= limit) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+/**
+ * What a file transfer on the wire asks of whoever tracks it: bandwidth, whether the user
+ * paused or cancelled it, and where its progress goes.
+ *
+ * <p>Called from event loops and upload writers, so implementations must not block.
+ */
+public interface TransferControl {
+
+    /**
+     * For transfers nobody tracks: unlimited, never paused.
+     */
+    TransferControl NONE = new TransferControl() {
+        @Override
+        public long acquire(long bytes) {
+            return 0;
+        }
+
+        @Override
+        public void transferred(long bytes) {
+        }
+
+        @Override
+        public boolean isPaused() {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void onChange(Runnable listener) {
+        }
+
+        @Override
+        public void started(long offset, long totalBytes) {
+        }
+
+        @Override
+        public void finished(boolean complete, Throwable error) {
+        }
+    };
+
+    /**
+     * Creates the control for an upload the phone started.
+     */
+    @FunctionalInterface
+    interface Registry {
+        /**
+         * @param transferId id of the upload; a resumed upload has the id of the one it continues
+         * @param remoteHost address the phone uploads from
+         * @param fileName   name the file is saved under, or null if not given again on resume
+         */
+        TransferControl incoming(String transferId, String remoteHost, String fileName, long totalBytes);
+    }
+
+    /**
+     * Asks to move {@code bytes} and returns how many nanoseconds to wait before moving more.
+     */
+    long acquire(long bytes);
+
+    /**
+     * The lowest byte rate {@link #acquire} holds the transfer to, 0 if it is not capped.
+     */
+    default long getRateLimit() {
+        return 0;
+    }
+
+    void transferred(long bytes);
+
+    boolean isPaused();
+
+    boolean isCancelled();
+
+    /**
+     * Runs {@code listener} once, the next time the transfer is paused, resumed or cancelled.
+     * A change may land just before the listener is registered, so callers check the state
+     * again after registering.
+     */
+    void onChange(Runnable listener);
+
+    /**
+     * The wire side knows where the transfer starts and how long it is (-1 if unknown).
+     */
+    void started(long offset, long totalBytes);
+
+    /**
+     * The transfer ended: {@code complete} if the whole file arrived, otherwise with
+     * {@code error}, or with neither if it stopped early and may be resumed.
+     */
+    void finished(boolean complete, Throwable error);
+
+    /**
+     * How the body crosses the wire: its {@code Content-Encoding}, and the bytes of the file
+     * moved so far against the bytes they took on the wire. Reported again as both grow.
+     */
+    default void encoded(String coding, long fileBytes, long wireBytes) {
+    }
+}
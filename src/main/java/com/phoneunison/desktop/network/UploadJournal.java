@@ -0,0 +1,420 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe record of how much of a resumable upload is on disk.
+ *
+ * <p>The body of a transfer is written to {@code .partial/<id>.part} under the download
+ * directory. Next to it, {@code <id>.journal} holds a header (total length and file name) and
+ * then one {@code [offset:8][length:4][dataCrc:4][recordCrc:4]} record per range. A range is
+ * only recorded after its bytes were forced to disk, so every recorded range survives a crash.
+ * Ranges are contiguous from zero; the end of the last one is where the sender resumes. When a
+ * journal is loaded, a torn or out-of-sequence record ends it, and the last range is read back
+ * and checked against its CRC. Once every byte is there, the file is moved into the download
+ * directory in one rename, under a name no other file has.
+ *
+ * <p>The SHA-256 state of a transfer interrupted in this run is kept in memory, so its resume
+ * continues hashing where it stopped. After a restart that state is gone and the part already
+ * on disk is hashed once when the transfer resumes.
+ *
+ * <p>Only one connection may write a transfer at a time; {@link #acquire} returns null while
+ * another holds it. All methods other than {@link #acquire} do file I/O and belong off the
+ * event loop.
+ */
+final class UploadJournal {
+
+    static final String PARTIAL_DIR = ".partial";
+
+    private static final int MAGIC = 0x50554a31;
+    private static final int RECORD_SIZE = 20;
+    private static final Pattern TRANSFER_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final Set<String> active = ConcurrentHashMap.newKeySet();
+    private static final Map<String, MessageDigest> digests = new ConcurrentHashMap<>();
+
+    /**
+     * The sender's offset does not match what is on disk, or the transfer changed shape.
+     */
+    static final class ConflictException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+
+        ConflictException(String message, long offset) {
+            super(message);
+            this.offset = offset;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+    }
+
+    private final Path downloadDir;
+    private final String transferId;
+    private final Path dataPath;
+    private final Path journalPath;
+    private final List<Long> recordEnds = new ArrayList<>();
+    private FileChannel journal;
+    private long headerLength;
+    private String fileName;
+    private long totalLength = -1;
+    private long committed;
+
+    private UploadJournal(Path downloadDir, String transferId) {
+        this.downloadDir = downloadDir;
+        this.transferId = transferId;
+        Path partial = downloadDir.resolve(PARTIAL_DIR);
+        this.dataPath = partial.resolve(transferId + ".part");
+        this.journalPath = partial.resolve(transferId + ".journal");
+    }
+
+    static boolean isValidTransferId(String transferId) {
+        return transferId != null && TRANSFER_ID.matcher(transferId).matches();
+    }
+
+    /**
+     * Claims a transfer for one writer, or returns null if another connection is writing it.
+     */
+    static UploadJournal acquire(Path downloadDir, String transferId) {
+        if (!isValidTransferId(transferId)) {
+            throw new IllegalArgumentException("Invalid transfer id: " + transferId);
+        }
+        return active.add(transferId) ? new UploadJournal(downloadDir, transferId) : null;
+    }
+
+    /**
+     * Reads how much of a transfer is on disk without claiming it, or returns null if there is
+     * no such transfer. The result is {@code {offset, totalLength}}.
+     */
+    static long[] query(Path downloadDir, String transferId) throws IOException {
+        UploadJournal journal = new UploadJournal(downloadDir, transferId);
+        if (!Files.exists(journal.journalPath)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(journal.journalPath, StandardOpenOption.READ)) {
+            journal.journal = channel;
+            journal.readHeader();
+            journal.readRecords();
+        }
+        return new long[] {journal.committed, journal.totalLength};
+    }
+
+    /**
+     * Loads the transfer, or starts it if this is its first byte.
+     *
+     * @param name        file name to save under, or null to keep the recorded one
+     * @param totalLength length of the whole file, or -1 if not known (or not given again)
+     */
+    void open(String name, long totalLength) throws IOException {
+        Files.createDirectories(dataPath.getParent());
+        if (Files.exists(journalPath)) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            readHeader();
+            readRecords();
+            verifyLastRange();
+            if (totalLength >= 0 && this.totalLength >= 0 && totalLength != this.totalLength) {
+                throw new ConflictException("Transfer " + transferId + " is " + this.totalLength
+                        + " bytes, not " + totalLength, committed);
+            }
+            if (name != null) {
+                fileName = name;
+            }
+            return;
+        }
+        this.fileName = name != null ? name : "received_file_" + System.currentTimeMillis();
+        this.totalLength = totalLength;
+        try (FileChannel data = FileChannel.open(dataPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (totalLength > 0) {
+                // Extends the file without writing to it; the gap is filled by the upload
+                data.write(ByteBuffer.allocate(1), totalLength - 1);
+            }
+        }
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        byte[] nameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(14 + nameBytes.length);
+        header.putInt(MAGIC).putLong(totalLength).putShort((short) nameBytes.length).put(nameBytes).flip();
+        while (header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(true);
+        headerLength = journal.position();
+    }
+
+    /**
+     * Records that {@code length} bytes at {@code offset}, already forced to disk, have the
+     * given CRC.
+     */
+    void commit(long offset, int length, int dataCrc) throws IOException {
+        if (offset != committed) {
+            throw new ConflictException("Range at " + offset + " does not follow " + committed, committed);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(offset).putInt(length).putInt(dataCrc);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, 16);
+        record.putInt((int) crc.getValue()).flip();
+        long position = headerLength + (long) recordEnds.size() * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += journal.write(record, position);
+        }
+        journal.force(false);
+        committed = offset + length;
+        recordEnds.add(committed);
+    }
+
+    /**
+     * Forgets every range past {@code offset}, e.g. the ones written by a request whose body
+     * failed its checksum. The bytes stay on disk and are overwritten by the retry.
+     */
+    void rollback(long offset) throws IOException {
+        int keep = recordEnds.size();
+        while (keep > 0 && recordEnds.get(keep - 1) > offset) {
+            keep--;
+        }
+        recordEnds.subList(keep, recordEnds.size()).clear();
+        journal.truncate(headerLength + (long) keep * RECORD_SIZE);
+        journal.force(false);
+        committed = keep == 0 ? 0 : recordEnds.get(keep - 1);
+    }
+
+    boolean isComplete() {
+        return totalLength >= 0 && committed == totalLength;
+    }
+
+    /**
+     * Moves the finished file into the download directory and removes the journal.
+     */
+    Path complete() throws IOException {
+        close();
+        if (committed < Files.size(dataPath)) {
+            // Preallocated for a longer body than the one that arrived
+            try (FileChannel data = FileChannel.open(dataPath, StandardOpenOption.WRITE)) {
+                data.truncate(committed);
+            }
+        }
+        Path target = moveToUniqueName();
+        Files.deleteIfExists(journalPath);
+        return target;
+    }
+
+    /**
+     * The running digest of everything committed so far: the one kept from an interrupted
+     * request, or one computed now from the partial file.
+     */
+    MessageDigest takeDigest() throws IOException {
+        MessageDigest digest = digests.remove(transferId);
+        if (digest != null) {
+            return digest;
+        }
+        digest = ContentIndex.newDigest();
+        if (committed > 0) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            try (FileChannel data = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < committed) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), committed - position));
+                    int n = data.read(buffer, position);
+                    if (n < 0) {
+                        throw new IOException("Partial upload shorter than its journal: " + dataPath);
+                    }
+                    digest.update(buffer.flip());
+                    position += n;
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Keeps the digest of everything committed for the request that resumes this transfer.
+     */
+    void keepDigest(MessageDigest digest) {
+        digests.put(transferId, digest);
+    }
+
+    /**
+     * Drops the transfer and everything written for it.
+     */
+    void delete() throws IOException {
+        digests.remove(transferId);
+        close();
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(journalPath);
+    }
+
+    void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Lets another connection write this transfer.
+     */
+    void release() {
+        active.remove(transferId);
+    }
+
+    Path getDataPath() {
+        return dataPath;
+    }
+
+    String getTransferId() {
+        return transferId;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    long getCommitted() {
+        return committed;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(14);
+        readFully(fixed, 0);
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not an upload journal: " + journalPath);
+        }
+        totalLength = fixed.getLong();
+        ByteBuffer name = ByteBuffer.allocate(fixed.getShort() & 0xFFFF);
+        readFully(name, 14);
+        fileName = new String(name.array(), StandardCharsets.UTF_8);
+        headerLength = 14 + name.capacity();
+    }
+
+    private void readRecords() throws IOException {
+        long size = journal.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = headerLength;
+        while (position + RECORD_SIZE <= size) {
+            record.clear();
+            readFully(record, position);
+            crc.reset();
+            crc.update(record.array(), 0, 16);
+            long offset = record.getLong();
+            int length = record.getInt();
+            record.getInt();
+            if (record.getInt() != (int) crc.getValue() || offset != committed || length <= 0) {
+                break;
+            }
+            committed = offset + length;
+            recordEnds.add(committed);
+            position += RECORD_SIZE;
+        }
+    }
+
+    private void verifyLastRange() throws IOException {
+        if (recordEnds.isEmpty()) {
+            truncateRecords();
+            return;
+        }
+        int last = recordEnds.size() - 1;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readFully(record, headerLength + (long) last * RECORD_SIZE);
+        long offset = record.getLong();
+        int length = record.getInt();
+        int expected = record.getInt();
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel data = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int n = data.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += n;
+            }
+        }
+        if ((int) crc.getValue() != expected) {
+            recordEnds.remove(last);
+            committed = offset;
+        }
+        truncateRecords();
+    }
+
+    // Cuts off whatever follows the records that were accepted
+    private void truncateRecords() throws IOException {
+        journal.truncate(headerLength + (long) recordEnds.size() * RECORD_SIZE);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = journal.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Truncated upload journal: " + journalPath);
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    private Path moveToUniqueName() throws IOException {
+        String name = Path.of(fileName).getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 0; ; i++) {
+            Path target = downloadDir.resolve(i == 0 ? name : base + " (" + i + ")" + extension);
+            try {
+                // Reserves the name; another upload finishing at the same time gets the next one
+                Files.createFile(target);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                return Files.move(dataPath, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Writes the body of one upload request to disk off the event loop.
+ *
+ * <p>Chunks are handed over as the buffers Netty read them into and written through a
+ * {@link FileChannel} from their NIO views, so the bytes are never copied onto the heap. Writes
+ * run one at a time on a virtual thread. The amount handed over but not yet written is bounded:
+ * above {@code maxPendingBytes} the connection stops reading, and it resumes once the writer has
+ * caught up to half of that.
+ *
+ * <p>The body lands in the transfer's partial file at the request's offset. Every
+ * {@value #CHECKPOINT_BYTES} bytes, and at the end, the file is forced and the range recorded in
+ * the {@link UploadJournal}, so a dropped connection loses at most the last unrecorded range.
+ * When the request carries a CRC32 of its body and it does not match, the request's ranges are
+ * rolled back. Once the journal has every byte, the file is moved into the download directory.
+ *
+ * <p>Reads also stop while the {@link TransferControl} has the transfer paused, and for as long
+ * as its bandwidth cap asks after each chunk. A cancelled transfer closes the connection and its
+ * partial file is deleted.
+ */
+final class UploadWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadWriter.class);
+
+    static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("upload-writer-", 0).factory());
+    private static final int CHECKPOINT_BYTES = 8 * 1024 * 1024;
+    // Marks the end of the body in the chunk queue
+    private static final ByteBuf END = Unpooled.EMPTY_BUFFER;
+
+    /**
+     * The body's CRC32, or the whole file's SHA-256, did not match the one the sender declared,
+     * or a compressed body did not decompress.
+     */
+    static final class ChecksumException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Outcome of one request: where the transfer stands, and where the file was saved once it
+     * is complete. A {@code duplicate} was already in the download directory, so nothing was
+     * written and {@code savedAs} is the file that was there.
+     */
+    record Result(long offset, long totalLength, Path savedAs, String digest, boolean duplicate) {
+
+        Result(long offset, long totalLength) {
+            this(offset, totalLength, null, null, false);
+        }
+    }
+
+    private final Channel channel;
+    private final UploadJournal journal;
+    private final String fileName;
+    private final long startOffset;
+    private final long totalLength;
+    private final long bodyCrc;
+    private final String expectedDigest;
+    private final ContentIndex index;
+    private final boolean skipKnown;
+    private final String coding;
+    private final boolean resumable;
+    private final TransferControl control;
+    private final long maxPendingBytes;
+    private final Queue<ByteBuf> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final CompletableFuture<Result> done = new CompletableFuture<>();
+    private final long startedAt = System.nanoTime();
+    private volatile boolean aborted;
+    // Written on the event loop only; read by the writer to skip needless wake-ups
+    private volatile boolean readsPaused;
+    // Written on the event loop only
+    private boolean held;
+    private boolean throttled;
+    private long pauses;
+    // Used by the writer only
+    private FileChannel file;
+    private long written;
+    private long checkpointStart;
+    private final CRC32 rangeCrc = new CRC32();
+    private final CRC32 wholeCrc = new CRC32();
+    private MessageDigest digest;
+    private long digested;
+    // The digest as of startOffset, to go back to if the body fails its CRC32
+    private MessageDigest digestAtStart;
+    // Set for a deflate-coded body, which is inflated here rather than on the event loop
+    private final Inflater inflater;
+    private ByteBuffer inflated;
+    private long wireBytes;
+
+    /**
+     * Starts a writer for a body that begins at {@code startOffset} of the transfer. The
+     * journal is opened on the writer; if the offset is not where the transfer stands,
+     * {@link #result()} fails with a {@link UploadJournal.ConflictException} right away. Must
+     * be called on the channel's event loop.
+     *
+     * @param fileName    name to save the file under, or null to keep the recorded one
+     * @param totalLength length of the whole file, or -1 if not known
+     * @param bodyCrc     CRC32 the sender declared for this body, or -1 for none
+     * @param digest      SHA-256 (hex) the sender declared for the whole file, or null for none
+     * @param index       files already received; a completed file is added to it. May be null
+     * @param skipKnown   whether a file already in {@code index} with {@code digest} is not
+     *                    received again; the sender learns that it is here
+     * @param coding      the body's {@code Content-Encoding}, one of those in
+     *                    {@link TransferCompression}; offsets and checksums are of the decoded bytes
+     * @param resumable   whether the sender knows the transfer id; if not, a failed upload is
+     *                    deleted since nobody can resume it
+     * @param control     pauses, cancels and rate-limits the transfer
+     */
+    UploadWriter(Channel channel, UploadJournal journal, String fileName, long startOffset,
+                 long totalLength, long bodyCrc, String digest, ContentIndex index, boolean skipKnown,
+                 String coding, boolean resumable, TransferControl control, long maxPendingBytes) {
+        this.channel = channel;
+        this.journal = journal;
+        this.fileName = fileName;
+        this.startOffset = startOffset;
+        this.totalLength = totalLength;
+        this.bodyCrc = bodyCrc;
+        this.expectedDigest = digest;
+        this.index = index;
+        this.skipKnown = skipKnown;
+        this.coding = coding;
+        this.inflater = TransferCompression.DEFLATE.equals(coding) ? new Inflater() : null;
+        this.resumable = resumable;
+        this.control = control;
+        this.maxPendingBytes = Math.max(1, maxPendingBytes);
+        this.checkpointStart = startOffset;
+        running.set(true);
+        EXECUTOR.execute(() -> {
+            prepare();
+            drain();
+        });
+        watchControl();
+        controlChanged();
+    }
+
+    /**
+     * Queues a chunk and takes ownership of it; must be called from the channel's event loop.
+     */
+    void write(ByteBuf chunk) {
+        if (done.isDone()) {
+            chunk.release();
+            return;
+        }
+        int size = chunk.readableBytes();
+        chunks.add(chunk);
+        if (pendingBytes.addAndGet(size) > maxPendingBytes && !readsPaused) {
+            readsPaused = true;
+            pauses++;
+            updateReads();
+        }
+        schedule();
+        if (inflater == null) {
+            control.transferred(size);
+        }
+        long delay = control.acquire(size);
+        if (delay > 0 && !throttled) {
+            throttled = true;
+            updateReads();
+            channel.eventLoop().schedule(() -> {
+                throttled = false;
+                updateReads();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Marks the end of the body; {@link #result()} completes once it is on disk.
+     */
+    void finish() {
+        chunks.add(END);
+        schedule();
+    }
+
+    /**
+     * Drops what is still queued, e.g. when the sender went away mid-upload. What was already
+     * written is recorded so the sender can resume after it.
+     */
+    void abort() {
+        aborted = true;
+        chunks.add(END);
+        schedule();
+    }
+
+    CompletableFuture<Result> result() {
+        return done;
+    }
+
+    long getPauseCount() {
+        return pauses;
+    }
+
+    long getBytesWritten() {
+        return written;
+    }
+
+    /**
+     * Bytes of the body as received, before it was decompressed.
+     */
+    long getWireBytes() {
+        return inflater != null ? wireBytes : written;
+    }
+
+    String getCoding() {
+        return coding;
+    }
+
+    double getElapsedMillis() {
+        return (System.nanoTime() - startedAt) / 1e6;
+    }
+
+    private void prepare() {
+        try {
+            journal.open(fileName, totalLength);
+            if (journal.getCommitted() != startOffset) {
+                throw new UploadJournal.ConflictException("Transfer " + journal.getTransferId()
+                        + " continues at " + journal.getCommitted() + ", not " + startOffset,
+                        journal.getCommitted());
+            }
+            Path existing = skipKnown && expectedDigest != null && index != null ? index.find(expectedDigest) : null;
+            if (existing != null) {
+                journal.delete();
+                done.complete(new Result(journal.getTotalLength(), journal.getTotalLength(), existing,
+                        expectedDigest, true));
+                return;
+            }
+            digest = journal.takeDigest();
+            if (bodyCrc >= 0) {
+                digestAtStart = (MessageDigest) digest.clone();
+            }
+            control.started(startOffset, journal.getTotalLength());
+            file = FileChannel.open(journal.getDataPath(), StandardOpenOption.WRITE);
+            file.position(startOffset);
+        } catch (IOException | CloneNotSupportedException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    private void schedule() {
+        if (running.compareAndSet(false, true)) {
+            EXECUTOR.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            ByteBuf chunk = chunks.poll();
+            if (chunk == null) {
+                running.set(false);
+                // A write may have raced with the empty poll; reclaim the writer if so
+                if (chunks.isEmpty() || !running.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            if (chunk == END) {
+                close();
+                return;
+            }
+            int size = chunk.readableBytes();
+            try {
+                if (!aborted && !done.isDone()) {
+                    writeChunk(chunk);
+                    if (written - (checkpointStart - startOffset) >= CHECKPOINT_BYTES) {
+                        checkpoint();
+                    }
+                }
+            } catch (ChecksumException e) {
+                // The sender's fault, and answered as such
+                done.completeExceptionally(e);
+            } catch (IOException e) {
+                logger.error("Failed to write {}", journal.getDataPath(), e);
+                done.completeExceptionally(e);
+            } finally {
+                chunk.release();
+            }
+            if (pendingBytes.addAndGet(-size) <= maxPendingBytes / 2 && readsPaused) {
+                channel.eventLoop().execute(this::resumeReads);
+            }
+        }
+    }
+
+    private void writeChunk(ByteBuf chunk) throws IOException {
+        if (inflater == null) {
+            writeFully(chunk.nioBuffers(), chunk.readableBytes());
+            return;
+        }
+        wireBytes += chunk.readableBytes();
+        if (inflated == null) {
+            inflated = ByteBuffer.allocateDirect(256 * 1024);
+        }
+        for (ByteBuffer input : chunk.nioBuffers()) {
+            inflater.setInput(input);
+            try {
+                // Output can still be pending when the input has all been taken, so this runs
+                // until inflate has nothing more to give
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(inflated.clear());
+                    if (n == 0) {
+                        if (inflater.needsDictionary()) {
+                            throw new DataFormatException("Preset dictionaries are not supported");
+                        }
+                        break;
+                    }
+                    writeFully(new ByteBuffer[]{inflated.flip()}, n);
+                    control.transferred(n);
+                }
+            } catch (DataFormatException e) {
+                throw new ChecksumException("Body of transfer " + journal.getTransferId()
+                        + " does not inflate: " + e.getMessage());
+            }
+            if (inflater.finished() && input.hasRemaining()) {
+                throw new ChecksumException("Body of transfer " + journal.getTransferId()
+                        + " has data after its deflate stream");
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers, long length) throws IOException {
+        long total = journal.getTotalLength();
+        if (total >= 0 && startOffset + written + length > total) {
+            throw new ChecksumException("Body of transfer " + journal.getTransferId()
+                    + " runs past its declared " + total + " bytes");
+        }
+        for (ByteBuffer buffer : buffers) {
+            rangeCrc.update(buffer.duplicate());
+            digested += buffer.remaining();
+            digest.update(buffer.duplicate());
+            if (bodyCrc >= 0) {
+                wholeCrc.update(buffer.duplicate());
+            }
+        }
+        long remaining = length;
+        while (remaining > 0) {
+            long n = file.write(buffers);
+            remaining -= n;
+            written += n;
+        }
+    }
+
+    // Makes what was written since the last checkpoint durable and records it
+    private void checkpoint() throws IOException {
+        long end = startOffset + written;
+        if (end == checkpointStart) {
+            return;
+        }
+        file.force(false);
+        journal.commit(checkpointStart, (int) (end - checkpointStart), (int) rangeCrc.getValue());
+        checkpointStart = end;
+        rangeCrc.reset();
+        control.encoded(coding, written, getWireBytes());
+    }
+
+    private void close() {
+        try {
+            if (file != null) {
+                if (!done.isDone()) {
+                    // Also on abort: the bytes written so far were received in full
+                    checkpoint();
+                }
+                file.close();
+            }
+            if (!done.isDone() && !aborted && inflater != null && !inflater.finished()) {
+                // What was inflated is sound and stays; the sender may resume after it
+                throw new ChecksumException("Body of transfer " + journal.getTransferId()
+                        + " ended inside its deflate stream");
+            }
+            if (!done.isDone() && !aborted && bodyCrc >= 0 && wholeCrc.getValue() != bodyCrc) {
+                journal.rollback(startOffset);
+                digest = digestAtStart;
+                digested = 0;
+                throw new ChecksumException("Body of transfer " + journal.getTransferId()
+                        + " failed its CRC32 check");
+            }
+            if (aborted) {
+                closeOrDelete();
+                done.completeExceptionally(new CancellationException("Upload aborted"));
+            } else if (!done.isDone() && (journal.isComplete() || journal.getTotalLength() < 0)) {
+                // Without a known length, a body that ended normally is the whole file
+                String hex = ContentIndex.toHex(digest.digest());
+                if (expectedDigest != null && !expectedDigest.equalsIgnoreCase(hex)) {
+                    digest = null;
+                    journal.delete();
+                    throw new ChecksumException("Transfer " + journal.getTransferId()
+                            + " failed its SHA-256 check");
+                }
+                Path saved = journal.complete();
+                if (index != null) {
+                    index.add(hex, saved);
+                }
+                done.complete(new Result(journal.getCommitted(), journal.getTotalLength(), saved, hex, false));
+            } else if (done.isDone()) {
+                // Failed while writing
+                closeOrDelete();
+            } else {
+                journal.close();
+                journal.keepDigest(digest);
+                done.complete(new Result(journal.getCommitted(), journal.getTotalLength()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Anything left uncaught here would leave the POST without an answer
+            done.completeExceptionally(e);
+            try {
+                closeOrDelete();
+            } catch (IOException | RuntimeException ignored) {
+            }
+        } finally {
+            journal.release();
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        control.encoded(coding, written, getWireBytes());
+        channel.eventLoop().execute(() -> {
+            // Nothing is left to hold the connection for; the next request may be read
+            readsPaused = false;
+            held = false;
+            updateReads();
+        });
+    }
+
+    private void closeOrDelete() throws IOException {
+        if (resumable && !control.isCancelled()) {
+            journal.close();
+            // Unless a write failed between hashing a chunk and committing it
+            if (digest != null && journal.getCommitted() == startOffset + digested) {
+                journal.keepDigest(digest);
+            }
+        } else {
+            journal.delete();
+        }
+    }
+
+    private void resumeReads() {
+        if (readsPaused && pendingBytes.get() <= maxPendingBytes / 2) {
+            readsPaused = false;
+            updateReads();
+        }
+    }
+
+    // Registers first, then reads the state, so no change between the two is missed
+    private void watchControl() {
+        control.onChange(() -> channel.eventLoop().execute(() -> {
+            if (!done.isDone()) {
+                watchControl();
+            }
+            controlChanged();
+        }));
+    }
+
+    private void controlChanged() {
+        if (control.isCancelled()) {
+            // The handler aborts the writer once the connection is gone
+            channel.close();
+            return;
+        }
+        if (held != control.isPaused()) {
+            held = !held;
+            updateReads();
+        }
+    }
+
+    private void updateReads() {
+        channel.config().setAutoRead(!readsPaused && !held && !throttled);
+    }
+}
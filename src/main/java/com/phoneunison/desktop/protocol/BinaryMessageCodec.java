@@ -0,0 +1,685 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import com.phoneunison.desktop.protocol.payload.PayloadAdapters;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Compact binary encoding of {@link Message}, carried in binary WebSocket frames.
+ *
+ * <pre>
+ * message := version:varint opcode:varint [type:string] flags:u8 [id] timestamp:varlong [seq:varlong]
+ *            [replyTo] [data:value | batch]
+ * id      := uuid:16 bytes (flag 0x01) | string (flag 0x02)
+ * replyTo := uuid:16 bytes (flag 0x10) | string (flag 0x20)
+ * batch   := count:varint (length:varint message)*   (flag 0x40)
+ * value   := tag:u8 payload
+ * string  := length:varint utf8-bytes
+ * </pre>
+ *
+ * Opcode 0 means the type is not a known constant and follows as a string. Integral
+ * numbers are zigzag varints and decode as {@link Long}; other numbers decode as
+ * {@link Double}.
+ *
+ * <p>Data of a type with a typed payload is read by its {@link PayloadAdapters} adapter straight
+ * from the frame, through a {@link JsonReader} over the binary values, so it never becomes a map.
+ */
+public final class BinaryMessageCodec {
+
+    private static final String[] OPCODES = {
+            null,
+            Message.HEARTBEAT,
+            Message.PAIRING_REQUEST,
+            Message.PAIRING_RESPONSE,
+            Message.NOTIFICATION,
+            Message.NOTIFICATION_ACTION,
+            Message.SMS_LIST,
+            Message.SMS_MESSAGES,
+            Message.SMS_SEND,
+            Message.SMS_RECEIVED,
+            Message.CALL_STATE,
+            Message.CALL_ACTION,
+            Message.CALL_DIAL,
+            Message.SIM_LIST,
+            Message.SIM_LIST_REQUEST,
+            Message.CLIPBOARD,
+            Message.FILE_OFFER,
+            Message.FILE_ACCEPT,
+            Message.FILE_CHUNK,
+            Message.FILE_COMPLETE,
+            Message.ERROR,
+            Message.CANCEL,
+            Message.BATCH,
+            Message.HELLO
+    };
+    private static final Map<String, Integer> OPCODE_BY_TYPE = new HashMap<>();
+
+    static {
+        for (int i = 1; i < OPCODES.length; i++) {
+            OPCODE_BY_TYPE.put(OPCODES[i], i);
+        }
+    }
+
+    private static final int FLAG_UUID_ID = 0x01;
+    private static final int FLAG_STRING_ID = 0x02;
+    private static final int FLAG_DATA = 0x04;
+    private static final int FLAG_SEQ = 0x08;
+    private static final int FLAG_UUID_REPLY = 0x10;
+    private static final int FLAG_STRING_REPLY = 0x20;
+    private static final int FLAG_BATCH = 0x40;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_LIST = 6;
+    private static final byte TAG_MAP = 7;
+
+    private static final int MAX_DEPTH = 32;
+
+    private BinaryMessageCodec() {
+    }
+
+    public static void encode(Message message, ByteBuf out) {
+        BatchPayload batch = message.getPayload(BatchPayload.class);
+        writeHeader(message, out, batch != null);
+        if (batch != null) {
+            writeVarLong(out, batch.messages().size());
+            for (Message nested : batch.messages()) {
+                ByteBuf part = out.alloc().buffer();
+                try {
+                    encode(nested, part);
+                    writePart(out, part);
+                } finally {
+                    part.release();
+                }
+            }
+        } else if (message.getData() != null) {
+            writeMap(out, message.getData(), 0);
+        }
+    }
+
+    /**
+     * Writes a BATCH envelope around messages that were each encoded on their own, in order.
+     */
+    public static void encodeBatch(Message envelope, List<ByteBuf> parts, ByteBuf out) {
+        writeHeader(envelope, out, true);
+        writeVarLong(out, parts.size());
+        for (ByteBuf part : parts) {
+            writePart(out, part);
+        }
+    }
+
+    private static void writePart(ByteBuf out, ByteBuf part) {
+        writeVarLong(out, part.readableBytes());
+        out.writeBytes(part, part.readerIndex(), part.readableBytes());
+    }
+
+    private static void writeHeader(Message message, ByteBuf out, boolean batch) {
+        writeVarLong(out, message.getVersion());
+        Integer opcode = OPCODE_BY_TYPE.get(message.getType());
+        if (opcode != null) {
+            writeVarLong(out, opcode);
+        } else {
+            writeVarLong(out, 0);
+            writeString(out, message.getType() != null ? message.getType() : "");
+        }
+
+        String id = message.getId();
+        UUID uuid = id != null ? parseUuid(id) : null;
+        int flags = 0;
+        if (uuid != null) {
+            flags |= FLAG_UUID_ID;
+        } else if (id != null) {
+            flags |= FLAG_STRING_ID;
+        }
+        if (batch) {
+            flags |= FLAG_BATCH;
+        } else if (message.getData() != null) {
+            flags |= FLAG_DATA;
+        }
+        if (message.getSeq() > 0) {
+            flags |= FLAG_SEQ;
+        }
+        String replyTo = message.getReplyTo();
+        UUID replyUuid = replyTo != null ? parseUuid(replyTo) : null;
+        if (replyUuid != null) {
+            flags |= FLAG_UUID_REPLY;
+        } else if (replyTo != null) {
+            flags |= FLAG_STRING_REPLY;
+        }
+        out.writeByte(flags);
+
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else if (id != null) {
+            writeString(out, id);
+        }
+        writeVarLong(out, message.getTimestamp());
+        if (message.getSeq() > 0) {
+            writeVarLong(out, message.getSeq());
+        }
+        if (replyUuid != null) {
+            out.writeLong(replyUuid.getMostSignificantBits());
+            out.writeLong(replyUuid.getLeastSignificantBits());
+        } else if (replyTo != null) {
+            writeString(out, replyTo);
+        }
+    }
+
+    public static Message decode(ByteBuf in) {
+        Message message = Message.forDecoding();
+        message.setVersion((int) readVarLong(in));
+        int opcode = (int) readVarLong(in);
+        if (opcode == 0) {
+            message.setType(readString(in));
+        } else if (opcode < OPCODES.length) {
+            message.setType(OPCODES[opcode]);
+        } else {
+            throw new CorruptedFrameException("Unknown opcode: " + opcode);
+        }
+
+        int flags = in.readUnsignedByte();
+        if ((flags & FLAG_UUID_ID) != 0) {
+            message.setId(new UUID(in.readLong(), in.readLong()).toString());
+        } else if ((flags & FLAG_STRING_ID) != 0) {
+            message.setId(readString(in));
+        }
+        message.setTimestamp(readVarLong(in));
+        if ((flags & FLAG_SEQ) != 0) {
+            message.setSeq(readVarLong(in));
+        }
+        if ((flags & FLAG_UUID_REPLY) != 0) {
+            message.setReplyTo(new UUID(in.readLong(), in.readLong()).toString());
+        } else if ((flags & FLAG_STRING_REPLY) != 0) {
+            message.setReplyTo(readString(in));
+        }
+        if ((flags & FLAG_DATA) != 0) {
+            if (in.getByte(in.readerIndex()) != TAG_MAP) {
+                throw new CorruptedFrameException("Message data must be a map");
+            }
+            TypeAdapter<Object> adapter = PayloadAdapters.forType(message.getType());
+            if (adapter != null) {
+                message.setPayload(readPayload(message.getType(), adapter, in));
+            } else {
+                in.skipBytes(1);
+                message.setData(readMap(in, 0));
+            }
+        } else if ((flags & FLAG_BATCH) != 0) {
+            message.setPayload(new BatchPayload(readBatch(in)));
+        }
+        return message;
+    }
+
+    private static Object readPayload(String type, TypeAdapter<Object> adapter, ByteBuf in) {
+        try {
+            return adapter.read(new PayloadReader(in));
+        } catch (IOException | IllegalStateException | NumberFormatException | IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException("Invalid " + type + " payload", e);
+        }
+    }
+
+    private static List<Message> readBatch(ByteBuf in) {
+        int count = readLength(in);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message nested = decode(in.readSlice(readLength(in)));
+            if (Message.BATCH.equals(nested.getType())) {
+                throw new CorruptedFrameException("Batches cannot be nested");
+            }
+            messages.add(nested);
+        }
+        return messages;
+    }
+
+    private static void writeValue(ByteBuf out, Object value, int depth) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String s) {
+            out.writeByte(TAG_STRING);
+            writeString(out, s);
+        } else if (value instanceof Boolean b) {
+            out.writeByte(b ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            out.writeByte(TAG_INT);
+            writeVarLong(out, zigzag(((Number) value).longValue()));
+        } else if (value instanceof Number n) {
+            double d = n.doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 0x1p53) {
+                out.writeByte(TAG_INT);
+                writeVarLong(out, zigzag((long) d));
+            } else {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(d);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            writeMap(out, map, depth + 1);
+        } else if (value instanceof List<?> list) {
+            checkDepth(depth + 1);
+            out.writeByte(TAG_LIST);
+            writeVarLong(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item, depth + 1);
+            }
+        } else {
+            out.writeByte(TAG_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static void writeMap(ByteBuf out, Map<?, ?> map, int depth) {
+        checkDepth(depth);
+        out.writeByte(TAG_MAP);
+        writeVarLong(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue(), depth);
+        }
+    }
+
+    private static Object readValue(ByteBuf in, int depth) {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case TAG_NULL -> null;
+            case TAG_FALSE -> Boolean.FALSE;
+            case TAG_TRUE -> Boolean.TRUE;
+            case TAG_INT -> unzigzag(readVarLong(in));
+            case TAG_DOUBLE -> in.readDouble();
+            case TAG_STRING -> readString(in);
+            case TAG_LIST -> readList(in, depth + 1);
+            case TAG_MAP -> readMap(in, depth + 1);
+            default -> throw new CorruptedFrameException("Unknown value tag: " + tag);
+        };
+    }
+
+    private static List<Object> readList(ByteBuf in, int depth) {
+        checkDepth(depth);
+        int size = readLength(in);
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readValue(in, depth));
+        }
+        return list;
+    }
+
+    private static Map<String, Object> readMap(ByteBuf in, int depth) {
+        checkDepth(depth);
+        int size = readLength(in);
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readValue(in, depth));
+        }
+        return map;
+    }
+
+    private static void writeString(ByteBuf out, String s) {
+        writeVarLong(out, ByteBufUtil.utf8Bytes(s));
+        ByteBufUtil.writeUtf8(out, s);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readLength(in);
+        String s = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return s;
+    }
+
+    private static int readLength(ByteBuf in) {
+        long length = readVarLong(in);
+        // Every element takes at least one byte, so a count larger than what is left is corrupt
+        if (length < 0 || length > in.readableBytes()) {
+            throw new CorruptedFrameException("Invalid length: " + length);
+        }
+        return (int) length;
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuf in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void checkDepth(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new CorruptedFrameException("Message nested too deeply");
+        }
+    }
+
+    private static UUID parseUuid(String id) {
+        if (id.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            // Only use the 16-byte form when it round-trips to the exact same text
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Presents one binary value, normally a message's data map, as a JSON token stream. Maps are
+     * objects and lists are arrays; integral numbers can be read as strings and numeric strings
+     * as numbers, the same leniency {@link JsonReader} has.
+     */
+    private static final class PayloadReader extends JsonReader {
+        private static final Reader UNREADABLE = new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                throw new AssertionError();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        private final ByteBuf in;
+        // Entries left in each open map or list, and which of them are maps
+        private final int[] remaining = new int[MAX_DEPTH + 1];
+        private final boolean[] isMap = new boolean[MAX_DEPTH + 1];
+        private int depth;
+        private boolean nameNext;
+        private boolean done;
+        // Tag of the next value once peeked, -1 before
+        private int tag = -1;
+
+        PayloadReader(ByteBuf in) {
+            super(UNREADABLE);
+            this.in = in;
+        }
+
+        @Override
+        public JsonToken peek() {
+            if (done) {
+                return JsonToken.END_DOCUMENT;
+            }
+            if (depth > 0 && remaining[depth - 1] == 0) {
+                return isMap[depth - 1] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+            }
+            if (nameNext) {
+                return JsonToken.NAME;
+            }
+            if (tag < 0) {
+                tag = in.readByte();
+            }
+            return switch (tag) {
+                case TAG_NULL -> JsonToken.NULL;
+                case TAG_FALSE, TAG_TRUE -> JsonToken.BOOLEAN;
+                case TAG_INT, TAG_DOUBLE -> JsonToken.NUMBER;
+                case TAG_STRING -> JsonToken.STRING;
+                case TAG_LIST -> JsonToken.BEGIN_ARRAY;
+                case TAG_MAP -> JsonToken.BEGIN_OBJECT;
+                default -> throw new CorruptedFrameException("Unknown value tag: " + tag);
+            };
+        }
+
+        @Override
+        public boolean hasNext() {
+            JsonToken token = peek();
+            return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+        }
+
+        @Override
+        public void beginObject() {
+            expect(JsonToken.BEGIN_OBJECT);
+            push(true);
+        }
+
+        @Override
+        public void endObject() {
+            expect(JsonToken.END_OBJECT);
+            depth--;
+            consumed();
+        }
+
+        @Override
+        public void beginArray() {
+            expect(JsonToken.BEGIN_ARRAY);
+            push(false);
+        }
+
+        @Override
+        public void endArray() {
+            expect(JsonToken.END_ARRAY);
+            depth--;
+            consumed();
+        }
+
+        @Override
+        public String nextName() {
+            expect(JsonToken.NAME);
+            nameNext = false;
+            return readString(in);
+        }
+
+        @Override
+        public String nextString() {
+            JsonToken token = peek();
+            String value = switch (tag) {
+                case TAG_STRING -> readString(in);
+                case TAG_INT -> Long.toString(unzigzag(readVarLong(in)));
+                case TAG_DOUBLE -> Double.toString(in.readDouble());
+                default -> throw new IllegalStateException("Expected a string but was " + token);
+            };
+            consumed();
+            return value;
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            expect(JsonToken.BOOLEAN);
+            boolean value = tag == TAG_TRUE;
+            consumed();
+            return value;
+        }
+
+        @Override
+        public void nextNull() {
+            expect(JsonToken.NULL);
+            consumed();
+        }
+
+        @Override
+        public double nextDouble() {
+            JsonToken token = peek();
+            double value = switch (tag) {
+                case TAG_INT -> unzigzag(readVarLong(in));
+                case TAG_DOUBLE -> in.readDouble();
+                case TAG_STRING -> parse(Double::parseDouble);
+                default -> throw new IllegalStateException("Expected a double but was " + token);
+            };
+            consumed();
+            return value;
+        }
+
+        @Override
+        public long nextLong() {
+            JsonToken token = peek();
+            long value = switch (tag) {
+                case TAG_INT -> unzigzag(readVarLong(in));
+                case TAG_DOUBLE -> {
+                    // Left unread when it is not integral, so the caller can still read a double
+                    double d = in.getDouble(in.readerIndex());
+                    if ((long) d != d) {
+                        throw new NumberFormatException("Expected a long but was " + d);
+                    }
+                    in.skipBytes(Double.BYTES);
+                    yield (long) d;
+                }
+                case TAG_STRING -> parse(Long::parseLong);
+                default -> throw new IllegalStateException("Expected a long but was " + token);
+            };
+            consumed();
+            return value;
+        }
+
+        @Override
+        public int nextInt() {
+            peek();
+            int start = in.readerIndex();
+            int peeked = tag;
+            long value = nextLong();
+            if ((int) value != value) {
+                // Unread, as JsonReader leaves a number it cannot return
+                in.readerIndex(start);
+                undoConsumed(peeked);
+                throw new NumberFormatException("Expected an int but was " + value);
+            }
+            return (int) value;
+        }
+
+        @Override
+        public void skipValue() {
+            switch (peek()) {
+                case NAME -> nextName();
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    while (hasNext()) {
+                        nextName();
+                        skipValue();
+                    }
+                    endObject();
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    while (hasNext()) {
+                        skipValue();
+                    }
+                    endArray();
+                }
+                case END_OBJECT, END_ARRAY, END_DOCUMENT -> throw new IllegalStateException("No value to skip");
+                default -> {
+                    switch (tag) {
+                        case TAG_INT -> readVarLong(in);
+                        case TAG_DOUBLE -> in.skipBytes(Double.BYTES);
+                        case TAG_STRING -> in.skipBytes(readLength(in));
+                        default -> {
+                            // null and booleans are only a tag
+                        }
+                    }
+                    consumed();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            done = true;
+        }
+
+        @Override
+        public String toString() {
+            return "BinaryMessageCodec.PayloadReader";
+        }
+
+        private void expect(JsonToken expected) {
+            JsonToken token = peek();
+            if (token != expected) {
+                throw new IllegalStateException("Expected " + expected + " but was " + token);
+            }
+        }
+
+        private void push(boolean map) {
+            tag = -1;
+            checkDepth(depth + 1);
+            remaining[depth] = readLength(in);
+            isMap[depth] = map;
+            depth++;
+            nameNext = map;
+        }
+
+        /**
+         * Moves past the value just read, to the next name or value of its container.
+         */
+        private void consumed() {
+            tag = -1;
+            if (depth == 0) {
+                done = true;
+            } else {
+                remaining[depth - 1]--;
+                nameNext = isMap[depth - 1];
+            }
+        }
+
+        private void undoConsumed(int peeked) {
+            tag = peeked;
+            if (depth == 0) {
+                done = false;
+            } else {
+                remaining[depth - 1]++;
+                nameNext = false;
+            }
+        }
+
+        private <T> T parse(Function<String, T> parser) {
+            int start = in.readerIndex();
+            String text = readString(in);
+            try {
+                return parser.apply(text);
+            } catch (NumberFormatException e) {
+                in.readerIndex(start);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Protocol features one side supports, or the set two sides agreed on.
+ *
+ * <p>Each side advertises its set in a {@link Message#HELLO} after pairing, listing codecs,
+ * compression and transfer modes fastest first. {@link #negotiate(FeatureSet)} keeps the
+ * desktop's preferences that the phone also lists and the smaller of each limit; the phone
+ * applies the same rule to the desktop's HELLO, so both arrive at the same set. Phones that
+ * never send a HELLO are described by {@link #legacy}.
+ *
+ * <p>A side that sets {@code correlatedReplies} answers each request with a reply carrying the
+ * request's id in {@code replyTo}, so requests can be pipelined, timed out and withdrawn. Phones
+ * that do not are sent requests the old way and answered by type and thread.
+ *
+ * <p>The negotiated frame size caps batches, and a single message whose frame would exceed it
+ * is refused by the sender rather than written, since the peer would drop the connection.
+ *
+ * <p>Compression is applied during the WebSocket upgrade, before the HELLO, so the negotiated
+ * value reports what both sides support rather than switching it on. An encrypted session
+ * offers no compression, because sealed frames do not compress: the desktop stops deflating
+ * when it starts sealing, and a phone that honours the HELLO does the same.
+ */
+public record FeatureSet(int protocol, List<String> codecs, List<String> compression, int batchMaxMessages,
+        int batchMaxBytes, int maxFrameSize, List<String> transfers, boolean correlatedReplies) {
+
+    /** Protocol version spoken by this build; the message envelope itself is still version 1. */
+    public static final int PROTOCOL_VERSION = 2;
+
+    public static final String COMPRESSION_DEFLATE = "permessage-deflate";
+    /** Files are pushed to the receiver's HTTP upload endpoint. */
+    public static final String TRANSFER_HTTP = "http";
+    /** As {@link #TRANSFER_HTTP}, and the receiver accepts bodies sent with {@code Content-Encoding: deflate}. */
+    public static final String TRANSFER_HTTP_DEFLATE = "http-deflate";
+
+    public FeatureSet {
+        codecs = List.copyOf(codecs);
+        compression = List.copyOf(compression);
+        transfers = List.copyOf(transfers);
+    }
+
+    /**
+     * What a phone that paired without sending a HELLO is assumed to support: the codec and
+     * batching it asked for while pairing, the HTTP transfer mode and no limits of its own.
+     */
+    public static FeatureSet legacy(MessageCodec.WireFormat codec, boolean batching) {
+        // Whatever compression the upgrade settled on is taken as supported
+        return new FeatureSet(1, List.of(codec.getId()), List.of(COMPRESSION_DEFLATE),
+                batching ? Integer.MAX_VALUE : 0, batching ? Integer.MAX_VALUE : 0, Integer.MAX_VALUE,
+                List.of(TRANSFER_HTTP), false);
+    }
+
+    /**
+     * Reads a peer's HELLO. Missing fields mean the feature is not supported, except the frame
+     * size, which is then unlimited, and the transfer modes, which fall back to HTTP.
+     */
+    public static FeatureSet fromHello(Map<String, Object> data) {
+        if (data == null) {
+            data = Map.of();
+        }
+        int batchMaxMessages = 0;
+        int batchMaxBytes = 0;
+        if (data.get("batch") instanceof Map<?, ?> batch) {
+            batchMaxMessages = intValue(batch.get("maxMessages"), 0);
+            batchMaxBytes = intValue(batch.get("maxBytes"), 0);
+        }
+        List<String> transfers = strings(data.get("transfers"));
+        return new FeatureSet(Math.max(1, intValue(data.get("protocol"), 1)), strings(data.get("codecs")),
+                strings(data.get("compression")), batchMaxMessages, batchMaxBytes,
+                intValue(data.get("maxFrameSize"), Integer.MAX_VALUE),
+                transfers.isEmpty() ? List.of(TRANSFER_HTTP) : transfers,
+                Boolean.TRUE.equals(data.get("correlatedReplies")) || "true".equals(data.get("correlatedReplies")));
+    }
+
+    public Map<String, Object> toHello() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("protocol", protocol);
+        data.put("codecs", codecs);
+        data.put("compression", compression);
+        if (isBatching()) {
+            data.put("batch", Map.of("maxMessages", batchMaxMessages, "maxBytes", batchMaxBytes));
+        }
+        data.put("maxFrameSize", maxFrameSize);
+        data.put("transfers", transfers);
+        if (correlatedReplies) {
+            data.put("correlatedReplies", true);
+        }
+        return data;
+    }
+
+    /**
+     * The features both this side and the peer support, in this side's order of preference.
+     * Called on the desktop's own set.
+     * A negotiated set always has one codec, JSON if nothing better is shared.
+     */
+    public FeatureSet negotiate(FeatureSet peer) {
+        List<String> codec = shared(codecs, peer.codecs);
+        int frameSize = Math.min(maxFrameSize, peer.maxFrameSize);
+        boolean batching = isBatching() && peer.isBatching();
+        List<String> transfer = shared(transfers, peer.transfers);
+        return new FeatureSet(Math.min(protocol, peer.protocol),
+                codec.isEmpty() ? List.of(MessageCodec.WireFormat.JSON.getId()) : codec.subList(0, 1),
+                shared(compression, peer.compression),
+                batching ? Math.min(batchMaxMessages, peer.batchMaxMessages) : 0,
+                batching ? Math.min(frameSize, Math.min(batchMaxBytes, peer.batchMaxBytes)) : 0,
+                frameSize,
+                transfer.isEmpty() ? List.of(TRANSFER_HTTP) : transfer,
+                correlatedReplies && peer.correlatedReplies);
+    }
+
+    /**
+     * The preferred codec, JSON if none of the listed ones is known.
+     */
+    public MessageCodec.WireFormat wireFormat() {
+        for (String id : codecs) {
+            for (MessageCodec.WireFormat format : MessageCodec.WireFormat.values()) {
+                if (format.getId().equals(id)) {
+                    return format;
+                }
+            }
+        }
+        return MessageCodec.WireFormat.JSON;
+    }
+
+    public boolean isBatching() {
+        return batchMaxMessages > 1 && batchMaxBytes > 0;
+    }
+
+    public boolean isCompressed() {
+        return compression.contains(COMPRESSION_DEFLATE);
+    }
+
+    public boolean supportsTransfer(String mode) {
+        return transfers.contains(mode);
+    }
+
+    private static List<String> shared(List<String> preferred, List<String> offered) {
+        List<String> result = new ArrayList<>();
+        for (String feature : preferred) {
+            if (offered.contains(feature)) {
+                result.add(feature);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> strings(Object value) {
+        List<String> result = new ArrayList<>();
+        if (value instanceof List<?> list) {
+            list.forEach(item -> result.add(String.valueOf(item)));
+        }
+        return result;
+    }
+
+    private static int intValue(Object value, int fallback) {
+        if (value instanceof Number number) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, number.longValue()));
+        }
+        if (value instanceof String text) {
+            try {
+                return Integer.parseInt(text.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("protocol %d, %s, %s, %s, frames up to %s, transfers %s%s", protocol,
+                wireFormat().getId(), isCompressed() ? "compressed" : "uncompressed",
+                isBatching() ? "batches of " + batchMaxMessages + " / " + batchMaxBytes + " B" : "no batching",
+                maxFrameSize == Integer.MAX_VALUE ? "any size" : maxFrameSize + " B", String.join(",", transfers),
+                correlatedReplies ? ", correlated replies" : "");
+    }
+}
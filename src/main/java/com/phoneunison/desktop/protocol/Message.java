@@ -24,11 +24,25 @@ public class Message {
     private String type;
     private String id;
     private long timestamp;
+    // Position in the message's SyncStream, 0 when the sender does not sequence it
+    private long seq;
+    // Id of the request this message answers, if it is a reply
+    private String replyTo;
     private Map<String, Object> data;
+    // Decoded typed payload; set instead of data for the types PayloadAdapters knows
+    private transient Object payload;
+    // System.nanoTime() when the frame carrying it was read, 0 for messages built locally
+    private transient long receivedAt;
 
     public Message() {
-        this.id = UUID.randomUUID().toString();
-        this.timestamp = System.currentTimeMillis();
+        this(true);
+    }
+
+    private Message(boolean stamped) {
+        if (stamped) {
+            this.id = UUID.randomUUID().toString();
+            this.timestamp = System.currentTimeMillis();
+        }
     }
 
     public Message(String type) {
@@ -61,6 +75,9 @@ public class Message {
     public static final String FILE_CHUNK = "FILE_CHUNK";
     public static final String FILE_COMPLETE = "FILE_COMPLETE";
     public static final String ERROR = "ERROR";
+    public static final String CANCEL = "CANCEL";
+    public static final String BATCH = "BATCH";
+    public static final String HELLO = "HELLO";
 
     public int getVersion() {
         return version;
@@ -94,6 +111,30 @@ public class Message {
         this.timestamp = timestamp;
     }
 
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public String getReplyTo() {
+        return replyTo;
+    }
+
+    public void setReplyTo(String replyTo) {
+        this.replyTo = replyTo;
+    }
+
     public Map<String, Object> getData() {
         return data;
     }
@@ -102,6 +143,29 @@ public class Message {
         this.data = data;
     }
 
+    /**
+     * Creates a message with no id or timestamp for decoders, which set every field they read and
+     * should not pay for a random UUID that is overwritten right away.
+     */
+    static Message forDecoding() {
+        return new Message(false);
+    }
+
+    /**
+     * Returns the typed payload if it was decoded as {@code type}, otherwise null.
+     */
+    public <T> T getPayload(Class<T> type) {
+        return type.isInstance(payload) ? type.cast(payload) : null;
+    }
+
+    public Object getPayload() {
+        return payload;
+    }
+
+    public void setPayload(Object payload) {
+        this.payload = payload;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> T getDataField(String key) {
         if (data == null)
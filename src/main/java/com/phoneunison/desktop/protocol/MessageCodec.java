@@ -0,0 +1,256 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.phoneunison.desktop.network.CryptoSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Encodes and decodes {@link Message}s using the wire format negotiated for each channel.
+ * Channels start out speaking JSON text frames and switch to {@link BinaryMessageCodec}
+ * once the peer has advertised support for it.
+ */
+public final class MessageCodec {
+
+    public enum WireFormat {
+        JSON("json"),
+        BINARY("binary");
+
+        private final String id;
+
+        WireFormat(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    public static final AttributeKey<WireFormat> WIRE_FORMAT = AttributeKey.valueOf("phoneunison.wireFormat");
+
+    // Untyped data keeps integral numbers as Long, the same as binary frames decode them
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(MessageTypeAdapter.FACTORY)
+            .setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE)
+            .create();
+    private static final MessageTypeAdapter MESSAGE_ADAPTER = (MessageTypeAdapter) gson.getAdapter(Message.class);
+    private static final ByteBuf[] HEARTBEAT_ACK = new ByteBuf[WireFormat.values().length];
+
+    static {
+        Message ack = new Message(Message.HEARTBEAT, Map.of("ack", true));
+        ack.setId("heartbeat-ack");
+        ack.setTimestamp(0);
+        for (WireFormat format : WireFormat.values()) {
+            HEARTBEAT_ACK[format.ordinal()] = Unpooled.unreleasableBuffer(
+                    encodeContent(format, ack, UnpooledByteBufAllocator.DEFAULT));
+        }
+    }
+
+    private MessageCodec() {
+    }
+
+    public static Gson gson() {
+        return gson;
+    }
+
+    public static WireFormat getWireFormat(Channel channel) {
+        WireFormat format = channel.attr(WIRE_FORMAT).get();
+        return format != null ? format : WireFormat.JSON;
+    }
+
+    public static void setWireFormat(Channel channel, WireFormat format) {
+        channel.attr(WIRE_FORMAT).set(format);
+    }
+
+    /**
+     * Picks the preferred format from the codec ids a peer advertised, falling back to JSON.
+     */
+    public static WireFormat negotiate(Object advertised) {
+        if (advertised instanceof List<?> codecs && codecs.contains(WireFormat.BINARY.getId())) {
+            return WireFormat.BINARY;
+        }
+        return WireFormat.JSON;
+    }
+
+    /**
+     * Encodes a message for one channel. On an encrypted channel the content leaves room in
+     * front for the frame header, so it can be sealed without being copied.
+     */
+    public static WebSocketFrame encode(Channel channel, Message message) {
+        return frame(getWireFormat(channel), encodeContent(channel, message));
+    }
+
+    /**
+     * Serializes a message for one channel without wrapping it in a frame, leaving the same
+     * headroom as {@link #encode(Channel, Message)}.
+     */
+    public static ByteBuf encodeContent(Channel channel, Message message) {
+        return encodeContent(getWireFormat(channel), message, channel.alloc(), headroom(channel));
+    }
+
+    /**
+     * Wraps messages already serialized by {@link #encodeContent(Channel, Message)} in one
+     * {@link Message#BATCH} frame. Their bytes are copied once instead of being encoded again;
+     * the parts are not released.
+     */
+    public static WebSocketFrame encodeBatch(Channel channel, List<ByteBuf> parts) {
+        WireFormat format = getWireFormat(channel);
+        int headroom = headroom(channel);
+        int size = parts.size() + 96;
+        for (ByteBuf part : parts) {
+            size += part.readableBytes();
+        }
+        Message envelope = new Message(Message.BATCH);
+        ByteBuf buf = channel.alloc().buffer(headroom + size);
+        buf.setIndex(headroom, headroom);
+        try {
+            if (format == WireFormat.BINARY) {
+                BinaryMessageCodec.encodeBatch(envelope, parts, buf);
+            } else {
+                StringWriter prefix = new StringWriter();
+                JsonWriter writer = gson.newJsonWriter(prefix);
+                writer.beginObject();
+                writer.name("version").value(envelope.getVersion());
+                writer.name("type").value(envelope.getType());
+                writer.name("id").value(envelope.getId());
+                writer.name("timestamp").value(envelope.getTimestamp());
+                writer.name("data").beginObject().name("messages").beginArray();
+                writer.flush();
+                buf.writeCharSequence(prefix.getBuffer(), StandardCharsets.UTF_8);
+                for (int i = 0; i < parts.size(); i++) {
+                    if (i > 0) {
+                        buf.writeByte(',');
+                    }
+                    ByteBuf part = parts.get(i);
+                    buf.writeBytes(part, part.readerIndex(), part.readableBytes());
+                }
+                buf.writeCharSequence("]}}", StandardCharsets.UTF_8);
+            }
+            return frame(format, buf);
+        } catch (IOException e) {
+            buf.release();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    private static int headroom(Channel channel) {
+        return channel.hasAttr(CryptoSession.KEY) ? CryptoSession.HEADER_LENGTH : 0;
+    }
+
+    public static WebSocketFrame encode(WireFormat format, Message message, ByteBufAllocator alloc) {
+        return frame(format, encodeContent(format, message, alloc));
+    }
+
+    /**
+     * Serializes a message into a new buffer without wrapping it in a frame, so the same
+     * bytes can be shared by several frames through {@link ByteBuf#retainedDuplicate()}.
+     */
+    public static ByteBuf encodeContent(WireFormat format, Message message, ByteBufAllocator alloc) {
+        return encodeContent(format, message, alloc, 0);
+    }
+
+    private static ByteBuf encodeContent(WireFormat format, Message message, ByteBufAllocator alloc,
+            int headroom) {
+        ByteBuf buf = alloc.buffer();
+        buf.setIndex(headroom, headroom);
+        try {
+            if (format == WireFormat.BINARY) {
+                BinaryMessageCodec.encode(message, buf);
+            } else {
+                Writer writer = new OutputStreamWriter(new ByteBufOutputStream(buf), StandardCharsets.UTF_8);
+                gson.toJson(message, Message.class, writer);
+                writer.flush();
+            }
+            return buf;
+        } catch (IOException e) {
+            buf.release();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Heartbeat reply backed by bytes encoded once at startup; sending it allocates nothing
+     * but the frame and a duplicate view.
+     */
+    public static WebSocketFrame heartbeatAck(WireFormat format) {
+        return frame(format, HEARTBEAT_ACK[format.ordinal()].duplicate());
+    }
+
+    public static WebSocketFrame frame(WireFormat format, ByteBuf content) {
+        return format == WireFormat.BINARY ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content);
+    }
+
+    /**
+     * Decodes a frame. JSON is parsed straight from the frame buffer without first copying it
+     * into a String, and messages with a typed payload come back with
+     * {@link Message#getPayload(Class)} set instead of {@link Message#getData()}.
+     */
+    public static Message decode(WebSocketFrame frame) {
+        if (frame instanceof BinaryWebSocketFrame) {
+            return BinaryMessageCodec.decode(frame.content());
+        }
+        Reader reader = new InputStreamReader(new ByteBufInputStream(frame.content()), StandardCharsets.UTF_8);
+        return gson.fromJson(reader, Message.class);
+    }
+
+    /**
+     * Decodes one JSON message from a stream, handing batches of large SMS lists and threads to
+     * {@code batches} as they are parsed so the full list is never held in memory. Blocks while
+     * the stream waits for more data, so it must not run on an event loop.
+     *
+     * @return the message carrying the final batch
+     */
+    public static Message decodeStreaming(InputStream in, int batchSize, Consumer<Message> batches)
+            throws IOException {
+        JsonReader reader = gson.newJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return MESSAGE_ADAPTER.read(reader, batchSize, batches);
+    }
+}
@@ -15,13 +15,33 @@
  */
 package com.phoneunison.desktop.protocol;
 
+import com.phoneunison.desktop.network.CryptoSession;
+import com.phoneunison.desktop.network.MessageBatcher;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import com.phoneunison.desktop.protocol.payload.CallStatePayload;
+import com.phoneunison.desktop.protocol.payload.ClipboardPayload;
+import com.phoneunison.desktop.protocol.payload.NotificationPayload;
+import com.phoneunison.desktop.protocol.payload.SimListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
 import com.phoneunison.desktop.services.ConnectionService;
+import com.phoneunison.desktop.services.DeviceSession;
+import com.phoneunison.desktop.services.OutboundJournal;
+import com.phoneunison.desktop.services.ResumeState;
+import com.phoneunison.desktop.utils.CryptoUtils;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class MessageHandler {
 
@@ -44,45 +64,182 @@ public class MessageHandler {
             return;
         }
         logger.debug("Handling message type: {}", message.getType());
+        ResumeState resume = resumeStateFor(channel, message);
+        if (resume != null && !resume.accept(message)) {
+            logger.debug("Dropping {} #{} already applied for {}", message.getType(), message.getSeq(),
+                    resume.getDeviceId());
+            return;
+        }
         switch (message.getType()) {
             case Message.HEARTBEAT -> handleHeartbeat(channel, message);
             case Message.PAIRING_REQUEST -> handlePairingRequest(channel, message);
             case Message.NOTIFICATION -> handleNotification(message);
-            case Message.SMS_LIST, Message.SMS_MESSAGES, Message.SMS_RECEIVED -> handleSMS(message);
-            case Message.CALL_STATE -> handleCallState(message);
-            case Message.SIM_LIST -> handleSimList(message);
+            case Message.SMS_LIST -> {
+                SmsListPayload list = message.getPayload(SmsListPayload.class);
+                if (resume != null && list != null) {
+                    resume.applyConversations(list);
+                }
+                if (!isReply(channel, message) && isFromActiveDevice(channel, message)) {
+                    handleSMS(message);
+                }
+                if (list != null && !list.complete()) {
+                    // Acknowledged with the last batch
+                    return;
+                }
+            }
+            case Message.SMS_MESSAGES -> {
+                if (!isReply(channel, message) && isFromActiveDevice(channel, message)) {
+                    handleSMS(message);
+                }
+            }
+            case Message.SMS_RECEIVED -> handleSMS(message);
+            case Message.CALL_STATE -> handleCallState(channel, message);
+            case Message.SIM_LIST -> {
+                if (resume != null) {
+                    resume.setSims(message.getPayload(SimListPayload.class));
+                }
+                if (!isReply(channel, message) && isFromActiveDevice(channel, message)) {
+                    handleSimList(message);
+                }
+            }
             case Message.CLIPBOARD -> handleClipboard(message);
             case Message.FILE_OFFER, Message.FILE_ACCEPT, Message.FILE_CHUNK, Message.FILE_COMPLETE ->
-                handleFile(message);
-            case Message.ERROR -> handleError(message);
+                handleFile(channel, message);
+            case Message.HELLO -> handleHello(channel, message);
+            case Message.BATCH -> handleBatch(channel, message);
+            case Message.ERROR -> {
+                if (!isReply(channel, message)) {
+                    handleError(message);
+                }
+            }
             default -> logger.warn("Unknown message type: {}", message.getType());
         }
+        if (resume != null) {
+            resume.acknowledge(message);
+        }
+    }
+
+    private void handleHello(Channel channel, Message message) {
+        DeviceSession session = connectionService.getDevice(channel);
+        if (session == null) {
+            logger.warn("Ignoring HELLO from unpaired connection {}", channel.remoteAddress());
+            return;
+        }
+        connectionService.applyFeatures(session, FeatureSet.fromHello(message.getData()));
+    }
+
+    /**
+     * Handles the messages of a batch in order. Runs of notifications go to the callback in one
+     * call, so a burst costs the UI one update rather than one per notification.
+     */
+    private void handleBatch(Channel channel, Message batch) {
+        BatchPayload payload = batch.getPayload(BatchPayload.class);
+        if (payload == null) {
+            return;
+        }
+        List<Message> notifications = new ArrayList<>();
+        for (Message message : payload.messages()) {
+            message.setReceivedAt(batch.getReceivedAt());
+            if (Message.NOTIFICATION.equals(message.getType())) {
+                notifications.add(message);
+                continue;
+            }
+            handleNotifications(channel, notifications);
+            if (Message.BATCH.equals(message.getType())) {
+                logger.warn("Ignoring nested batch from {}", channel.remoteAddress());
+            } else {
+                handleMessage(channel, message);
+            }
+        }
+        handleNotifications(channel, notifications);
+    }
+
+    private void handleNotifications(Channel channel, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Message> accepted = new ArrayList<>(messages.size());
+        List<NotificationPayload> notifications = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ResumeState resume = resumeStateFor(channel, message);
+            if (resume != null && !resume.accept(message)) {
+                continue;
+            }
+            accepted.add(message);
+            NotificationPayload notification = message.getPayload(NotificationPayload.class);
+            if (notification != null) {
+                notifications.add(notification);
+            }
+        }
+        if (notificationCallback != null && !notifications.isEmpty()) {
+            notificationCallback.onNotifications(notifications);
+        }
+        for (Message message : accepted) {
+            ResumeState resume = resumeStateFor(channel, message);
+            if (resume != null) {
+                resume.acknowledge(message);
+            }
+        }
+        messages.clear();
+    }
+
+    /**
+     * The resume state that tracks a sequenced message, or null for unsequenced messages and
+     * connections that have not paired yet.
+     */
+    private ResumeState resumeStateFor(Channel channel, Message message) {
+        if (SyncStream.of(message.getType()) == null) {
+            return null;
+        }
+        DeviceSession session = connectionService.getDevice(channel);
+        return session != null ? session.getResumeState() : null;
+    }
+
+    /**
+     * Lists and SIMs describe the device the views are showing; replies to a request that went
+     * to a previously active device are dropped so they do not overwrite the current one.
+     */
+    private boolean isFromActiveDevice(Channel channel, Message message) {
+        if (connectionService.isActiveDevice(channel)) {
+            return true;
+        }
+        logger.debug("Dropping {} from inactive device {}", message.getType(), channel.remoteAddress());
+        return false;
+    }
+
+    /**
+     * Replies go to the request waiting for them rather than to the callbacks. A reply nobody is
+     * waiting for any more, because its request was superseded, cancelled or timed out, is dropped.
+     * A phone that does not echo {@code replyTo} answers the request for the same type and thread,
+     * and anything else it sends goes to the callbacks as before.
+     */
+    private boolean isReply(Channel channel, Message message) {
+        if (message.getReplyTo() == null) {
+            return connectionService.completeRequest(channel, message);
+        }
+        if (!connectionService.completeRequest(channel, message)) {
+            logger.debug("Dropping late {} for request {}", message.getType(), message.getReplyTo());
+        }
+        return true;
     }
 
     private void handleHeartbeat(Channel channel, Message message) {
-        // Extract battery level if present
-        try {
-            if (message.getData() != null && message.getData().containsKey("battery")) {
-                Object batteryObj = message.getData().get("battery");
-                if (batteryObj instanceof Number) {
-                    int level = ((Number) batteryObj).intValue();
-                    connectionService.updateBatteryLevel(level);
-                } else if (batteryObj instanceof String) {
-                    try {
-                        int level = Integer.parseInt((String) batteryObj);
-                        connectionService.updateBatteryLevel(level);
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
+        Map<String, Object> data = message.getData();
+        Object batteryObj = data != null ? data.get("battery") : null;
+        if (batteryObj instanceof Number number) {
+            connectionService.updateBatteryLevel(channel, number.intValue());
+        } else if (batteryObj instanceof String text) {
+            try {
+                connectionService.updateBatteryLevel(channel, Integer.parseInt(text));
+            } catch (NumberFormatException ignored) {
             }
-        } catch (Exception e) {
-            logger.warn("Failed to parse battery info", e);
         }
 
-        Map<String, Object> data = new HashMap<>();
-        data.put("timestamp", System.currentTimeMillis());
-        Message response = new Message(Message.HEARTBEAT, data);
-        sendMessage(channel, response);
+        connectionService.recordHeartbeat(channel, message);
+        connectionService.acknowledgeOutbox(channel, data != null ? data.get("acked") : null);
+        if (data == null || !Boolean.TRUE.equals(data.get("ack"))) {
+            connectionService.sendHeartbeatAck(channel);
+        }
     }
 
     private void handlePairingRequest(Channel channel, Message message) {
@@ -98,35 +255,91 @@ public class MessageHandler {
         Map<String, Object> data = new HashMap<>();
         data.put("success", valid);
 
+        MessageCodec.WireFormat wireFormat = MessageCodec.WireFormat.JSON;
+        CryptoSession crypto = null;
+        DeviceSession session = null;
         if (valid) {
             data.put("deviceId", getLocalDeviceId());
             data.put("deviceName", getLocalDeviceName());
-            connectionService.confirmConnection(deviceId, deviceName, channel);
+            wireFormat = MessageCodec.negotiate(message.getDataField("codecs"));
+            data.put("codec", wireFormat.getId());
+            crypto = negotiateEncryption(message.getDataField("encryption"), publicKey, data);
+            session = connectionService.confirmConnection(deviceId, deviceName, channel,
+                    message.getDataField("resumeToken"));
+            ResumeState resume = session.getResumeState();
+            data.put("resumeToken", resume.getToken());
+            data.put("resumed", session.isResumed());
+            if (session.isResumed()) {
+                // The phone sends only what follows these
+                data.put("acked", resume.getAckedSeqs());
+                // What the phone applied of the outbox; a phone that is not resumed counts again
+                connectionService.acknowledgeOutbox(channel, message.getDataField("acked"));
+            }
+            if (message.getDataField("capabilities") instanceof List<?> capabilities) {
+                Set<String> names = new HashSet<>();
+                capabilities.forEach(c -> names.add(String.valueOf(c)));
+                session.setCapabilities(names);
+            }
+            // Batches from the phone are always accepted, and journaled messages are numbered
+            data.put("capabilities", List.of(MessageBatcher.CAPABILITY, OutboundJournal.ACK_CAPABILITY));
             logger.info("Pairing successful with: {}", deviceName);
         } else {
             logger.warn("Pairing failed - invalid code");
         }
 
+        // The response itself still goes out in the format the request arrived in
         Message response = new Message(Message.PAIRING_RESPONSE, data);
-        sendMessage(channel, response);
+        if (crypto != null) {
+            // The features offered next depend on the channel being encrypted
+            connectionService.startEncryption(channel, response, crypto).awaitUninterruptibly();
+            logger.info("Encrypting frames for {} with {}", deviceName, CryptoSession.ALGORITHM);
+        } else {
+            sendMessage(channel, response);
+        }
+        if (wireFormat != MessageCodec.WireFormat.JSON) {
+            MessageCodec.setWireFormat(channel, wireFormat);
+            logger.info("Using {} wire format for {}", wireFormat.getId(), deviceName);
+        }
+        if (session != null) {
+            // Holds until the phone answers the HELLO; older phones never do
+            connectionService.applyFeatures(session,
+                    FeatureSet.legacy(wireFormat, session.hasCapability(MessageBatcher.CAPABILITY)));
+            connectionService.sendHello(session);
+            connectionService.replayOutbox(session);
+        }
     }
 
-    private void sendMessage(Channel channel, Message message) {
-        if (channel != null && channel.isActive()) {
-            String json = new com.google.gson.Gson().toJson(message);
-            channel.writeAndFlush(new io.netty.handler.codec.http.websocketx.TextWebSocketFrame(json));
+    /**
+     * Sets up frame encryption if the phone offered it along with a public key, adding the
+     * desktop's half of the key exchange to the response. A failed exchange falls back to
+     * unencrypted frames, which TLS may still protect.
+     */
+    private CryptoSession negotiateEncryption(Object offered, String publicKey, Map<String, Object> response) {
+        if (!(offered instanceof List<?> algorithms) || !algorithms.contains(CryptoSession.ALGORITHM)
+                || publicKey == null || publicKey.isEmpty()) {
+            return null;
+        }
+        try {
+            KeyPair keyPair = CryptoUtils.newKeyPair();
+            CryptoSession crypto = CryptoSession.establish(keyPair.getPrivate(), Base64.getDecoder().decode(publicKey));
+            response.put("encryption", CryptoSession.ALGORITHM);
+            response.put("publicKey", Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+            return crypto;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            logger.warn("Key exchange failed, continuing without frame encryption: {}", e.getMessage());
+            return null;
         }
     }
 
+    private void sendMessage(Channel channel, Message message) {
+        connectionService.send(channel, message);
+    }
+
     private void handleNotification(Message message) {
-        if (notificationCallback != null) {
-            String id = message.getDataField("id");
-            String packageName = message.getDataField("packageName");
-            String appName = message.getDataField("appName");
-            String title = message.getDataField("title");
-            String content = message.getDataField("text");
-            String icon = message.getDataField("icon");
-            notificationCallback.onNotification(id, packageName, appName, title, content, icon);
+        NotificationPayload notification = message.getPayload(NotificationPayload.class);
+        if (notificationCallback != null && notification != null) {
+            notificationCallback.onNotification(notification.id(), notification.packageName(),
+                    notification.appName(), notification.title(), notification.text(), notification.icon());
         }
     }
 
@@ -135,26 +348,39 @@ public class MessageHandler {
             smsCallback.onSMSMessage(message);
     }
 
-    private void handleCallState(Message message) {
+    private void handleCallState(Channel channel, Message message) {
+        CallStatePayload call = message.getPayload(CallStatePayload.class);
+        if (call == null || call.state() == null) {
+            return;
+        }
+        if (message.getReceivedAt() > 0) {
+            long ageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - message.getReceivedAt());
+            if (ageMillis > connectionService.getConfig().getCallStateMaxAgeMillis()) {
+                logger.info("Dropping call state {} from {}, received {} ms ago", call.state(),
+                        channel.remoteAddress(), ageMillis);
+                return;
+            }
+        }
         if (callCallback != null) {
-            String state = message.getDataField("state");
-            String number = message.getDataField("number");
-            String contactName = message.getDataField("contactName");
-            callCallback.onCallState(state, number, contactName);
+            callCallback.onCallState(call.state(), call.number(), call.contactName(), message.getReceivedAt());
         }
     }
 
     private void handleClipboard(Message message) {
-        if (clipboardCallback != null) {
-            String content = message.getDataField("content");
-            String contentType = message.getDataField("contentType");
-            clipboardCallback.onClipboardContent(content, contentType);
+        ClipboardPayload clipboard = message.getPayload(ClipboardPayload.class);
+        if (clipboardCallback != null && clipboard != null) {
+            clipboardCallback.onClipboardContent(clipboard.content(), clipboard.contentType());
         }
     }
 
-    private void handleFile(Message message) {
+    private void handleFile(Channel channel, Message message) {
+        DeviceSession session = connectionService.getDevice(channel);
+        if (session == null) {
+            logger.warn("Ignoring {} from unpaired connection {}", message.getType(), channel.remoteAddress());
+            return;
+        }
         if (fileCallback != null)
-            fileCallback.onFileMessage(message);
+            fileCallback.onFileMessage(session.getDeviceId(), message);
     }
 
     private void handleError(Message message) {
@@ -177,6 +403,15 @@ public class MessageHandler {
 
     public interface NotificationCallback {
         void onNotification(String id, String packageName, String appName, String title, String content, String icon);
+
+        /**
+         * Called with notifications that arrived together in a batch, oldest first.
+         */
+        default void onNotifications(List<NotificationPayload> notifications) {
+            for (NotificationPayload n : notifications) {
+                onNotification(n.id(), n.packageName(), n.appName(), n.title(), n.text(), n.icon());
+            }
+        }
     }
 
     public interface SMSCallback {
@@ -185,6 +420,13 @@ public class MessageHandler {
 
     public interface CallCallback {
         void onCallState(String state, String number, String contactName);
+
+        /**
+         * @param receivedAt {@link System#nanoTime()} when the event was read off the wire
+         */
+        default void onCallState(String state, String number, String contactName, long receivedAt) {
+            onCallState(state, number, contactName);
+        }
     }
 
     public interface ClipboardCallback {
@@ -192,7 +434,7 @@ public class MessageHandler {
     }
 
     public interface FileCallback {
-        void onFileMessage(Message message);
+        void onFileMessage(String deviceId, Message message);
     }
 
     public interface SimListCallback {
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.phoneunison.desktop.protocol.payload.PayloadAdapters;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Streaming Gson adapter for {@link Message}.
+ *
+ * <p>When the type is known by the time {@code data} is reached, which is the case for every
+ * message serialized field by field, a typed payload is read directly from the stream. Messages
+ * that put {@code data} first are buffered as a tree and converted once the type is known.
+ * All other types keep the generic {@code Map<String, Object>} data.
+ */
+final class MessageTypeAdapter extends TypeAdapter<Message> {
+
+    static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != Message.class) {
+                return null;
+            }
+            return (TypeAdapter<T>) new MessageTypeAdapter(
+                    gson.getAdapter(new TypeToken<Map<String, Object>>() {
+                    }),
+                    gson.getAdapter(JsonElement.class));
+        }
+    };
+
+    private final TypeAdapter<Map<String, Object>> mapAdapter;
+    private final TypeAdapter<JsonElement> treeAdapter;
+
+    private MessageTypeAdapter(TypeAdapter<Map<String, Object>> mapAdapter, TypeAdapter<JsonElement> treeAdapter) {
+        this.mapAdapter = mapAdapter;
+        this.treeAdapter = treeAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("version").value(message.getVersion());
+        if (message.getType() != null) {
+            out.name("type").value(message.getType());
+        }
+        if (message.getId() != null) {
+            out.name("id").value(message.getId());
+        }
+        out.name("timestamp").value(message.getTimestamp());
+        if (message.getSeq() > 0) {
+            out.name("seq").value(message.getSeq());
+        }
+        if (message.getReplyTo() != null) {
+            out.name("replyTo").value(message.getReplyTo());
+        }
+        TypeAdapter<Object> payloadAdapter = PayloadAdapters.forType(message.getType());
+        if (message.getData() != null) {
+            out.name("data");
+            mapAdapter.write(out, message.getData());
+        } else if (message.getPayload() != null && payloadAdapter != null) {
+            out.name("data");
+            payloadAdapter.write(out, message.getPayload());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        return read(in, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Reads a message, passing batches of a large SMS list or thread to {@code batches} while
+     * they are parsed. Each batch is delivered as its own message carrying the envelope fields
+     * read so far; the returned message holds the final batch.
+     */
+    Message read(JsonReader in, int batchSize, Consumer<Message> batches) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Message message = Message.forDecoding();
+        JsonElement pendingData = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "version" -> message.setVersion(in.nextInt());
+                case "type" -> message.setType(nextNullableString(in));
+                case "id" -> message.setId(nextNullableString(in));
+                case "timestamp" -> message.setTimestamp(in.nextLong());
+                case "seq" -> message.setSeq(in.nextLong());
+                case "replyTo" -> message.setReplyTo(nextNullableString(in));
+                case "data" -> {
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                    } else if (message.getType() == null) {
+                        pendingData = treeAdapter.read(in);
+                    } else {
+                        readData(in, message, batchSize, batches);
+                    }
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        if (pendingData != null) {
+            TypeAdapter<Object> payloadAdapter = PayloadAdapters.forType(message.getType());
+            if (payloadAdapter != null) {
+                message.setPayload(payloadAdapter.fromJsonTree(pendingData));
+            } else {
+                message.setData(mapAdapter.fromJsonTree(pendingData));
+            }
+        }
+        return message;
+    }
+
+    private void readData(JsonReader in, Message message, int batchSize, Consumer<Message> batches)
+            throws IOException {
+        TypeAdapter<Object> payloadAdapter = PayloadAdapters.forType(message.getType());
+        if (payloadAdapter != null && in.peek() == JsonToken.BEGIN_OBJECT) {
+            if (batches != null) {
+                message.setPayload(PayloadAdapters.readBatched(message.getType(), in, batchSize,
+                        payload -> batches.accept(withPayload(message, payload))));
+            } else {
+                message.setPayload(payloadAdapter.read(in));
+            }
+        } else {
+            message.setData(mapAdapter.read(in));
+        }
+    }
+
+    private static Message withPayload(Message envelope, Object payload) {
+        Message message = Message.forDecoding();
+        message.setVersion(envelope.getVersion());
+        message.setType(envelope.getType());
+        message.setId(envelope.getId());
+        message.setTimestamp(envelope.getTimestamp());
+        message.setSeq(envelope.getSeq());
+        message.setReplyTo(envelope.getReplyTo());
+        message.setPayload(payload);
+        return message;
+    }
+
+    private static String nextNullableString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
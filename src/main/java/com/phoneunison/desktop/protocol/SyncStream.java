@@ -0,0 +1,52 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+/**
+ * Phone state the desktop mirrors and can catch up on after a reconnect. The phone numbers
+ * the messages of each stream with {@link Message#getSeq()}, and a resumed phone only sends
+ * what came after the last sequence number the desktop acknowledged.
+ */
+public enum SyncStream {
+    NOTIFICATIONS("notifications"),
+    SMS("sms"),
+    SIMS("sims");
+
+    private final String id;
+
+    SyncStream(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the stream a message type belongs to, or null if it is not sequenced.
+     */
+    public static SyncStream of(String type) {
+        if (type == null) {
+            return null;
+        }
+        return switch (type) {
+            case Message.NOTIFICATION -> NOTIFICATIONS;
+            case Message.SMS_LIST, Message.SMS_RECEIVED -> SMS;
+            case Message.SIM_LIST -> SIMS;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+/**
+ * Scheduling priority of a message type, highest first.
+ */
+public enum TrafficClass {
+    /** Heartbeats, pairing and call control. */
+    CONTROL,
+    /** SMS sends and conversation requests. */
+    SMS,
+    /** Notifications, clipboard and anything not listed elsewhere. */
+    INTERACTIVE,
+    /** File transfer and large list payloads. */
+    BULK;
+
+    public static TrafficClass of(String type) {
+        if (type == null) {
+            return INTERACTIVE;
+        }
+        return switch (type) {
+            case Message.HEARTBEAT, Message.PAIRING_REQUEST, Message.PAIRING_RESPONSE,
+                    Message.CALL_STATE, Message.CALL_ACTION, Message.CALL_DIAL, Message.ERROR,
+                    Message.CANCEL, Message.HELLO -> CONTROL;
+            case Message.SMS_SEND, Message.SMS_RECEIVED, Message.SMS_LIST, Message.SMS_MESSAGES -> SMS;
+            case Message.FILE_OFFER, Message.FILE_ACCEPT, Message.FILE_CHUNK, Message.FILE_COMPLETE -> BULK;
+            default -> INTERACTIVE;
+        };
+    }
+
+    /**
+     * Whether a queued frame of this type may be dropped to make room for a newer one. Only
+     * interactive traffic qualifies; control frames and what the user sent must go out or fail
+     * where the sender can see it.
+     */
+    public static boolean isDroppable(String type) {
+        return of(type) == INTERACTIVE && !Message.NOTIFICATION_ACTION.equals(type);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol.payload;
+
+import com.phoneunison.desktop.protocol.Message;
+
+import java.util.List;
+
+/**
+ * Messages sent together in one {@code BATCH} frame, handled in order as if each had arrived
+ * on its own. Batches do not nest.
+ */
+public record BatchPayload(List<Message> messages) {
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol.payload;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Hand-written streaming adapters for the typed payloads, keyed by message type.
+ *
+ * <p>Each adapter reads its fields straight off the {@link JsonReader} into the final record,
+ * with no intermediate map and no boxed numbers. Unknown fields are skipped, missing ones keep
+ * their defaults, and numbers sent as strings (or ids sent as numbers) are accepted so the
+ * desktop does not depend on how the phone happens to serialize them.
+ */
+public final class PayloadAdapters {
+
+    private static final SmsListAdapter SMS_LIST = new SmsListAdapter();
+    private static final SmsMessagesAdapter SMS_MESSAGES = new SmsMessagesAdapter();
+    private static final Map<String, TypeAdapter<?>> BY_TYPE = Map.of(
+            Message.NOTIFICATION, new NotificationAdapter(),
+            Message.SMS_LIST, SMS_LIST,
+            Message.SMS_MESSAGES, SMS_MESSAGES,
+            Message.CALL_STATE, new CallStateAdapter(),
+            Message.SIM_LIST, new SimListAdapter(),
+            Message.CLIPBOARD, new ClipboardAdapter(),
+            Message.FILE_OFFER, new FileOfferAdapter(),
+            Message.BATCH, new BatchAdapter());
+
+    private PayloadAdapters() {
+    }
+
+    /**
+     * Returns the payload adapter for a message type, or null if the type has no typed payload.
+     */
+    @SuppressWarnings("unchecked")
+    public static TypeAdapter<Object> forType(String type) {
+        return type != null ? (TypeAdapter<Object>) BY_TYPE.get(type) : null;
+    }
+
+    /**
+     * Reads a payload and hands its items to {@code batches} as soon as {@code batchSize} of them
+     * have been parsed, so a large list never has to be held in full. Only SMS lists and threads
+     * are split; the returned payload is the final batch, or the whole payload for other types.
+     */
+    public static Object readBatched(String type, JsonReader in, int batchSize, Consumer<Object> batches)
+            throws IOException {
+        return switch (type) {
+            case Message.SMS_LIST -> SMS_LIST.read(in, batchSize, batches);
+            case Message.SMS_MESSAGES -> SMS_MESSAGES.read(in, batchSize, batches);
+            default -> forType(type).read(in);
+        };
+    }
+
+    private static final class BatchAdapter extends TypeAdapter<BatchPayload> {
+        @Override
+        public BatchPayload read(JsonReader in) throws IOException {
+            TypeAdapter<Message> messages = MessageCodec.gson().getAdapter(Message.class);
+            List<Message> batch = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("messages") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        batch.add(messages.read(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new BatchPayload(batch);
+        }
+
+        @Override
+        public void write(JsonWriter out, BatchPayload value) throws IOException {
+            TypeAdapter<Message> messages = MessageCodec.gson().getAdapter(Message.class);
+            out.beginObject();
+            out.name("messages").beginArray();
+            for (Message message : value.messages()) {
+                messages.write(out, message);
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    private static final class NotificationAdapter extends TypeAdapter<NotificationPayload> {
+        @Override
+        public NotificationPayload read(JsonReader in) throws IOException {
+            String id = null, packageName = null, appName = null, title = null, text = null, icon = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> id = nextString(in);
+                    case "packageName" -> packageName = nextString(in);
+                    case "appName" -> appName = nextString(in);
+                    case "title" -> title = nextString(in);
+                    case "text" -> text = nextString(in);
+                    case "icon" -> icon = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new NotificationPayload(id, packageName, appName, title, text, icon);
+        }
+
+        @Override
+        public void write(JsonWriter out, NotificationPayload value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id());
+            out.name("packageName").value(value.packageName());
+            out.name("appName").value(value.appName());
+            out.name("title").value(value.title());
+            out.name("text").value(value.text());
+            out.name("icon").value(value.icon());
+            out.endObject();
+        }
+    }
+
+    private static final class SmsListAdapter extends TypeAdapter<SmsListPayload> {
+        @Override
+        public SmsListPayload read(JsonReader in) throws IOException {
+            return read(in, Integer.MAX_VALUE, null);
+        }
+
+        SmsListPayload read(JsonReader in, int batchSize, Consumer<? super SmsListPayload> batches)
+                throws IOException {
+            List<SmsConversation> conversations = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            Boolean delta = null;
+            int offset = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("conversations") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        conversations.add(readConversation(in));
+                        // A batch flagged wrongly would replace the list instead of updating it,
+                        // so hold them until the delta flag is known
+                        if (conversations.size() >= batchSize && delta != null) {
+                            batches.accept(new SmsListPayload(conversations, List.of(), delta, offset, false));
+                            offset += conversations.size();
+                            conversations = new ArrayList<>();
+                        }
+                    }
+                    in.endArray();
+                } else if (name.equals("removed") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        removed.add(nextString(in));
+                    }
+                    in.endArray();
+                } else if (name.equals("delta") && in.peek() == JsonToken.BOOLEAN) {
+                    delta = in.nextBoolean();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SmsListPayload(conversations, removed, delta != null && delta, offset, true);
+        }
+
+        private SmsConversation readConversation(JsonReader in) throws IOException {
+            String threadId = null, address = null, contactName = null, snippet = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "threadId" -> threadId = nextString(in);
+                    case "address" -> address = nextString(in);
+                    case "contactName" -> contactName = nextString(in);
+                    case "snippet" -> snippet = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SmsConversation(threadId, address, contactName, snippet);
+        }
+
+        @Override
+        public void write(JsonWriter out, SmsListPayload value) throws IOException {
+            out.beginObject();
+            out.name("delta").value(value.delta());
+            out.name("conversations").beginArray();
+            for (SmsConversation c : value.conversations()) {
+                out.beginObject();
+                out.name("threadId").value(c.threadId());
+                out.name("address").value(c.address());
+                out.name("contactName").value(c.contactName());
+                out.name("snippet").value(c.snippet());
+                out.endObject();
+            }
+            out.endArray();
+            if (!value.removed().isEmpty()) {
+                out.name("removed").beginArray();
+                for (String threadId : value.removed()) {
+                    out.value(threadId);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+
+    private static final class SmsMessagesAdapter extends TypeAdapter<SmsMessagesPayload> {
+        @Override
+        public SmsMessagesPayload read(JsonReader in) throws IOException {
+            return read(in, Integer.MAX_VALUE, null);
+        }
+
+        SmsMessagesPayload read(JsonReader in, int batchSize, Consumer<? super SmsMessagesPayload> batches)
+                throws IOException {
+            String threadId = null;
+            List<SmsEntry> messages = new ArrayList<>();
+            int offset = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("threadId")) {
+                    threadId = nextString(in);
+                } else if (name.equals("messages") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        messages.add(readEntry(in));
+                        // Batches are useless without the thread id, so hold them until it is known
+                        if (messages.size() >= batchSize && threadId != null) {
+                            batches.accept(new SmsMessagesPayload(threadId, messages, offset, false));
+                            offset += messages.size();
+                            messages = new ArrayList<>();
+                        }
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SmsMessagesPayload(threadId, messages, offset, true);
+        }
+
+        private SmsEntry readEntry(JsonReader in) throws IOException {
+            String body = null;
+            long timestamp = 0;
+            int type = SmsEntry.TYPE_INBOX;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "body" -> body = nextString(in);
+                    case "timestamp" -> timestamp = nextLong(in, 0);
+                    case "type" -> type = (int) nextLong(in, SmsEntry.TYPE_INBOX);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SmsEntry(body, timestamp, type);
+        }
+
+        @Override
+        public void write(JsonWriter out, SmsMessagesPayload value) throws IOException {
+            out.beginObject();
+            out.name("threadId").value(value.threadId());
+            out.name("messages").beginArray();
+            for (SmsEntry entry : value.messages()) {
+                out.beginObject();
+                out.name("body").value(entry.body());
+                out.name("timestamp").value(entry.timestamp());
+                out.name("type").value(entry.type());
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    private static final class CallStateAdapter extends TypeAdapter<CallStatePayload> {
+        @Override
+        public CallStatePayload read(JsonReader in) throws IOException {
+            String state = null, number = null, contactName = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "state" -> state = nextString(in);
+                    case "number" -> number = nextString(in);
+                    case "contactName" -> contactName = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new CallStatePayload(state, number, contactName);
+        }
+
+        @Override
+        public void write(JsonWriter out, CallStatePayload value) throws IOException {
+            out.beginObject();
+            out.name("state").value(value.state());
+            out.name("number").value(value.number());
+            out.name("contactName").value(value.contactName());
+            out.endObject();
+        }
+    }
+
+    private static final class SimListAdapter extends TypeAdapter<SimListPayload> {
+        @Override
+        public SimListPayload read(JsonReader in) throws IOException {
+            List<SimCardInfo> sims = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("sims") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        sims.add(readSim(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SimListPayload(sims);
+        }
+
+        private SimCardInfo readSim(JsonReader in) throws IOException {
+            int subscriptionId = -1;
+            String displayName = null, carrierName = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "subscriptionId" -> subscriptionId = (int) nextLong(in, -1);
+                    case "displayName" -> displayName = nextString(in);
+                    case "carrierName" -> carrierName = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new SimCardInfo(subscriptionId, displayName, carrierName);
+        }
+
+        @Override
+        public void write(JsonWriter out, SimListPayload value) throws IOException {
+            out.beginObject();
+            out.name("sims").beginArray();
+            for (SimCardInfo sim : value.sims()) {
+                out.beginObject();
+                out.name("subscriptionId").value(sim.subscriptionId());
+                out.name("displayName").value(sim.displayName());
+                out.name("carrierName").value(sim.carrierName());
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    private static final class ClipboardAdapter extends TypeAdapter<ClipboardPayload> {
+        @Override
+        public ClipboardPayload read(JsonReader in) throws IOException {
+            String content = null, contentType = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "content" -> content = nextString(in);
+                    case "contentType" -> contentType = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ClipboardPayload(content, contentType);
+        }
+
+        @Override
+        public void write(JsonWriter out, ClipboardPayload value) throws IOException {
+            out.beginObject();
+            out.name("content").value(value.content());
+            out.name("contentType").value(value.contentType());
+            out.endObject();
+        }
+    }
+
+    private static final class FileOfferAdapter extends TypeAdapter<FileOfferPayload> {
+        @Override
+        public FileOfferPayload read(JsonReader in) throws IOException {
+            String fileName = null, uri = null, sha256 = null;
+            long fileSize = -1;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileName" -> fileName = nextString(in);
+                    case "uri" -> uri = nextString(in);
+                    case "fileSize" -> fileSize = nextLong(in, -1);
+                    case "sha256" -> sha256 = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FileOfferPayload(fileName, uri, fileSize, sha256);
+        }
+
+        @Override
+        public void write(JsonWriter out, FileOfferPayload value) throws IOException {
+            out.beginObject();
+            out.name("fileName").value(value.fileName());
+            out.name("uri").value(value.uri());
+            out.name("fileSize").value(value.fileSize());
+            if (value.sha256() != null) {
+                out.name("sha256").value(value.sha256());
+            }
+            out.endObject();
+        }
+    }
+
+    /**
+     * Reads a string, also accepting numbers and booleans as their literal text.
+     */
+    static String nextString(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            case STRING, NUMBER -> in.nextString();
+            case BOOLEAN -> Boolean.toString(in.nextBoolean());
+            default -> {
+                in.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    /**
+     * Reads an integral number, also accepting numeric strings and values such as {@code 3.5}.
+     */
+    static long nextLong(JsonReader in, long defaultValue) throws IOException {
+        switch (in.peek()) {
+            case NUMBER -> {
+                try {
+                    return in.nextLong();
+                } catch (NumberFormatException e) {
+                    // The reader keeps the number buffered when it does not fit a long
+                    return (long) in.nextDouble();
+                }
+            }
+            case STRING -> {
+                String text = in.nextString();
+                try {
+                    return Long.parseLong(text);
+                } catch (NumberFormatException e) {
+                    try {
+                        return (long) Double.parseDouble(text);
+                    } catch (NumberFormatException ignored) {
+                        return defaultValue;
+                    }
+                }
+            }
+            default -> {
+                in.skipValue();
+                return defaultValue;
+            }
+        }
+    }
+}
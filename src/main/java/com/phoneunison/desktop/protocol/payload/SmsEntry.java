@@ -0,0 +1,31 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol.payload;
+
+/**
+ * One message of an {@link SmsMessagesPayload}.
+ *
+ * @param type Android message box: 1 for inbox, 2 for sent
+ */
+public record SmsEntry(String body, long timestamp, int type) {
+
+    public static final int TYPE_INBOX = 1;
+    public static final int TYPE_SENT = 2;
+
+    public boolean isIncoming() {
+        return type == TYPE_INBOX;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol.payload;
+
+import java.util.List;
+
+/**
+ * The conversation list sent in reply to {@code SMS_LIST}, or one batch of it when a large
+ * list is decoded progressively.
+ *
+ * <p>A resumed phone sends a delta instead: only the conversations that changed since the
+ * sequence number the desktop acknowledged, plus the ids of the ones that were deleted. Batches
+ * are only decoded from a stream once the {@code delta} flag is known, so a sender that wants
+ * a large list split writes the flag, true or false, before the conversations.
+ *
+ * @param removed  thread ids of deleted conversations, only used by deltas
+ * @param delta    whether the conversations update the current list instead of replacing it
+ * @param offset   index of the first conversation in the full list; 0 starts a new list
+ * @param complete whether this is the last batch
+ */
+public record SmsListPayload(List<SmsConversation> conversations, List<String> removed, boolean delta,
+        int offset, boolean complete) {
+
+    public SmsListPayload(List<SmsConversation> conversations, int offset, boolean complete) {
+        this(conversations, List.of(), false, offset, complete);
+    }
+
+    public SmsListPayload(List<SmsConversation> conversations) {
+        this(conversations, 0, true);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol.payload;
+
+import java.util.List;
+
+/**
+ * The messages of one thread, sent in reply to {@code SMS_MESSAGES}, or one batch of them when a
+ * large thread is decoded progressively.
+ *
+ * @param offset   index of the first message in the thread; 0 starts a new thread listing
+ * @param complete whether this is the last batch
+ */
+public record SmsMessagesPayload(String threadId, List<SmsEntry> messages, int offset, boolean complete) {
+
+    public SmsMessagesPayload(String threadId, List<SmsEntry> messages) {
+        this(threadId, messages, 0, true);
+    }
+}
@@ -102,14 +102,13 @@ public class ClipboardService implements ClipboardOwner {
 
     private void sendClipboardToDevice(String content) {
         logger.debug("Sending clipboard to device: {} chars", content.length());
-        if (connectionService.isConnected()) {
-            java.util.Map<String, Object> data = new java.util.HashMap<>();
-            data.put("content", content);
-            data.put("contentType", "text/plain");
-            com.phoneunison.desktop.protocol.Message message = new com.phoneunison.desktop.protocol.Message(
-                    com.phoneunison.desktop.protocol.Message.CLIPBOARD, data);
-            connectionService.broadcast(message);
-        }
+        // Also while no phone is connected: the broadcast keeps it for the paired ones
+        java.util.Map<String, Object> data = new java.util.HashMap<>();
+        data.put("content", content);
+        data.put("contentType", "text/plain");
+        com.phoneunison.desktop.protocol.Message message = new com.phoneunison.desktop.protocol.Message(
+                com.phoneunison.desktop.protocol.Message.CLIPBOARD, data);
+        connectionService.broadcast(message);
     }
 
     @Override
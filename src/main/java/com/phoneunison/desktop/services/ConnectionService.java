@@ -15,67 +15,145 @@
  */
 package com.phoneunison.desktop.services;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.phoneunison.desktop.config.AppConfig;
 import com.phoneunison.desktop.config.PairedDevice;
+import com.phoneunison.desktop.protocol.FeatureSet;
 import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
 import com.phoneunison.desktop.protocol.MessageHandler;
+import com.phoneunison.desktop.protocol.payload.FileOfferPayload;
 import com.phoneunison.desktop.utils.CryptoUtils;
+import com.phoneunison.desktop.utils.TlsIdentity;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.ssl.OptionalSslHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLException;
+import com.phoneunison.desktop.network.CompressionStats;
+import com.phoneunison.desktop.network.ContentIndex;
+import com.phoneunison.desktop.network.CryptoSession;
+import com.phoneunison.desktop.network.FileSender;
+import com.phoneunison.desktop.network.FolderSyncHandler;
+import com.phoneunison.desktop.network.LinkQuality;
+import com.phoneunison.desktop.network.MessageBatcher;
+import com.phoneunison.desktop.network.NettyTransport;
+import com.phoneunison.desktop.network.OutboundQueue;
+import com.phoneunison.desktop.network.TransferControl;
 import com.phoneunison.desktop.network.UDPDiscoveryService;
 
 public class ConnectionService {
 
     private static final Logger logger = LoggerFactory.getLogger(ConnectionService.class);
-    private static final Gson gson = new GsonBuilder().create();
+    // Text frames larger than this are parsed as a stream so their items arrive in batches
+    private static final int STREAM_THRESHOLD = 64 * 1024;
+    private static final int STREAM_BATCH_SIZE = 200;
 
     private final AppConfig config;
     private final BooleanProperty connected = new SimpleBooleanProperty(false);
-    private final ConcurrentHashMap<String, Channel> connectedDevices = new ConcurrentHashMap<>();
+    private final DeviceRegistry devices = new DeviceRegistry();
+    // Outlives the connections so a reconnecting phone can resume
+    private final Map<String, ResumeState> resumeStates = new ConcurrentHashMap<>();
+    private final LatencyHistogram callStateLatency = new LatencyHistogram();
     private final MessageHandler messageHandler;
+    // Messages for paired devices that are away; null when disabled
+    private final OutboundJournal outbox;
+    // Journaled messages whose replayed frame is waiting to be written, by entry id
+    private final ConcurrentMap<String, Channel> replaying = new ConcurrentHashMap<>();
+    private final TransferManager transfers;
+    // Hashes of the files in the download directory
+    private final ContentIndex contentIndex;
+    private volatile String lastActiveDeviceId;
     private UDPDiscoveryService udpDiscovery;
 
+    private NettyTransport transport;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
     private Channel serverChannel;
+    private volatile FileSender fileSender;
+
+    private volatile TlsIdentity tlsIdentity;
+    private volatile SslContext sslContext;
 
     private String currentPairingCode;
     private String currentPublicKey;
     private long pairingExpiry;
-    private final IntegerProperty batteryLevel = new SimpleIntegerProperty(0);
+    private final IntegerProperty batteryLevel = new SimpleIntegerProperty(-1);
     private final StringProperty deviceNameProperty = new SimpleStringProperty("No Device Connected");
-    private String connectedDeviceName;
+    private final IntegerProperty rttMillis = new SimpleIntegerProperty(-1);
+    private final IntegerProperty jitterMillis = new SimpleIntegerProperty(-1);
+    private final ObjectProperty<DeviceSession> activeDevice = new SimpleObjectProperty<>();
+    private final ObservableList<DeviceSession> deviceList = FXCollections.observableArrayList();
 
     public ConnectionService(AppConfig config) {
         this.config = config;
         this.messageHandler = new MessageHandler(this);
+        this.outbox = config.isOutboxEnabled()
+                ? new OutboundJournal(AppConfig.getConfigDirectory().resolve("outbox"), config.getOutboxMaxEntries(),
+                        TimeUnit.MINUTES.toMillis(config.getOutboxMaxAgeMinutes()))
+                : null;
+        this.contentIndex = new ContentIndex(AppConfig.getConfigDirectory().resolve("content-index.txt"),
+                Path.of(config.getDownloadDir()));
+        this.transfers = new TransferManager(this, config);
 
-        this.messageHandler.setFileCallback(message -> {
-            if (Message.FILE_OFFER.equals(message.getType())) {
-                String fileName = message.getDataField("fileName");
-                String uri = message.getDataField("uri");
+        this.messageHandler.setFileCallback((deviceId, message) -> {
+            FileOfferPayload offer = message.getPayload(FileOfferPayload.class);
+            if (offer != null) {
+                String fileName = offer.fileName();
 
                 if (fileName == null || fileName.isEmpty()) {
                     logger.warn("Received file offer with null/empty fileName");
@@ -86,11 +164,17 @@ public class ConnectionService {
 
                 java.util.Map<String, Object> data = new java.util.HashMap<>();
                 data.put("fileName", fileName);
-                if (uri != null) {
-                    data.put("uri", uri);
+                if (offer.uri() != null) {
+                    data.put("uri", offer.uri());
+                }
+                Path existing = ContentIndex.isDigest(offer.sha256()) ? contentIndex.find(offer.sha256()) : null;
+                if (existing != null) {
+                    // The phone need not send it; the upload would be answered as a duplicate anyway
+                    logger.info("{} is already in the download directory as {}", fileName, existing.getFileName());
+                    data.put("duplicate", true);
                 }
 
-                sendMessage(null, new Message(Message.FILE_ACCEPT, data));
+                sendMessage(deviceId, new Message(Message.FILE_ACCEPT, data));
             }
         });
     }
@@ -100,32 +184,84 @@ public class ConnectionService {
             logger.warn("Server already running");
             return;
         }
-        bossGroup = new NioEventLoopGroup(1);
+        if (config.isTlsEnabled()) {
+            TlsIdentity identity = TlsIdentity.load(AppConfig.getConfigDirectory());
+            if (identity != null) {
+                applyTlsIdentity(identity);
+            }
+        }
+        transport = NettyTransport.select(config.getTransport());
+        bossGroup = transport.newEventLoopGroup(1);
         int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
-        workerGroup = new NioEventLoopGroup(workerThreads);
+        workerGroup = transport.newEventLoopGroup(workerThreads);
+        fileSender = new FileSender(workerGroup, transport.socketChannelClass());
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
+                            ch.attr(OutboundQueue.KEY).set(new OutboundQueue(ch, config.getOutboundQueueCapacity()));
                             ChannelPipeline pipeline = ch.pipeline();
+                            SslContext ssl = sslContext;
+                            if (ssl != null) {
+                                // Unless TLS is required, ws:// keeps working on the same port
+                                pipeline.addLast("tls", config.isTlsRequired()
+                                        ? ssl.newHandler(ch.alloc()) : new OptionalSslHandler(ssl));
+                            }
                             pipeline.addLast(new HttpServerCodec());
+                            if (config.isFolderSyncEnabled()) {
+                                pipeline.addLast(new FolderSyncHandler(Path.of(config.getSyncDir()),
+                                        ConnectionService.this::isPairedHost));
+                            }
                             pipeline.addLast(new com.phoneunison.desktop.network.BasicFileUploadHandler(
-                                    config.getDownloadDir()));
+                                    config.getDownloadDir(), config.getUploadWriteBufferSize(), transfers, contentIndex,
+                                    ConnectionService.this::isPairedHost));
+                            // Only aggregates the upgrade request; WebSocket frames bypass it
                             pipeline.addLast(new HttpObjectAggregator(65536));
-                            pipeline.addLast(new WebSocketServerProtocolHandler("/phoneunison"));
-                            pipeline.addLast(new WebSocketFrameHandler());
+                            WebSocketServerProtocolConfig.Builder wsConfig = WebSocketServerProtocolConfig.newBuilder()
+                                    .websocketPath("/phoneunison")
+                                    .maxFramePayloadLength(config.getMaxFramePayloadLength());
+                            if (config.isCompressionEnabled()) {
+                                CompressionStats stats = new CompressionStats();
+                                ch.attr(CompressionStats.KEY).set(stats);
+                                pipeline.addLast(stats.wireSide());
+                                pipeline.addLast(new WebSocketServerExtensionHandler(
+                                        new PerMessageDeflateServerExtensionHandshaker(
+                                                config.getCompressionLevel(), false,
+                                                PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE,
+                                                false, false,
+                                                stats.filterProvider(config.getCompressionThreshold()))));
+                                wsConfig.allowExtensions(true);
+                                pipeline.addLast(new WebSocketServerProtocolHandler(wsConfig.build()));
+                                pipeline.addLast(stats.rawSide());
+                            } else {
+                                pipeline.addLast(new WebSocketServerProtocolHandler(wsConfig.build()));
+                            }
+                            pipeline.addLast("frames", new WebSocketFrameHandler());
                         }
                     })
                     .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()));
+            if (config.getSocketSendBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, config.getSocketSendBufferSize());
+            }
+            if (config.getSocketReceiveBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, config.getSocketReceiveBufferSize());
+            }
             ChannelFuture future = bootstrap.bind(config.getServerPort()).sync();
             serverChannel = future.channel();
-            logger.info("WebSocket server started on port {}", config.getServerPort());
+            logger.info("WebSocket server started on port {} using {} transport (TCP_NODELAY={}, TLS={})",
+                    config.getServerPort(), transport.getId(), config.isTcpNoDelay(),
+                    sslContext == null ? "off" : config.isTlsRequired() ? "required" : "optional");
 
             startUDPDiscovery();
+            // Picks up files added to or removed from the download directory while we were not running
+            Thread.ofVirtual().name("content-index").start(contentIndex::rescan);
 
         } catch (Exception e) {
             logger.error("Failed to start WebSocket server", e);
@@ -157,12 +293,23 @@ public class ConnectionService {
         }
         if (serverChannel != null)
             serverChannel.close();
+        if (fileSender != null) {
+            fileSender.close();
+            fileSender = null;
+        }
         if (bossGroup != null)
             bossGroup.shutdownGracefully();
         if (workerGroup != null)
             workerGroup.shutdownGracefully();
-        connectedDevices.clear();
-        Platform.runLater(() -> connected.set(false));
+        devices.clear();
+        publishDevices();
+        if (outbox != null) {
+            try {
+                outbox.flush(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         logger.info("WebSocket server stopped");
     }
 
@@ -176,6 +323,14 @@ public class ConnectionService {
             logger.error("Failed to generate key pair", e);
             currentPublicKey = "";
         }
+        if (config.isTlsEnabled() && tlsIdentity == null) {
+            try {
+                applyTlsIdentity(TlsIdentity.create(AppConfig.getConfigDirectory(),
+                        "PhoneUnison " + InetAddress.getLocalHost().getHostName()));
+            } catch (Exception e) {
+                logger.error("Failed to create TLS identity, pairing without TLS", e);
+            }
+        }
         logger.info("Generated pairing code: {}", currentPairingCode);
         return currentPairingCode;
     }
@@ -183,8 +338,13 @@ public class ConnectionService {
     public String getPairingQRContent() {
         try {
             String localIp = InetAddress.getLocalHost().getHostAddress();
-            return String.format("{\"ip\":\"%s\",\"port\":%d,\"code\":\"%s\",\"key\":\"%s\"}", localIp,
-                    config.getServerPort(), currentPairingCode, currentPublicKey);
+            TlsIdentity identity = sslContext != null ? tlsIdentity : null;
+            // The phone pins this fingerprint and uses wss:// from then on
+            String tls = identity != null
+                    ? String.format(",\"tls\":true,\"certSha256\":\"%s\"", identity.getFingerprint())
+                    : "";
+            return String.format("{\"ip\":\"%s\",\"port\":%d,\"code\":\"%s\",\"key\":\"%s\"%s}", localIp,
+                    config.getServerPort(), currentPairingCode, currentPublicKey, tls);
         } catch (Exception e) {
             logger.error("Failed to get local IP", e);
             return "";
@@ -209,55 +369,181 @@ public class ConnectionService {
         return true;
     }
 
-    public void confirmConnection(String deviceId, String deviceName, Channel channel) {
-        connectedDevices.put(deviceId, channel);
+    /**
+     * Registers a paired connection. If the phone presented the resume token it was last given,
+     * the session continues from the device's previous state; either way a new token is issued.
+     */
+    public DeviceSession confirmConnection(String deviceId, String deviceName, Channel channel,
+            String resumeToken) {
+        ResumeState previousState = resumeStates.get(deviceId);
+        boolean resumed = previousState != null && previousState.matches(resumeToken);
+        ResumeState resumeState = resumed ? previousState : new ResumeState(deviceId);
+        if (resumed) {
+            resumeState.rotateToken();
+        }
+        resumeStates.put(deviceId, resumeState);
+        DeviceSession session = new DeviceSession(deviceId, deviceName, channel, resumeState, resumed,
+                new PendingRequests(cancel -> send(channel, cancel)));
+        DeviceSession previous = devices.register(session);
+        lastActiveDeviceId = deviceId;
+        if (previous != null && previous.getChannel() != channel) {
+            logger.info("Device {} reconnected, closing its previous connection", deviceId);
+            previous.getChannel().close();
+        }
         currentPairingCode = null;
         pairingExpiry = 0;
-        this.connectedDeviceName = deviceName;
-        Platform.runLater(() -> {
-            connected.set(true);
-            deviceNameProperty.set(deviceName);
-        });
 
         PairedDevice device = new PairedDevice(deviceId, deviceName, "");
         device.setLastConnected(System.currentTimeMillis());
         config.addPairedDevice(device);
 
-        Platform.runLater(() -> connected.set(true));
-        logger.info("Device connected and registered: {} ({})", deviceName, deviceId);
+        publishDevices();
+        logger.info("Device {}: {} ({}), {} device(s) connected", resumed ? "resumed" : "connected",
+                deviceName, deviceId, devices.size());
+        return session;
+    }
+
+    private void applyTlsIdentity(TlsIdentity identity) {
+        try {
+            sslContext = newServerContext(identity, config.getTlsSessionCacheSize(),
+                    config.getTlsSessionTimeoutSeconds());
+            tlsIdentity = identity;
+        } catch (Exception e) {
+            logger.error("Failed to set up TLS, continuing with plain WebSocket", e);
+        }
     }
 
+    /**
+     * The server side of wss://, keeping sessions so that reconnecting phones can resume them.
+     */
+    static SslContext newServerContext(TlsIdentity identity, int sessionCacheSize, int sessionTimeoutSeconds)
+            throws SSLException {
+        return SslContextBuilder.forServer(identity.getPrivateKey(), identity.getCertificate())
+                .protocols("TLSv1.3", "TLSv1.2")
+                .sessionCacheSize(sessionCacheSize)
+                .sessionTimeout(sessionTimeoutSeconds)
+                .build();
+    }
+
+    /**
+     * SHA-256 fingerprint of the certificate phones pin, or null while TLS is off.
+     */
+    public String getTlsFingerprint() {
+        TlsIdentity identity = tlsIdentity;
+        return identity != null ? identity.getFingerprint() : null;
+    }
+
+    /**
+     * Name of the active device, or null if no device is connected.
+     */
     public String getConnectedDeviceName() {
-        return connectedDeviceName;
+        DeviceSession session = devices.getActive();
+        return session != null ? session.getName() : null;
+    }
+
+    /**
+     * The device that UI actions (SMS, calls, files) are sent to, or null if none is connected.
+     * Safe to call from any thread.
+     */
+    public DeviceSession getActiveDevice() {
+        return devices.getActive();
+    }
+
+    public boolean isActiveDevice(Channel channel) {
+        DeviceSession session = devices.getActive();
+        return session != null && session.getChannel() == channel;
+    }
+
+    public void setActiveDevice(String deviceId) {
+        DeviceSession current = devices.getActive();
+        if (current != null && current.getDeviceId().equals(deviceId)) {
+            return;
+        }
+        if (devices.setActive(deviceId)) {
+            lastActiveDeviceId = deviceId;
+            logger.info("Active device is now {}", deviceId);
+            publishDevices();
+        }
+    }
+
+    public DeviceSession getDevice(String deviceId) {
+        return devices.get(deviceId);
+    }
+
+    public DeviceSession getDevice(Channel channel) {
+        return devices.get(channel);
+    }
+
+    /**
+     * Whether a phone at this address is connected and paired. Decides who may use /sync and
+     * learn from /upload whether a file is already here.
+     */
+    private boolean isPairedHost(InetAddress address) {
+        String host = address.getHostAddress();
+        return getDevices().stream().anyMatch(session -> host.equals(session.getHostAddress()));
+    }
+
+    public Collection<DeviceSession> getDevices() {
+        return devices.getSessions();
+    }
+
+    /**
+     * Connected devices for the UI, updated on the FX thread.
+     */
+    public ObservableList<DeviceSession> getDeviceList() {
+        return deviceList;
+    }
+
+    public ObjectProperty<DeviceSession> activeDeviceProperty() {
+        return activeDevice;
+    }
+
+    /**
+     * Mirrors the registry into the FX properties. The registry is read on the FX thread, so
+     * updates posted from several event loops cannot leave a stale snapshot behind.
+     */
+    private void publishDevices() {
+        Platform.runLater(() -> {
+            DeviceSession active = devices.getActive();
+            deviceList.setAll(devices.getSessions());
+            activeDevice.set(active);
+            connected.set(!devices.isEmpty());
+            deviceNameProperty.set(active != null ? active.getName() : "No Device Connected");
+            batteryLevel.set(active != null ? active.getBatteryLevel() : -1);
+            LinkQuality link = active != null ? active.getLinkQuality() : null;
+            rttMillis.set(link != null ? (int) Math.round(link.getSmoothedRttMillis()) : -1);
+            jitterMillis.set(link != null && link.getLastHeartbeatAt() > 0
+                    ? (int) Math.round(link.getJitterMillis()) : -1);
+        });
     }
 
     public void disconnectAndClear() {
         logger.info("User requested disconnect - clearing paired devices");
-        for (Channel channel : connectedDevices.values()) {
-            if (channel.isActive()) {
-                channel.close();
+        for (DeviceSession session : devices.getSessions()) {
+            if (session.isActive()) {
+                session.getChannel().close();
             }
         }
-        connectedDevices.clear();
-        connectedDeviceName = null;
+        devices.clear();
+        resumeStates.clear();
+        lastActiveDeviceId = null;
+        if (outbox != null) {
+            outbox.clear();
+        }
         config.clearPairedDevices();
-        Platform.runLater(() -> {
-            connected.set(false);
-            deviceNameProperty.set("No Device Connected");
-            batteryLevel.set(0);
-        });
+        // No phone pins the certificate anymore, so the next pairing gets a fresh one
+        TlsIdentity.delete(AppConfig.getConfigDirectory());
+        tlsIdentity = null;
+        sslContext = null;
+        publishDevices();
     }
 
+    /**
+     * IP address of the active device, or null if none is connected.
+     */
     public String getConnectedDeviceIP() {
-        for (Channel channel : connectedDevices.values()) {
-            if (channel.isActive()) {
-                java.net.SocketAddress address = channel.remoteAddress();
-                if (address instanceof java.net.InetSocketAddress) {
-                    return ((java.net.InetSocketAddress) address).getAddress().getHostAddress();
-                }
-            }
-        }
-        return null;
+        DeviceSession session = devices.getActive();
+        return session != null && session.isActive() ? session.getHostAddress() : null;
     }
 
     public StringProperty deviceNameProperty() {
@@ -268,36 +554,563 @@ public class ConnectionService {
         return batteryLevel;
     }
 
-    public void updateBatteryLevel(int level) {
-        Platform.runLater(() -> batteryLevel.set(level));
+    public void updateBatteryLevel(Channel channel, int level) {
+        DeviceSession session = devices.get(channel);
+        if (session == null) {
+            return;
+        }
+        session.setBatteryLevel(level);
+        if (devices.isActive(session)) {
+            Platform.runLater(() -> {
+                if (devices.isActive(session)) {
+                    batteryLevel.set(level);
+                }
+            });
+        }
+    }
+
+    /**
+     * The transport chosen at startup, or null before {@link #start()}.
+     */
+    public NettyTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Smoothed round-trip time of the active device's link in milliseconds, -1 while unknown.
+     */
+    public IntegerProperty rttMillisProperty() {
+        return rttMillis;
+    }
+
+    public IntegerProperty jitterMillisProperty() {
+        return jitterMillis;
+    }
+
+    public LinkQuality getLinkQuality(String deviceId) {
+        DeviceSession session = devices.get(deviceId);
+        return session != null ? session.getLinkQuality() : null;
+    }
+
+    public void recordHeartbeat(Channel channel, Message message) {
+        LinkQuality link = channel.attr(LinkQuality.KEY).get();
+        if (link == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        link.recordHeartbeat(message.getTimestamp(), now);
+        Object echo = message.getData() != null ? message.getData().get("echo") : null;
+        if (echo instanceof Number sentAt) {
+            link.recordEcho(sentAt.longValue(), now);
+        }
+        DeviceSession session = devices.get(channel);
+        if (!devices.isActive(session)) {
+            return;
+        }
+        int rtt = (int) Math.round(link.getSmoothedRttMillis());
+        int jitter = (int) Math.round(link.getJitterMillis());
+        Platform.runLater(() -> {
+            if (devices.isActive(session)) {
+                rttMillis.set(rtt);
+                jitterMillis.set(jitter);
+            }
+        });
+    }
+
+    public void sendHeartbeatAck(Channel channel) {
+        if (channel != null && channel.isActive()) {
+            enqueue(channel, Message.HEARTBEAT, MessageCodec.heartbeatAck(MessageCodec.getWireFormat(channel)));
+        }
+    }
+
+    private void sendHeartbeatProbe(Channel channel) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("timestamp", System.currentTimeMillis());
+        DeviceSession session = devices.get(channel);
+        if (session != null) {
+            // Lets the phone drop what the desktop has already applied
+            data.put("acked", session.getResumeState().getAckedSeqs());
+        }
+        send(channel, new Message(Message.HEARTBEAT, data));
+    }
+
+    /**
+     * Time from a CALL_STATE frame being read to the call view showing it, across all devices.
+     */
+    public LatencyHistogram getCallStateLatency() {
+        return callStateLatency;
     }
 
     public MessageHandler getMessageHandler() {
         return messageHandler;
     }
 
-    public void sendMessage(String deviceId, Message message) {
+    /**
+     * Sends a message to one device, or to all of them if {@code deviceId} is null.
+     *
+     * @see #sendToActiveDevice(Message)
+     */
+    public CompletableFuture<Void> sendMessage(String deviceId, Message message) {
         if (deviceId == null) {
             // Broadcast to all connected devices
             broadcast(message);
+            return CompletableFuture.completedFuture(null);
+        }
+        DeviceSession session = devices.get(deviceId);
+        if (session != null && session.isActive()) {
+            return deliver(session, message);
+        } else if (!keepForReconnect(deviceId, message)) {
+            logger.warn("Device not connected: {}", deviceId);
+            return CompletableFuture.failedFuture(new IllegalStateException("Device not connected"));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Sends a message to the active device only. While no device is connected, messages worth
+     * delivering late are kept for the device that was active last. The future completes once
+     * the message is written or kept for later, and fails if it could be neither, so the caller
+     * can tell the user.
+     */
+    public CompletableFuture<Void> sendToActiveDevice(Message message) {
+        DeviceSession session = devices.getActive();
+        if (session == null || !session.isActive()) {
+            String last = lastActiveDeviceId;
+            if (session == null && last != null && keepForReconnect(last, message)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            logger.warn("No active device for {}", message.getType());
+            return CompletableFuture.failedFuture(new IllegalStateException("No device connected"));
+        }
+        return deliver(session, message);
+    }
+
+    /**
+     * Sends a message to a connected device. A message that is refused by a full outbound queue,
+     * or lost because the channel closed before it was written, is kept in the outbox if its
+     * type is worth delivering late; otherwise the future fails.
+     */
+    private CompletableFuture<Void> deliver(DeviceSession session, Message message) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        send(session.getChannel(), message).addListener(future -> {
+            if (future.isSuccess()) {
+                result.complete(null);
+            } else if (keepForReconnect(session.getDeviceId(), message)) {
+                logger.warn("{} not sent to {} ({}), keeping it until the device reconnects", message.getType(),
+                        session, future.cause().getMessage());
+                result.complete(null);
+            } else {
+                logger.warn("{} not sent to {}: {}", message.getType(), session, future.cause().getMessage());
+                result.completeExceptionally(future.cause());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Journals a message for a paired device that is not connected. Returns false if the
+     * outbox is off, the device is unknown or the message type is not worth keeping.
+     */
+    private boolean keepForReconnect(String deviceId, Message message) {
+        if (outbox == null || config.getPairedDevice(deviceId) == null || !outbox.append(deviceId, message)) {
+            return false;
+        }
+        logger.debug("Device {} not connected, keeping {} until it reconnects", deviceId, message.getType());
+        return true;
+    }
+
+    /**
+     * Sends what was journaled for a device while it was away. Called once the pairing response
+     * is on its way, so the replay follows it.
+     *
+     * @see #replay
+     */
+    public void replayOutbox(DeviceSession session) {
+        if (outbox == null) {
             return;
         }
-        Channel channel = connectedDevices.get(deviceId);
-        if (channel != null && channel.isActive()) {
-            String json = gson.toJson(message);
-            channel.writeAndFlush(new TextWebSocketFrame(json));
+        outbox.pending(session.getDeviceId()).thenAccept(pending -> replay(outbox, session, pending, replaying));
+    }
+
+    /**
+     * Sends journaled messages to a device. A phone that acknowledges them keeps each in the
+     * journal until it does, so one lost with the link goes out again on the next connection,
+     * and its sequence number lets the phone drop a copy it already applied. For other phones an
+     * entry is forgotten once its frame was written to the socket; one refused by a full queue or
+     * lost to a closing channel stays for the next connection.
+     *
+     * <p>An entry is not sent again while its frame from an earlier replay is still waiting on a
+     * channel that is open, so a quick reconnect does not put it on the wire twice.
+     *
+     * @param replaying the channel each entry's frame is waiting on, by entry id
+     */
+    static void replay(OutboundJournal outbox, DeviceSession session, List<Message> pending,
+                       ConcurrentMap<String, Channel> replaying) {
+        String deviceId = session.getDeviceId();
+        Channel channel = session.getChannel();
+        if (pending.isEmpty() || !channel.isActive()) {
+            return;
+        }
+        List<Message> sending = new ArrayList<>();
+        for (Message message : pending) {
+            Channel previous = replaying.putIfAbsent(message.getId(), channel);
+            if (previous == null || (!previous.isActive() && replaying.replace(message.getId(), previous, channel))) {
+                sending.add(message);
+            }
+        }
+        if (sending.size() < pending.size()) {
+            logger.info("{} of {} kept message(s) for {} are still being sent", pending.size() - sending.size(),
+                    pending.size(), session);
+        }
+        if (sending.isEmpty()) {
+            return;
+        }
+        logger.info("Replaying {} message(s) kept for {}", sending.size(), session);
+        boolean acknowledged = session.hasCapability(OutboundJournal.ACK_CAPABILITY);
+        // Sent one by one past the batcher, so each has a promise that tells whether it was written
+        MessageBatcher batcher = channel.attr(MessageBatcher.KEY).get();
+        if (batcher != null) {
+            batcher.flush();
+        }
+        List<Message> written = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger outstanding = new AtomicInteger(sending.size());
+        for (Message message : sending) {
+            enqueue(channel, message.getType(), MessageCodec.encode(channel, message), channel.newPromise())
+                    .addListener(future -> {
+                        replaying.remove(message.getId(), channel);
+                        if (future.isSuccess()) {
+                            written.add(message);
+                        }
+                        if (outstanding.decrementAndGet() > 0) {
+                            return;
+                        }
+                        if (!acknowledged) {
+                            // Only what was written is forgotten; the rest waits for the next connection
+                            outbox.remove(deviceId, written);
+                        }
+                        if (written.size() < sending.size()) {
+                            logger.info("Kept {} of {} replayed message(s) for {} that were not written",
+                                    sending.size() - written.size(), sending.size(), session);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Forgets the journaled messages a phone says it has applied, given the {@code acked} map
+     * of its heartbeat or of the pairing request that resumed its session.
+     */
+    public void acknowledgeOutbox(Channel channel, Object acked) {
+        DeviceSession session = devices.get(channel);
+        if (outbox != null && session != null && acked instanceof Map<?, ?> seqs
+                && seqs.get(OutboundJournal.ACK_STREAM) instanceof Number seq) {
+            outbox.acknowledge(session.getDeviceId(), seq.longValue());
+        }
+    }
+
+    /**
+     * Sends a request to the active device and returns a future for its reply.
+     *
+     * @see #request(DeviceSession, Message, long, String, Consumer)
+     */
+    public CompletableFuture<Message> request(Message request, long timeoutMillis, String supersedeKey,
+            Consumer<Message> onPartial) {
+        DeviceSession session = devices.getActive();
+        if (session == null || !session.isActive()) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("No active device for " + request.getType()));
+        }
+        return request(session, request, timeoutMillis, supersedeKey, onPartial);
+    }
+
+    /**
+     * Sends a request to a device and returns a future for its reply, which fails with a
+     * {@link java.util.concurrent.TimeoutException} after {@code timeoutMillis}. Requests are
+     * pipelined: nothing waits for earlier replies. A request with the same supersede key as one
+     * still in flight cancels it, unless both are identical, in which case the earlier one's
+     * future is returned and nothing is sent. Cancelling the future withdraws the request.
+     *
+     * <p>A phone that has not said in its HELLO that it correlates replies is answered by type and
+     * thread instead. Its requests do not time out and are not withdrawn, since it would not know
+     * what a {@link Message#CANCEL} is.
+     *
+     * @param onPartial receives batches of a reply split over several messages, or null
+     */
+    public CompletableFuture<Message> request(DeviceSession session, Message request, long timeoutMillis,
+            String supersedeKey, Consumer<Message> onPartial) {
+        FeatureSet features = session.getFeatures();
+        boolean correlated = features != null && features.correlatedReplies();
+        PendingRequests.Pending pending = session.getRequests().register(request, timeoutMillis, supersedeKey,
+                onPartial, correlated);
+        if (pending.isNew()) {
+            send(session.getChannel(), request);
+        }
+        return pending.future();
+    }
+
+    /**
+     * Completes the request a reply answers, by its {@code replyTo} or, for a phone that does not
+     * send one, by its type and thread. Returns false if the message is not a reply or nothing is
+     * waiting for it any more.
+     */
+    public boolean completeRequest(Channel channel, Message reply) {
+        DeviceSession session = channel.attr(DeviceSession.KEY).get();
+        return session != null && session.getRequests().complete(reply);
+    }
+
+    /**
+     * Queues a message for a channel. The future completes once its frame is written and fails
+     * if the frame is refused by a full {@link OutboundQueue} or the channel closes first;
+     * batched messages are not tracked and report success once handed to the batcher.
+     */
+    public ChannelFuture send(Channel channel, Message message) {
+        if (!channel.isActive()) {
+            return channel.newFailedFuture(new ClosedChannelException());
+        }
+        MessageBatcher batcher = channel.attr(MessageBatcher.KEY).get();
+        if (batcher != null && MessageBatcher.isBatchable(message.getType())) {
+            batcher.add(message);
+            return channel.newSucceededFuture();
+        }
+        if (batcher != null) {
+            batcher.flush();
+        }
+        return enqueue(channel, message.getType(), MessageCodec.encode(channel, message), channel.newPromise());
+    }
+
+    /**
+     * Sends a file to the phone's upload server over a kept-alive connection. Most callers want
+     * {@link TransferManager#send}, which queues and tracks it.
+     *
+     * The file is deflated on the way if the phone accepts that and it looks compressible; deciding
+     * reads the start of the file on the calling thread.
+     *
+     * @param sha256 the file's SHA-256 (hex) for the phone to check it against, or null
+     */
+    public CompletableFuture<Void> sendFile(DeviceSession target, File file, String sha256, TransferControl control) {
+        FileSender sender = fileSender;
+        if (sender == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Server is not running"));
+        }
+        String host = target.getHostAddress();
+        if (host == null || host.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Device IP not available"));
+        }
+        FeatureSet features = target.getFeatures();
+        boolean compress = config.isTransferCompressionEnabled() && features != null
+                && features.supportsTransfer(FeatureSet.TRANSFER_HTTP_DEFLATE);
+        return sender.send(host, config.getDeviceUploadPort(), file, sha256, compress, control);
+    }
+
+    public TransferManager getTransferManager() {
+        return transfers;
+    }
+
+    /**
+     * SHA-256 hashes of the files in the download directory.
+     */
+    public ContentIndex getContentIndex() {
+        return contentIndex;
+    }
+
+    /**
+     * Features this desktop offers on a channel, fastest first.
+     */
+    public FeatureSet localFeatures(Channel channel) {
+        List<String> codecs = List.of(MessageCodec.WireFormat.BINARY.getId(), MessageCodec.WireFormat.JSON.getId());
+        // Sealed frames do not compress, so encrypted sessions offer no compression
+        boolean compressed = deflateEncoder(channel) != null && channel.attr(CryptoSession.KEY).get() == null;
+        List<String> compression = compressed ? List.of(FeatureSet.COMPRESSION_DEFLATE) : List.of();
+        boolean batching = config.isBatchingEnabled();
+        return new FeatureSet(FeatureSet.PROTOCOL_VERSION, codecs, compression,
+                batching ? config.getBatchMaxMessages() : 0, batching ? config.getBatchMaxBytes() : 0,
+                config.getMaxFramePayloadLength(), List.of(FeatureSet.TRANSFER_HTTP_DEFLATE, FeatureSet.TRANSFER_HTTP),
+                true);
+    }
+
+    /**
+     * Name of the permessage-deflate encoder in a channel's pipeline, or null if there is none.
+     */
+    private static String deflateEncoder(Channel channel) {
+        // The extension handler adds its encoder under the encoder's class name
+        return channel.pipeline().names().stream().filter(name -> name.contains("PerMessageDeflateEncoder"))
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Advertises this desktop's features to a paired device.
+     */
+    public void sendHello(DeviceSession session) {
+        send(session.getChannel(), new Message(Message.HELLO, localFeatures(session.getChannel()).toHello()));
+    }
+
+    /**
+     * Agrees on features with what a device supports and switches its channel over to them.
+     * Called once at pairing with what the pairing request implied, and again if the phone
+     * answers with a HELLO of its own.
+     */
+    public FeatureSet applyFeatures(DeviceSession session, FeatureSet peer) {
+        Channel channel = session.getChannel();
+        FeatureSet features = localFeatures(channel).negotiate(peer);
+        MessageCodec.setWireFormat(channel, features.wireFormat());
+        if (features.isBatching()) {
+            MessageBatcher previous = channel.attr(MessageBatcher.KEY).getAndSet(new MessageBatcher(channel,
+                    (type, frame) -> enqueue(channel, type, frame), config.getBatchLingerMillis(),
+                    features.batchMaxMessages(), features.batchMaxBytes()));
+            if (previous != null) {
+                previous.flush();
+            }
         } else {
-            logger.warn("Device not connected: {}", deviceId);
+            MessageBatcher previous = channel.attr(MessageBatcher.KEY).getAndSet(null);
+            if (previous != null) {
+                previous.flush();
+            }
+        }
+        session.setFeatures(features);
+        logger.info("Features for {}: {}", session, features);
+        publishDevices();
+        return features;
+    }
+
+    /**
+     * Sends the pairing response in the clear and encrypts every frame after it. Both happen in
+     * one event loop task, so no frame can slip between the response and the cipher handler, and
+     * the channel only counts as encrypted once its frames are. The returned future completes
+     * when they are.
+     *
+     * <p>The permessage-deflate encoder is removed at the same time: it sits on the wire side of
+     * the cipher, where sealed frames no longer compress. RFC 7692 lets a sender leave any
+     * message uncompressed, and the HELLO sent after pairing offers no compression either.
+     */
+    public ChannelFuture startEncryption(Channel channel, Message response, CryptoSession crypto) {
+        WebSocketFrame frame = MessageCodec.encode(channel, response);
+        ChannelPromise started = channel.newPromise();
+        channel.eventLoop().execute(() -> {
+            if (!channel.isActive()) {
+                frame.release();
+                started.setFailure(new ClosedChannelException());
+                return;
+            }
+            channel.writeAndFlush(frame);
+            channel.attr(CryptoSession.KEY).set(crypto);
+            channel.pipeline().addBefore("frames", "crypto", crypto.handler());
+            String deflate = deflateEncoder(channel);
+            if (deflate != null) {
+                channel.pipeline().remove(deflate);
+            }
+            started.setSuccess();
+        });
+        return started;
+    }
+
+    private static void enqueue(Channel channel, String type, WebSocketFrame frame) {
+        enqueue(channel, type, frame, channel.voidPromise());
+    }
+
+    /**
+     * Queues a frame, or refuses it if it is larger than the negotiated
+     * {@link FeatureSet#maxFrameSize}: the phone would close the connection on receiving it.
+     */
+    private static ChannelFuture enqueue(Channel channel, String type, WebSocketFrame frame, ChannelPromise promise) {
+        DeviceSession session = channel.attr(DeviceSession.KEY).get();
+        FeatureSet features = session != null ? session.getFeatures() : null;
+        if (features != null) {
+            long size = frame.content().readableBytes();
+            if (channel.attr(CryptoSession.KEY).get() != null) {
+                size += CryptoSession.HEADER_LENGTH + CryptoSession.TAG_LENGTH;
+            }
+            if (size > features.maxFrameSize()) {
+                frame.release();
+                logger.warn("Not sending {} of {} B to {}: frames are limited to {} B", type, size, session,
+                        features.maxFrameSize());
+                // A void promise would hand the failure to the pipeline, which closes the channel
+                return promise.isVoid() ? promise : promise.setFailure(new TooLongFrameException(
+                        type + " of " + size + " B exceeds the peer's frame limit of " + features.maxFrameSize() + " B"));
+            }
+        }
+        OutboundQueue queue = channel.attr(OutboundQueue.KEY).get();
+        if (queue != null) {
+            return queue.enqueue(type, frame, promise);
         }
+        return channel.writeAndFlush(frame, promise);
     }
 
+    /**
+     * Sends a message to every connected device. The message is serialized at most once per
+     * wire format into a pooled buffer, and each channel gets a reference-counted duplicate
+     * of those bytes instead of its own copy.
+     */
     public void broadcast(Message message) {
-        String json = gson.toJson(message);
-        for (Channel channel : connectedDevices.values()) {
-            if (channel.isActive()) {
-                channel.writeAndFlush(new TextWebSocketFrame(json));
+        if (outbox != null && OutboundJournal.isDurable(message.getType())) {
+            for (PairedDevice paired : config.getPairedDevices()) {
+                if (devices.get(paired.getDeviceId()) == null) {
+                    keepForReconnect(paired.getDeviceId(), message);
+                }
             }
         }
+        writeToAll(message, devices.getSessions());
+    }
+
+    /**
+     * Writes one message to each session's channel, encoding it once per wire format in use.
+     */
+    static void writeToAll(Message message, Collection<DeviceSession> sessions) {
+        MessageCodec.WireFormat[] formats = MessageCodec.WireFormat.values();
+        ByteBuf[] encoded = new ByteBuf[formats.length];
+        try {
+            for (DeviceSession session : sessions) {
+                Channel channel = session.getChannel();
+                if (!channel.isActive()) {
+                    continue;
+                }
+                MessageBatcher batcher = channel.attr(MessageBatcher.KEY).get();
+                if (batcher != null && MessageBatcher.isBatchable(message.getType())) {
+                    batcher.add(message);
+                    continue;
+                } else if (batcher != null) {
+                    batcher.flush();
+                }
+                MessageCodec.WireFormat format = MessageCodec.getWireFormat(channel);
+                ByteBuf content = encoded[format.ordinal()];
+                if (content == null) {
+                    content = MessageCodec.encodeContent(format, message, PooledByteBufAllocator.DEFAULT);
+                    encoded[format.ordinal()] = content;
+                }
+                enqueue(channel, message.getType(), MessageCodec.frame(format, content.retainedDuplicate()));
+            }
+        } finally {
+            for (ByteBuf content : encoded) {
+                if (content != null) {
+                    content.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the permessage-deflate counters for a device, or null when compression is off.
+     */
+    public CompressionStats getCompressionStats(String deviceId) {
+        DeviceSession session = devices.get(deviceId);
+        return session != null ? session.getChannel().attr(CompressionStats.KEY).get() : null;
+    }
+
+    /**
+     * Returns the outbound queue of a device so its depth, drops and queueing delay can be
+     * observed, or null if the device is not connected.
+     */
+    public OutboundQueue getOutboundQueue(String deviceId) {
+        DeviceSession session = devices.get(deviceId);
+        return session != null ? session.getOutboundQueue() : null;
+    }
+
+    /**
+     * Returns the inbound dispatch lane of a device, which reports how long its messages
+     * wait before being handled, or null if the device is not connected.
+     */
+    public InboundLane getInboundLane(String deviceId) {
+        DeviceSession session = devices.get(deviceId);
+        return session != null ? session.getInboundLane() : null;
     }
 
     public BooleanProperty connectedProperty() {
@@ -312,27 +1125,132 @@ public class ConnectionService {
         return config;
     }
 
-    private class WebSocketFrameHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
-        private String deviceId;
-        private ChannelHandlerContext handlerContext;
+    private class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+        private InboundLane lane;
+        private ScheduledFuture<?> heartbeatProbe;
+        // The fragmented message in progress, if any: text is streamed, binary is accumulated
+        private FragmentInputStream textMessage;
+        private CompositeByteBuf binaryMessage;
 
         @Override
         public void handlerAdded(ChannelHandlerContext ctx) {
-            this.handlerContext = ctx;
+            this.lane = new InboundLane(ctx.channel(), config.getInboundQueueCapacity());
+            ctx.channel().attr(InboundLane.KEY).set(lane);
         }
 
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
-            String json = frame.text();
-            logger.debug("Received: {}", json);
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof ContinuationWebSocketFrame) {
+                appendFragment(ctx, frame);
+                return;
+            }
+            if (frame instanceof BinaryWebSocketFrame) {
+                // A peer that sends binary frames can also read them
+                MessageCodec.setWireFormat(ctx.channel(), MessageCodec.WireFormat.BINARY);
+            } else if (!(frame instanceof TextWebSocketFrame)) {
+                logger.debug("Ignoring unsupported frame: {}", frame.getClass().getSimpleName());
+                return;
+            }
+            Channel channel = ctx.channel();
+            if (!frame.isFinalFragment()) {
+                startFragmented(ctx, frame);
+            } else if (frame instanceof TextWebSocketFrame && frame.content().readableBytes() > STREAM_THRESHOLD) {
+                InputStream in = new ByteBufInputStream(frame.content().retain(), true);
+                lane.submit(() -> decodeStream(channel, in));
+            } else {
+                dispatch(channel, frame);
+            }
+        }
+
+        private void dispatch(Channel channel, WebSocketFrame frame) {
+            long receivedAt = System.nanoTime();
             try {
-                Message message = gson.fromJson(json, Message.class);
-                messageHandler.handleMessage(ctx.channel(), message);
+                Message message = MessageCodec.decode(frame);
+                message.setReceivedAt(receivedAt);
+                logger.debug("Received: {}", message);
+                lane.submit(InboundLane.Priority.of(message), () -> messageHandler.handleMessage(channel, message));
             } catch (Exception e) {
                 logger.error("Failed to parse message", e);
             }
         }
 
+        private void startFragmented(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof TextWebSocketFrame) {
+                // Decoding starts right away on the lane and blocks there until more fragments arrive
+                FragmentInputStream stream = new FragmentInputStream(lane, config.getStreamBufferSize());
+                stream.append(frame.content().retain());
+                textMessage = stream;
+                Channel channel = ctx.channel();
+                lane.submit(() -> decodeStream(channel, stream));
+            } else {
+                binaryMessage = ctx.alloc().compositeBuffer(1024);
+                binaryMessage.addComponent(true, frame.content().retain());
+            }
+        }
+
+        private void appendFragment(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            ByteBuf content = frame.content();
+            if (textMessage != null) {
+                if (textMessage.totalBytes() + content.readableBytes() > config.getMaxMessageSize()) {
+                    rejectTooBig(ctx);
+                    return;
+                }
+                textMessage.append(content.retain());
+                if (frame.isFinalFragment()) {
+                    textMessage.finish();
+                    textMessage = null;
+                }
+            } else if (binaryMessage != null) {
+                if ((long) binaryMessage.readableBytes() + content.readableBytes() > config.getMaxMessageSize()) {
+                    rejectTooBig(ctx);
+                    return;
+                }
+                binaryMessage.addComponent(true, content.retain());
+                if (frame.isFinalFragment()) {
+                    BinaryWebSocketFrame message = new BinaryWebSocketFrame(binaryMessage);
+                    binaryMessage = null;
+                    try {
+                        dispatch(ctx.channel(), message);
+                    } finally {
+                        message.release();
+                    }
+                }
+            } else {
+                logger.debug("Ignoring continuation frame without a started message from {}",
+                        ctx.channel().remoteAddress());
+            }
+        }
+
+        private void decodeStream(Channel channel, InputStream in) {
+            try (in) {
+                Message last = MessageCodec.decodeStreaming(in, STREAM_BATCH_SIZE,
+                        batch -> messageHandler.handleMessage(channel, batch));
+                logger.debug("Received streamed: {}", last);
+                messageHandler.handleMessage(channel, last);
+            } catch (Exception e) {
+                logger.error("Failed to parse streamed message", e);
+            }
+        }
+
+        private void rejectTooBig(ChannelHandlerContext ctx) {
+            logger.warn("Message from {} exceeds {} bytes, closing", ctx.channel().remoteAddress(),
+                    config.getMaxMessageSize());
+            discardFragments();
+            ctx.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.MESSAGE_TOO_BIG))
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+
+        private void discardFragments() {
+            if (textMessage != null) {
+                textMessage.close();
+                textMessage = null;
+            }
+            if (binaryMessage != null) {
+                binaryMessage.release();
+                binaryMessage = null;
+            }
+        }
+
         @Override
         public void channelActive(ChannelHandlerContext ctx) {
             logger.info("Client connected: {}", ctx.channel().remoteAddress());
@@ -340,25 +1258,85 @@ public class ConnectionService {
 
         @Override
         public void channelInactive(ChannelHandlerContext ctx) {
-            if (deviceId != null) {
-                connectedDevices.remove(deviceId);
-                logger.info("Device disconnected: {}", deviceId);
+            DeviceSession session = ctx.channel().attr(DeviceSession.KEY).get();
+            if (session != null && devices.unregister(session)) {
+                logger.info("Device disconnected: {}", session);
+            }
+            if (session != null) {
+                session.getRequests().failAll(new ClosedChannelException());
+                logger.info("Requests to {}: {}", session, session.getRequests());
+            }
+            if (heartbeatProbe != null) {
+                heartbeatProbe.cancel(false);
+            }
+            discardFragments();
+            logger.info("Inbound lane for {}: {}", ctx.channel().remoteAddress(), lane);
+            if (callStateLatency.getCount() > 0) {
+                logger.info("Call state latency: {}", callStateLatency);
+            }
+            LinkQuality link = ctx.channel().attr(LinkQuality.KEY).get();
+            if (link != null) {
+                logger.info("Link quality for {}: {}", ctx.channel().remoteAddress(), link);
+            }
+            OutboundQueue queue = ctx.channel().attr(OutboundQueue.KEY).get();
+            if (queue != null) {
+                queue.clear();
+                logger.info("Outbound queue for {}: {}", ctx.channel().remoteAddress(), queue);
+            }
+            CompressionStats stats = ctx.channel().attr(CompressionStats.KEY).get();
+            if (stats != null) {
+                logger.info("Compression for {}: {}", ctx.channel().remoteAddress(), stats);
+            }
+            MessageBatcher batcher = ctx.channel().attr(MessageBatcher.KEY).get();
+            if (batcher != null) {
+                batcher.clear();
+                logger.info("Batching for {}: {}", ctx.channel().remoteAddress(), batcher);
+            }
+            CryptoSession crypto = ctx.channel().attr(CryptoSession.KEY).get();
+            if (crypto != null) {
+                logger.info("Encryption for {}: {}", ctx.channel().remoteAddress(), crypto);
             }
-            Platform.runLater(() -> connected.set(!connectedDevices.isEmpty()));
+            publishDevices();
         }
 
         @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            logger.error("WebSocket error", cause);
-            ctx.close();
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+                Channel channel = ctx.channel();
+                channel.attr(LinkQuality.KEY).set(new LinkQuality());
+                if (config.getIdleTimeoutSeconds() > 0) {
+                    ctx.pipeline().addBefore(ctx.name(), "idle",
+                            new IdleStateHandler(config.getIdleTimeoutSeconds(), 0, 0));
+                }
+                int interval = config.getHeartbeatIntervalSeconds();
+                if (interval > 0) {
+                    heartbeatProbe = ctx.executor().scheduleAtFixedRate(
+                            () -> sendHeartbeatProbe(channel), interval, interval, TimeUnit.SECONDS);
+                }
+            } else if (evt instanceof IdleStateEvent idle && idle.state() == IdleState.READER_IDLE) {
+                logger.warn("No traffic from {} for {} s, closing", ctx.channel().remoteAddress(),
+                        config.getIdleTimeoutSeconds());
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
         }
 
-        public void setDeviceId(String deviceId) {
-            this.deviceId = deviceId;
-            if (handlerContext != null) {
-                connectedDevices.put(deviceId, handlerContext.channel());
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable()) {
+                OutboundQueue queue = ctx.channel().attr(OutboundQueue.KEY).get();
+                if (queue != null) {
+                    queue.drain();
+                }
             }
-            Platform.runLater(() -> connected.set(true));
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.error("WebSocket error", cause);
+            ctx.close();
         }
     }
 }
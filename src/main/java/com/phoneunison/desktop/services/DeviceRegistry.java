@@ -0,0 +1,141 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import io.netty.channel.Channel;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Connected devices, indexed by device id and by channel, plus the device the UI is working with.
+ *
+ * <p>Lookups never lock: by id through a {@link ConcurrentHashMap}, by channel through the
+ * {@link DeviceSession#KEY} attribute. A device that reconnects replaces its previous session,
+ * and removing a session that has already been replaced is a no-op, so a late close of the old
+ * channel cannot unregister the new one. Every change ends by checking that the active device is
+ * still registered, so a close racing a UI selection cannot leave a departed device active.
+ */
+public final class DeviceRegistry {
+
+    private final ConcurrentHashMap<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicReference<DeviceSession> active = new AtomicReference<>();
+
+    /**
+     * Registers a session and makes it the active device. Returns the session it replaced, if
+     * the same device was already connected.
+     */
+    public DeviceSession register(DeviceSession session) {
+        session.getChannel().attr(DeviceSession.KEY).set(session);
+        DeviceSession previous = sessions.put(session.getDeviceId(), session);
+        active.set(session);
+        settleActive();
+        return previous;
+    }
+
+    /**
+     * Removes a session if it is still the current one for its device, handing the active role
+     * to the most recently connected remaining device.
+     */
+    public boolean unregister(DeviceSession session) {
+        if (!sessions.remove(session.getDeviceId(), session)) {
+            return false;
+        }
+        settleActive();
+        return true;
+    }
+
+    public void clear() {
+        sessions.clear();
+        active.set(null);
+    }
+
+    public DeviceSession get(String deviceId) {
+        return deviceId != null ? sessions.get(deviceId) : null;
+    }
+
+    /**
+     * Returns the registered session for a channel, or null before pairing and after the
+     * session has been replaced or removed.
+     */
+    public DeviceSession get(Channel channel) {
+        DeviceSession session = channel.attr(DeviceSession.KEY).get();
+        return session != null && sessions.get(session.getDeviceId()) == session ? session : null;
+    }
+
+    public DeviceSession getActive() {
+        return active.get();
+    }
+
+    public boolean isActive(DeviceSession session) {
+        return session != null && active.get() == session;
+    }
+
+    /**
+     * Makes a connected device the target of UI actions. Returns false if it is not connected.
+     */
+    public boolean setActive(String deviceId) {
+        DeviceSession session = sessions.get(deviceId);
+        if (session == null) {
+            return false;
+        }
+        active.set(session);
+        settleActive();
+        return true;
+    }
+
+    public Collection<DeviceSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Hands the active role to the most recently connected device if the active one is no longer
+     * registered, retrying until no concurrent change gets in between.
+     */
+    private void settleActive() {
+        while (true) {
+            DeviceSession current = active.get();
+            if (current != null && sessions.get(current.getDeviceId()) == current) {
+                return;
+            }
+            DeviceSession replacement = newest();
+            if (active.compareAndSet(current, replacement)
+                    && (replacement == null || sessions.get(replacement.getDeviceId()) == replacement)) {
+                return;
+            }
+        }
+    }
+
+    private DeviceSession newest() {
+        DeviceSession newest = null;
+        for (DeviceSession session : sessions.values()) {
+            if (newest == null || session.getConnectedAt() > newest.getConnectedAt()) {
+                newest = session;
+            }
+        }
+        return newest;
+    }
+}
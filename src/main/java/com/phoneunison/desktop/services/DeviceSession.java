@@ -0,0 +1,159 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.network.LinkQuality;
+import com.phoneunison.desktop.network.OutboundQueue;
+import com.phoneunison.desktop.protocol.FeatureSet;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Set;
+
+/**
+ * State of one paired phone for as long as its channel stays open.
+ *
+ * <p>The session is attached to its channel, so it can be found from an inbound message without
+ * a map lookup. Mutable fields are volatile and written by the device's inbound lane, so the UI
+ * reads them without locking.
+ */
+public final class DeviceSession {
+
+    public static final AttributeKey<DeviceSession> KEY = AttributeKey.valueOf("phoneunison.deviceSession");
+
+    private final String deviceId;
+    private final Channel channel;
+    private final long connectedAt;
+    private final ResumeState resumeState;
+    private final boolean resumed;
+    private final PendingRequests requests;
+    private volatile String name;
+    private volatile int batteryLevel = -1;
+    private volatile Set<String> capabilities = Set.of();
+    private volatile FeatureSet features;
+
+    public DeviceSession(String deviceId, String name, Channel channel, ResumeState resumeState, boolean resumed,
+            PendingRequests requests) {
+        this.deviceId = deviceId;
+        this.name = name;
+        this.channel = channel;
+        this.connectedAt = System.currentTimeMillis();
+        this.resumeState = resumeState;
+        this.resumed = resumed;
+        this.requests = requests;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    public boolean isActive() {
+        return channel.isActive();
+    }
+
+    public ResumeState getResumeState() {
+        return resumeState;
+    }
+
+    /**
+     * Whether this connection picked up where the device's previous one left off, in which case
+     * the phone only sends what changed and the views can start from the snapshot.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Requests sent to this device that are still waiting for a reply.
+     */
+    public PendingRequests getRequests() {
+        return requests;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Last reported battery level in percent, or -1 before the first heartbeat.
+     */
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    public void setBatteryLevel(int batteryLevel) {
+        this.batteryLevel = batteryLevel;
+    }
+
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    public void setCapabilities(Set<String> capabilities) {
+        this.capabilities = Set.copyOf(capabilities);
+    }
+
+    public boolean hasCapability(String capability) {
+        return capabilities.contains(capability);
+    }
+
+    /**
+     * Protocol features agreed with the phone, or null until pairing has completed.
+     */
+    public FeatureSet getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(FeatureSet features) {
+        this.features = features;
+    }
+
+    public String getHostAddress() {
+        SocketAddress address = channel.remoteAddress();
+        return address instanceof InetSocketAddress inet ? inet.getAddress().getHostAddress() : null;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return channel.attr(OutboundQueue.KEY).get();
+    }
+
+    public LinkQuality getLinkQuality() {
+        return channel.attr(LinkQuality.KEY).get();
+    }
+
+    public InboundLane getInboundLane() {
+        return channel.attr(InboundLane.KEY).get();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + deviceId + ")";
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.network.TokenBucket;
+import com.phoneunison.desktop.network.TransferCompression;
+import com.phoneunison.desktop.network.TransferControl;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One file moving between this PC and a phone, in either direction.
+ *
+ * <p>The wire side reports bytes through {@link TransferControl}; those counters are plain
+ * atomics so the event loop never touches JavaFX. The properties the UI binds to are updated on
+ * the FX thread by {@link #refresh}, which {@link TransferManager} calls at a fixed rate, so a
+ * fast transfer costs the UI the same as a slow one. Throughput is smoothed across refreshes and
+ * the ETA derived from it.
+ */
+public final class FileTransfer implements TransferControl {
+
+    public enum Direction {
+        SEND, RECEIVE
+    }
+
+    public enum State {
+        QUEUED, ACTIVE, PAUSED, INTERRUPTED, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private static final AtomicLong ids = new AtomicLong();
+    // Weight of the newest sample in the smoothed throughput
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final long id = ids.incrementAndGet();
+    private final Direction direction;
+    private final String deviceId;
+    private final String deviceName;
+    private final File file;
+    private final TokenBucket globalBucket;
+    private final TokenBucket deviceBucket;
+    private final AtomicLong transferred = new AtomicLong();
+    private final Queue<Runnable> listeners = new ConcurrentLinkedQueue<>();
+    private volatile String fileName;
+    private volatile long totalBytes = -1;
+    private volatile boolean paused;
+    private volatile boolean cancelled;
+    // Set once bytes start moving, so a resumed transfer knows it is not merely queued
+    private volatile boolean begun;
+    private volatile State state;
+    private volatile Throwable error;
+    // Content coding on the wire, and the file and wire bytes it was last reported for
+    private volatile String coding = TransferCompression.IDENTITY;
+    private volatile long codedBytes;
+    private volatile long wireBytes;
+    private final Runnable onStateChange;
+
+    // FX thread only
+    private final ObjectProperty<State> stateProperty;
+    private final DoubleProperty progress = new SimpleDoubleProperty(-1);
+    private final StringProperty status = new SimpleStringProperty("");
+    private long sampledBytes = -1;
+    private long sampledAt;
+    private double bytesPerSecond;
+
+    FileTransfer(Direction direction, String deviceId, String deviceName, File file, String fileName,
+                 long totalBytes, TokenBucket globalBucket, TokenBucket deviceBucket, State state,
+                 Runnable onStateChange) {
+        this.direction = direction;
+        this.deviceId = deviceId;
+        this.deviceName = deviceName;
+        this.file = file;
+        this.fileName = fileName;
+        this.totalBytes = totalBytes;
+        this.globalBucket = globalBucket;
+        this.deviceBucket = deviceBucket;
+        this.state = state;
+        this.stateProperty = new SimpleObjectProperty<>(state);
+        this.onStateChange = onStateChange;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * The local file being sent, or null for a file being received.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getTransferredBytes() {
+        return transferred.get();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * The {@code Content-Encoding} the body crosses the wire with.
+     */
+    public String getCoding() {
+        return coding;
+    }
+
+    /**
+     * Bytes on the wire so far, which is less than the bytes transferred when compressed.
+     */
+    public long getWireBytes() {
+        return coding.equals(TransferCompression.IDENTITY) ? transferred.get() : wireBytes;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public ReadOnlyObjectProperty<State> stateProperty() {
+        return stateProperty;
+    }
+
+    /**
+     * Fraction done, or -1 while the length is unknown.
+     */
+    public ReadOnlyDoubleProperty progressProperty() {
+        return progress;
+    }
+
+    /**
+     * Size, throughput and time left, as shown under the file name.
+     */
+    public ReadOnlyStringProperty statusProperty() {
+        return status;
+    }
+
+    @Override
+    public long acquire(long bytes) {
+        return Math.max(globalBucket.acquire(bytes), deviceBucket.acquire(bytes));
+    }
+
+    @Override
+    public long getRateLimit() {
+        long global = globalBucket.getRate();
+        long device = deviceBucket.getRate();
+        if (global <= 0 || device <= 0) {
+            return Math.max(global, device);
+        }
+        return Math.min(global, device);
+    }
+
+    @Override
+    public void transferred(long bytes) {
+        transferred.addAndGet(bytes);
+    }
+
+    @Override
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void started(long offset, long totalBytes) {
+        transferred.set(offset);
+        begun = true;
+        if (totalBytes >= 0) {
+            this.totalBytes = totalBytes;
+        }
+        setState(paused ? State.PAUSED : State.ACTIVE);
+    }
+
+    @Override
+    public void finished(boolean complete, Throwable error) {
+        this.error = error;
+        if (cancelled) {
+            setState(State.CANCELLED);
+        } else if (complete) {
+            setState(State.COMPLETED);
+        } else {
+            setState(error != null ? State.FAILED : State.INTERRUPTED);
+        }
+    }
+
+    @Override
+    public void encoded(String coding, long fileBytes, long wireBytes) {
+        this.codedBytes = fileBytes;
+        this.wireBytes = wireBytes;
+        this.coding = coding;
+    }
+
+    void pause() {
+        paused = true;
+        if (state == State.ACTIVE || state == State.QUEUED) {
+            setState(State.PAUSED);
+        }
+        fireChange();
+    }
+
+    void resume() {
+        paused = false;
+        if (state == State.PAUSED) {
+            setState(begun ? State.ACTIVE : State.QUEUED);
+        }
+        fireChange();
+    }
+
+    void cancel() {
+        cancelled = true;
+        fireChange();
+    }
+
+    /**
+     * Reuses a receiving transfer for the phone's next attempt at the same upload.
+     */
+    void restart(String fileName) {
+        if (fileName != null) {
+            this.fileName = fileName;
+        }
+        error = null;
+        setState(paused ? State.PAUSED : State.ACTIVE);
+    }
+
+    void setState(State state) {
+        this.state = state;
+        onStateChange.run();
+    }
+
+    /**
+     * Publishes the counters to the bound properties; FX thread only.
+     */
+    void refresh(long now) {
+        State current = state;
+        long bytes = transferred.get();
+        long total = totalBytes;
+        if (current == State.ACTIVE && sampledBytes >= 0 && now > sampledAt) {
+            double rate = (bytes - sampledBytes) * 1e9 / (now - sampledAt);
+            bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond + RATE_SMOOTHING * (rate - bytesPerSecond);
+        } else if (current != State.ACTIVE) {
+            bytesPerSecond = 0;
+        }
+        sampledBytes = bytes;
+        sampledAt = now;
+
+        stateProperty.set(current);
+        progress.set(current == State.COMPLETED ? 1 : total > 0 ? (double) bytes / total : -1);
+        StringBuilder text = new StringBuilder(64);
+        text.append(direction == Direction.SEND ? "To " : "From ").append(deviceName).append(" · ")
+                .append(formatBytes(bytes));
+        if (total >= 0) {
+            text.append(" of ").append(formatBytes(total));
+        }
+        long coded = codedBytes;
+        if (!coding.equals(TransferCompression.IDENTITY) && coded > 0) {
+            text.append(" · ").append(coding).append(" to ").append(Math.round(100.0 * wireBytes / coded)).append('%');
+        }
+        switch (current) {
+            case ACTIVE -> {
+                text.append(" · ").append(formatBytes((long) bytesPerSecond)).append("/s");
+                if (total > 0 && bytesPerSecond > 0) {
+                    text.append(" · ").append(formatDuration((long) ((total - bytes) / bytesPerSecond))).append(" left");
+                }
+            }
+            case FAILED -> text.append(" · Failed").append(error != null && error.getMessage() != null
+                    ? ": " + error.getMessage() : "");
+            case INTERRUPTED -> text.append(" · Interrupted, waiting for the phone to resume");
+            default -> text.append(" · ").append(current.name().charAt(0))
+                    .append(current.name().substring(1).toLowerCase());
+        }
+        status.set(text.toString());
+    }
+
+    private void fireChange() {
+        Runnable listener;
+        while ((listener = listeners.poll()) != null) {
+            listener.run();
+        }
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + " KB";
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking stream over the fragments of one WebSocket message, so a decoder on the inbound
+ * lane can parse it while the rest is still arriving.
+ *
+ * <p>The event loop appends fragment buffers and the decoder reads them in place; each buffer
+ * is released as soon as it has been consumed. When more than {@code highWaterMark} bytes are
+ * waiting, reading from the socket pauses until the decoder has caught up to half of that, so
+ * memory stays bounded no matter how large the message is.
+ */
+final class FragmentInputStream extends InputStream {
+
+    private final InboundLane lane;
+    private final int highWaterMark;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final ArrayDeque<ByteBuf> fragments = new ArrayDeque<>();
+    private long queuedBytes;
+    private long totalBytes;
+    private boolean finished;
+    private boolean closed;
+    private boolean paused;
+
+    FragmentInputStream(InboundLane lane, int highWaterMark) {
+        this.lane = lane;
+        this.highWaterMark = Math.max(1, highWaterMark);
+    }
+
+    /**
+     * Appends a fragment, taking ownership of the buffer. Called on the event loop.
+     */
+    void append(ByteBuf fragment) {
+        lock.lock();
+        try {
+            if (closed) {
+                fragment.release();
+                return;
+            }
+            queuedBytes += fragment.readableBytes();
+            totalBytes += fragment.readableBytes();
+            fragments.add(fragment);
+            if (!paused && queuedBytes > highWaterMark) {
+                paused = true;
+                lane.setStreamPaused(true);
+            }
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the message once its final fragment has been appended.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Total bytes appended so far, for enforcing the message size limit.
+     */
+    long totalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            ByteBuf head;
+            while ((head = fragments.peek()) == null) {
+                if (closed) {
+                    throw new IOException("Message stream closed");
+                }
+                if (finished) {
+                    return -1;
+                }
+                readable.awaitUninterruptibly();
+            }
+            int n = Math.min(len, head.readableBytes());
+            head.readBytes(b, off, n);
+            if (!head.isReadable()) {
+                fragments.poll().release();
+            }
+            queuedBytes -= n;
+            if (paused && queuedBytes <= highWaterMark / 2) {
+                paused = false;
+                lane.setStreamPaused(false);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases every queued fragment and fails pending and future reads. Safe to call from any
+     * thread and more than once.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ByteBuf fragment;
+            while ((fragment = fragments.poll()) != null) {
+                fragment.release();
+            }
+            queuedBytes = 0;
+            if (paused) {
+                paused = false;
+                lane.setStreamPaused(false);
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.SyncStream;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for the messages of one device channel, run off the event loop, so blocking work
+ * (disk I/O, config saves) never runs on the Netty event loop.
+ *
+ * <p>Messages are classified by {@link Priority}. Urgent ones run on a fast lane of their own, a
+ * platform thread, and never wait for anything else. The rest run one at a time on the main lane, interactive before
+ * sync, each priority in submission order. Streams that must stay in order, such as the SMS
+ * sync stream, always map to the same priority.
+ *
+ * <p>The lane is bounded: once {@code capacity} tasks are pending the channel stops reading, and
+ * reading resumes when the backlog has drained to half of that.
+ */
+public final class InboundLane {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboundLane.class);
+
+    public static final AttributeKey<InboundLane> KEY = AttributeKey.valueOf("phoneunison.inboundLane");
+    private static final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("inbound-lane-", 0).factory());
+    // Virtual threads are not preempted, so parsing a large list could hold up a virtual fast lane
+    // on a busy carrier; platform threads get the CPU from the OS scheduler regardless
+    private static final ExecutorService fastExecutor = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("inbound-fast-", 0).daemon().priority(Thread.MAX_PRIORITY).factory());
+
+    private final Channel channel;
+    private final int capacity;
+    private final EnumMap<Priority, Queue<Task>> queues = new EnumMap<>(Priority.class);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean fastRunning = new AtomicBoolean();
+    // Written on the event loop only
+    private volatile boolean readsPaused;
+    private boolean streamPaused;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong urgentCompleted = new AtomicLong();
+    private final AtomicLong maxUrgentWaitNanos = new AtomicLong();
+
+    /**
+     * How soon a message has to be handled, highest first.
+     */
+    public enum Priority {
+        /** Call state and heartbeats, handled on the fast lane. */
+        URGENT,
+        /** Notifications, pairing, requests and replies. */
+        INTERACTIVE,
+        /** SMS sync, file transfer and streamed messages. */
+        SYNC;
+
+        public static Priority of(Message message) {
+            String type = message.getType();
+            if (type == null) {
+                return INTERACTIVE;
+            }
+            return switch (type) {
+                case Message.CALL_STATE, Message.HEARTBEAT -> URGENT;
+                case Message.SMS_MESSAGES, Message.FILE_OFFER, Message.FILE_ACCEPT, Message.FILE_CHUNK,
+                        Message.FILE_COMPLETE -> SYNC;
+                case Message.BATCH -> {
+                    // A batch carrying SMS sync must stay behind the SMS sync queued before it
+                    BatchPayload batch = message.getPayload(BatchPayload.class);
+                    if (batch != null) {
+                        for (Message nested : batch.messages()) {
+                            if (SyncStream.of(nested.getType()) == SyncStream.SMS) {
+                                yield SYNC;
+                            }
+                        }
+                    }
+                    yield INTERACTIVE;
+                }
+                default -> SyncStream.of(type) == SyncStream.SMS ? SYNC : INTERACTIVE;
+            };
+        }
+    }
+
+    public InboundLane(Channel channel, int capacity) {
+        this.channel = channel;
+        this.capacity = Math.max(1, capacity);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Queues a task for the main lane at sync priority, for messages not yet decoded; must be
+     * called from the channel's event loop.
+     */
+    public void submit(Runnable runnable) {
+        submit(Priority.SYNC, runnable);
+    }
+
+    /**
+     * Queues a task; must be called from the channel's event loop.
+     */
+    public void submit(Priority priority, Runnable runnable) {
+        queues.get(priority).add(new Task(runnable, System.nanoTime()));
+        if (pending.incrementAndGet() >= capacity && !readsPaused) {
+            readsPaused = true;
+            pauses.incrementAndGet();
+            channel.config().setAutoRead(false);
+            logger.debug("Inbound lane full for {}, pausing reads", channel.remoteAddress());
+        }
+        if (priority == Priority.URGENT) {
+            if (fastRunning.compareAndSet(false, true)) {
+                fastExecutor.execute(() -> run(fastRunning, Priority.URGENT, Priority.URGENT));
+            }
+        } else if (running.compareAndSet(false, true)) {
+            executor.execute(() -> run(running, Priority.INTERACTIVE, Priority.SYNC));
+        }
+    }
+
+    private Task poll(Priority first, Priority last) {
+        for (Priority priority : EnumSet.range(first, last)) {
+            Task task = queues.get(priority).poll();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEmpty(Priority first, Priority last) {
+        for (Priority priority : EnumSet.range(first, last)) {
+            if (!queues.get(priority).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void run(AtomicBoolean lane, Priority first, Priority last) {
+        while (true) {
+            Task task = poll(first, last);
+            if (task == null) {
+                lane.set(false);
+                // A submit may have raced with the empty poll; reclaim the lane if so
+                if (isEmpty(first, last) || !lane.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            long wait = start - task.submittedAt;
+            totalWaitNanos.addAndGet(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            if (first == Priority.URGENT) {
+                urgentCompleted.incrementAndGet();
+                maxUrgentWaitNanos.accumulateAndGet(wait, Math::max);
+            }
+            try {
+                task.runnable.run();
+            } catch (Throwable t) {
+                logger.error("Inbound task failed for {}", channel.remoteAddress(), t);
+            }
+            totalRunNanos.addAndGet(System.nanoTime() - start);
+            completed.incrementAndGet();
+            if (pending.decrementAndGet() <= capacity / 2 && readsPaused) {
+                channel.eventLoop().execute(this::resumeReads);
+            }
+        }
+    }
+
+    private void resumeReads() {
+        if (readsPaused && pending.get() <= capacity / 2) {
+            readsPaused = false;
+            channel.config().setAutoRead(!streamPaused);
+        }
+    }
+
+    /**
+     * Pauses or resumes reading for a streamed message whose decoder has fallen behind. Reads
+     * only resume once neither the stream nor the lane backlog is holding them.
+     */
+    public void setStreamPaused(boolean paused) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> setStreamPaused(paused));
+            return;
+        }
+        streamPaused = paused;
+        channel.config().setAutoRead(!paused && !readsPaused);
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getPauseCount() {
+        return pauses.get();
+    }
+
+    /**
+     * Average time between a message being handed over by the event loop and its handler starting.
+     */
+    public double getAverageWaitMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public long getUrgentCompletedCount() {
+        return urgentCompleted.get();
+    }
+
+    /**
+     * Longest time an urgent message waited for the fast lane.
+     */
+    public double getMaxUrgentWaitMillis() {
+        return maxUrgentWaitNanos.get() / 1e6;
+    }
+
+    public double getAverageRunMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalRunNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pending %d, completed %d (%d urgent), wait avg %.2f ms / max %.2f ms"
+                        + " / urgent max %.2f ms, run avg %.2f ms, pauses %d",
+                getPending(), getCompletedCount(), getUrgentCompletedCount(), getAverageWaitMillis(),
+                getMaxWaitMillis(), getMaxUrgentWaitMillis(), getAverageRunMillis(), getPauseCount());
+    }
+
+    private record Task(Runnable runnable, long submittedAt) {
+    }
+}
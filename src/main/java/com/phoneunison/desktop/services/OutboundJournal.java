@@ -0,0 +1,618 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, per-device journal of messages sent while the device was not connected, so they
+ * survive a Wi-Fi gap (or a restart) and go out when the phone comes back.
+ *
+ * <p>Each device has one file of {@code [length:4][crc32:4][json]} records. Callers only update
+ * the in-memory view and queue the message; a single writer thread encodes and appends queued
+ * messages in batches and forces each touched file once per batch, so neither the FX thread nor
+ * an event loop ever waits for encoding or the disk. Superseded entries (an older clipboard value) are dropped from
+ * memory right away and from disk when the file is compacted; loading applies the same rules,
+ * so a file that was never compacted still replays correctly. A torn record at the end of a
+ * file, left by a crash mid-write, is ignored.
+ *
+ * <p>A device's file is read by the writer thread too, the first time the device is mentioned.
+ * Until then its log holds only what was appended in memory, which is why {@link #pending}
+ * returns a future.
+ *
+ * <p>Each entry keeps the id of the message it was made from and gets the next sequence number
+ * of its device, which it carries on the wire. A phone with the {@value #ACK_CAPABILITY}
+ * capability applies an entry only if its number is above the last one it acknowledged, and
+ * acknowledges entries by that number; only then are they {@linkplain #acknowledge forgotten}.
+ * Numbers only mean something within a resumed session: a phone that is not resumed starts
+ * counting again.
+ */
+public final class OutboundJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundJournal.class);
+
+    /**
+     * Capability of a phone that acknowledges journaled messages by sequence number, and of a
+     * desktop that numbers them.
+     */
+    public static final String ACK_CAPABILITY = "outboxAck";
+    /**
+     * Key of the journal's sequence number in the {@code acked} map a phone sends.
+     */
+    public static final String ACK_STREAM = "outbox";
+
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_BATCH = 512;
+    // Dead records tolerated on disk before a file is rewritten with only the live ones
+    private static final int COMPACT_SLACK = 64;
+
+    private final Path directory;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final ConcurrentHashMap<String, DeviceLog> logs = new ConcurrentHashMap<>();
+    private final BlockingQueue<Runnable> writes = new LinkedBlockingQueue<>();
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    public OutboundJournal(Path directory, int maxEntries, long maxAgeMillis) {
+        this.directory = directory;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxAgeMillis = maxAgeMillis;
+        Thread writer = new Thread(this::writeLoop, "outbound-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Whether a message of this type is still worth delivering after a gap. Requests for lists
+     * and call control are not: they are repeated or meaningless by the time the phone is back.
+     */
+    public static boolean isDurable(String type) {
+        return Message.SMS_SEND.equals(type) || Message.CLIPBOARD.equals(type)
+                || Message.NOTIFICATION_ACTION.equals(type);
+    }
+
+    /**
+     * Whether only the newest message of this type is worth delivering.
+     */
+    private static boolean isCoalesced(String type) {
+        return Message.CLIPBOARD.equals(type);
+    }
+
+    /**
+     * Drops the entries a new message supersedes. Called with the log locked.
+     */
+    private static int removeSuperseded(Deque<Entry> entries, Message newer) {
+        if (!isCoalesced(newer.getType())) {
+            return 0;
+        }
+        int before = entries.size();
+        entries.removeIf(entry -> newer.getType().equals(entry.message.getType()));
+        return before - entries.size();
+    }
+
+    /**
+     * Keeps a message for a device that is not connected. Returns false if its type is not
+     * worth keeping.
+     */
+    public boolean append(String deviceId, Message message) {
+        if (!isDurable(message.getType())) {
+            return false;
+        }
+        DeviceLog log = log(deviceId);
+        synchronized (log) {
+            // A copy, so a broadcast does not carry the number to the devices that are connected
+            Entry entry = new Entry(copy(message, ++log.lastSeq));
+            superseded.addAndGet(removeSuperseded(log.entries, message));
+            if (log.entries.size() >= maxEntries) {
+                log.entries.pollFirst();
+                expired.incrementAndGet();
+            }
+            log.entries.add(entry);
+            log.recordsOnDisk++;
+            appended.incrementAndGet();
+            writes.add(() -> log.append(entry.record()));
+            compactIfNeeded(log);
+        }
+        return true;
+    }
+
+    /**
+     * Messages waiting for a device, oldest first, without the ones that have expired. They stay
+     * in the journal until {@link #remove} confirms they went out. Completes right away once the
+     * device's file has been read, otherwise on the writer thread when it has.
+     */
+    public CompletableFuture<List<Message>> pending(String deviceId) {
+        DeviceLog log = log(deviceId);
+        synchronized (log) {
+            if (log.loaded) {
+                return CompletableFuture.completedFuture(live(log));
+            }
+        }
+        // Queued behind the load, which the queue runs first
+        CompletableFuture<List<Message>> pending = new CompletableFuture<>();
+        writes.add(() -> {
+            synchronized (log) {
+                pending.complete(live(log));
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Drops expired entries and returns the rest. Called with the log locked.
+     */
+    private List<Message> live(DeviceLog log) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int before = log.entries.size();
+        log.entries.removeIf(entry -> entry.message.getTimestamp() < cutoff);
+        expired.addAndGet(before - log.entries.size());
+        List<Message> messages = new ArrayList<>(log.entries.size());
+        for (Entry entry : log.entries) {
+            messages.add(entry.message);
+        }
+        return messages;
+    }
+
+    /**
+     * Forgets the messages a phone acknowledged, those numbered up to {@code seq}. Until the
+     * device's file has been read the numbers are not final, so the load does it then.
+     */
+    public void acknowledge(String deviceId, long seq) {
+        DeviceLog log = log(deviceId);
+        synchronized (log) {
+            if (log.loaded) {
+                forget(log, seq);
+            } else {
+                log.ackedBeforeLoad = Math.max(log.ackedBeforeLoad, seq);
+            }
+        }
+    }
+
+    /**
+     * Drops the entries numbered up to {@code seq}. Called with the log locked.
+     */
+    private void forget(DeviceLog log, long seq) {
+        if (log.entries.removeIf(entry -> entry.message.getSeq() <= seq)) {
+            rewrite(log);
+        }
+    }
+
+    /**
+     * Forgets messages that were delivered, for a phone that does not acknowledge them.
+     */
+    public void remove(String deviceId, Collection<Message> delivered) {
+        DeviceLog log = log(deviceId);
+        synchronized (log) {
+            Set<Message> sent = Collections.newSetFromMap(new IdentityHashMap<>());
+            sent.addAll(delivered);
+            log.entries.removeIf(entry -> sent.contains(entry.message));
+            rewrite(log);
+        }
+    }
+
+    public int size(String deviceId) {
+        DeviceLog log = logs.get(deviceId);
+        if (log == null) {
+            return 0;
+        }
+        synchronized (log) {
+            return log.entries.size();
+        }
+    }
+
+    /**
+     * Drops everything queued for every device and deletes the journal files.
+     */
+    public void clear() {
+        for (DeviceLog log : logs.values()) {
+            synchronized (log) {
+                log.entries.clear();
+                log.recordsOnDisk = 0;
+                log.cleared = true;
+                writes.add(log::delete);
+            }
+        }
+        logs.clear();
+        writes.add(() -> {
+            try (var files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                logger.debug("Could not clear {}: {}", directory, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Waits until everything queued so far is on disk.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        writes.add(done::countDown);
+        return done.await(timeout, unit);
+    }
+
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * Number of times the writer forced the disk, i.e. the number of batches written.
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("appended %d, superseded %d, expired %d, syncs %d",
+                appended.get(), superseded.get(), expired.get(), syncs.get());
+    }
+
+    /**
+     * The log of a device, queueing a read of its file for the writer thread the first time.
+     */
+    private DeviceLog log(String deviceId) {
+        DeviceLog log = logs.get(deviceId);
+        if (log != null) {
+            return log;
+        }
+        return logs.computeIfAbsent(deviceId, id -> {
+            String name = Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+            DeviceLog created = new DeviceLog(id, directory.resolve(name + SUFFIX));
+            writes.add(() -> load(created));
+            return created;
+        });
+    }
+
+    private void compactIfNeeded(DeviceLog log) {
+        if (log.recordsOnDisk > 2 * log.entries.size() + COMPACT_SLACK) {
+            rewrite(log);
+        }
+    }
+
+    /**
+     * Queues a rewrite of the log with only its live entries. Called with the log locked. Until
+     * the file has been read the entries are not all known; the load rewrites it if needed.
+     */
+    private void rewrite(DeviceLog log) {
+        if (!log.loaded) {
+            return;
+        }
+        List<Entry> live = new ArrayList<>(log.entries);
+        log.recordsOnDisk = live.size();
+        writes.add(() -> log.rewrite(live));
+    }
+
+    private void writeLoop() {
+        List<Runnable> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writes.drainTo(batch, MAX_BATCH - 1);
+            for (Runnable write : batch) {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    logger.error("Outbound journal write failed", e);
+                }
+            }
+            batch.clear();
+            boolean synced = false;
+            for (DeviceLog log : logs.values()) {
+                synced |= log.sync();
+            }
+            if (synced) {
+                syncs.incrementAndGet();
+            }
+        }
+    }
+
+    private static Message copy(Message message, long seq) {
+        Message copy = new Message();
+        copy.setVersion(message.getVersion());
+        copy.setType(message.getType());
+        copy.setId(message.getId());
+        copy.setTimestamp(message.getTimestamp());
+        copy.setReplyTo(message.getReplyTo());
+        copy.setData(message.getData());
+        copy.setPayload(message.getPayload());
+        copy.setSeq(seq);
+        return copy;
+    }
+
+    private static byte[] encode(Message message) {
+        ByteBuf buf = MessageCodec.encodeContent(MessageCodec.WireFormat.JSON, message,
+                UnpooledByteBufAllocator.DEFAULT);
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a device's file on the writer thread and puts its entries in front of any appended
+     * since the log was created, whose records the queue writes after this. Those are numbered
+     * again after the ones read, as are records written before entries were numbered.
+     */
+    private void load(DeviceLog log) {
+        Deque<Entry> stored = new ArrayDeque<>();
+        int records = 0;
+        boolean torn = false;
+        try {
+            ByteBuffer data = Files.exists(log.file) ? ByteBuffer.wrap(Files.readAllBytes(log.file))
+                    : ByteBuffer.allocate(0);
+            while (data.remaining() >= HEADER_LENGTH) {
+                int length = data.getInt();
+                int expected = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                data.get(record);
+                if (checksum(record) != expected) {
+                    break;
+                }
+                records++;
+                Message message = MessageCodec.decode(new TextWebSocketFrame(Unpooled.wrappedBuffer(record)));
+                removeSuperseded(stored, message);
+                stored.add(new Entry(message, record));
+            }
+            if (data.hasRemaining()) {
+                logger.warn("Ignoring {} bytes of a torn record at the end of {}", data.remaining(), log.file);
+                torn = true;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not read outbound journal {}, starting empty", log.file, e);
+            stored.clear();
+            torn = true;
+        }
+        synchronized (log) {
+            if (log.cleared) {
+                // The read was queued before the journal was cleared
+                return;
+            }
+            for (Entry appended : log.entries) {
+                removeSuperseded(stored, appended.message);
+            }
+            long seq = 0;
+            boolean renumbered = false;
+            for (Entry entry : stored) {
+                if (entry.message.getSeq() <= seq) {
+                    entry.message.setSeq(seq + 1);
+                    entry.record = null;
+                    renumbered = true;
+                }
+                seq = entry.message.getSeq();
+            }
+            for (Entry appended : log.entries) {
+                appended.message.setSeq(++seq);
+            }
+            log.lastSeq = seq;
+            stored.addAll(log.entries);
+            log.entries.clear();
+            log.entries.addAll(stored);
+            long acked = log.ackedBeforeLoad;
+            log.entries.removeIf(entry -> entry.message.getSeq() <= acked);
+            while (log.entries.size() > maxEntries) {
+                log.entries.pollFirst();
+            }
+            log.recordsOnDisk += records;
+            log.loaded = true;
+            if (torn || renumbered || log.recordsOnDisk != log.entries.size()) {
+                rewrite(log);
+            }
+            if (records > 0) {
+                logger.info("Loaded {} queued message(s) for {}", records, log.deviceId);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Message message;
+        // Encoded lazily by the writer thread, which is the only one reading it
+        private byte[] record;
+
+        Entry(Message message) {
+            this.message = message;
+        }
+
+        Entry(Message message, byte[] record) {
+            this.message = message;
+            this.record = record;
+        }
+
+        byte[] record() {
+            if (record == null) {
+                record = encode(message);
+            }
+            return record;
+        }
+    }
+
+    /**
+     * One device's journal. Entries are guarded by the log's monitor; the file channel is only
+     * used by the writer thread.
+     */
+    private final class DeviceLog {
+        final String deviceId;
+        final Path file;
+        final Deque<Entry> entries = new ArrayDeque<>();
+        int recordsOnDisk;
+        // Number of the newest entry; entries are numbered from 1 up
+        long lastSeq;
+        // Acknowledged while the file was still being read
+        long ackedBeforeLoad;
+        boolean loaded;
+        boolean cleared;
+
+        private FileChannel channel;
+        private boolean dirty;
+
+        DeviceLog(String deviceId, Path file) {
+            this.deviceId = deviceId;
+            this.file = file;
+        }
+
+        void append(byte[] record) {
+            try {
+                FileChannel out = open();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(record.length).putInt(checksum(record)).flip();
+                ByteBuffer[] buffers = {header, ByteBuffer.wrap(record)};
+                while (buffers[1].hasRemaining()) {
+                    out.write(buffers);
+                }
+                dirty = true;
+            } catch (IOException e) {
+                logger.error("Could not append to {}", file, e);
+            }
+        }
+
+        void rewrite(List<Entry> live) {
+            closeChannel();
+            try {
+                if (live.isEmpty()) {
+                    Files.deleteIfExists(file);
+                    return;
+                }
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (Entry entry : live) {
+                        byte[] record = entry.record();
+                        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                        header.putInt(record.length).putInt(checksum(record)).flip();
+                        ByteBuffer[] buffers = {header, ByteBuffer.wrap(record)};
+                        while (buffers[1].hasRemaining()) {
+                            out.write(buffers);
+                        }
+                    }
+                    out.force(false);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.error("Could not compact {}", file, e);
+            }
+        }
+
+        void delete() {
+            closeChannel();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.debug("Could not delete {}: {}", file, e.getMessage());
+            }
+        }
+
+        boolean sync() {
+            if (!dirty) {
+                return false;
+            }
+            dirty = false;
+            try {
+                channel.force(false);
+                return true;
+            } catch (IOException e) {
+                logger.error("Could not sync {}", file, e);
+                return false;
+            }
+        }
+
+        private FileChannel open() throws IOException {
+            if (channel == null) {
+                Files.createDirectories(file.getParent());
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            return channel;
+        }
+
+        private void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (dirty) {
+                    channel.force(false);
+                    dirty = false;
+                }
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Could not close {}: {}", file, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsMessagesPayload;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Requests sent to one device that are still waiting for their reply, matched by the reply's
+ * {@link Message#getReplyTo()}, or by its type and thread for a phone that does not echo it.
+ *
+ * <p>Any number of requests can be in flight at once. A correlated request has its own deadline,
+ * after which its future fails with a {@link TimeoutException}; one sent to a phone that does not
+ * correlate its replies waits until it is answered, superseded or its channel closes. Requests may name a supersede key: a newer request
+ * with the same key cancels the older one, and an identical request still in flight shares its
+ * future instead of being sent again. Requests that time out or are cancelled are withdrawn from
+ * the phone with a {@link Message#CANCEL} so it can stop working on them, if it understands one; a
+ * reply that arrives afterwards is dropped.
+ */
+public final class PendingRequests {
+
+    /**
+     * A registered request. The caller only sends {@link #request()} if {@link #isNew()}; otherwise
+     * it is already in flight and the future is shared.
+     */
+    public record Pending(Message request, CompletableFuture<Message> future, boolean isNew) {
+    }
+
+    private record Entry(Message request, String supersedeKey, Consumer<Message> onPartial,
+            CompletableFuture<Message> future, boolean correlated) {
+    }
+
+    private final ConcurrentHashMap<String, Entry> byId = new ConcurrentHashMap<>();
+    // Uncorrelated requests, by the type and thread of the reply they expect
+    private final ConcurrentHashMap<String, Entry> byReplyKey = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> bySupersedeKey = new ConcurrentHashMap<>();
+    private final Consumer<Message> cancelSender;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder late = new LongAdder();
+
+    /**
+     * @param cancelSender sends a {@link Message#CANCEL} to the device; called from whichever
+     *                     thread gave up on the request
+     */
+    public PendingRequests(Consumer<Message> cancelSender) {
+        this.cancelSender = cancelSender;
+    }
+
+    /**
+     * Registers a request before it is sent.
+     *
+     * @param timeoutMillis how long to wait for the final reply of a correlated request
+     * @param supersedeKey  requests sharing this key replace each other, or null
+     * @param onPartial     receives the batches that come before the final reply, or null
+     * @param correlated    whether the device answers with {@code replyTo}; if not, the reply is
+     *                      matched by type and thread, and the request neither times out nor is
+     *                      withdrawn
+     */
+    public synchronized Pending register(Message request, long timeoutMillis, String supersedeKey,
+            Consumer<Message> onPartial, boolean correlated) {
+        Entry current = supersedeKey != null ? bySupersedeKey.get(supersedeKey) : null;
+        if (current != null && !current.future().isDone()
+                && current.request().getType().equals(request.getType())
+                && Objects.equals(current.request().getData(), request.getData())) {
+            shared.increment();
+            return new Pending(current.request(), current.future(), false);
+        }
+
+        Entry entry = new Entry(request, supersedeKey, onPartial, new CompletableFuture<>(), correlated);
+        byId.put(request.getId(), entry);
+        if (!correlated) {
+            Entry previous = byReplyKey.put(replyKey(request), entry);
+            if (previous != null && previous.future().cancel(false)) {
+                // Its reply could not be told apart from this one's
+                superseded.increment();
+            }
+        }
+        if (supersedeKey != null) {
+            Entry previous = bySupersedeKey.put(supersedeKey, entry);
+            if (previous != null && previous.future().cancel(false)) {
+                superseded.increment();
+            }
+        }
+        issued.increment();
+        if (correlated) {
+            entry.future().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        entry.future().whenComplete((reply, error) -> finish(entry, error));
+        return new Pending(request, entry.future(), true);
+    }
+
+    private void finish(Entry entry, Throwable error) {
+        String id = entry.request().getId();
+        byId.remove(id, entry);
+        if (entry.supersedeKey() != null) {
+            bySupersedeKey.remove(entry.supersedeKey(), entry);
+        }
+        if (!entry.correlated()) {
+            byReplyKey.remove(replyKey(entry.request()), entry);
+            return;
+        }
+        if (error instanceof TimeoutException) {
+            timedOut.increment();
+        }
+        if (error instanceof CancellationException || error instanceof TimeoutException) {
+            cancelSender.accept(new Message(Message.CANCEL, Map.of("id", id)));
+        }
+    }
+
+    /**
+     * Hands a reply to the request it answers. Batches before the last one go to the request's
+     * partial consumer; the last one, or an {@link Message#ERROR}, completes its future.
+     *
+     * <p>A message without {@code replyTo} answers the uncorrelated request for its type and
+     * thread, if there is one; otherwise it is not a reply at all.
+     *
+     * @return false if no request is waiting for it, because it timed out, was cancelled or
+     *         never existed
+     */
+    public boolean complete(Message reply) {
+        if (reply.getReplyTo() == null) {
+            Entry entry = byReplyKey.get(reply.getType() + '/' + threadId(reply));
+            return entry != null && complete(entry, reply);
+        }
+        Entry entry = byId.get(reply.getReplyTo());
+        if (entry == null) {
+            late.increment();
+            return false;
+        }
+        return complete(entry, reply);
+    }
+
+    private boolean complete(Entry entry, Message reply) {
+        if (Message.ERROR.equals(reply.getType())) {
+            entry.future().completeExceptionally(new IllegalStateException(
+                    "Device error " + reply.getDataField("code") + ": " + reply.getDataField("message")));
+        } else if (isPartial(reply)) {
+            if (entry.onPartial() != null) {
+                entry.onPartial().accept(reply);
+            }
+        } else if (entry.future().complete(reply)) {
+            answered.increment();
+        }
+        return true;
+    }
+
+    // The type and thread of the reply a request expects
+    private static String replyKey(Message request) {
+        String type = Message.SIM_LIST_REQUEST.equals(request.getType()) ? Message.SIM_LIST : request.getType();
+        return type + '/' + threadId(request);
+    }
+
+    private static String threadId(Message message) {
+        SmsMessagesPayload thread = message.getPayload(SmsMessagesPayload.class);
+        Object id = thread != null ? thread.threadId() : message.getDataField("threadId");
+        return id != null ? id.toString() : null;
+    }
+
+    private static boolean isPartial(Message reply) {
+        SmsListPayload list = reply.getPayload(SmsListPayload.class);
+        if (list != null) {
+            return !list.complete();
+        }
+        SmsMessagesPayload thread = reply.getPayload(SmsMessagesPayload.class);
+        return thread != null && !thread.complete();
+    }
+
+    /**
+     * Fails every request still in flight, once the channel they were sent on has closed.
+     */
+    public void failAll(Throwable cause) {
+        for (Entry entry : byId.values()) {
+            entry.future().completeExceptionally(cause);
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests (%d shared, %d superseded, %d timed out), %d answered, %d late replies",
+                issued.sum(), shared.sum(), superseded.sum(), timedOut.sum(), answered.sum(), late.sum());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.SyncStream;
+import com.phoneunison.desktop.protocol.payload.SimListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.utils.CryptoUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What the desktop knows about a phone beyond the lifetime of one connection: the resume token
+ * it handed out, the last sequence number applied per {@link SyncStream}, and a snapshot of the
+ * conversation list and SIM cards.
+ *
+ * <p>A phone that reconnects with the current token gets its acknowledged sequence numbers back
+ * and only sends what changed, while the views restore themselves from the snapshot instead of
+ * requesting everything again. The token is replaced on every connection, so an old one cannot
+ * be used twice.
+ */
+public final class ResumeState {
+
+    private static final int TOKEN_BYTES = 24;
+
+    private final String deviceId;
+    private volatile String token;
+    private final AtomicLongArray acked = new AtomicLongArray(SyncStream.values().length);
+
+    // Snapshot, guarded by this
+    private final Map<String, SmsConversation> conversations = new LinkedHashMap<>();
+    private boolean conversationsSynced;
+    private SimListPayload sims;
+
+    public ResumeState(String deviceId) {
+        this.deviceId = deviceId;
+        this.token = CryptoUtils.generateSecureRandom(TOKEN_BYTES);
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean matches(String presented) {
+        return presented != null && presented.equals(token);
+    }
+
+    /**
+     * Issues a new token for the next reconnect.
+     */
+    public String rotateToken() {
+        token = CryptoUtils.generateSecureRandom(TOKEN_BYTES);
+        return token;
+    }
+
+    /**
+     * Whether a message should be applied: unsequenced messages always are, sequenced ones only
+     * if they are newer than what was already acknowledged. Batches of one streamed message
+     * share its sequence number and are all accepted until the last one is acknowledged.
+     */
+    public boolean accept(Message message) {
+        SyncStream stream = SyncStream.of(message.getType());
+        return stream == null || message.getSeq() <= 0 || message.getSeq() > acked.get(stream.ordinal());
+    }
+
+    /**
+     * Records a message as applied, if it is sequenced.
+     */
+    public void acknowledge(Message message) {
+        SyncStream stream = SyncStream.of(message.getType());
+        if (stream != null && message.getSeq() > 0) {
+            acked.accumulateAndGet(stream.ordinal(), message.getSeq(), Math::max);
+        }
+    }
+
+    public long getAcked(SyncStream stream) {
+        return acked.get(stream.ordinal());
+    }
+
+    /**
+     * Acknowledged sequence numbers keyed by stream id, as sent to the phone.
+     */
+    public Map<String, Object> getAckedSeqs() {
+        Map<String, Object> seqs = new LinkedHashMap<>();
+        for (SyncStream stream : SyncStream.values()) {
+            seqs.put(stream.getId(), acked.get(stream.ordinal()));
+        }
+        return seqs;
+    }
+
+    /**
+     * Applies a conversation list or one batch of it: a full list replaces the snapshot from
+     * its first batch on, a delta updates and removes single conversations.
+     */
+    public synchronized void applyConversations(SmsListPayload list) {
+        if (list.delta()) {
+            // Changed conversations move to the top, the way the phone orders its own list;
+            // later batches of the same delta go below the ones already applied
+            List<SmsConversation> previous = new ArrayList<>(conversations.values());
+            conversations.clear();
+            int head = Math.min(list.offset(), previous.size());
+            for (SmsConversation conversation : previous.subList(0, head)) {
+                conversations.put(conversation.threadId(), conversation);
+            }
+            for (SmsConversation conversation : list.conversations()) {
+                conversations.put(conversation.threadId(), conversation);
+            }
+            for (SmsConversation conversation : previous.subList(head, previous.size())) {
+                conversations.putIfAbsent(conversation.threadId(), conversation);
+            }
+        } else {
+            if (list.offset() == 0) {
+                conversations.clear();
+            }
+            for (SmsConversation conversation : list.conversations()) {
+                conversations.put(conversation.threadId(), conversation);
+            }
+        }
+        list.removed().forEach(conversations::remove);
+        if (list.complete()) {
+            conversationsSynced = true;
+        }
+    }
+
+    /**
+     * The conversation list as last synced, or null if it never was.
+     */
+    public synchronized List<SmsConversation> getConversations() {
+        return conversationsSynced ? new ArrayList<>(conversations.values()) : null;
+    }
+
+    public synchronized void setSims(SimListPayload sims) {
+        this.sims = sims;
+    }
+
+    /**
+     * The SIM cards as last synced, or null if they never were.
+     */
+    public synchronized SimListPayload getSims() {
+        return sims;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.config.AppConfig;
+import com.phoneunison.desktop.network.TokenBucket;
+import com.phoneunison.desktop.network.TransferControl;
+import com.phoneunison.desktop.protocol.Message;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Every file transfer in both directions, in one list the UI can show.
+ *
+ * <p>Files sent to a phone wait in a queue and at most {@code maxConcurrentTransfers} of them
+ * move at once; uploads from the phone start when the phone sends them and are tracked from
+ * there. All transfers draw on one global token bucket and one per device, so the configured
+ * caps hold however many run. Any transfer can be paused, resumed or cancelled; the wire side
+ * notices through {@link TransferControl} at its next chunk.
+ */
+public class TransferManager implements TransferControl.Registry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferManager.class);
+    private static final ExecutorService HASHER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("transfer-hash-", 0).factory());
+
+    private final ConnectionService connectionService;
+    private final AppConfig config;
+    // Where the list and the properties are updated
+    private final Executor fxThread;
+    private final TokenBucket globalBucket;
+    private final Map<String, TokenBucket> deviceBuckets = new ConcurrentHashMap<>();
+    // Uploads from the phone by transfer id, so a resumed upload keeps its row
+    private final Map<String, FileTransfer> incoming = new ConcurrentHashMap<>();
+    private final ObservableList<FileTransfer> transfers = FXCollections.observableArrayList();
+    // Guarded by this
+    private final Deque<FileTransfer> queue = new ArrayDeque<>();
+    private int running;
+
+    public TransferManager(ConnectionService connectionService, AppConfig config) {
+        this(connectionService, config, Platform::runLater);
+    }
+
+    TransferManager(ConnectionService connectionService, AppConfig config, Executor fxThread) {
+        this.connectionService = connectionService;
+        this.config = config;
+        this.fxThread = fxThread;
+        this.globalBucket = new TokenBucket(config.getGlobalBandwidthLimit());
+    }
+
+    /**
+     * All transfers, newest last; modified on the FX thread only.
+     */
+    public ObservableList<FileTransfer> getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * Queues a file for a phone; it starts once fewer than the allowed number of sends are
+     * running.
+     */
+    public FileTransfer send(DeviceSession target, File file) {
+        FileTransfer transfer = new FileTransfer(FileTransfer.Direction.SEND, target.getDeviceId(),
+                target.getName(), file, file.getName(), file.length(), globalBucket,
+                deviceBucket(target.getDeviceId()), FileTransfer.State.QUEUED, this::stateChanged);
+        publish(transfer);
+        synchronized (this) {
+            queue.add(transfer);
+        }
+        startQueued(target);
+        return transfer;
+    }
+
+    public void pause(FileTransfer transfer) {
+        if (!transfer.getState().isFinished()) {
+            transfer.pause();
+        }
+    }
+
+    public void resume(FileTransfer transfer) {
+        if (!transfer.getState().isFinished()) {
+            transfer.resume();
+            startQueued(null);
+        }
+    }
+
+    public void cancel(FileTransfer transfer) {
+        if (transfer.getState().isFinished()) {
+            return;
+        }
+        boolean wasQueued;
+        synchronized (this) {
+            wasQueued = queue.remove(transfer);
+        }
+        transfer.cancel();
+        if (wasQueued || transfer.getState() == FileTransfer.State.INTERRUPTED) {
+            // Nothing on the wire will report it
+            transfer.finished(false, null);
+        }
+    }
+
+    /**
+     * Removes finished transfers from the list.
+     */
+    public void clearFinished() {
+        transfers.removeIf(transfer -> transfer.getState().isFinished());
+        incoming.values().removeIf(transfer -> transfer.getState().isFinished());
+    }
+
+    /**
+     * Applies new bandwidth caps, in bytes per second (0 for none), to running transfers too.
+     */
+    public void setBandwidthLimits(long global, long perDevice) {
+        globalBucket.setRate(global);
+        for (TokenBucket bucket : deviceBuckets.values()) {
+            bucket.setRate(perDevice);
+        }
+    }
+
+    /**
+     * Publishes throughput and progress of every transfer to its properties; call on the FX
+     * thread at the rate the UI should update.
+     */
+    public void refresh() {
+        long now = System.nanoTime();
+        for (FileTransfer transfer : transfers) {
+            transfer.refresh(now);
+        }
+    }
+
+    @Override
+    public TransferControl incoming(String transferId, String remoteHost, String fileName, long totalBytes) {
+        FileTransfer existing = incoming.get(transferId);
+        if (existing != null && existing.getState() == FileTransfer.State.CANCELLED) {
+            // Already cancelled here: the writer drops the connection and the partial file
+            return existing;
+        }
+        if (existing != null && existing.getState() != FileTransfer.State.COMPLETED) {
+            existing.restart(fileName);
+            return existing;
+        }
+        DeviceSession device = findDevice(remoteHost);
+        String deviceId = device != null ? device.getDeviceId() : remoteHost;
+        FileTransfer transfer = new FileTransfer(FileTransfer.Direction.RECEIVE, deviceId,
+                device != null ? device.getName() : remoteHost, null,
+                fileName != null ? fileName : transferId, totalBytes, globalBucket, deviceBucket(deviceId),
+                FileTransfer.State.ACTIVE, this::stateChanged);
+        incoming.put(transferId, transfer);
+        publish(transfer);
+        return transfer;
+    }
+
+    // Starts queued sends while there is room; target is the device just queued for, if any
+    private void startQueued(DeviceSession target) {
+        while (true) {
+            FileTransfer next = null;
+            synchronized (this) {
+                if (running >= Math.max(1, config.getMaxConcurrentTransfers())) {
+                    return;
+                }
+                for (FileTransfer candidate : queue) {
+                    if (!candidate.isPaused()) {
+                        next = candidate;
+                        break;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                queue.remove(next);
+                running++;
+            }
+            start(next, target != null && target.getDeviceId().equals(next.getDeviceId())
+                    ? target : connectionService.getDevice(next.getDeviceId()));
+        }
+    }
+
+    private void start(FileTransfer transfer, DeviceSession target) {
+        if (target == null) {
+            transferEnded(transfer, new IllegalStateException("Device is not connected"));
+            return;
+        }
+        // Hashed off the caller's thread; the digest lets the phone skip a file it already has
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return connectionService.getContentIndex().digestOf(transfer.getFile().toPath());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, HASHER).thenCompose(digest -> {
+            Map<String, Object> data = new HashMap<>();
+            data.put("fileName", transfer.getFileName());
+            data.put("fileSize", transfer.getTotalBytes());
+            data.put("filePath", transfer.getFile().getAbsolutePath());
+            data.put("sha256", digest);
+            connectionService.sendMessage(target.getDeviceId(), new Message(Message.FILE_OFFER, data));
+            return connectionService.sendFile(target, transfer.getFile(), digest, transfer);
+        }).whenComplete((ignored, error) -> transferEnded(transfer, error));
+    }
+
+    private void transferEnded(FileTransfer transfer, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause != null && !(cause instanceof CancellationException)) {
+            logger.warn("Sending {} failed: {}", transfer.getFileName(), cause.toString());
+        }
+        transfer.finished(cause == null, cause instanceof CancellationException ? null : cause);
+        synchronized (this) {
+            running--;
+        }
+        startQueued(null);
+    }
+
+    private DeviceSession findDevice(String host) {
+        for (DeviceSession session : connectionService.getDevices()) {
+            if (host.equals(session.getHostAddress())) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    private TokenBucket deviceBucket(String deviceId) {
+        return deviceBuckets.computeIfAbsent(deviceId, id -> new TokenBucket(config.getDeviceBandwidthLimit()));
+    }
+
+    private void publish(FileTransfer transfer) {
+        fxThread.execute(() -> {
+            transfers.add(transfer);
+            transfer.refresh(System.nanoTime());
+        });
+    }
+
+    private void stateChanged() {
+        // State changes show at once rather than on the next refresh
+        fxThread.execute(this::refresh);
+    }
+}
@@ -15,9 +15,14 @@
  */
 package com.phoneunison.desktop.ui;
 
+import com.phoneunison.desktop.protocol.FeatureSet;
+import com.phoneunison.desktop.protocol.MessageHandler;
+import com.phoneunison.desktop.protocol.payload.NotificationPayload;
 import com.phoneunison.desktop.services.ConnectionService;
+import com.phoneunison.desktop.services.DeviceSession;
 import com.phoneunison.desktop.ui.views.*;
 import javafx.animation.FadeTransition;
+import javafx.beans.binding.Bindings;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -31,9 +36,13 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import javafx.util.StringConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MainWindow {
 
     private static final Logger logger = LoggerFactory.getLogger(MainWindow.class);
@@ -45,6 +54,8 @@ public class MainWindow {
     private Label connectionStatusLabel;
     private Label deviceNameLabel;
     private Label batteryLabel;
+    private Label linkLabel;
+    private ComboBox<DeviceSession> deviceSelector;
     private Circle connectionIndicator;
     private NotificationsView notificationsView;
     private MessagesView messagesView;
@@ -177,6 +188,34 @@ public class MainWindow {
         batteryLabel.getStyleClass().add("device-battery");
         batteryLabel.setStyle("-fx-text-fill: #95a5a6; -fx-font-size: 12px;");
 
+        linkLabel = new Label("");
+        linkLabel.getStyleClass().add("device-link");
+        linkLabel.setStyle("-fx-text-fill: #95a5a6; -fx-font-size: 11px;");
+
+        // Only shown while more than one phone is connected
+        deviceSelector = new ComboBox<>(connectionService.getDeviceList());
+        deviceSelector.getStyleClass().add("device-selector");
+        deviceSelector.setMaxWidth(Double.MAX_VALUE);
+        deviceSelector.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(DeviceSession session) {
+                return session != null ? session.getName() : "";
+            }
+
+            @Override
+            public DeviceSession fromString(String name) {
+                return null;
+            }
+        });
+        deviceSelector.setOnAction(e -> {
+            DeviceSession selected = deviceSelector.getValue();
+            if (selected != null) {
+                connectionService.setActiveDevice(selected.getDeviceId());
+            }
+        });
+        deviceSelector.visibleProperty().bind(Bindings.size(connectionService.getDeviceList()).greaterThan(1));
+        deviceSelector.managedProperty().bind(deviceSelector.visibleProperty());
+
         HBox statusBox = new HBox(8);
         statusBox.setAlignment(Pos.CENTER);
         connectionIndicator = new Circle(5);
@@ -201,7 +240,8 @@ public class MainWindow {
         disconnectButton.visibleProperty().bind(connectionService.connectedProperty());
         disconnectButton.managedProperty().bind(disconnectButton.visibleProperty());
 
-        header.getChildren().addAll(phoneIcon, deviceNameLabel, batteryLabel, statusBox, pairButton, disconnectButton);
+        header.getChildren().addAll(phoneIcon, deviceNameLabel, deviceSelector, batteryLabel, linkLabel, statusBox,
+                pairButton, disconnectButton);
         return header;
     }
 
@@ -313,9 +353,13 @@ public class MainWindow {
                 connectionStatusLabel.setText("Disconnected");
                 deviceNameLabel.setText("No Device Connected");
                 batteryLabel.setText("");
+                linkLabel.setText("");
             }
         });
 
+        connectionService.rttMillisProperty().addListener((obs, oldVal, newVal) -> updateLinkLabel());
+        connectionService.jitterMillisProperty().addListener((obs, oldVal, newVal) -> updateLinkLabel());
+
         connectionService.deviceNameProperty().addListener((obs, oldVal, newVal) -> {
             if (newVal != null && !newVal.isEmpty()) {
                 deviceNameLabel.setText(newVal);
@@ -323,26 +367,92 @@ public class MainWindow {
         });
 
         connectionService.batteryLevelProperty().addListener((obs, oldVal, newVal) -> {
-            if (connectionService.connectedProperty().get()) {
+            if (connectionService.connectedProperty().get() && newVal.intValue() >= 0) {
                 batteryLabel.setText(newVal + "% Battery");
+            } else {
+                batteryLabel.setText("");
             }
         });
 
-        connectionService.getMessageHandler().setNotificationCallback(
-                (id, packageName, appName, title, content, icon) -> {
-                    javafx.application.Platform.runLater(() -> {
-                        notificationsView.addNotification(
-                                new com.phoneunison.desktop.ui.views.NotificationsView.NotificationItem(
-                                        appName, title, content, packageName, System.currentTimeMillis()));
-                    });
+        connectionService.activeDeviceProperty().addListener((obs, oldVal, newVal) -> {
+            syncDeviceSelector();
+            updateFeatureTooltip();
+        });
+        // Replacing the items can clear the selection even when the active device is unchanged;
+        // it also signals that a device's negotiated features changed
+        connectionService.getDeviceList().addListener(
+                (javafx.collections.ListChangeListener<DeviceSession>) change -> {
+                    syncDeviceSelector();
+                    updateFeatureTooltip();
+                });
 
-                    // Show Windows system tray popup notification
-                    com.phoneunison.desktop.ui.TrayManager trayMgr = com.phoneunison.desktop.PhoneUnisonApp
-                            .getInstance().getTrayManager();
-                    if (trayMgr != null) {
-                        trayMgr.showNotification(appName + ": " + title, content);
-                    }
+        connectionService.getMessageHandler().setNotificationCallback(new MessageHandler.NotificationCallback() {
+            @Override
+            public void onNotification(String id, String packageName, String appName, String title,
+                    String content, String icon) {
+                javafx.application.Platform.runLater(() -> {
+                    notificationsView.addNotification(
+                            new com.phoneunison.desktop.ui.views.NotificationsView.NotificationItem(
+                                    appName, title, content, packageName, System.currentTimeMillis()));
                 });
+
+                // Show Windows system tray popup notification
+                com.phoneunison.desktop.ui.TrayManager trayMgr = com.phoneunison.desktop.PhoneUnisonApp
+                        .getInstance().getTrayManager();
+                if (trayMgr != null) {
+                    trayMgr.showNotification(appName + ": " + title, content);
+                }
+            }
+
+            @Override
+            public void onNotifications(List<NotificationPayload> batch) {
+                if (batch.size() == 1) {
+                    MessageHandler.NotificationCallback.super.onNotifications(batch);
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                List<NotificationsView.NotificationItem> items = new ArrayList<>(batch.size());
+                for (NotificationPayload n : batch) {
+                    items.add(new NotificationsView.NotificationItem(n.appName(), n.title(), n.text(),
+                            n.packageName(), now));
+                }
+                javafx.application.Platform.runLater(() -> notificationsView.addNotifications(items));
+
+                // One popup for the whole burst
+                com.phoneunison.desktop.ui.TrayManager trayMgr = com.phoneunison.desktop.PhoneUnisonApp
+                        .getInstance().getTrayManager();
+                if (trayMgr != null) {
+                    NotificationPayload latest = batch.get(batch.size() - 1);
+                    trayMgr.showNotification(batch.size() + " new notifications",
+                            latest.appName() + ": " + latest.title());
+                }
+            }
+        });
+    }
+
+    private void syncDeviceSelector() {
+        DeviceSession active = connectionService.activeDeviceProperty().get();
+        if (deviceSelector.getValue() != active) {
+            deviceSelector.setValue(active);
+        }
+    }
+
+    private void updateFeatureTooltip() {
+        DeviceSession active = connectionService.activeDeviceProperty().get();
+        FeatureSet features = active != null ? active.getFeatures() : null;
+        deviceNameLabel.setTooltip(features != null ? new Tooltip("Protocol: " + features) : null);
+    }
+
+    private void updateLinkLabel() {
+        int rtt = connectionService.rttMillisProperty().get();
+        int jitter = connectionService.jitterMillisProperty().get();
+        if (!connectionService.isConnected() || (rtt < 0 && jitter < 0)) {
+            linkLabel.setText("");
+        } else if (rtt < 0) {
+            linkLabel.setText("Jitter " + jitter + " ms");
+        } else {
+            linkLabel.setText("RTT " + rtt + " ms · jitter " + Math.max(0, jitter) + " ms");
+        }
     }
 
     public void show() {
@@ -15,12 +15,18 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.util.Duration;
 import com.phoneunison.desktop.services.ConnectionService;
+import com.phoneunison.desktop.services.DeviceSession;
 import com.phoneunison.desktop.protocol.Message;
 import com.phoneunison.desktop.protocol.MessageHandler;
+import com.phoneunison.desktop.protocol.payload.SimCardInfo;
+import com.phoneunison.desktop.protocol.payload.SimListPayload;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class CallsView extends VBox implements MessageHandler.CallCallback {
 
@@ -48,14 +54,21 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
     private void setupCallbacks() {
         if (connectionService != null) {
             connectionService.getMessageHandler().setCallCallback(this);
-            connectionService.connectedProperty().addListener((obs, oldVal, newVal) -> {
-                if (newVal) {
+            connectionService.activeDeviceProperty().addListener((obs, oldVal, newVal) -> {
+                SimListPayload snapshot = newVal != null && newVal.isResumed()
+                        ? newVal.getResumeState().getSims() : null;
+                if (snapshot != null) {
+                    updateSimList(snapshot);
+                } else if (newVal != null) {
                     requestSimList();
                 }
             });
 
             connectionService.getMessageHandler().setSimListCallback(message -> {
-                Platform.runLater(() -> updateSimList(message));
+                SimListPayload simList = message.getPayload(SimListPayload.class);
+                if (simList != null) {
+                    Platform.runLater(() -> updateSimList(simList));
+                }
             });
 
             if (connectionService.isConnected()) {
@@ -65,9 +78,36 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
     }
 
     private void requestSimList() {
-        if (connectionService != null && connectionService.isConnected()) {
-            connectionService.sendMessage(null, new Message(Message.SIM_LIST_REQUEST, null));
+        DeviceSession device = connectionService != null ? connectionService.getActiveDevice() : null;
+        if (device == null || !device.isActive()) {
+            return;
         }
+        long timeout = TimeUnit.SECONDS.toMillis(connectionService.getConfig().getRequestTimeoutSeconds());
+        connectionService.request(device, new Message(Message.SIM_LIST_REQUEST, null), timeout,
+                        Message.SIM_LIST_REQUEST, null)
+                .whenComplete((reply, error) -> Platform.runLater(() -> {
+                    // The user may have switched phones while this one was answering
+                    if (connectionService.getActiveDevice() != device) {
+                        return;
+                    }
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        // SIM cards already listed are still right; a slow phone does not take them away
+                        if (cause instanceof CancellationException
+                                || cause instanceof TimeoutException && !simCards.isEmpty()) {
+                            return;
+                        }
+                        simCards.clear();
+                        callStatusLabel.setText("Could not load SIM cards: "
+                                + (cause instanceof TimeoutException ? "the phone did not answer" : cause.getMessage()));
+                        return;
+                    }
+                    SimListPayload simList = reply.getPayload(SimListPayload.class);
+                    if (simList != null) {
+                        updateSimList(simList);
+                    }
+                }));
     }
 
     private void initializeUI() {
@@ -269,7 +309,8 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
         data.put("phoneNumber", number);
         data.put("subscriptionId", subscriptionId);
 
-        connectionService.sendMessage(null, new Message(Message.CALL_DIAL, data));
+        connectionService.sendToActiveDevice(new Message(Message.CALL_DIAL, data))
+                .whenComplete((sent, error) -> showSendFailure("Could not dial " + number, error));
         callStatusLabel.setText("Dialing " + number + "...");
     }
 
@@ -277,7 +318,8 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
         if (connectionService != null && connectionService.isConnected()) {
             Map<String, Object> data = new HashMap<>();
             data.put("action", "answer");
-            connectionService.sendMessage(null, new Message(Message.CALL_ACTION, data));
+            connectionService.sendToActiveDevice(new Message(Message.CALL_ACTION, data))
+                    .whenComplete((sent, error) -> showSendFailure("Could not answer the call", error));
         }
         hideIncomingCallOverlay();
     }
@@ -286,7 +328,8 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
         if (connectionService != null && connectionService.isConnected()) {
             Map<String, Object> data = new HashMap<>();
             data.put("action", "reject");
-            connectionService.sendMessage(null, new Message(Message.CALL_ACTION, data));
+            connectionService.sendToActiveDevice(new Message(Message.CALL_ACTION, data))
+                    .whenComplete((sent, error) -> showSendFailure("Could not reject the call", error));
         }
         hideIncomingCallOverlay();
     }
@@ -304,6 +347,17 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
         ft.play();
     }
 
+    /**
+     * Shows on the status line that a call command never reached the phone.
+     */
+    private void showSendFailure(String what, Throwable error) {
+        if (error == null) {
+            return;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        Platform.runLater(() -> callStatusLabel.setText(what + ": " + cause.getMessage()));
+    }
+
     private void hideIncomingCallOverlay() {
         FadeTransition ft = new FadeTransition(Duration.millis(200), incomingCallOverlay);
         ft.setFromValue(1);
@@ -317,52 +371,47 @@ public class CallsView extends VBox implements MessageHandler.CallCallback {
 
     @Override
     public void onCallState(String state, String number, String contactName) {
+        onCallState(state, number, contactName, 0);
+    }
+
+    @Override
+    public void onCallState(String state, String number, String contactName, long receivedAt) {
         Platform.runLater(() -> {
-            switch (state) {
-                case "ringing" -> {
-                    isInCall = true;
-                    showIncomingCallOverlay(contactName, number);
-                    callStatusLabel.setText("Incoming call from " + (contactName != null ? contactName : number));
-                }
-                case "offhook" -> {
-                    isInCall = true;
-                    hideIncomingCallOverlay();
-                    callStatusLabel.setText("In call with " + (contactName != null ? contactName : number));
-                }
-                case "idle" -> {
-                    isInCall = false;
-                    hideIncomingCallOverlay();
-                    callStatusLabel.setText("Call ended");
-                }
-                default -> callStatusLabel.setText("Call state: " + state);
+            showCallState(state, number, contactName);
+            if (receivedAt > 0 && connectionService != null) {
+                connectionService.getCallStateLatency().record(System.nanoTime() - receivedAt);
             }
         });
     }
 
-    private void updateSimList(Message message) {
-        if (message.getData() == null)
-            return;
-
-        Object simsObj = message.getData().get("sims");
-        if (!(simsObj instanceof List))
-            return;
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> sims = (List<Map<String, Object>>) simsObj;
+    private void showCallState(String state, String number, String contactName) {
+        switch (state) {
+            case "ringing" -> {
+                isInCall = true;
+                showIncomingCallOverlay(contactName, number);
+                callStatusLabel.setText("Incoming call from " + (contactName != null ? contactName : number));
+            }
+            case "offhook" -> {
+                isInCall = true;
+                hideIncomingCallOverlay();
+                callStatusLabel.setText("In call with " + (contactName != null ? contactName : number));
+            }
+            case "idle" -> {
+                isInCall = false;
+                hideIncomingCallOverlay();
+                callStatusLabel.setText("Call ended");
+            }
+            default -> callStatusLabel.setText("Call state: " + state);
+        }
+    }
 
+    private void updateSimList(SimListPayload simList) {
         simCards.clear();
-        for (Map<String, Object> sim : sims) {
-            int subscriptionId = sim.get("subscriptionId") instanceof Number
-                    ? ((Number) sim.get("subscriptionId")).intValue()
-                    : -1;
-            String displayName = sim.get("displayName") instanceof String
-                    ? (String) sim.get("displayName")
-                    : "SIM";
-            String carrierName = sim.get("carrierName") instanceof String
-                    ? (String) sim.get("carrierName")
-                    : "";
-
-            simCards.add(new SimCard(subscriptionId, displayName, carrierName));
+        for (SimCardInfo sim : simList.sims()) {
+            String displayName = sim.displayName() != null ? sim.displayName() : "SIM";
+            String carrierName = sim.carrierName() != null ? sim.carrierName() : "";
+
+            simCards.add(new SimCard(sim.subscriptionId(), displayName, carrierName));
         }
 
         if (!simCards.isEmpty()) {
@@ -1,10 +1,16 @@
 package com.phoneunison.desktop.ui.views;
 
+import javafx.animation.Animation;
 import javafx.animation.FadeTransition;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.input.MouseEvent;
@@ -13,13 +19,14 @@ import javafx.scene.text.FontWeight;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
 import com.phoneunison.desktop.services.ConnectionService;
-import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.services.DeviceSession;
+import com.phoneunison.desktop.services.FileTransfer;
+import com.phoneunison.desktop.services.TransferManager;
 
 import java.io.File;
 import java.awt.Desktop;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 public class FilesView extends VBox {
     private final File downloadDir = new File(System.getProperty("user.home"), "Downloads/PhoneUnison");
@@ -27,7 +34,8 @@ public class FilesView extends VBox {
     private final ListView<File> listView;
     private ConnectionService connectionService;
     private Label statusLabel;
-    private ProgressBar progressBar;
+    // Rate at which transfer progress, throughput and ETA are redrawn
+    private static final Duration TRANSFER_REFRESH = Duration.millis(250);
 
     public FilesView() {
         this(null);
@@ -58,9 +66,52 @@ public class FilesView extends VBox {
 
         getChildren().addAll(title, sendSection, new Separator(), receivedLabel, controls, listView);
 
+        if (connectionService != null) {
+            getChildren().addAll(3, createTransferSection(connectionService.getTransferManager()));
+        }
+
         refreshFiles();
     }
 
+    private List<Node> createTransferSection(TransferManager manager) {
+        Label transfersLabel = new Label("Transfers");
+        transfersLabel.setFont(Font.font("Segoe UI", FontWeight.SEMI_BOLD, 16));
+        transfersLabel.setStyle("-fx-text-fill: #bdc3c7;");
+
+        Button clearBtn = new Button("🧹 Clear Finished");
+        clearBtn.getStyleClass().add("secondary-button");
+        clearBtn.setOnAction(e -> manager.clearFinished());
+
+        HBox header = new HBox(10, transfersLabel, clearBtn);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        // ListView only builds cells for the rows on screen, however many transfers there are
+        ListView<FileTransfer> transferList = new ListView<>(manager.getTransfers());
+        transferList.setCellFactory(param -> new TransferCell(manager));
+        transferList.setPrefHeight(180);
+        transferList.getStyleClass().add("files-list");
+
+        Timeline refresh = new Timeline(new KeyFrame(TRANSFER_REFRESH, e -> manager.refresh()));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
+
+        // A received file shows up in the list below once it is complete
+        manager.getTransfers().addListener((ListChangeListener<FileTransfer>) change -> {
+            while (change.next()) {
+                for (FileTransfer added : change.getAddedSubList()) {
+                    if (added.getDirection() == FileTransfer.Direction.RECEIVE) {
+                        added.stateProperty().addListener((obs, old, state) -> {
+                            if (state == FileTransfer.State.COMPLETED) {
+                                refreshFiles();
+                            }
+                        });
+                    }
+                }
+            }
+        });
+        return List.of(header, transferList, new Separator());
+    }
+
     private HBox createControls() {
         HBox controls = new HBox(10);
         controls.setAlignment(Pos.CENTER_LEFT);
@@ -98,11 +149,7 @@ public class FilesView extends VBox {
         statusLabel = new Label("");
         statusLabel.setStyle("-fx-text-fill: #888;");
 
-        progressBar = new ProgressBar(0);
-        progressBar.setVisible(false);
-        progressBar.setMaxWidth(Double.MAX_VALUE);
-
-        section.getChildren().addAll(sendLabel, descLabel, sendButton, statusLabel, progressBar);
+        section.getChildren().addAll(sendLabel, descLabel, sendButton, statusLabel);
         return section;
     }
 
@@ -113,83 +160,29 @@ public class FilesView extends VBox {
         }
 
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Select File to Send");
+        fileChooser.setTitle("Select Files to Send");
         fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
 
-        File selectedFile = fileChooser.showOpenDialog(getScene().getWindow());
-        if (selectedFile != null) {
-            sendFile(selectedFile);
+        List<File> selectedFiles = fileChooser.showOpenMultipleDialog(getScene().getWindow());
+        if (selectedFiles != null && !selectedFiles.isEmpty()) {
+            sendFiles(selectedFiles);
         }
     }
 
-    private void sendFile(File file) {
-        updateStatus("📤 Sending: " + file.getName() + "...", false);
-        progressBar.setVisible(true);
-        progressBar.setProgress(-1);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("fileName", file.getName());
-        data.put("fileSize", file.length());
-        data.put("filePath", file.getAbsolutePath());
-
-        connectionService.sendMessage(null, new Message(Message.FILE_OFFER, data));
-
-        new Thread(() -> {
-            try {
-                uploadFile(file);
-                javafx.application.Platform.runLater(() -> {
-                    updateStatus("✅ Sent: " + file.getName(), false);
-                    progressBar.setProgress(1);
-                    hideProgressAfterDelay();
-                });
-            } catch (Exception e) {
-                javafx.application.Platform.runLater(() -> {
-                    updateStatus("❌ Failed to send: " + e.getMessage(), true);
-                    progressBar.setVisible(false);
-                });
-            }
-        }).start();
-    }
-
-    private void uploadFile(File file) throws Exception {
-        if (connectionService == null)
-            throw new Exception("Not connected");
-
-        String host = connectionService.getConnectedDeviceIP();
-        int port = 8766;
-
-        if (host == null || host.isEmpty()) {
-            throw new Exception("Device IP not available");
-        }
-
-        java.net.URL url = new java.net.URL("http://" + host + ":" + port + "/upload?filename=" +
-                java.net.URLEncoder.encode(file.getName(), "UTF-8"));
-
-        java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-        conn.setDoOutput(true);
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/octet-stream");
-        conn.setRequestProperty("Content-Length", String.valueOf(file.length()));
-
-        try (java.io.FileInputStream fis = new java.io.FileInputStream(file);
-                java.io.OutputStream os = conn.getOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            long totalSent = 0;
-            long fileSize = file.length();
-
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-                totalSent += bytesRead;
-                final double progress = (double) totalSent / fileSize;
-                javafx.application.Platform.runLater(() -> progressBar.setProgress(progress));
-            }
+    private void sendFiles(List<File> selected) {
+        // Pin the target so switching devices while files wait in the queue cannot split them
+        DeviceSession target = connectionService.getActiveDevice();
+        if (target == null) {
+            updateStatus("❌ Not connected to device", true);
+            return;
         }
-
-        int responseCode = conn.getResponseCode();
-        if (responseCode != 200) {
-            throw new Exception("Server returned: " + responseCode);
+        TransferManager manager = connectionService.getTransferManager();
+        for (File file : selected) {
+            manager.send(target, file);
         }
+        updateStatus(selected.size() == 1
+                ? "📤 Queued: " + selected.get(0).getName()
+                : "📤 Queued " + selected.size() + " files", false);
     }
 
     private void updateStatus(String text, boolean isError) {
@@ -202,19 +195,6 @@ public class FilesView extends VBox {
         ft.play();
     }
 
-    private void hideProgressAfterDelay() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(3000);
-                javafx.application.Platform.runLater(() -> {
-                    progressBar.setVisible(false);
-                    progressBar.setProgress(0);
-                });
-            } catch (InterruptedException ignored) {
-            }
-        }).start();
-    }
-
     public void refreshFiles() {
         files.clear();
         if (downloadDir.exists() && downloadDir.isDirectory()) {
@@ -260,6 +240,77 @@ public class FilesView extends VBox {
         }
     }
 
+    private static class TransferCell extends ListCell<FileTransfer> {
+        private final TransferManager manager;
+        private final HBox root = new HBox(10);
+        private final Label name = new Label();
+        private final Label status = new Label();
+        private final ProgressBar progress = new ProgressBar(0);
+        private final Button pauseBtn = new Button();
+        private final Button cancelBtn = new Button("✖");
+        private FileTransfer bound;
+        private final ChangeListener<FileTransfer.State> stateListener =
+                (obs, old, state) -> updateButtons(state);
+
+        TransferCell(TransferManager manager) {
+            this.manager = manager;
+            root.setAlignment(Pos.CENTER_LEFT);
+            root.setPadding(new Insets(6));
+            name.setStyle("-fx-font-weight: bold;");
+            status.setStyle("-fx-text-fill: #888; -fx-font-size: 11px;");
+            progress.setMaxWidth(Double.MAX_VALUE);
+            VBox info = new VBox(3, name, progress, status);
+            HBox.setHgrow(info, Priority.ALWAYS);
+            pauseBtn.getStyleClass().add("secondary-button");
+            cancelBtn.getStyleClass().add("secondary-button");
+            pauseBtn.setOnAction(e -> {
+                if (bound != null) {
+                    if (bound.getState() == FileTransfer.State.PAUSED) {
+                        manager.resume(bound);
+                    } else {
+                        manager.pause(bound);
+                    }
+                }
+            });
+            cancelBtn.setOnAction(e -> {
+                if (bound != null) {
+                    manager.cancel(bound);
+                }
+            });
+            root.getChildren().addAll(info, pauseBtn, cancelBtn);
+        }
+
+        @Override
+        protected void updateItem(FileTransfer item, boolean empty) {
+            super.updateItem(item, empty);
+            if (bound != null) {
+                progress.progressProperty().unbind();
+                status.textProperty().unbind();
+                bound.stateProperty().removeListener(stateListener);
+                bound = null;
+            }
+            if (empty || item == null) {
+                setText(null);
+                setGraphic(null);
+                return;
+            }
+            bound = item;
+            name.setText((item.getDirection() == FileTransfer.Direction.SEND ? "📤 " : "📥 ") + item.getFileName());
+            progress.progressProperty().bind(item.progressProperty());
+            status.textProperty().bind(item.statusProperty());
+            item.stateProperty().addListener(stateListener);
+            updateButtons(item.stateProperty().get());
+            setText(null);
+            setGraphic(root);
+        }
+
+        private void updateButtons(FileTransfer.State state) {
+            pauseBtn.setText(state == FileTransfer.State.PAUSED ? "▶" : "⏸");
+            pauseBtn.setDisable(state.isFinished() || state == FileTransfer.State.INTERRUPTED);
+            cancelBtn.setDisable(state.isFinished());
+        }
+    }
+
     private static class FileCell extends ListCell<File> {
         @Override
         protected void updateItem(File item, boolean empty) {
@@ -28,6 +28,10 @@ import javafx.scene.text.FontWeight;
 import com.phoneunison.desktop.services.ConnectionService;
 import com.phoneunison.desktop.protocol.Message;
 import com.phoneunison.desktop.protocol.MessageHandler;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsEntry;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsMessagesPayload;
 import javafx.application.Platform;
 import java.util.Map;
 import java.util.List;
@@ -37,6 +41,12 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.List;
 
 /**
@@ -65,15 +75,23 @@ public class MessagesView extends HBox implements MessageHandler.SMSCallback {
             refreshConversations();
         }
 
-        connectionService.connectedProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal) {
-                refreshConversations();
+        connectionService.activeDeviceProperty().addListener((obs, oldVal, newVal) -> {
+            conversations.clear();
+            if (newVal != null) {
+                List<SmsConversation> snapshot = newVal.isResumed()
+                        ? newVal.getResumeState().getConversations() : null;
+                if (snapshot != null) {
+                    // A resumed phone pushes what changed; no need to ask for everything
+                    showConversations(snapshot);
+                } else {
+                    refreshConversations();
+                }
             }
         });
     }
 
     private void refreshConversations() {
-        connectionService.sendMessage(null, new Message(Message.SMS_LIST, null));
+        connectionService.sendToActiveDevice(new Message(Message.SMS_LIST, null));
     }
 
     private void initializeUI() {
@@ -167,10 +185,20 @@ public class MessagesView extends HBox implements MessageHandler.SMSCallback {
             return;
         }
 
-        // Request messages for this conversation
+        // Request messages for this conversation; a request for the previously selected one
+        // still in flight is cancelled, and clicking the same one again reuses its request
         Map<String, Object> data = new java.util.HashMap<>();
         data.put("threadId", conversation.getThreadId());
-        connectionService.sendMessage(null, new Message(Message.SMS_MESSAGES, data));
+        long timeout = TimeUnit.SECONDS.toMillis(connectionService.getConfig().getRequestTimeoutSeconds());
+        connectionService.request(new Message(Message.SMS_MESSAGES, data), timeout, Message.SMS_MESSAGES,
+                        batch -> Platform.runLater(() -> updateMessages(batch)))
+                .whenComplete((reply, error) -> Platform.runLater(() -> {
+                    if (error == null) {
+                        updateMessages(reply);
+                    } else {
+                        showLoadFailure(conversation, error);
+                    }
+                }));
 
         selectedConversation = conversation;
         messagePane.getChildren().clear();
@@ -269,7 +297,8 @@ public class MessagesView extends HBox implements MessageHandler.SMSCallback {
 
         UiMessage message = new UiMessage(text, System.currentTimeMillis(), false);
         selectedConversation.getMessages().add(message);
-        messageContainer.getChildren().add(createMessageBubble(message));
+        HBox row = createMessageBubble(message);
+        messageContainer.getChildren().add(row);
         messageInput.clear();
 
         // Send via ConnectionService
@@ -277,10 +306,51 @@ public class MessagesView extends HBox implements MessageHandler.SMSCallback {
             Map<String, Object> data = new java.util.HashMap<>();
             data.put("address", selectedConversation.getPhoneNumber()); // Assuming phone number is address
             data.put("body", text);
-            connectionService.sendMessage(null, new Message(Message.SMS_SEND, data));
+            connectionService.sendToActiveDevice(new Message(Message.SMS_SEND, data))
+                    .whenComplete((sent, error) -> {
+                        if (error != null) {
+                            Platform.runLater(() -> markNotSent(row, error));
+                        }
+                    });
         }
     }
 
+    private void markNotSent(HBox row, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        Label failedLabel = new Label("Not sent: " + cause.getMessage());
+        failedLabel.getStyleClass().add("message-error");
+        failedLabel.setTextFill(Color.web("#da4453"));
+        for (javafx.scene.Node node : row.getChildren()) {
+            if (node instanceof VBox bubble) {
+                bubble.getChildren().add(failedLabel);
+            }
+        }
+    }
+
+    /**
+     * Drops whatever part of the thread had arrived and says why the rest did not. A request
+     * cancelled because another conversation was selected is not a failure, and a thread that is
+     * already showing is kept when the phone is merely slow to finish it.
+     */
+    private void showLoadFailure(Conversation conversation, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        if (cause instanceof CancellationException || selectedConversation != conversation) {
+            return;
+        }
+        if (cause instanceof TimeoutException && !conversation.getMessages().isEmpty()) {
+            return;
+        }
+        conversation.getMessages().clear();
+        messageContainer.getChildren().clear();
+        String reason = cause instanceof TimeoutException ? "the phone did not answer" : cause.getMessage();
+        Label failedLabel = new Label("Could not load messages: " + reason);
+        failedLabel.getStyleClass().add("message-error");
+        failedLabel.setTextFill(Color.web("#da4453"));
+        messageContainer.getChildren().add(failedLabel);
+    }
+
     private void showNewMessageDialog() {
         // TODO: Implement new message dialog
     }
@@ -402,47 +472,57 @@ public class MessagesView extends HBox implements MessageHandler.SMSCallback {
     }
 
     private void updateConversationList(Message message) {
-        List<Map<String, Object>> convs = (List<Map<String, Object>>) message.getData().get("conversations");
-        if (convs == null)
+        SmsListPayload list = message.getPayload(SmsListPayload.class);
+        if (list == null)
+            return;
+
+        if (list.delta()) {
+            applyDelta(list);
             return;
+        }
+        // Large lists arrive in batches; only the first one replaces the current list
+        if (list.offset() == 0) {
+            conversations.clear();
+        }
+        showConversations(list.conversations());
+    }
 
-        conversations.clear();
-        for (Map<String, Object> c : convs) {
-            String threadId = String.valueOf(c.get("threadId")); // careful with types
-            String address = (String) c.get("address");
-            String contactName = (String) c.get("contactName");
-            // snippet, etc...
-            conversations.add(new Conversation(threadId, contactName, address));
+    private void showConversations(List<SmsConversation> list) {
+        List<Conversation> batch = new ArrayList<>(list.size());
+        for (SmsConversation c : list) {
+            batch.add(new Conversation(c.threadId(), c.contactName(), c.address()));
         }
+        conversations.addAll(batch);
     }
 
-    private void updateMessages(Message message) {
-        String threadId = (String) message.getData().get("threadId");
-        if (selectedConversation == null || !selectedConversation.getThreadId().equals(threadId))
-            return;
+    /**
+     * Moves changed conversations to the top, after those of earlier batches of the same delta,
+     * and drops deleted ones. Unchanged conversations keep their loaded messages.
+     */
+    private void applyDelta(SmsListPayload list) {
+        Set<String> changed = new HashSet<>(list.removed());
+        List<Conversation> updated = new ArrayList<>(list.conversations().size());
+        for (SmsConversation c : list.conversations()) {
+            changed.add(c.threadId());
+            updated.add(new Conversation(c.threadId(), c.contactName(), c.address()));
+        }
+        conversations.removeIf(c -> changed.contains(c.getThreadId()));
+        conversations.addAll(Math.min(list.offset(), conversations.size()), updated);
+    }
 
-        List<Map<String, Object>> msgs = (List<Map<String, Object>>) message.getData().get("messages");
-        if (msgs == null)
+    private void updateMessages(Message message) {
+        SmsMessagesPayload thread = message.getPayload(SmsMessagesPayload.class);
+        if (thread == null || selectedConversation == null
+                || !selectedConversation.getThreadId().equals(thread.threadId()))
             return;
 
-        selectedConversation.getMessages().clear();
-        messageContainer.getChildren().clear();
-
-        for (Map<String, Object> m : msgs) {
-            String body = (String) m.get("body");
-            Double ts = (Double) m.get("timestamp"); // Gson/Json might parse as double
-            long timestamp = ts.longValue();
-
-            // Type 1 = Inbox (Incoming), 2 = Sent (Outgoing)
-            // But types might be Double too
-            Object typeObj = m.get("type");
-            int type = 1;
-            if (typeObj instanceof Number)
-                type = ((Number) typeObj).intValue();
-
-            boolean incoming = (type == 1);
+        if (thread.offset() == 0) {
+            selectedConversation.getMessages().clear();
+            messageContainer.getChildren().clear();
+        }
 
-            UiMessage msg = new UiMessage(body, timestamp, incoming);
+        for (SmsEntry entry : thread.messages()) {
+            UiMessage msg = new UiMessage(entry.body(), entry.timestamp(), entry.isIncoming());
             selectedConversation.getMessages().add(msg);
             messageContainer.getChildren().add(createMessageBubble(msg));
         }
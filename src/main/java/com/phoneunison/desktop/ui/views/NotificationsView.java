@@ -26,6 +26,10 @@ import javafx.scene.shape.Circle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * View for displaying phone notifications.
  */
@@ -93,6 +97,15 @@ public class NotificationsView extends VBox {
         notifications.add(0, notification);
     }
 
+    /**
+     * Adds notifications given oldest first in a single list change, newest on top.
+     */
+    public void addNotifications(List<NotificationItem> batch) {
+        List<NotificationItem> newestFirst = new ArrayList<>(batch);
+        Collections.reverse(newestFirst);
+        notifications.addAll(0, newestFirst);
+    }
+
     public void clearAllNotifications() {
         notifications.clear();
     }
@@ -38,10 +38,18 @@ public class CryptoUtils {
     private static SecretKey sharedSecret;
     
     public static String generateKeyPair() throws Exception {
+        keyPair = newKeyPair();
+        return Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Creates a P-256 key pair without touching the shared key state, e.g. for the key
+     * exchange of a single device session.
+     */
+    public static KeyPair newKeyPair() throws GeneralSecurityException {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance(EC_ALGORITHM);
         keyGen.initialize(new ECGenParameterSpec(EC_CURVE));
-        keyPair = keyGen.generateKeyPair();
-        return Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+        return keyGen.generateKeyPair();
     }
     
     public static void performKeyAgreement(byte[] peerPublicKeyBytes) throws Exception {
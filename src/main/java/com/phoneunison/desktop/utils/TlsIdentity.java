@@ -0,0 +1,229 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+
+/**
+ * The desktop's TLS key and self-signed certificate.
+ *
+ * <p>The identity is created when the first phone pairs and stored next to the configuration,
+ * so the certificate stays the same across restarts. Phones do not check it against a CA.
+ * Instead they pin the SHA-256 fingerprint that was shown in the pairing QR code.
+ *
+ * <p>The certificate is a minimal X.509 v1 certificate for a P-256 key, signed with
+ * SHA256withECDSA. It is DER-encoded by hand because the JDK has no public API for creating
+ * certificates.
+ */
+public final class TlsIdentity {
+
+    private static final Logger logger = LoggerFactory.getLogger(TlsIdentity.class);
+
+    private static final String KEY_FILE = "tls-key.der";
+    private static final String CERT_FILE = "tls-cert.der";
+    private static final int VALIDITY_YEARS = 20;
+
+    // ecdsa-with-SHA256 (1.2.840.10045.4.3.2) and commonName (2.5.4.3)
+    private static final byte[] OID_ECDSA_SHA256 = {0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x04, 0x03, 0x02};
+    private static final byte[] OID_COMMON_NAME = {0x55, 0x04, 0x03};
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_BIT_STRING = 0x03;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_UTF8_STRING = 0x0C;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_SET = 0x31;
+
+    private final PrivateKey privateKey;
+    private final X509Certificate certificate;
+    private final String fingerprint;
+
+    private TlsIdentity(PrivateKey privateKey, X509Certificate certificate) throws GeneralSecurityException {
+        this.privateKey = privateKey;
+        this.certificate = certificate;
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        this.fingerprint = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    /**
+     * Loads the stored identity, or returns null if none has been created yet or it is unreadable.
+     */
+    public static TlsIdentity load(Path dir) {
+        Path keyFile = dir.resolve(KEY_FILE);
+        Path certFile = dir.resolve(CERT_FILE);
+        if (!Files.exists(keyFile) || !Files.exists(certFile)) {
+            return null;
+        }
+        try {
+            PrivateKey key = KeyFactory.getInstance("EC")
+                    .generatePrivate(new PKCS8EncodedKeySpec(Files.readAllBytes(keyFile)));
+            X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(Files.readAllBytes(certFile)));
+            return new TlsIdentity(key, cert);
+        } catch (IOException | GeneralSecurityException e) {
+            logger.error("Failed to load TLS identity from {}", dir, e);
+            return null;
+        }
+    }
+
+    /**
+     * Generates a new key and certificate and stores them in {@code dir}, replacing any previous
+     * identity.
+     */
+    public static TlsIdentity create(Path dir, String commonName) throws IOException, GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] der = selfSign(keyPair, commonName);
+        X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(der));
+        cert.verify(keyPair.getPublic());
+
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(KEY_FILE), keyPair.getPrivate().getEncoded());
+        Files.write(dir.resolve(CERT_FILE), der);
+        restrictToOwner(dir.resolve(KEY_FILE));
+        TlsIdentity identity = new TlsIdentity(keyPair.getPrivate(), cert);
+        logger.info("Created TLS identity {} with fingerprint {}", commonName, identity.fingerprint);
+        return identity;
+    }
+
+    /**
+     * Deletes the stored identity, so the next pairing creates a new one.
+     */
+    public static void delete(Path dir) {
+        try {
+            Files.deleteIfExists(dir.resolve(KEY_FILE));
+            Files.deleteIfExists(dir.resolve(CERT_FILE));
+        } catch (IOException e) {
+            logger.error("Failed to delete TLS identity in {}", dir, e);
+        }
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Base64url SHA-256 of the DER certificate, as pinned by phones.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    private static byte[] selfSign(KeyPair keyPair, String commonName) throws GeneralSecurityException {
+        byte[] algorithm = der(TAG_SEQUENCE, der(TAG_OID, OID_ECDSA_SHA256));
+        byte[] name = der(TAG_SEQUENCE, der(TAG_SET, der(TAG_SEQUENCE,
+                der(TAG_OID, OID_COMMON_NAME),
+                der(TAG_UTF8_STRING, commonName.getBytes(StandardCharsets.UTF_8)))));
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC).withNano(0);
+        byte[] validity = der(TAG_SEQUENCE, time(now.minusDays(1)), time(now.plusYears(VALIDITY_YEARS)));
+        byte[] serial = new byte[16];
+        new SecureRandom().nextBytes(serial);
+
+        byte[] tbs = der(TAG_SEQUENCE,
+                der(TAG_INTEGER, new BigInteger(1, serial).toByteArray()),
+                algorithm,
+                name,
+                validity,
+                name,
+                keyPair.getPublic().getEncoded());
+
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(tbs);
+        byte[] signature = signer.sign();
+        byte[] bits = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, bits, 1, signature.length);
+        return der(TAG_SEQUENCE, tbs, algorithm, der(TAG_BIT_STRING, bits));
+    }
+
+    /**
+     * UTCTime through 2049 and GeneralizedTime after, as RFC 5280 requires.
+     */
+    private static byte[] time(ZonedDateTime time) {
+        if (time.getYear() < 2050) {
+            return der(TAG_UTC_TIME, time.format(DateTimeFormatter.ofPattern("yyMMddHHmmss'Z'"))
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+        return der(TAG_GENERALIZED_TIME, time.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'"))
+                .getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] der(int tag, byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (i * 8));
+            }
+        }
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static void restrictToOwner(Path file) {
+        try {
+            if (Files.getFileStore(file).supportsFileAttributeView("posix")) {
+                Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.debug("Could not restrict permissions of {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BasicFileUploadHandlerTest {
+
+    private static final String PHONE = "192.168.1.20";
+    private static final String STRANGER = "192.168.1.66";
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"a:b.txt", "what?.jpg", "star*.png", "quote\".txt", "pipe|.txt", "<tag>.txt",
+            "trailing.", "CON", "nul.txt", "Com1.log", "tab\there.txt"})
+    void refusesNamesWindowsCannotStore(String name) throws Exception {
+        FullHttpResponse response = upload(name, "body");
+        try {
+            assertEquals(HttpResponseStatus.BAD_REQUEST, response.status());
+        } finally {
+            response.release();
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void savesEachUploadOfTheSameNameUnderItsOwnName() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            FullHttpResponse response = upload("photo.jpg", "take " + i);
+            try {
+                assertEquals(HttpResponseStatus.OK, response.status());
+            } finally {
+                response.release();
+            }
+        }
+
+        assertEquals("take 0", Files.readString(dir.resolve("photo.jpg")));
+        assertEquals("take 1", Files.readString(dir.resolve("photo (1).jpg")));
+        assertEquals("take 2", Files.readString(dir.resolve("photo (2).jpg")));
+    }
+
+    @Test
+    void keepsOrdinaryNames() {
+        assertTrue(BasicFileUploadHandler.isValidFileName("IMG_2041 (edited).jpg"));
+        assertTrue(BasicFileUploadHandler.isValidFileName("CONTRACT.pdf"));
+        assertFalse(BasicFileUploadHandler.isValidFileName("x".repeat(256)));
+    }
+
+    @Test
+    void inflatesABodyThatGrowsFarPastItsChunk() throws Exception {
+        // Megabytes from one small chunk, handed back over several inflate calls, the last of
+        // which fills the writer's buffer exactly as the stream ends
+        byte[] plain = new byte[2 * 1024 * 1024];
+        Arrays.fill(plain, (byte) 'a');
+
+        FullHttpResponse response = upload("log.txt", plain.length, TransferCompression.DEFLATE, deflate(plain));
+        try {
+            assertEquals(HttpResponseStatus.OK, response.status());
+        } finally {
+            response.release();
+        }
+        assertArrayEquals(plain, Files.readAllBytes(dir.resolve("log.txt")));
+    }
+
+    @Test
+    void refusesADeflatedBodyWithoutItsTotal() throws Exception {
+        FullHttpResponse response = upload("log.txt", -1, TransferCompression.DEFLATE,
+                deflate("some text".getBytes(StandardCharsets.UTF_8)));
+        try {
+            assertEquals(HttpResponseStatus.BAD_REQUEST, response.status());
+        } finally {
+            response.release();
+        }
+        assertFalse(Files.exists(dir.resolve("log.txt")));
+    }
+
+    @Test
+    void refusesABodyThatRunsPastItsTotal() throws Exception {
+        byte[] plain = new byte[64 * 1024];
+        Arrays.fill(plain, (byte) 'a');
+
+        FullHttpResponse inflated = upload("log.txt", 1000, TransferCompression.DEFLATE, deflate(plain));
+        FullHttpResponse plainly = upload("notes.txt", 4, TransferCompression.IDENTITY,
+                "longer than four".getBytes(StandardCharsets.UTF_8));
+        try {
+            assertEquals(HttpResponseStatus.BAD_REQUEST, inflated.status());
+            assertEquals(HttpResponseStatus.BAD_REQUEST, plainly.status());
+        } finally {
+            inflated.release();
+            plainly.release();
+        }
+        assertFalse(Files.exists(dir.resolve("log.txt")));
+        assertFalse(Files.exists(dir.resolve("notes.txt")));
+    }
+
+    @Test
+    void tellsOnlyAPairedPhoneThatAFileIsAlreadyHere() throws Exception {
+        byte[] photo = "the same photo".getBytes(StandardCharsets.UTF_8);
+        Path existing = Files.write(dir.resolve("photo.jpg"), photo);
+        ContentIndex index = new ContentIndex(dir.resolve(".index"), dir);
+        String sha256 = index.digestOf(existing);
+
+        FullHttpResponse phone = upload(index, PHONE, "copy.jpg", -1, TransferCompression.IDENTITY, photo, sha256);
+        try {
+            assertEquals(HttpResponseStatus.OK, phone.status());
+            assertEquals("true", phone.headers().get(BasicFileUploadHandler.DUPLICATE_HEADER));
+        } finally {
+            phone.release();
+        }
+        assertFalse(Files.exists(dir.resolve("copy.jpg")));
+
+        // Anyone else's upload is received as if the file were new
+        FullHttpResponse stranger = upload(index, STRANGER, "copy.jpg", -1, TransferCompression.IDENTITY, photo,
+                sha256);
+        try {
+            assertEquals(HttpResponseStatus.OK, stranger.status());
+            assertFalse(stranger.headers().contains(BasicFileUploadHandler.DUPLICATE_HEADER));
+        } finally {
+            stranger.release();
+        }
+        assertArrayEquals(photo, Files.readAllBytes(dir.resolve("copy.jpg")));
+    }
+
+    private FullHttpResponse upload(String name, String body) throws Exception {
+        return upload(name, -1, TransferCompression.IDENTITY, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Posts one body and waits for the answer, which comes from the writer thread.
+     *
+     * @param total the {@code total} to declare, or -1 for none
+     */
+    private FullHttpResponse upload(String name, long total, String coding, byte[] bytes) throws Exception {
+        return upload(null, STRANGER, name, total, coding, bytes, null);
+    }
+
+    /**
+     * Posts one body from the given host and waits for the answer. Only {@link #PHONE} is paired.
+     *
+     * @param index  the files already received, or null for none
+     * @param sha256 the {@code Upload-SHA256} to declare, or null for none
+     */
+    private FullHttpResponse upload(ContentIndex index, String host, String name, long total, String coding,
+                                    byte[] bytes, String sha256) throws Exception {
+        SocketAddress remote = new InetSocketAddress(host, 40000);
+        EmbeddedChannel channel = new EmbeddedChannel(new BasicFileUploadHandler(dir.toString(), 1024 * 1024, null,
+                index, address -> address.getHostAddress().equals(PHONE))) {
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return remote;
+            }
+        };
+        try {
+            QueryStringEncoder uri = new QueryStringEncoder("/upload");
+            uri.addParam("filename", name);
+            if (total >= 0) {
+                uri.addParam("total", Long.toString(total));
+            }
+            DefaultHttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri.toString());
+            request.headers().set(HttpHeaderNames.CONTENT_LENGTH, bytes.length);
+            if (!coding.equals(TransferCompression.IDENTITY)) {
+                request.headers().set(HttpHeaderNames.CONTENT_ENCODING, coding);
+            }
+            if (sha256 != null) {
+                request.headers().set(BasicFileUploadHandler.SHA256_HEADER, sha256);
+            }
+            channel.writeInbound(request);
+            LastHttpContent content = new DefaultLastHttpContent(Unpooled.wrappedBuffer(bytes));
+            channel.writeInbound(content);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            FullHttpResponse response;
+            while ((response = channel.readOutbound()) == null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+                channel.runPendingTasks();
+            }
+            assertNotNull(response, "no answer to the upload of " + name);
+            return response;
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private static byte[] deflate(byte[] plain) {
+        Deflater deflater = new Deflater(TransferCompression.LEVEL);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
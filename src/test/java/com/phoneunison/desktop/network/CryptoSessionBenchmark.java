@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Cost of sealing and opening frames of typical sizes in place, and the bytes each frame
+ * gains on the wire.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=CryptoSessionBenchmark}.
+ */
+@Tag("benchmark")
+class CryptoSessionBenchmark {
+
+    private static final int[] FRAME_SIZES = {128, 1024, 16 * 1024, 512 * 1024};
+    private static final long BYTES_PER_RUN = 256L * 1024 * 1024;
+
+    @Test
+    void sealAndOpen() throws Exception {
+        SecureRandom random = new SecureRandom();
+        byte[] toPhone = new byte[32];
+        byte[] toDesktop = new byte[32];
+        random.nextBytes(toPhone);
+        random.nextBytes(toDesktop);
+        CryptoSession desktop = new CryptoSession(new SecretKeySpec(toPhone, "AES"), new SecretKeySpec(toDesktop, "AES"));
+        CryptoSession phone = new CryptoSession(new SecretKeySpec(toDesktop, "AES"), new SecretKeySpec(toPhone, "AES"));
+
+        System.out.printf("%-10s %12s %12s %12s %10s%n", "frame B", "seal MB/s", "open MB/s", "us/frame", "overhead");
+        for (int size : FRAME_SIZES) {
+            ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(
+                    CryptoSession.HEADER_LENGTH + size + CryptoSession.TAG_LENGTH);
+            try {
+                // The first pass only warms up the JIT and AES-NI intrinsics
+                measure(desktop, phone, buf, size);
+                double[] result = measure(desktop, phone, buf, size);
+                int overhead = CryptoSession.HEADER_LENGTH + CryptoSession.TAG_LENGTH;
+                System.out.printf("%-10d %12.0f %12.0f %12.2f %9.1f%%%n", size, result[0], result[1], result[2],
+                        100.0 * overhead / size);
+            } finally {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * Seals and opens {@link #BYTES_PER_RUN} in frames of {@code size}, returning seal and open
+     * throughput in MB/s and the microseconds one frame takes both ways.
+     */
+    private static double[] measure(CryptoSession desktop, CryptoSession phone, ByteBuf buf, int size)
+            throws Exception {
+        long frames = BYTES_PER_RUN / size;
+        long sealNanos = 0;
+        long openNanos = 0;
+        for (long i = 0; i < frames; i++) {
+            buf.setIndex(CryptoSession.HEADER_LENGTH, CryptoSession.HEADER_LENGTH + size);
+            long start = System.nanoTime();
+            desktop.seal(buf, CryptoSession.KIND_BINARY);
+            long sealed = System.nanoTime();
+            phone.open(buf);
+            openNanos += System.nanoTime() - sealed;
+            sealNanos += sealed - start;
+            assertEquals(size, buf.readableBytes());
+        }
+        double megabytes = frames * (double) size / 1e6;
+        return new double[] {megabytes / (sealNanos / 1e9), megabytes / (openNanos / 1e9),
+                (sealNanos + openNanos) / 1e3 / frames};
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CryptoSessionTest {
+
+    private static final int FRAGMENT_BYTES = 512 * 1024;
+
+    private CryptoSession desktop;
+    private EmbeddedChannel phoneChannel;
+    private EmbeddedChannel desktopChannel;
+
+    @BeforeEach
+    void setUp() {
+        SecureRandom random = new SecureRandom();
+        byte[] toPhone = new byte[32];
+        byte[] toDesktop = new byte[32];
+        random.nextBytes(toPhone);
+        random.nextBytes(toDesktop);
+        desktop = new CryptoSession(new SecretKeySpec(toPhone, "AES"), new SecretKeySpec(toDesktop, "AES"));
+        CryptoSession phone = new CryptoSession(new SecretKeySpec(toDesktop, "AES"), new SecretKeySpec(toPhone, "AES"));
+        phoneChannel = new EmbeddedChannel(phone.handler());
+        desktopChannel = new EmbeddedChannel(desktop.handler());
+    }
+
+    @AfterEach
+    void tearDown() {
+        phoneChannel.finishAndReleaseAll();
+        desktopChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    void sealsAndOpensWholeFrames() {
+        phoneChannel.writeOutbound(new TextWebSocketFrame("{\"type\":\"CLIPBOARD\"}"));
+        WebSocketFrame sealed = phoneChannel.readOutbound();
+        assertInstanceOf(BinaryWebSocketFrame.class, sealed);
+        assertEquals(CryptoSession.KIND_TEXT, sealed.content().getByte(sealed.content().readerIndex()));
+
+        desktopChannel.writeInbound(sealed);
+        TextWebSocketFrame opened = desktopChannel.readInbound();
+        try {
+            assertEquals("{\"type\":\"CLIPBOARD\"}", opened.text());
+            assertTrue(opened.isFinalFragment());
+        } finally {
+            opened.release();
+        }
+    }
+
+    @Test
+    void sealsEachFragmentOfALargeMessage() {
+        byte[] message = new byte[5 * FRAGMENT_BYTES + 1234];
+        Arrays.fill(message, (byte) '7');
+        int fragments = 0;
+        for (int off = 0; off < message.length; off += FRAGMENT_BYTES) {
+            int length = Math.min(FRAGMENT_BYTES, message.length - off);
+            boolean last = off + length == message.length;
+            ByteBuf content = Unpooled.wrappedBuffer(message, off, length);
+            phoneChannel.writeOutbound(off == 0 ? new TextWebSocketFrame(last, 0, content)
+                    : new ContinuationWebSocketFrame(last, 0, content));
+            fragments++;
+        }
+
+        ByteBuf received = Unpooled.buffer(message.length);
+        try {
+            for (int i = 0; i < fragments; i++) {
+                WebSocketFrame sealed = phoneChannel.readOutbound();
+                // Fragments keep their place on the wire, each within the frame size limit
+                assertEquals(i == 0 ? BinaryWebSocketFrame.class : ContinuationWebSocketFrame.class, sealed.getClass());
+                assertEquals(i == fragments - 1, sealed.isFinalFragment());
+                assertTrue(sealed.content().readableBytes()
+                        <= FRAGMENT_BYTES + CryptoSession.HEADER_LENGTH + CryptoSession.TAG_LENGTH);
+                desktopChannel.writeInbound(sealed);
+
+                WebSocketFrame opened = desktopChannel.readInbound();
+                assertEquals(i == 0 ? TextWebSocketFrame.class : ContinuationWebSocketFrame.class, opened.getClass());
+                assertEquals(i == fragments - 1, opened.isFinalFragment());
+                received.writeBytes(opened.content());
+                opened.release();
+            }
+            assertArrayEquals(message, ByteBufUtil.getBytes(received));
+            assertEquals(fragments, desktop.getFramesOpened());
+            assertEquals(0, desktop.getFramesRejected());
+        } finally {
+            received.release();
+        }
+    }
+
+    @Test
+    void rejectsAFragmentPassedOffAsAWholeMessage() {
+        phoneChannel.writeOutbound(new BinaryWebSocketFrame(false, 0, Unpooled.copiedBuffer("first half",
+                StandardCharsets.UTF_8)));
+        WebSocketFrame sealed = phoneChannel.readOutbound();
+
+        // The FIN bit is outside the seal; flipping it must not cut the message short unnoticed
+        desktopChannel.writeInbound(new BinaryWebSocketFrame(true, 0, sealed.content()));
+
+        assertNull(desktopChannel.readInbound());
+        assertEquals(1, desktop.getFramesRejected());
+        assertClosed();
+    }
+
+    @Test
+    void rejectsPlainTextAfterTheKeyExchange() {
+        desktopChannel.writeInbound(new TextWebSocketFrame("{\"type\":\"SMS_SEND\"}"));
+
+        assertNull(desktopChannel.readInbound());
+        assertEquals(1, desktop.getFramesRejected());
+        assertClosed();
+    }
+
+    @Test
+    void derivesKeysWithHkdf() throws Exception {
+        // RFC 5869 test case 3: SHA-256, 22 bytes of 0x0b, no salt and no info
+        byte[] secret = new byte[22];
+        Arrays.fill(secret, (byte) 0x0b);
+
+        byte[] key = CryptoSession.deriveKey(secret, new byte[0]).getEncoded();
+
+        assertEquals("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d", ByteBufUtil.hexDump(key));
+    }
+
+    private void assertClosed() {
+        CloseWebSocketFrame close = desktopChannel.readOutbound();
+        try {
+            assertEquals(1008, close.statusCode());
+        } finally {
+            close.release();
+        }
+        assertFalse(desktopChannel.isOpen());
+    }
+}
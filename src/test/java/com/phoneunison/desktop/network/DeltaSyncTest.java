@@ -0,0 +1,180 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaSyncTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void picksBlocksAroundTheSquareRootWithinTheBounds() {
+        assertEquals(DeltaSync.MIN_BLOCK_SIZE, DeltaSync.blockSize(0));
+        assertEquals(DeltaSync.MIN_BLOCK_SIZE, DeltaSync.blockSize(1_000_000));
+        assertEquals(4096, DeltaSync.blockSize(10_000_000));
+        assertEquals(DeltaSync.MAX_BLOCK_SIZE, DeltaSync.blockSize(1L << 40));
+    }
+
+    @Test
+    void rollingTheChecksumMatchesComputingItAfresh() {
+        // The encoder's update when the window moves one byte, checked against every window
+        byte[] data = random(1, 10_000);
+        int size = 2048;
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < size; i++) {
+            a += data[i] & 0xff;
+            b += (size - i) * (data[i] & 0xff);
+        }
+        for (int pos = 0; ; pos++) {
+            assertEquals(DeltaSync.checksum(data, pos, size), (a & 0xffff) | (b << 16), "window at " + pos);
+            if (pos + size == data.length) {
+                break;
+            }
+            int out = data[pos] & 0xff;
+            a += (data[pos + size] & 0xff) - out;
+            b += a - size * out;
+        }
+    }
+
+    @Test
+    void sendsOnlyAByteInsertedAtTheStart() throws Exception {
+        byte[] old = random(2, 300_000);
+        byte[] changed = new byte[old.length + 1];
+        changed[0] = 42;
+        System.arraycopy(old, 0, changed, 1, old.length);
+
+        DeltaSync.Delta delta = roundTrip(old, changed);
+        // Every block still matches, one byte further along
+        assertEquals(1, delta.literalBytes());
+        assertEquals(old.length, delta.copiedBytes());
+    }
+
+    @Test
+    void sendsAboutOneBlockPerEditAcrossBlockSizes() throws Exception {
+        for (int length : new int[] {5_000, 2 * DeltaSync.MIN_BLOCK_SIZE * 50, 1_234_567, 9_000_001}) {
+            byte[] old = random(length, length);
+            int blockSize = DeltaSync.blockSize(length);
+
+            // An edit, a removal and an insertion, far enough apart to touch separate blocks
+            byte[] changed = old.clone();
+            changed[length / 5] ^= 1;
+            changed = remove(changed, length / 2, 100);
+            changed = insert(changed, 4 * length / 5, random(3, 700));
+
+            DeltaSync.Delta delta = roundTrip(old, changed);
+            assertEquals(changed.length, delta.length());
+            assertTrue(delta.literalBytes() <= 3L * blockSize + 700 + 2 * blockSize,
+                    length + " bytes sent " + delta.literalBytes() + " literal with " + blockSize + " byte blocks");
+        }
+    }
+
+    @Test
+    void buildsAFileFromNothingWithAnAllLiteralDelta() throws Exception {
+        byte[] data = random(4, 200_000);
+        Path file = Files.write(dir.resolve("new.bin"), data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        DeltaSync.Delta delta = DeltaSync.delta(file, DeltaSync.Signature.empty(), out);
+        Path target = dir.resolve("target.bin");
+        DeltaSync.patch(dir.resolve("missing.bin"), new ByteArrayInputStream(out.toByteArray()), target);
+
+        assertEquals(data.length, delta.literalBytes());
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    void refusesADeltaThatDoesNotRebuildTheFile() throws Exception {
+        Path old = Files.write(dir.resolve("old.bin"), random(5, 50_000));
+        Path changed = Files.write(dir.resolve("changed.bin"), random(6, 50_000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeltaSync.delta(changed, DeltaSync.signature(old), out);
+
+        byte[] tampered = out.toByteArray();
+        tampered[tampered.length - 40] ^= 1;
+        assertThrows(DeltaSync.DeltaException.class, () ->
+                DeltaSync.patch(old, new ByteArrayInputStream(tampered), dir.resolve("target.bin")));
+    }
+
+    @Test
+    void refusesATruncatedSignature() throws Exception {
+        Path file = Files.write(dir.resolve("file.bin"), random(7, 100_000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeltaSync.signature(file).writeTo(out);
+        byte[] bytes = out.toByteArray();
+
+        DeltaSync.Signature whole = DeltaSync.Signature.readFrom(new ByteArrayInputStream(bytes));
+        assertEquals(100_000, whole.getLength());
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertThrows(DeltaSync.DeltaException.class, () ->
+                DeltaSync.Signature.readFrom(new ByteArrayInputStream(truncated)));
+    }
+
+    // Sends the signature and the delta through their wire formats and patches the old file
+    private DeltaSync.Delta roundTrip(byte[] oldData, byte[] newData) throws Exception {
+        Path old = Files.write(dir.resolve("old.bin"), oldData);
+        Path changed = Files.write(dir.resolve("changed.bin"), newData);
+        ByteArrayOutputStream signature = new ByteArrayOutputStream();
+        DeltaSync.signature(old).writeTo(signature);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeltaSync.Delta delta = DeltaSync.delta(changed,
+                DeltaSync.Signature.readFrom(new ByteArrayInputStream(signature.toByteArray())), out);
+        Path target = dir.resolve("target.bin");
+        String sha256 = DeltaSync.patch(old, new ByteArrayInputStream(out.toByteArray()), target);
+
+        assertArrayEquals(newData, Files.readAllBytes(target));
+        assertEquals(delta.sha256(), sha256);
+        assertEquals(newData.length, delta.literalBytes() + delta.copiedBytes());
+        return delta;
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] remove(byte[] data, int at, int count) {
+        byte[] result = new byte[data.length - count];
+        System.arraycopy(data, 0, result, 0, at);
+        System.arraycopy(data, at + count, result, at, data.length - at - count);
+        return result;
+    }
+
+    private static byte[] insert(byte[] data, int at, byte[] bytes) {
+        byte[] result = new byte[data.length + bytes.length];
+        System.arraycopy(data, 0, result, 0, at);
+        System.arraycopy(bytes, 0, result, at, bytes.length);
+        System.arraycopy(data, at, result, at + bytes.length, data.length - at);
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link FileSender} against a {@link StandInReceiver} that throws the body away, so the numbers
+ * are the sender's own: the zero-copy path on a new and on a kept-alive connection, and the
+ * deflate path on text.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=FileSenderBenchmark}.
+ */
+@Tag("benchmark")
+class FileSenderBenchmark {
+
+    private static final long FILE_BYTES = 512L * 1024 * 1024;
+    private static final int RUNS = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sendToStandInReceiver() throws Exception {
+        File binary = randomFile(dir.resolve("video.bin"));
+        File text = textFile(dir.resolve("log.txt"));
+        StandInReceiver receiver = new StandInReceiver();
+        EventLoopGroup serverGroup = new NioEventLoopGroup(1);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(1);
+        try {
+            Channel server = receiver.bind(serverGroup);
+            int port = StandInReceiver.port(server);
+            try {
+                FileSender sender = new FileSender(clientGroup, NioSocketChannel.class);
+                System.out.printf("%-22s %10s %14s %12s%n", "case", "MB/s", "wire MB", "connections");
+                measure("identity, new", binary, false, sender, port, receiver, true);
+                measure("identity, kept alive", binary, false, sender, port, receiver, false);
+                measure("deflate, text", text, true, sender, port, receiver, false);
+                sender.close();
+            } finally {
+                server.close().sync();
+            }
+        } finally {
+            serverGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+            clientGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    private void measure(String name, File file, boolean compress, FileSender sender,
+                         int port, StandInReceiver receiver, boolean newConnections) throws Exception {
+        // The first run only warms up the JIT, the buffer pools and the page cache
+        send(sender, port, file, compress, newConnections);
+        double[] rates = new double[RUNS];
+        long wire = 0;
+        int connections = receiver.connections.get();
+        for (int i = 0; i < RUNS; i++) {
+            receiver.bodyBytes.set(0);
+            rates[i] = send(sender, port, file, compress, newConnections);
+            wire = receiver.bodyBytes.get();
+        }
+        System.out.printf("%-22s %10.0f %14.1f %12d%n", name, median(rates), wire / 1e6,
+                receiver.connections.get() - connections);
+        if (!compress) {
+            assertEquals(file.length(), wire);
+        } else {
+            assertTrue(wire < file.length());
+        }
+    }
+
+    /**
+     * Sends the file once and returns MB/s of file bytes until the receiver's answer.
+     */
+    private static double send(FileSender sender, int port, File file, boolean compress, boolean newConnection)
+            throws Exception {
+        if (newConnection) {
+            sender.close();
+        }
+        long start = System.nanoTime();
+        sender.send("127.0.0.1", port, file, null, compress, null).get(5, TimeUnit.MINUTES);
+        return file.length() / 1e6 / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static File randomFile(Path path) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < FILE_BYTES; written += block.length) {
+                ThreadLocalRandom.current().nextBytes(block);
+                out.write(block);
+            }
+        }
+        return path.toFile();
+    }
+
+    private static File textFile(Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            long written = 0;
+            for (long line = 0; written < FILE_BYTES / 2; line++) {
+                String entry = String.format("2026-10-16 12:%02d:%02d.%03d INFO  c.p.d.n.FileSender - Sent IMG_%05d.jpg"
+                                + " (%d bytes in %d ms)%n", line / 60 % 60, line % 60, line % 1000, line % 100_000,
+                        ThreadLocalRandom.current().nextInt(1 << 24), ThreadLocalRandom.current().nextInt(5000));
+                out.write(entry);
+                written += entry.length();
+            }
+        }
+        return path.toFile();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSenderTest {
+
+    private static final int FILE_BYTES = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final StandInReceiver receiver = new StandInReceiver();
+    private EventLoopGroup group;
+    private Channel server;
+    private FileSender sender;
+    private File file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        group = new NioEventLoopGroup(2);
+        server = receiver.bind(group);
+        sender = new FileSender(group, NioSocketChannel.class);
+        byte[] bytes = new byte[FILE_BYTES];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        file = Files.write(dir.resolve("photo.jpg"), bytes).toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sender.close();
+        server.close().sync();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    void sendsSlicesOfAQuarterSecondOfTheCap() throws Exception {
+        Control control = new Control(512 * 1024);
+
+        send(control).get(10, TimeUnit.SECONDS);
+
+        assertEquals(FILE_BYTES, receiver.bodyBytes.get());
+        assertEquals(FILE_BYTES, control.acquired.stream().mapToLong(Long::longValue).sum());
+        for (long slice : control.acquired) {
+            assertEquals(128 * 1024, slice);
+        }
+    }
+
+    @Test
+    void holdsASliceThatWasPausedWhileItWaited() throws Exception {
+        Control control = new Control(512 * 1024);
+        control.pauseOnAcquire = 2;
+
+        CompletableFuture<Void> sent = send(control);
+        // Each slice waits a quarter second for the bucket
+        Thread.sleep(1000);
+
+        // The second slice was due, but the pause came first
+        assertTrue(control.paused);
+        assertFalse(sent.isDone());
+        assertEquals(128 * 1024, receiver.bodyBytes.get());
+        control.setPaused(false);
+        sent.get(10, TimeUnit.SECONDS);
+        assertEquals(FILE_BYTES, receiver.bodyBytes.get());
+        // Resuming does not charge the bucket for that slice again
+        assertEquals(FILE_BYTES, control.acquired.stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void dropsASliceThatWasCancelledWhileItWaited() {
+        Control control = new Control(512 * 1024);
+        control.cancelOnAcquire = 2;
+
+        assertThrows(CancellationException.class, () -> send(control).get(10, TimeUnit.SECONDS));
+
+        assertEquals(128 * 1024, receiver.bodyBytes.get());
+    }
+
+    private CompletableFuture<Void> send(TransferControl control) {
+        return sender.send("127.0.0.1", StandInReceiver.port(server), file, null, false, control);
+    }
+
+    /**
+     * A cap with a bucket of its own that records what was taken from it, and can pause or
+     * cancel the transfer from within the n-th acquire, before the slice it paid for is written.
+     */
+    private static final class Control implements TransferControl {
+
+        final List<Long> acquired = new CopyOnWriteArrayList<>();
+        final TokenBucket bucket;
+        final long rate;
+        int pauseOnAcquire;
+        int cancelOnAcquire;
+        volatile boolean paused;
+        volatile boolean cancelled;
+        volatile Runnable listener;
+
+        Control(long rate) {
+            this.rate = rate;
+            this.bucket = new TokenBucket(rate);
+        }
+
+        @Override
+        public long acquire(long bytes) {
+            acquired.add(bytes);
+            long delay = bucket.acquire(bytes);
+            if (acquired.size() == pauseOnAcquire) {
+                paused = true;
+            }
+            if (acquired.size() == cancelOnAcquire) {
+                cancelled = true;
+            }
+            // Never zero, so the pause or cancel lands while the slice waits
+            return Math.max(delay, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+
+        @Override
+        public long getRateLimit() {
+            return rate;
+        }
+
+        void setPaused(boolean paused) {
+            this.paused = paused;
+            Runnable changed = listener;
+            listener = null;
+            if (changed != null) {
+                changed.run();
+            }
+        }
+
+        @Override
+        public void transferred(long bytes) {
+        }
+
+        @Override
+        public boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void onChange(Runnable listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void started(long offset, long totalBytes) {
+        }
+
+        @Override
+        public void finished(boolean complete, Throwable error) {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FolderSyncHandlerTest {
+
+    private static final String PHONE = "192.168.1.20";
+    private static final String STRANGER = "192.168.1.66";
+
+    @TempDir
+    Path dir;
+
+    private Path root;
+    private final Predicate<InetAddress> paired = address -> address.getHostAddress().equals(PHONE);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        root = Files.createDirectory(dir.resolve("sync"));
+        Files.writeString(root.resolve("notes.txt"), "shopping list");
+    }
+
+    @Test
+    void servesAPairedPhone() throws Exception {
+        FullHttpResponse response = request(PHONE, HttpMethod.GET, "/sync/manifest", null);
+        try {
+            assertEquals(HttpResponseStatus.OK, response.status());
+            assertTrue(response.content().toString(StandardCharsets.UTF_8).endsWith(" notes.txt\n"));
+        } finally {
+            response.release();
+        }
+    }
+
+    @Test
+    void refusesHostsThatAreNotPaired() throws Exception {
+        FullHttpResponse listed = request(STRANGER, HttpMethod.GET, "/sync/manifest", null);
+        FullHttpResponse patched = request(STRANGER, HttpMethod.POST, "/sync/patch?path=notes.txt",
+                Unpooled.copiedBuffer("anything", StandardCharsets.UTF_8));
+        try {
+            assertEquals(HttpResponseStatus.FORBIDDEN, listed.status());
+            assertEquals(HttpResponseStatus.FORBIDDEN, patched.status());
+        } finally {
+            listed.release();
+            patched.release();
+        }
+        assertEquals("shopping list", Files.readString(root.resolve("notes.txt")));
+    }
+
+    @Test
+    void refusesPathsThatLinkOutOfTheFolder() throws Exception {
+        Path outside = Files.createDirectory(dir.resolve("outside"));
+        Files.writeString(outside.resolve("secret.txt"), "not for the phone");
+        Files.createSymbolicLink(root.resolve("escape"), outside);
+        Files.createSymbolicLink(root.resolve("secret.txt"), outside.resolve("secret.txt"));
+
+        for (String path : new String[] {"escape/secret.txt", "secret.txt", "escape/new.txt"}) {
+            FullHttpResponse response = request(PHONE, HttpMethod.GET, "/sync/signature?path=" + path, null);
+            try {
+                assertEquals(HttpResponseStatus.BAD_REQUEST, response.status(), path);
+            } finally {
+                response.release();
+            }
+        }
+    }
+
+    @Test
+    void refusesASignatureShorterThanItsBlockCount() throws Exception {
+        // Claims the largest signature allowed, then sends none of its blocks
+        int blockSize = DeltaSync.MAX_BLOCK_SIZE;
+        int count = 1 << 24;
+        ByteBuf body = Unpooled.buffer()
+                .writeInt(0x50555331)
+                .writeLong((long) count * blockSize)
+                .writeInt(blockSize)
+                .writeInt(count);
+
+        FullHttpResponse response = request(PHONE, HttpMethod.POST, "/sync/delta?path=notes.txt", body);
+        try {
+            assertEquals(HttpResponseStatus.BAD_REQUEST, response.status());
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Sends one request from the given host and waits for the answer, which comes from the
+     * writer thread.
+     */
+    private FullHttpResponse request(String host, HttpMethod method, String uri, ByteBuf body) throws Exception {
+        SocketAddress remote = new InetSocketAddress(host, 40000);
+        EmbeddedChannel channel = new EmbeddedChannel(new FolderSyncHandler(root, paired)) {
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return remote;
+            }
+        };
+        try {
+            channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri));
+            channel.writeInbound(body != null ? new DefaultLastHttpContent(body) : new DefaultLastHttpContent());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            FullHttpResponse response;
+            while ((response = channel.readOutbound()) == null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+                channel.runPendingTasks();
+            }
+            assertNotNull(response, "no answer to " + method + " " + uri);
+            return response;
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageBatcherTest {
+
+    private static final int LINGER_MILLIS = 5;
+    private static final int MAX_MESSAGES = 4;
+
+    private final List<String> types = new ArrayList<>();
+    private final List<WebSocketFrame> frames = new ArrayList<>();
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        channel = new EmbeddedChannel();
+        channel.freezeTime();
+    }
+
+    @AfterEach
+    void tearDown() {
+        frames.forEach(WebSocketFrame::release);
+        channel.finishAndReleaseAll();
+    }
+
+    @ParameterizedTest
+    @EnumSource(WireFormat.class)
+    void sendsABurstInOneFrameOnceTheLingerEnds(WireFormat format) {
+        MessageCodec.setWireFormat(channel, format);
+        MessageBatcher batcher = batcher(Integer.MAX_VALUE);
+        List<Message> sent = List.of(notification("a"), notification("b"), notification("c"));
+        sent.forEach(batcher::add);
+
+        channel.advanceTimeBy(LINGER_MILLIS - 1, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+        assertTrue(frames.isEmpty());
+
+        channel.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+        assertEquals(List.of(Message.BATCH), types);
+        assertEquals(ids(sent), ids(decode(0)));
+        assertEquals(1, batcher.getFrameCount());
+        assertEquals(3, batcher.getMessageCount());
+    }
+
+    @Test
+    void sendsAMessageAloneInItsWindowAsItself() {
+        MessageBatcher batcher = batcher(Integer.MAX_VALUE);
+        Message alone = notification("a");
+        batcher.add(alone);
+        lingerPast();
+
+        assertEquals(List.of(Message.NOTIFICATION), types);
+        Message decoded = MessageCodec.decode(frames.get(0).duplicate());
+        assertEquals(alone.getId(), decoded.getId());
+        assertEquals(0, batcher.getBatchCount());
+    }
+
+    @Test
+    void sendsEarlyAtTheMessageCap() {
+        MessageBatcher batcher = batcher(Integer.MAX_VALUE);
+        for (int i = 0; i < MAX_MESSAGES + 1; i++) {
+            batcher.add(notification(String.valueOf(i)));
+        }
+
+        // The first four went without waiting, the fifth starts a new window
+        assertEquals(1, frames.size());
+        assertEquals(MAX_MESSAGES, decode(0).size());
+        lingerPast();
+        assertEquals(List.of(Message.BATCH, Message.NOTIFICATION), types);
+    }
+
+    @Test
+    void sendsWhatWaitsBeforeGoingOverTheByteCap() {
+        ByteBuf encoded = MessageCodec.encodeContent(channel, notification("a"));
+        int size = encoded.readableBytes();
+        encoded.release();
+
+        // Room for two messages but not three
+        MessageBatcher batcher = batcher(size * 2 + size / 2);
+        List<Message> sent = List.of(notification("b"), notification("c"), notification("d"));
+        sent.forEach(batcher::add);
+
+        assertEquals(List.of(Message.BATCH), types);
+        assertEquals(ids(sent.subList(0, 2)), ids(decode(0)));
+        lingerPast();
+        assertEquals(List.of(Message.BATCH, Message.NOTIFICATION), types);
+    }
+
+    @Test
+    void flushSendsWhatIsWaitingRightAway() {
+        MessageBatcher batcher = batcher(Integer.MAX_VALUE);
+        batcher.add(notification("a"));
+        batcher.add(notification("b"));
+
+        batcher.flush();
+        assertEquals(List.of(Message.BATCH), types);
+        // Nothing is left for the linger task to send
+        lingerPast();
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    void dropsWhatWaitsWhenCleared() {
+        MessageBatcher batcher = batcher(Integer.MAX_VALUE);
+        batcher.add(notification("a"));
+        batcher.clear();
+        lingerPast();
+        batcher.flush();
+
+        assertTrue(frames.isEmpty());
+        assertEquals(0, batcher.getFrameCount());
+    }
+
+    @Test
+    void batchesOnlyNotifications() {
+        assertTrue(MessageBatcher.isBatchable(Message.NOTIFICATION));
+        assertTrue(MessageBatcher.isBatchable(Message.NOTIFICATION_ACTION));
+        assertFalse(MessageBatcher.isBatchable(Message.CLIPBOARD));
+        assertFalse(MessageBatcher.isBatchable(Message.CALL_STATE));
+        assertFalse(MessageBatcher.isBatchable(null));
+    }
+
+    private MessageBatcher batcher(int maxBytes) {
+        return new MessageBatcher(channel, (type, frame) -> {
+            types.add(type);
+            frames.add(frame);
+        }, LINGER_MILLIS, MAX_MESSAGES, maxBytes);
+    }
+
+    private void lingerPast() {
+        channel.advanceTimeBy(LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        channel.runScheduledPendingTasks();
+    }
+
+    private List<Message> decode(int index) {
+        return MessageCodec.decode(frames.get(index).duplicate()).getPayload(BatchPayload.class).messages();
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    private static Message notification(String id) {
+        return new Message(Message.NOTIFICATION, Map.of("id", id, "title", "Title " + id));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Loopback comparison of the transports {@link NettyTransport} can pick: bulk throughput one
+ * way, and round trips of a small frame the size of a heartbeat or notification.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=NettyTransportBenchmark}. Transports that do not
+ * load on the host are reported as skipped.
+ */
+@Tag("benchmark")
+class NettyTransportBenchmark {
+
+    private static final long BULK_BYTES = 512L * 1024 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int ROUND_TRIPS = 20_000;
+    private static final int SMALL_FRAME_BYTES = 128;
+    private static final int RUNS = 5;
+
+    @Test
+    void compareTransports() throws Exception {
+        System.out.printf("%-9s %12s %16s%n", "transport", "bulk MB/s", "round trip us");
+        for (NettyTransport transport : NettyTransport.values()) {
+            if (!transport.isAvailable()) {
+                System.out.printf("%-9s %12s %16s%n", transport.getId(), "skipped", "not available");
+                continue;
+            }
+            EventLoopGroup server = transport.newEventLoopGroup(1);
+            EventLoopGroup client = transport.newEventLoopGroup(1);
+            try {
+                // The first run of each only warms up the JIT and the buffer pools
+                bulk(transport, server, client);
+                pingPong(transport, server, client);
+                double[] throughput = new double[RUNS];
+                double[] latency = new double[RUNS];
+                for (int i = 0; i < RUNS; i++) {
+                    throughput[i] = bulk(transport, server, client);
+                    latency[i] = pingPong(transport, server, client);
+                }
+                System.out.printf("%-9s %12.0f %16.1f%n", transport.getId(), median(throughput), median(latency));
+                assertTrue(median(throughput) > 0);
+            } finally {
+                server.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+                client.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+            }
+        }
+    }
+
+    /**
+     * Sends {@link #BULK_BYTES} to a server that discards them, in MB/s.
+     */
+    private static double bulk(NettyTransport transport, EventLoopGroup server, EventLoopGroup client)
+            throws Exception {
+        CompletableFuture<Long> received = new CompletableFuture<>();
+        long start = System.nanoTime();
+        run(transport, server, client, () -> new Sink(BULK_BYTES, received), () -> new Blaster(BULK_BYTES));
+        received.get(2, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return BULK_BYTES / 1e6 / seconds;
+    }
+
+    /**
+     * Bounces one small frame back and forth {@link #ROUND_TRIPS} times, in microseconds per
+     * round trip.
+     */
+    private static double pingPong(NettyTransport transport, EventLoopGroup server, EventLoopGroup client)
+            throws Exception {
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        run(transport, server, client, Echo::new, () -> new Pinger(done));
+        return done.get(2, TimeUnit.MINUTES) / 1e3 / ROUND_TRIPS;
+    }
+
+    private static void run(NettyTransport transport, EventLoopGroup server, EventLoopGroup client,
+            Supplier<ChannelHandler> serverHandler, Supplier<ChannelHandler> clientHandler) throws Exception {
+        Channel listener = new ServerBootstrap()
+                .group(server)
+                .channel(transport.serverChannelClass())
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(serverHandler.get())
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        try {
+            new Bootstrap()
+                    .group(client)
+                    .channel(transport.socketChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .handler(clientHandler.get())
+                    .connect(listener.localAddress()).sync().channel()
+                    .closeFuture().sync();
+        } finally {
+            listener.close().sync();
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    @ChannelHandler.Sharable
+    private static final class Sink extends ChannelInboundHandlerAdapter {
+        private final long expected;
+        private final CompletableFuture<Long> received;
+        private long count;
+
+        Sink(long expected, CompletableFuture<Long> received) {
+            this.expected = expected;
+            this.received = received;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            count += buf.readableBytes();
+            buf.release();
+            if (count >= expected) {
+                received.complete(count);
+                ctx.close();
+            }
+        }
+    }
+
+    private static final class Blaster extends ChannelInboundHandlerAdapter {
+        private long remaining;
+        private ByteBuf chunk;
+
+        Blaster(long total) {
+            this.remaining = total;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            chunk = ctx.alloc().directBuffer(CHUNK_BYTES).writeZero(CHUNK_BYTES);
+            pump(ctx);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            pump(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            chunk.release();
+        }
+
+        private void pump(ChannelHandlerContext ctx) {
+            while (remaining > 0 && ctx.channel().isWritable()) {
+                ctx.write(chunk.retainedDuplicate(), ctx.voidPromise());
+                remaining -= CHUNK_BYTES;
+            }
+            ctx.flush();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class Echo extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.writeAndFlush(msg, ctx.voidPromise());
+        }
+    }
+
+    private static final class Pinger extends ChannelInboundHandlerAdapter {
+        private final CompletableFuture<Long> done;
+        private ByteBuf frame;
+        private int pending;
+        private int remaining = ROUND_TRIPS;
+        private long start;
+
+        Pinger(CompletableFuture<Long> done) {
+            this.done = done;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            frame = ctx.alloc().directBuffer(SMALL_FRAME_BYTES).writeZero(SMALL_FRAME_BYTES);
+            start = System.nanoTime();
+            ping(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            pending -= buf.readableBytes();
+            buf.release();
+            if (pending > 0) {
+                return;
+            }
+            if (--remaining == 0) {
+                done.complete(System.nanoTime() - start);
+                ctx.close();
+            } else {
+                ping(ctx);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            frame.release();
+        }
+
+        private void ping(ChannelHandlerContext ctx) {
+            pending = SMALL_FRAME_BYTES;
+            ctx.writeAndFlush(frame.retainedDuplicate(), ctx.voidPromise());
+        }
+    }
+}
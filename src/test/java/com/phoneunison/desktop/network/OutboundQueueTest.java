@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import com.phoneunison.desktop.protocol.Message;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.ClosedChannelException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+
+    private EmbeddedChannel channel;
+    private OutboundQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        channel = new EmbeddedChannel();
+        queue = new OutboundQueue(channel, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void writesRightAwayWhileWritable() {
+        ChannelFuture sent = queue.enqueue(Message.SMS_SEND, frame("a"), channel.newPromise());
+
+        assertTrue(sent.isSuccess());
+        assertText("a", channel.readOutbound());
+    }
+
+    @Test
+    void dropsTheOldestDroppableFrameWhenFull() {
+        stall();
+        TextWebSocketFrame first = frame("1");
+        ChannelFuture dropped = queue.enqueue("CUSTOM", first, channel.newPromise());
+        ChannelFuture kept = queue.enqueue("CUSTOM", frame("2"), channel.newPromise());
+        ChannelFuture newest = queue.enqueue("CUSTOM", frame("3"), channel.newPromise());
+
+        assertInstanceOf(OutboundQueue.QueueFullException.class, dropped.cause());
+        assertEquals(0, first.refCnt());
+        assertEquals(1, queue.getDroppedCount());
+
+        resume();
+        assertTrue(kept.isSuccess());
+        assertTrue(newest.isSuccess());
+        assertText("2", channel.readOutbound());
+        assertText("3", channel.readOutbound());
+    }
+
+    @Test
+    void refusesControlFramesInsteadOfDroppingOlderOnes() {
+        stall();
+        ChannelFuture first = queue.enqueue(Message.CALL_ACTION, frame("answer"), channel.newPromise());
+        ChannelFuture second = queue.enqueue(Message.CALL_DIAL, frame("dial"), channel.newPromise());
+        TextWebSocketFrame third = frame("reject");
+        ChannelFuture refused = queue.enqueue(Message.CALL_ACTION, third, channel.newPromise());
+
+        assertInstanceOf(OutboundQueue.QueueFullException.class, refused.cause());
+        assertEquals(0, third.refCnt());
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(0, queue.getDroppedCount());
+
+        resume();
+        assertTrue(first.isSuccess());
+        assertTrue(second.isSuccess());
+        assertText("answer", channel.readOutbound());
+        assertText("dial", channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    void neverDropsUserSendsForInteractiveTraffic() {
+        stall();
+        queue.enqueue(Message.SMS_SEND, frame("sms 1"), channel.newPromise());
+        queue.enqueue(Message.SMS_SEND, frame("sms 2"), channel.newPromise());
+        ChannelFuture refused = queue.enqueue(Message.SMS_SEND, frame("sms 3"), channel.newPromise());
+        queue.enqueue(Message.NOTIFICATION_ACTION, frame("dismiss 1"), channel.newPromise());
+        queue.enqueue(Message.NOTIFICATION_ACTION, frame("dismiss 2"), channel.newPromise());
+        // A droppable frame finds only user actions in its class, so it is the one refused
+        ChannelFuture clipboardLike = queue.enqueue("CUSTOM", frame("x"), channel.newPromise());
+
+        assertFalse(refused.isSuccess());
+        assertInstanceOf(OutboundQueue.QueueFullException.class, clipboardLike.cause());
+        assertEquals(2, queue.getRejectedCount());
+        assertEquals(4, queue.getDepth());
+    }
+
+    @Test
+    void failsQueuedFramesWhenTheChannelCloses() {
+        stall();
+        TextWebSocketFrame queued = frame("late");
+        ChannelFuture sent = queue.enqueue(Message.SMS_SEND, queued, channel.newPromise());
+
+        channel.close();
+        queue.clear();
+        channel.runPendingTasks();
+
+        assertInstanceOf(ClosedChannelException.class, sent.cause());
+        assertEquals(0, queued.refCnt());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    void keepsOnlyTheNewestCoalescedFrame() {
+        stall();
+        ChannelFuture older = queue.enqueue(Message.CLIPBOARD, frame("old"), channel.newPromise());
+        ChannelFuture newer = queue.enqueue(Message.CLIPBOARD, frame("new"), channel.newPromise());
+
+        assertFalse(older.isSuccess());
+        assertEquals(1, queue.getCoalescedCount());
+
+        resume();
+        assertTrue(newer.isSuccess());
+        assertText("new", channel.readOutbound());
+    }
+
+    private void stall() {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        assertFalse(channel.isWritable());
+    }
+
+    private void resume() {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        queue.drain();
+    }
+
+    private static TextWebSocketFrame frame(String text) {
+        return new TextWebSocketFrame(text);
+    }
+
+    private static void assertText(String expected, WebSocketFrame frame) {
+        try {
+            assertEquals(expected, ((TextWebSocketFrame) frame).text());
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long RATE = 1_000_000;
+
+    @Test
+    void neverWaitsWithoutALimit() {
+        TokenBucket bucket = new TokenBucket(0);
+
+        assertEquals(0, bucket.acquire(Long.MAX_VALUE / 2));
+        assertEquals(0, bucket.acquire(1));
+    }
+
+    @Test
+    void lendsAWholeChunkAndChargesTheWaitAfterIt() {
+        long since = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(RATE);
+
+        // A tenth of a second's worth from an empty bucket
+        assertWait(100, bucket.acquire(RATE / 10), since);
+        // Further bytes add to the debt
+        assertWait(200, bucket.acquire(RATE / 10), since);
+    }
+
+    @Test
+    void holdsAtMostAQuarterSecondAfterBeingIdle() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE);
+        bucket.acquire(0);
+        Thread.sleep(400);
+
+        long since = System.nanoTime();
+        assertEquals(0, bucket.acquire(RATE / 4));
+        // The idle time beyond a quarter second was not saved up
+        assertWait(50, bucket.acquire(RATE / 20), since);
+    }
+
+    @Test
+    void loweringTheRateLowersWhatIsHeld() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(4 * RATE);
+        bucket.acquire(0);
+        Thread.sleep(300);
+        long since = System.nanoTime();
+        bucket.acquire(0);
+
+        // A quarter second at the old rate is cut to the 64 KB floor of the new one
+        bucket.setRate(RATE / 10);
+        assertEquals(RATE / 10, bucket.getRate());
+        assertWait(1000, bucket.acquire(64 * 1024 + RATE / 10), since);
+    }
+
+    /**
+     * Checks a wait against what it would be with no time passing, less the refill since then.
+     */
+    private static void assertWait(long expectedMillis, long waitNanos, long since) {
+        long expected = TimeUnit.MILLISECONDS.toNanos(expectedMillis);
+        long elapsed = System.nanoTime() - since;
+        assertTrue(waitNanos <= expected && waitNanos >= expected - elapsed,
+                () -> "waited " + waitNanos + " ns, expected " + expectedMillis + " ms less up to " + elapsed + " ns");
+    }
+}
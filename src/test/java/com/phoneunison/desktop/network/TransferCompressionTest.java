@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferCompressionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sendsKnownCompressedFormatsWithoutLooking() throws IOException {
+        // Text inside, but the name decides
+        assertEquals(TransferCompression.IDENTITY, TransferCompression.choose(write("photo.JPG", text())));
+        assertEquals(TransferCompression.IDENTITY, TransferCompression.choose(write("backup.tar.gz", text())));
+
+        assertTrue(TransferCompression.isCompressedType("report.pdf"));
+        assertFalse(TransferCompression.isCompressedType("notes.txt"));
+        assertFalse(TransferCompression.isCompressedType("README"));
+    }
+
+    @Test
+    void sendsRandomDataAsItIs() throws IOException {
+        byte[] random = new byte[2 * TransferCompression.PROBE_BYTES];
+        new Random(7).nextBytes(random);
+
+        assertEquals(TransferCompression.IDENTITY, TransferCompression.choose(write("disk.img", random)));
+    }
+
+    @Test
+    void deflatesTextThatCompresses() throws IOException {
+        assertEquals(TransferCompression.DEFLATE, TransferCompression.choose(write("server.log", text())));
+    }
+
+    @Test
+    void probesOnlyTheStartOfTheFile() throws IOException {
+        // Compressible after the probe window, which is not read
+        byte[] bytes = new byte[3 * TransferCompression.PROBE_BYTES];
+        new Random(7).nextBytes(bytes);
+        byte[] text = text();
+        System.arraycopy(text, 0, bytes, TransferCompression.PROBE_BYTES, 2 * TransferCompression.PROBE_BYTES);
+
+        assertEquals(TransferCompression.IDENTITY, TransferCompression.choose(write("mixed.bin", bytes)));
+    }
+
+    @Test
+    void leavesSmallAndMissingFilesAlone() throws IOException {
+        assertEquals(TransferCompression.IDENTITY,
+                TransferCompression.choose(write("tiny.txt", "a".repeat(500).getBytes(StandardCharsets.UTF_8))));
+        assertEquals(TransferCompression.IDENTITY, TransferCompression.choose(dir.resolve("missing.txt").toFile()));
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        return Files.write(dir.resolve(name), bytes).toFile();
+    }
+
+    private static byte[] text() {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < 2 * TransferCompression.PROBE_BYTES; line++) {
+            text.append("2026-10-17 12:00:").append(line % 60).append(" INFO Upload ").append(line)
+                    .append(" completed\n");
+        }
+        return text.substring(0, 2 * TransferCompression.PROBE_BYTES).getBytes(StandardCharsets.UTF_8);
+    }
+}
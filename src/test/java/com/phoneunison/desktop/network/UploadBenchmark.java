@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.network;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A 1 GB upload over loopback into {@link BasicFileUploadHandler}, against writing the same
+ * bytes straight to a file, which is as fast as the upload can get on this disk.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=UploadBenchmark}. It needs about 2 GB free in
+ * the temporary directory.
+ */
+@Tag("benchmark")
+class UploadBenchmark {
+
+    private static final long UPLOAD_BYTES = 1024L * 1024 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 4 * 1024 * 1024;
+    private static final int RUNS = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void uploadOneGigabyte() throws Exception {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        ThreadLocalRandom.current().nextBytes(chunk);
+        EventLoopGroup boss = new NioEventLoopGroup(1);
+        EventLoopGroup worker = new NioEventLoopGroup(1);
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(boss, worker)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new HttpServerCodec());
+                            ch.pipeline().addLast(new BasicFileUploadHandler(dir.toString(), WRITE_BUFFER_BYTES,
+                                    null, null, address -> false));
+                        }
+                    })
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+            int port = ((InetSocketAddress) server.localAddress()).getPort();
+            try {
+                // The first run of each only warms up the JIT, the buffer pools and the page cache
+                writeDirectly(chunk);
+                upload(port, chunk);
+                double[] direct = new double[RUNS];
+                double[] uploaded = new double[RUNS];
+                for (int i = 0; i < RUNS; i++) {
+                    direct[i] = writeDirectly(chunk);
+                    uploaded[i] = upload(port, chunk);
+                }
+                System.out.printf("%-10s %10s %10s%n", "", "MB/s", "seconds");
+                System.out.printf("%-10s %10.0f %10.2f%n", "file", median(direct), UPLOAD_BYTES / 1e6 / median(direct));
+                System.out.printf("%-10s %10.0f %10.2f%n", "upload", median(uploaded),
+                        UPLOAD_BYTES / 1e6 / median(uploaded));
+            } finally {
+                server.close().sync();
+            }
+        } finally {
+            boss.shutdownGracefully().sync();
+            worker.shutdownGracefully().sync();
+        }
+    }
+
+    /**
+     * Sends {@link #UPLOAD_BYTES} in one POST and waits for the answer, which comes once the file
+     * is on disk. Returns MB/s.
+     */
+    private double upload(int port, byte[] chunk) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            OutputStream out = socket.getOutputStream();
+            String head = "POST /upload?filename=bench.bin HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1\r\n"
+                    + "Content-Length: " + UPLOAD_BYTES + "\r\n\r\n";
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            for (long sent = 0; sent < UPLOAD_BYTES; sent += chunk.length) {
+                out.write(chunk);
+            }
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(UPLOAD_BYTES, Files.size(dir.resolve("bench.bin")));
+        clean();
+        return UPLOAD_BYTES / 1e6 / seconds;
+    }
+
+    private double writeDirectly(byte[] chunk) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel out = FileChannel.open(dir.resolve("direct.bin"), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            for (long written = 0; written < UPLOAD_BYTES; written += chunk.length) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clean();
+        return UPLOAD_BYTES / 1e6 / seconds;
+    }
+
+    private void clean() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.network.MessageBatcher;
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import com.phoneunison.desktop.protocol.payload.NotificationPayload;
+import com.phoneunison.desktop.services.ResumeState;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CPU time of a burst of notifications through encode, decode and {@link MessageHandler}, sent
+ * one frame per notification against batched by a {@link MessageBatcher}. Per-frame WebSocket,
+ * flush and encryption costs are left out; they fall with the frame count as well.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=BatchBenchmark}.
+ */
+@Tag("benchmark")
+class BatchBenchmark {
+
+    private static final int BURST = 1000;
+    private static final int BURSTS = 200;
+    private static final int MAX_MESSAGES = 64;
+    private static final int MAX_BYTES = 64 * 1024;
+
+    @TempDir
+    Path downloads;
+
+    private int frames;
+    private int updates;
+
+    @Test
+    void compareBatchedWithSingleFrames() {
+        List<Message> burst = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            burst.add(new Message(Message.NOTIFICATION, Map.of("id", "n" + i, "packageName", "com.example.chat",
+                    "appName", "Chat", "title", "Contact " + i, "text", "Message number " + i)));
+        }
+        System.out.printf("%-8s %-8s %8s %8s %14s%n", "format", "mode", "frames", "updates", "cpu ms/burst");
+        for (WireFormat format : WireFormat.values()) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            MessageCodec.setWireFormat(channel, format);
+            MessageHandler handler = handler(channel);
+            MessageBatcher batcher = new MessageBatcher(channel, (type, frame) -> receive(handler, channel, frame),
+                    60_000, MAX_MESSAGES, MAX_BYTES);
+            Runnable single = () -> {
+                for (Message message : burst) {
+                    receive(handler, channel, MessageCodec.encode(format, message, UnpooledByteBufAllocator.DEFAULT));
+                }
+            };
+            Runnable batched = () -> {
+                burst.forEach(batcher::add);
+                batcher.flush();
+            };
+            // Warm both paths up before measuring either
+            measure(single);
+            measure(batched);
+            print(format, "single", measure(single));
+            print(format, "batched", measure(batched));
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private MessageHandler handler(EmbeddedChannel channel) {
+        MessageHandler handler = new StandInConnectionService(channel, new ResumeState("phone"), downloads)
+                .getMessageHandler();
+        handler.setNotificationCallback(new MessageHandler.NotificationCallback() {
+            @Override
+            public void onNotification(String id, String packageName, String appName, String title,
+                    String content, String icon) {
+                updates++;
+            }
+
+            @Override
+            public void onNotifications(List<NotificationPayload> notifications) {
+                updates++;
+            }
+        });
+        return handler;
+    }
+
+    private void receive(MessageHandler handler, EmbeddedChannel channel, WebSocketFrame frame) {
+        frames++;
+        try {
+            handler.handleMessage(channel, MessageCodec.decode(frame));
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Returns the CPU time of one burst in nanoseconds, averaged.
+     */
+    private long measure(Runnable burst) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        frames = 0;
+        updates = 0;
+        long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < BURSTS; i++) {
+            burst.run();
+        }
+        return (threads.getCurrentThreadCpuTime() - start) / BURSTS;
+    }
+
+    private void print(WireFormat format, String mode, long nanos) {
+        System.out.printf("%-8s %-8s %8d %8d %14.2f%n", format.getId(), mode, frames / BURSTS, updates / BURSTS,
+                nanos / 1e6);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import com.phoneunison.desktop.protocol.payload.ClipboardPayload;
+import com.phoneunison.desktop.protocol.payload.SmsEntry;
+import com.phoneunison.desktop.protocol.payload.SmsMessagesPayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryMessageCodecTest {
+
+    @Test
+    void roundTripsHeaderFields() {
+        Message message = new Message(Message.CLIPBOARD, Map.of("content", "hello"));
+        message.setSeq(42);
+        message.setReplyTo("7f1c9a52-3c1e-4c44-9c55-0e3f7d0b6a10");
+
+        Message decoded = roundTrip(message);
+
+        assertEquals(message.getVersion(), decoded.getVersion());
+        assertEquals(Message.CLIPBOARD, decoded.getType());
+        assertEquals(message.getId(), decoded.getId());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals(42, decoded.getSeq());
+        assertEquals(message.getReplyTo(), decoded.getReplyTo());
+        assertEquals(new ClipboardPayload("hello", null), decoded.getPayload(ClipboardPayload.class));
+    }
+
+    @Test
+    void keepsIdsAndTypesThatAreNotUuidsOrKnownOpcodes() {
+        Message message = new Message("CUSTOM_TYPE", Map.of());
+        message.setId("heartbeat-ack");
+        // Upper-case UUID text would not survive the 16-byte form, so it goes as a string
+        message.setReplyTo("7F1C9A52-3C1E-4C44-9C55-0E3F7D0B6A10");
+
+        Message decoded = roundTrip(message);
+
+        assertEquals("CUSTOM_TYPE", decoded.getType());
+        assertEquals("heartbeat-ack", decoded.getId());
+        assertEquals("7F1C9A52-3C1E-4C44-9C55-0E3F7D0B6A10", decoded.getReplyTo());
+        assertEquals(0, decoded.getSeq());
+        assertTrue(decoded.getData().isEmpty());
+    }
+
+    @Test
+    void roundTripsNestedMapsListsNumbersAndNulls() {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("name", "Ana");
+        inner.put("tags", List.of("work", "family"));
+        inner.put("missing", null);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("contact", inner);
+        data.put("count", 3);
+        data.put("negative", -1_234_567_890_123L);
+        data.put("ratio", 0.25);
+        data.put("whole", 2.0);
+        data.put("big", 1e300);
+        data.put("flag", true);
+        data.put("off", false);
+        data.put("mixed", Arrays.asList(1, "two", null, 4.5, List.of(Map.of("deep", "yes"))));
+        data.put("nothing", null);
+
+        Map<String, Object> decoded = roundTrip(new Message("CUSTOM_TYPE", data)).getData();
+
+        assertEquals(data.keySet(), decoded.keySet());
+        Map<?, ?> contact = (Map<?, ?>) decoded.get("contact");
+        assertEquals("Ana", contact.get("name"));
+        assertEquals(List.of("work", "family"), contact.get("tags"));
+        assertTrue(contact.containsKey("missing"));
+        assertNull(contact.get("missing"));
+        // Integral numbers come back as Long, everything else as Double
+        assertEquals(3L, decoded.get("count"));
+        assertEquals(-1_234_567_890_123L, decoded.get("negative"));
+        assertEquals(0.25, decoded.get("ratio"));
+        assertEquals(2L, decoded.get("whole"));
+        assertEquals(1e300, decoded.get("big"));
+        assertEquals(Boolean.TRUE, decoded.get("flag"));
+        assertEquals(Boolean.FALSE, decoded.get("off"));
+        assertEquals(Arrays.asList(1L, "two", null, 4.5, List.of(Map.of("deep", "yes"))), decoded.get("mixed"));
+        assertTrue(decoded.containsKey("nothing"));
+        assertNull(decoded.get("nothing"));
+    }
+
+    @Test
+    void roundTripsMessagesWithoutData() {
+        Message decoded = roundTrip(new Message(Message.SIM_LIST_REQUEST));
+
+        assertEquals(Message.SIM_LIST_REQUEST, decoded.getType());
+        assertNull(decoded.getData());
+    }
+
+    @Test
+    void roundTripsBatches() {
+        Message first = new Message(Message.CLIPBOARD, Map.of("content", "a"));
+        Message second = new Message("CUSTOM_TYPE", Map.of("n", 1));
+        Message batch = new Message(Message.BATCH);
+        batch.setPayload(new BatchPayload(List.of(first, second)));
+
+        BatchPayload decoded = roundTrip(batch).getPayload(BatchPayload.class);
+
+        assertNotNull(decoded);
+        assertEquals(2, decoded.messages().size());
+        assertEquals(first.getId(), decoded.messages().get(0).getId());
+        assertEquals(new ClipboardPayload("a", null), decoded.messages().get(0).getPayload(ClipboardPayload.class));
+        assertEquals("CUSTOM_TYPE", decoded.messages().get(1).getType());
+        assertEquals(1L, decoded.messages().get(1).<Object>getDataField("n"));
+    }
+
+    @Test
+    void refusesBatchesInsideABatch() {
+        Message inner = new Message(Message.BATCH);
+        inner.setPayload(new BatchPayload(List.of(new Message(Message.CLIPBOARD, Map.of("content", "a")))));
+        ByteBuf part = Unpooled.buffer();
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            BinaryMessageCodec.encode(inner, part);
+            BinaryMessageCodec.encodeBatch(new Message(Message.BATCH), List.of(part), buf);
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(buf));
+        } finally {
+            part.release();
+            buf.release();
+        }
+    }
+
+    @Test
+    void bindsTypedPayloadsStraightFromTheFrame() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("body", "hi");
+        first.put("timestamp", 1.7e12);
+        first.put("type", "2");
+        first.put("extra", Map.of("nested", Arrays.asList(1, null)));
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("body", null);
+        second.put("timestamp", 3.5);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("unknown", List.of(Map.of("a", true), 2.5));
+        data.put("threadId", 12);
+        data.put("messages", List.of(first, second));
+
+        Message decoded = roundTrip(new Message(Message.SMS_MESSAGES, data));
+
+        assertNull(decoded.getData());
+        SmsMessagesPayload payload = decoded.getPayload(SmsMessagesPayload.class);
+        assertEquals("12", payload.threadId());
+        assertEquals(List.of(new SmsEntry("hi", 1_700_000_000_000L, 2), new SmsEntry(null, 3, SmsEntry.TYPE_INBOX)),
+                payload.messages());
+    }
+
+    @Test
+    void rejectsTypedPayloadsOfTheWrongShape() {
+        Message message = new Message(Message.SMS_LIST, Map.of("conversations", List.of("not a conversation")));
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            BinaryMessageCodec.encode(message, buf);
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void acceptsNestingUpToTheLimit() {
+        Map<String, Object> data = nested(31);
+
+        Map<String, Object> decoded = roundTrip(new Message("CUSTOM_TYPE", data)).getData();
+
+        for (int i = 0; i < 31; i++) {
+            decoded = castMap(decoded.get("n"));
+        }
+        assertTrue(decoded.isEmpty());
+    }
+
+    @Test
+    void refusesToEncodeDataNestedTooDeeply() {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            Message message = new Message("CUSTOM_TYPE", nested(40));
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.encode(message, buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void refusesToDecodeDataNestedTooDeeply() {
+        // Hand-built frame: a list inside a list 40 levels deep, which the encoder would refuse
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            buf.writeByte(1);     // version
+            buf.writeByte(0);     // opcode: type follows as a string
+            buf.writeByte(1).writeByte('X');
+            buf.writeByte(0x04);  // flags: data
+            buf.writeByte(0);     // timestamp
+            buf.writeByte(7).writeByte(1).writeByte(1).writeByte('n');
+            for (int i = 0; i < 40; i++) {
+                buf.writeByte(6).writeByte(1);
+            }
+            buf.writeByte(0);
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void rejectsLengthsLongerThanTheFrame() {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            buf.writeByte(1).writeByte(0);
+            BinaryMessageCodec.writeVarLong(buf, 1_000_000);
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void rejectsUnknownOpcodesAndTags() {
+        ByteBuf opcode = Unpooled.buffer().writeByte(1).writeByte(120);
+        ByteBuf tag = Unpooled.buffer().writeByte(1).writeByte(0).writeByte(1).writeByte('X')
+                .writeByte(0x04).writeByte(0).writeByte(7).writeByte(1).writeByte(1).writeByte('n').writeByte(99);
+        try {
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(opcode));
+            assertThrows(CorruptedFrameException.class, () -> BinaryMessageCodec.decode(tag));
+        } finally {
+            opcode.release();
+            tag.release();
+        }
+    }
+
+    @Test
+    void varLongsRoundTrip() {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+            for (long value : values) {
+                BinaryMessageCodec.writeVarLong(buf, value);
+            }
+            for (long value : values) {
+                assertEquals(value, BinaryMessageCodec.readVarLong(buf));
+            }
+            assertFalse(buf.isReadable());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static Message roundTrip(Message message) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            BinaryMessageCodec.encode(message, buf);
+            Message decoded = BinaryMessageCodec.decode(buf);
+            assertFalse(buf.isReadable(), "decoder left bytes behind");
+            return decoded;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static Map<String, Object> nested(int depth) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < depth; i++) {
+            map = new HashMap<>(Map.of("n", map));
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeatureSetTest {
+
+    private static final int FRAME_SIZE = 1024 * 1024;
+
+    /** What the desktop offers by default on an unencrypted, compressed channel. */
+    private static final FeatureSet DESKTOP = new FeatureSet(FeatureSet.PROTOCOL_VERSION,
+            List.of(WireFormat.BINARY.getId(), WireFormat.JSON.getId()), List.of(FeatureSet.COMPRESSION_DEFLATE),
+            50, 64 * 1024, FRAME_SIZE, List.of(FeatureSet.TRANSFER_HTTP_DEFLATE, FeatureSet.TRANSFER_HTTP), true);
+
+    @ParameterizedTest
+    @CsvSource({
+            "JSON, false",
+            "JSON, true",
+            "BINARY, false",
+            "BINARY, true",
+    })
+    void keepsWhatALegacyPhoneAskedForWhilePairing(WireFormat codec, boolean batching) {
+        FeatureSet agreed = DESKTOP.negotiate(FeatureSet.legacy(codec, batching));
+
+        assertEquals(1, agreed.protocol());
+        assertEquals(codec, agreed.wireFormat());
+        assertTrue(agreed.isCompressed());
+        assertEquals(batching, agreed.isBatching());
+        if (batching) {
+            assertEquals(DESKTOP.batchMaxMessages(), agreed.batchMaxMessages());
+            assertEquals(DESKTOP.batchMaxBytes(), agreed.batchMaxBytes());
+        }
+        assertEquals(FRAME_SIZE, agreed.maxFrameSize());
+        assertEquals(List.of(FeatureSet.TRANSFER_HTTP), agreed.transfers());
+        assertFalse(agreed.correlatedReplies());
+    }
+
+    @Test
+    void correlatesRepliesOnlyWhenThePhoneSaysSo() {
+        assertTrue(DESKTOP.negotiate(FeatureSet.fromHello(Map.of("correlatedReplies", true))).correlatedReplies());
+        assertFalse(DESKTOP.negotiate(FeatureSet.fromHello(Map.of("correlatedReplies", false))).correlatedReplies());
+        assertFalse(DESKTOP.negotiate(FeatureSet.fromHello(Map.of())).correlatedReplies());
+        assertFalse(FeatureSet.fromHello(Map.of()).toHello().containsKey("correlatedReplies"));
+    }
+
+    @Test
+    void readsAnEmptyHelloAsNothingSupported() {
+        FeatureSet phone = FeatureSet.fromHello(Map.of());
+
+        assertEquals(1, phone.protocol());
+        assertTrue(phone.codecs().isEmpty());
+        assertFalse(phone.isCompressed());
+        assertFalse(phone.isBatching());
+        assertEquals(Integer.MAX_VALUE, phone.maxFrameSize());
+        assertEquals(List.of(FeatureSet.TRANSFER_HTTP), phone.transfers());
+
+        FeatureSet agreed = DESKTOP.negotiate(phone);
+        assertEquals(List.of(WireFormat.JSON.getId()), agreed.codecs());
+        assertTrue(agreed.compression().isEmpty());
+        assertEquals(0, agreed.batchMaxMessages());
+        assertEquals(0, agreed.batchMaxBytes());
+        assertEquals(FRAME_SIZE, agreed.maxFrameSize());
+        assertEquals(List.of(FeatureSet.TRANSFER_HTTP), agreed.transfers());
+        assertEquals(FeatureSet.fromHello(null), phone);
+    }
+
+    @Test
+    void ignoresFieldsOfTheWrongShape() {
+        FeatureSet phone = FeatureSet.fromHello(Map.of("protocol", "two", "codecs", "binary", "batch", 50,
+                "maxFrameSize", -5, "transfers", List.of()));
+
+        assertEquals(1, phone.protocol());
+        assertTrue(phone.codecs().isEmpty());
+        assertFalse(phone.isBatching());
+        assertEquals(0, phone.maxFrameSize());
+        assertEquals(List.of(FeatureSet.TRANSFER_HTTP), phone.transfers());
+    }
+
+    @Test
+    void batchesNeedBothLimits() {
+        FeatureSet messagesOnly = FeatureSet.fromHello(Map.of("batch", Map.of("maxMessages", 20)));
+        FeatureSet bytesOnly = FeatureSet.fromHello(Map.of("batch", Map.of("maxBytes", 4096)));
+
+        assertFalse(DESKTOP.negotiate(messagesOnly).isBatching());
+        assertFalse(DESKTOP.negotiate(bytesOnly).isBatching());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // phone messages, phone bytes, phone frame, messages, bytes, frame
+            "20, 4096, 2097152, 20, 4096, 1048576",
+            "200, 1048576, 2097152, 50, 65536, 1048576",
+            "200, 1048576, 16384, 50, 16384, 16384",
+            "s:10, s:8192, s:32768, 10, 8192, 32768",
+    })
+    void takesTheSmallerOfEachLimit(String messages, String bytes, String frame, int expectedMessages,
+            int expectedBytes, int expectedFrame) {
+        FeatureSet phone = FeatureSet.fromHello(Map.of(
+                "protocol", 2,
+                "codecs", List.of("json"),
+                "batch", Map.of("maxMessages", parse(messages), "maxBytes", parse(bytes)),
+                "maxFrameSize", parse(frame)));
+
+        FeatureSet agreed = DESKTOP.negotiate(phone);
+
+        assertTrue(agreed.isBatching());
+        assertEquals(expectedMessages, agreed.batchMaxMessages());
+        // A batch is one frame, so it never outgrows the frame limit
+        assertEquals(expectedBytes, agreed.batchMaxBytes());
+        assertEquals(expectedFrame, agreed.maxFrameSize());
+        assertEquals(agreed, agreed.negotiate(phone));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'binary,json', binary",
+            "'json,binary', binary",
+            "json, json",
+            "binary, binary",
+            "'msgpack,cbor', json",
+            "'msgpack,binary', binary",
+    })
+    void prefersTheDesktopsCodecOrder(String phoneCodecs, String expected) {
+        FeatureSet phone = FeatureSet.fromHello(Map.of("codecs", List.of(phoneCodecs.split(","))));
+
+        FeatureSet agreed = DESKTOP.negotiate(phone);
+
+        assertEquals(List.of(expected), agreed.codecs());
+        assertEquals(expected, agreed.wireFormat().getId());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'http-deflate,http', 'http-deflate,http'",
+            "'http,http-deflate', 'http-deflate,http'",
+            "http, http",
+            "http-deflate, http-deflate",
+            "bluetooth, http",
+            "'bluetooth,http', http",
+    })
+    void fallsBackToPlainHttpTransfers(String phoneTransfers, String expected) {
+        FeatureSet phone = FeatureSet.fromHello(Map.of("transfers", List.of(phoneTransfers.split(","))));
+
+        FeatureSet agreed = DESKTOP.negotiate(phone);
+
+        assertEquals(List.of(expected.split(",")), agreed.transfers());
+        assertEquals(expected.startsWith(FeatureSet.TRANSFER_HTTP_DEFLATE),
+                agreed.supportsTransfer(FeatureSet.TRANSFER_HTTP_DEFLATE));
+    }
+
+    @Test
+    void agreesOnNoCompressionWhenEitherSideHasNone() {
+        FeatureSet encrypted = new FeatureSet(DESKTOP.protocol(), DESKTOP.codecs(), List.of(),
+                DESKTOP.batchMaxMessages(), DESKTOP.batchMaxBytes(), DESKTOP.maxFrameSize(), DESKTOP.transfers(),
+                DESKTOP.correlatedReplies());
+        FeatureSet phone = FeatureSet.fromHello(Map.of("compression", List.of(FeatureSet.COMPRESSION_DEFLATE)));
+
+        assertTrue(DESKTOP.negotiate(phone).isCompressed());
+        assertFalse(encrypted.negotiate(phone).isCompressed());
+        assertFalse(DESKTOP.negotiate(FeatureSet.fromHello(Map.of())).isCompressed());
+    }
+
+    @Test
+    void roundTripsThroughAHello() {
+        assertEquals(DESKTOP, FeatureSet.fromHello(DESKTOP.toHello()));
+
+        FeatureSet unbatched = DESKTOP.negotiate(FeatureSet.fromHello(Map.of("codecs", List.of("json"))));
+        assertFalse(unbatched.toHello().containsKey("batch"));
+        assertEquals(unbatched, FeatureSet.fromHello(unbatched.toHello()));
+    }
+
+    private static Object parse(String value) {
+        // Some phones serialize their numbers as text
+        return value.startsWith("s:") ? value.substring(2) : Integer.valueOf(value);
+    }
+}
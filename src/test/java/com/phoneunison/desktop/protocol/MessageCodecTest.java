@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import com.phoneunison.desktop.protocol.payload.ClipboardPayload;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCodecTest {
+
+    @Test
+    void negotiatesBinaryOnlyWhenThePeerListsIt() {
+        assertEquals(WireFormat.BINARY, MessageCodec.negotiate(List.of("binary", "json")));
+        assertEquals(WireFormat.BINARY, MessageCodec.negotiate(List.of("json", "binary")));
+        assertEquals(WireFormat.JSON, MessageCodec.negotiate(List.of("json")));
+        assertEquals(WireFormat.JSON, MessageCodec.negotiate(List.of()));
+        assertEquals(WireFormat.JSON, MessageCodec.negotiate(null));
+        assertEquals(WireFormat.JSON, MessageCodec.negotiate("binary"));
+    }
+
+    @Test
+    void framesMatchTheWireFormat() {
+        Message message = new Message(Message.HEARTBEAT);
+        WebSocketFrame json = MessageCodec.encode(WireFormat.JSON, message, UnpooledByteBufAllocator.DEFAULT);
+        WebSocketFrame binary = MessageCodec.encode(WireFormat.BINARY, message, UnpooledByteBufAllocator.DEFAULT);
+        try {
+            assertInstanceOf(TextWebSocketFrame.class, json);
+            assertInstanceOf(BinaryWebSocketFrame.class, binary);
+            assertTrue(binary.content().readableBytes() < json.content().readableBytes());
+        } finally {
+            json.release();
+            binary.release();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WireFormat.class)
+    void roundTripsUntypedDataTheSameWayInBothFormats(WireFormat format) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("count", 7);
+        data.put("ratio", 1.5);
+        data.put("nested", Map.of("list", Arrays.asList("a", null, 2)));
+        data.put("nothing", null);
+        Message message = new Message("CUSTOM_TYPE", data);
+        message.setSeq(9);
+
+        Message decoded = roundTrip(format, message);
+
+        assertEquals("CUSTOM_TYPE", decoded.getType());
+        assertEquals(message.getId(), decoded.getId());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals(9, decoded.getSeq());
+        assertEquals(7L, decoded.<Object>getDataField("count"));
+        assertEquals(1.5, decoded.<Object>getDataField("ratio"));
+        assertEquals(Map.of("list", Arrays.asList("a", null, 2L)), decoded.getDataField("nested"));
+        assertNull(decoded.getDataField("nothing"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(WireFormat.class)
+    void bindsTypedPayloadsInBothFormats(WireFormat format) {
+        Message message = new Message(Message.CLIPBOARD, Map.of("content", "copied", "contentType", "text/plain"));
+
+        Message decoded = roundTrip(format, message);
+
+        assertEquals(new ClipboardPayload("copied", "text/plain"), decoded.getPayload(ClipboardPayload.class));
+        assertNull(decoded.getData());
+    }
+
+    @Test
+    void decodesJsonFromPeersThatNeverNegotiated() {
+        String json = "{\"data\":{\"content\":\"x\"},\"type\":\"CLIPBOARD\",\"id\":\"1\",\"timestamp\":5,"
+                + "\"unknown\":[1,2]}";
+        TextWebSocketFrame frame = new TextWebSocketFrame(json);
+        try {
+            Message decoded = MessageCodec.decode(frame);
+
+            assertEquals("1", decoded.getId());
+            assertEquals(5, decoded.getTimestamp());
+            assertEquals(new ClipboardPayload("x", null), decoded.getPayload(ClipboardPayload.class));
+        } finally {
+            frame.release();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WireFormat.class)
+    void heartbeatAckIsSharedAndDecodable(WireFormat format) {
+        for (int i = 0; i < 3; i++) {
+            WebSocketFrame frame = MessageCodec.heartbeatAck(format);
+            try {
+                Message ack = MessageCodec.decode(frame);
+                assertEquals(Message.HEARTBEAT, ack.getType());
+                assertEquals(Boolean.TRUE, ack.getDataField("ack"));
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    @Test
+    void jsonFramesAreUtf8() {
+        Message message = new Message("CUSTOM_TYPE", Map.of("text", "héllo ✓"));
+        WebSocketFrame frame = MessageCodec.encode(WireFormat.JSON, message, UnpooledByteBufAllocator.DEFAULT);
+        try {
+            assertTrue(frame.content().toString(StandardCharsets.UTF_8).contains("héllo ✓"));
+            assertEquals("héllo ✓", MessageCodec.decode(frame).getDataField("text"));
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static Message roundTrip(WireFormat format, Message message) {
+        WebSocketFrame frame = MessageCodec.encode(format, message, UnpooledByteBufAllocator.DEFAULT);
+        try {
+            return MessageCodec.decode(frame);
+        } finally {
+            frame.release();
+        }
+    }
+}
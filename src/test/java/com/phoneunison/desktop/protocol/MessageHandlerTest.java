@@ -0,0 +1,195 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import com.phoneunison.desktop.protocol.payload.CallStatePayload;
+import com.phoneunison.desktop.protocol.payload.NotificationPayload;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.services.ResumeState;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageHandlerTest {
+
+    @TempDir
+    Path downloads;
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final ResumeState resume = new ResumeState("phone");
+    private final List<String> notifications = new ArrayList<>();
+    private final List<Message> lists = new ArrayList<>();
+    private StandInConnectionService service;
+    private MessageHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        service = new StandInConnectionService(channel, resume, downloads);
+        handler = service.getMessageHandler();
+        handler.setNotificationCallback((id, packageName, appName, title, content, icon) -> notifications.add(id));
+        handler.setSmsCallback(lists::add);
+    }
+
+    @Test
+    void dropsNotificationsThatWereAlreadyApplied() {
+        handler.handleMessage(channel, notification("a", 1));
+        handler.handleMessage(channel, notification("b", 2));
+        // Resent by a phone that did not see the acknowledgement
+        handler.handleMessage(channel, notification("b", 2));
+        handler.handleMessage(channel, notification("a", 1));
+        handler.handleMessage(channel, notification("c", 3));
+
+        assertEquals(List.of("a", "b", "c"), notifications);
+        assertEquals(3, resume.getAcked(SyncStream.NOTIFICATIONS));
+    }
+
+    @Test
+    void acknowledgesAStreamedListWithItsLastBatch() {
+        handler.handleMessage(channel, list(7, new SmsListPayload(List.of(conversation("1")), 0, false)));
+        assertEquals(0, resume.getAcked(SyncStream.SMS));
+
+        // Later batches share the sequence number of the first
+        handler.handleMessage(channel, list(7, new SmsListPayload(List.of(conversation("2")), 1, true)));
+        assertEquals(7, resume.getAcked(SyncStream.SMS));
+        assertEquals(2, resume.getConversations().size());
+
+        handler.handleMessage(channel, list(7, new SmsListPayload(List.of(conversation("3")), 0, true)));
+        assertEquals(2, lists.size());
+        assertEquals(2, resume.getConversations().size());
+    }
+
+    @Test
+    void dropsWhatABatchRepeats() {
+        handler.handleMessage(channel, notification("a", 1));
+        Message batch = new Message(Message.BATCH);
+        batch.setPayload(new BatchPayload(List.of(notification("a", 1), notification("b", 2))));
+        handler.handleMessage(channel, batch);
+
+        assertEquals(List.of("a", "b"), notifications);
+        assertEquals(2, resume.getAcked(SyncStream.NOTIFICATIONS));
+    }
+
+    @ParameterizedTest
+    @EnumSource(WireFormat.class)
+    void handsABatchOnInOrder(WireFormat format) {
+        List<String> events = new ArrayList<>();
+        handler.setNotificationCallback(new MessageHandler.NotificationCallback() {
+            @Override
+            public void onNotification(String id, String packageName, String appName, String title,
+                    String content, String icon) {
+                events.add(id);
+            }
+
+            @Override
+            public void onNotifications(List<NotificationPayload> batch) {
+                events.add(batch.stream().map(NotificationPayload::id).toList().toString());
+            }
+        });
+        handler.setClipboardCallback((content, contentType) -> events.add(content));
+        Message batch = new Message(Message.BATCH);
+        batch.setPayload(new BatchPayload(List.of(notification("a", 0), notification("b", 0),
+                new Message(Message.CLIPBOARD, Map.of("content", "copied")), notification("c", 0))));
+
+        WebSocketFrame frame = MessageCodec.encode(format, batch, UnpooledByteBufAllocator.DEFAULT);
+        try {
+            handler.handleMessage(channel, MessageCodec.decode(frame));
+        } finally {
+            frame.release();
+        }
+
+        // A run of notifications is one UI update, and nothing overtakes the clipboard
+        assertEquals(List.of("[a, b]", "copied", "[c]"), events);
+    }
+
+    @Test
+    void ignoresBatchesInsideABatch() {
+        Message inner = new Message(Message.BATCH);
+        inner.setPayload(new BatchPayload(List.of(notification("a", 0))));
+        Message outer = new Message(Message.BATCH);
+        outer.setPayload(new BatchPayload(List.of(inner, notification("b", 0))));
+
+        handler.handleMessage(channel, outer);
+
+        assertEquals(List.of("b"), notifications);
+    }
+
+    @Test
+    void dropsCallStatesThatWaitedTooLong() {
+        service.getConfig().setCallStateMaxAgeMillis(100);
+        List<String> states = new ArrayList<>();
+        List<Long> receivedAt = new ArrayList<>();
+        handler.setCallCallback(new MessageHandler.CallCallback() {
+            @Override
+            public void onCallState(String state, String number, String contactName) {
+                throw new AssertionError("the time the frame was read is passed on");
+            }
+
+            @Override
+            public void onCallState(String state, String number, String contactName, long at) {
+                states.add(state);
+                receivedAt.add(at);
+            }
+        });
+        long now = System.nanoTime();
+
+        handler.handleMessage(channel, callState("ringing", now - TimeUnit.MILLISECONDS.toNanos(500)));
+        handler.handleMessage(channel, callState("offhook", now - TimeUnit.MILLISECONDS.toNanos(10)));
+
+        assertEquals(List.of("offhook"), states);
+        assertEquals(List.of(now - TimeUnit.MILLISECONDS.toNanos(10)), receivedAt);
+    }
+
+    static Message notification(String id, long seq) {
+        Message message = new Message(Message.NOTIFICATION, Map.of("id", id));
+        message.setPayload(new NotificationPayload(id, "com.example", "Example", "Title", "Text", null));
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static Message callState(String state, long receivedAt) {
+        Message message = new Message(Message.CALL_STATE);
+        message.setPayload(new CallStatePayload(state, "+1555", null));
+        message.setReceivedAt(receivedAt);
+        return message;
+    }
+
+    private static Message list(long seq, SmsListPayload payload) {
+        Message message = new Message(Message.SMS_LIST);
+        message.setPayload(payload);
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static SmsConversation conversation(String threadId) {
+        return new SmsConversation(threadId, "+" + threadId, null, "hello");
+    }
+}
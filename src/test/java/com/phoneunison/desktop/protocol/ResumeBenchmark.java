@@ -0,0 +1,171 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import com.phoneunison.desktop.protocol.payload.SimCardInfo;
+import com.phoneunison.desktop.protocol.payload.SimListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.services.ResumeState;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Time from a phone's first frame after reconnecting until the conversation list and SIM
+ * cards are available to the views, for a full resync against a resumed session that only
+ * sends what changed. A simulated phone encodes its frames with {@link MessageCodec} and the
+ * desktop side decodes them the way the server does, streaming large text frames into a
+ * {@link MessageHandler}; the WebSocket connect and pairing round trip are not included.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=ResumeBenchmark}.
+ */
+@Tag("benchmark")
+class ResumeBenchmark {
+
+    private static final int CONVERSATIONS = 3000;
+    private static final int CHANGED = 3;
+    private static final int RECONNECTS = 20;
+    // As in ConnectionService
+    private static final int STREAM_THRESHOLD = 64 * 1024;
+    private static final int STREAM_BATCH_SIZE = 200;
+
+    @TempDir
+    Path downloads;
+
+    @Test
+    void compareFullResyncWithResume() throws IOException {
+        List<SmsConversation> conversations = new ArrayList<>(CONVERSATIONS);
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            conversations.add(new SmsConversation(String.valueOf(i), "+4915100000" + i, "Contact " + i,
+                    "The last message of conversation " + i));
+        }
+        SimListPayload sims = new SimListPayload(List.of(new SimCardInfo(1, "SIM 1", "Carrier"),
+                new SimCardInfo(2, "SIM 2", "Other carrier")));
+
+        System.out.printf("%-12s %10s %10s %10s%n", "reconnect", "frames", "median ms", "p90 ms");
+        for (int round = 0; round < 2; round++) {
+            // The first round warms both paths up
+            long[] full = new long[RECONNECTS];
+            long[] resumed = new long[RECONNECTS];
+            for (int i = 0; i < RECONNECTS; i++) {
+                full[i] = fullResync(conversations, sims);
+                resumed[i] = resume(conversations, sims);
+            }
+            if (round == 1) {
+                print("full resync", 2, full);
+                print("resume", 1, resumed);
+            }
+        }
+    }
+
+    private long fullResync(List<SmsConversation> conversations, SimListPayload sims) throws IOException {
+        ResumeState state = new ResumeState("phone");
+        Desktop desktop = new Desktop(state);
+        long start = System.nanoTime();
+        desktop.receive(sequenced(Message.SMS_LIST, 1, new SmsListPayload(conversations, 0, true)));
+        desktop.receive(sequenced(Message.SIM_LIST, 1, sims));
+        desktop.usable(CONVERSATIONS);
+        return System.nanoTime() - start;
+    }
+
+    private long resume(List<SmsConversation> conversations, SimListPayload sims) throws IOException {
+        ResumeState state = new ResumeState("phone");
+        state.applyConversations(new SmsListPayload(conversations, 0, true));
+        state.setSims(sims);
+        state.acknowledge(sequenced(Message.SMS_LIST, 1, null));
+        state.acknowledge(sequenced(Message.SIM_LIST, 1, null));
+        Desktop desktop = new Desktop(state);
+
+        List<SmsConversation> changed = new ArrayList<>(CHANGED);
+        for (int i = 0; i < CHANGED; i++) {
+            SmsConversation old = conversations.get(CONVERSATIONS - 1 - i);
+            changed.add(new SmsConversation(old.threadId(), old.address(), old.contactName(), "New message"));
+        }
+        long start = System.nanoTime();
+        // The SIM cards did not change, so the phone sends nothing for them
+        desktop.receive(sequenced(Message.SMS_LIST, 2,
+                new SmsListPayload(changed, List.of(), true, 0, true)));
+        desktop.usable(CONVERSATIONS);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The receiving end of a paired connection, decoding frames the way the server does.
+     */
+    private final class Desktop {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final ResumeState state;
+        final MessageHandler handler;
+
+        Desktop(ResumeState state) {
+            this.state = state;
+            this.handler = new StandInConnectionService(channel, state, downloads).getMessageHandler();
+        }
+
+        void receive(Message message) throws IOException {
+            WebSocketFrame frame = MessageCodec.encode(WireFormat.JSON, message, UnpooledByteBufAllocator.DEFAULT);
+            if (frame.content().readableBytes() > STREAM_THRESHOLD) {
+                try (ByteBufInputStream in = new ByteBufInputStream(frame.content(), true)) {
+                    Message last = MessageCodec.decodeStreaming(in, STREAM_BATCH_SIZE,
+                            batch -> handler.handleMessage(channel, batch));
+                    handler.handleMessage(channel, last);
+                }
+            } else {
+                try {
+                    handler.handleMessage(channel, MessageCodec.decode(frame));
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+
+        /**
+         * What a view restoring itself reads.
+         */
+        void usable(int conversations) {
+            assertEquals(conversations, state.getConversations().size());
+            assertEquals(2, state.getSims().sims().size());
+        }
+    }
+
+    private static Message sequenced(String type, long seq, Object payload) {
+        Message message = new Message(type);
+        message.setPayload(payload);
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static void print(String name, int frames, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-12s %10d %10.1f %10.1f%n", name, frames, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) Math.ceil(sorted.length * 0.9) - 1] / 1e6);
+    }
+}
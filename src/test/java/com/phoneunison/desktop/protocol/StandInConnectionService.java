@@ -0,0 +1,62 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.protocol;
+
+import com.phoneunison.desktop.config.AppConfig;
+import com.phoneunison.desktop.services.ConnectionService;
+import com.phoneunison.desktop.services.DeviceSession;
+import com.phoneunison.desktop.services.PendingRequests;
+import com.phoneunison.desktop.services.ResumeState;
+import io.netty.channel.Channel;
+
+import java.nio.file.Path;
+
+/**
+ * Stands in for the server around a {@link MessageHandler}: one paired, active phone on the
+ * given channel, and no FX thread, outbox or listening socket.
+ */
+final class StandInConnectionService extends ConnectionService {
+
+    private final DeviceSession session;
+
+    StandInConnectionService(Channel channel, ResumeState resumeState, Path downloadDir) {
+        super(config(downloadDir));
+        session = new DeviceSession(resumeState.getDeviceId(), "Phone", channel, resumeState, false,
+                new PendingRequests(cancel -> { }));
+        channel.attr(DeviceSession.KEY).set(session);
+    }
+
+    private static AppConfig config(Path downloadDir) {
+        AppConfig config = new AppConfig();
+        config.setOutboxEnabled(false);
+        config.setDownloadDir(downloadDir.toString());
+        return config;
+    }
+
+    DeviceSession getSession() {
+        return session;
+    }
+
+    @Override
+    public DeviceSession getDevice(Channel channel) {
+        return channel == session.getChannel() ? session : null;
+    }
+
+    @Override
+    public boolean isActiveDevice(Channel channel) {
+        return channel == session.getChannel();
+    }
+}
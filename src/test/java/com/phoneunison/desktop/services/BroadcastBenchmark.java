@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Cost of {@link ConnectionService#writeToAll} against encoding the message again for every
+ * channel, the way broadcasts were sent before.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=BroadcastBenchmark}.
+ */
+@Tag("benchmark")
+class BroadcastBenchmark {
+
+    private static final int ITERATIONS = 200_000;
+    private static final int[] CHANNEL_COUNTS = {1, 2, 4, 16};
+
+    @Test
+    void compareWithEncodingPerChannel() {
+        Message message = notification();
+        System.out.printf("%-8s %-9s %14s %14s %16s %16s%n", "channels", "format",
+                "per channel ns", "shared ns", "per channel B", "shared B");
+        for (WireFormat format : WireFormat.values()) {
+            for (int count : CHANNEL_COUNTS) {
+                List<DeviceSession> sessions = sessions(count, format);
+                Consumer<Message> perChannel = m -> {
+                    for (DeviceSession session : sessions) {
+                        session.getChannel().writeAndFlush(MessageCodec.encode(session.getChannel(), m));
+                    }
+                };
+                Consumer<Message> shared = m -> ConnectionService.writeToAll(m, sessions);
+                // Warm both paths up before measuring either
+                measure(perChannel, message, sessions);
+                measure(shared, message, sessions);
+                long[] before = measure(perChannel, message, sessions);
+                long[] after = measure(shared, message, sessions);
+                System.out.printf("%-8d %-9s %14d %14d %16d %16d%n", count, format.getId(),
+                        before[0], after[0], before[1], after[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the time and heap allocation of one broadcast, averaged.
+     */
+    private static long[] measure(Consumer<Message> broadcast, Message message, List<DeviceSession> sessions) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            broadcast.accept(message);
+            for (DeviceSession session : sessions) {
+                EmbeddedChannel channel = (EmbeddedChannel) session.getChannel();
+                WebSocketFrame frame;
+                while ((frame = channel.readOutbound()) != null) {
+                    frame.release();
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        return new long[] {nanos / ITERATIONS, allocated / ITERATIONS};
+    }
+
+    private static Message notification() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", "0|com.whatsapp|1|null|10234");
+        data.put("packageName", "com.whatsapp");
+        data.put("appName", "WhatsApp");
+        data.put("title", "Family group");
+        data.put("text", "Are we still meeting at the station at seven? I can bring the tickets if nobody "
+                + "else has them yet.");
+        data.put("postedAt", 1_760_650_000_000L);
+        return new Message(Message.NOTIFICATION, data);
+    }
+
+    private static List<DeviceSession> sessions(int count, WireFormat format) {
+        List<DeviceSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            MessageCodec.setWireFormat(channel, format);
+            sessions.add(new DeviceSession("device-" + i, "Phone " + i, channel, null, false, null));
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.network.MessageBatcher;
+import com.phoneunison.desktop.protocol.FeatureSet;
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import com.phoneunison.desktop.protocol.MessageCodec.WireFormat;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BroadcastTest {
+
+    private static final int CHANNELS = 8;
+
+    @Test
+    void sharesOneEncodingPerWireFormat() {
+        List<DeviceSession> sessions = sessions(CHANNELS);
+        Message message = new Message(Message.CALL_STATE, Map.of("state", "RINGING", "number", "+1555"));
+
+        ConnectionService.writeToAll(message, sessions);
+
+        List<WebSocketFrame> json = new ArrayList<>();
+        List<WebSocketFrame> binary = new ArrayList<>();
+        for (DeviceSession session : sessions) {
+            WebSocketFrame frame = ((EmbeddedChannel) session.getChannel()).readOutbound();
+            (frame instanceof BinaryWebSocketFrame ? binary : json).add(frame);
+        }
+        assertEquals(CHANNELS / 2, json.size());
+        assertEquals(CHANNELS / 2, binary.size());
+        assertShared(json, TextWebSocketFrame.class);
+        assertShared(binary, BinaryWebSocketFrame.class);
+
+        // Every channel decodes the same message
+        for (WebSocketFrame frame : json) {
+            assertEquals(message.getId(), MessageCodec.decode(frame.duplicate()).getId());
+        }
+        for (WebSocketFrame frame : binary) {
+            assertEquals(message.getId(), MessageCodec.decode(frame.duplicate()).getId());
+        }
+
+        ByteBuf jsonBytes = root(json.get(0).content());
+        ByteBuf binaryBytes = root(binary.get(0).content());
+        json.forEach(WebSocketFrame::release);
+        binary.forEach(WebSocketFrame::release);
+        assertEquals(0, jsonBytes.refCnt());
+        assertEquals(0, binaryBytes.refCnt());
+    }
+
+    @Test
+    void skipsInactiveChannelsWithoutLeaking() {
+        List<DeviceSession> sessions = sessions(2);
+        sessions.get(1).getChannel().close();
+
+        ConnectionService.writeToAll(new Message(Message.CLIPBOARD, Map.of("content", "x")), sessions);
+
+        EmbeddedChannel open = (EmbeddedChannel) sessions.get(0).getChannel();
+        WebSocketFrame frame = open.readOutbound();
+        ByteBuf bytes = root(frame.content());
+        assertEquals(1, bytes.refCnt());
+        assertNull(((EmbeddedChannel) sessions.get(1).getChannel()).readOutbound());
+        frame.release();
+        assertEquals(0, bytes.refCnt());
+    }
+
+    @Test
+    void refusesFramesOverThePeersLimitWithoutClosing() {
+        List<DeviceSession> sessions = sessions(2);
+        DeviceSession limited = sessions.get(0);
+        limited.getChannel().attr(DeviceSession.KEY).set(limited);
+        limited.setFeatures(new FeatureSet(2, List.of(WireFormat.JSON.getId()), List.of(), 0, 0, 64,
+                List.of(FeatureSet.TRANSFER_HTTP), true));
+
+        ConnectionService.writeToAll(new Message(Message.CLIPBOARD, Map.of("content", "x".repeat(100))), sessions);
+
+        EmbeddedChannel refused = (EmbeddedChannel) limited.getChannel();
+        assertNull(refused.readOutbound());
+        assertTrue(refused.isOpen());
+        WebSocketFrame frame = ((EmbeddedChannel) sessions.get(1).getChannel()).readOutbound();
+        ByteBuf bytes = root(frame.content());
+        frame.release();
+        assertEquals(0, bytes.refCnt());
+    }
+
+    @Test
+    void sendsWhatTheBatcherHoldsBeforeAnythingElse() {
+        List<DeviceSession> sessions = sessions(1);
+        EmbeddedChannel channel = (EmbeddedChannel) sessions.get(0).getChannel();
+        channel.attr(MessageBatcher.KEY).set(new MessageBatcher(channel,
+                (type, frame) -> channel.writeAndFlush(frame), 60_000, 64, 64 * 1024));
+        Message notification = new Message(Message.NOTIFICATION, Map.of("id", "1"));
+        Message clipboard = new Message(Message.CLIPBOARD, Map.of("content", "x"));
+
+        ConnectionService.writeToAll(notification, sessions);
+        assertNull(channel.readOutbound());
+        ConnectionService.writeToAll(clipboard, sessions);
+
+        // The notification is not held back behind the clipboard until the linger ends
+        assertEquals(notification.getId(), decodeAndRelease(channel.readOutbound()).getId());
+        assertEquals(clipboard.getId(), decodeAndRelease(channel.readOutbound()).getId());
+        assertNull(channel.readOutbound());
+    }
+
+    private static Message decodeAndRelease(WebSocketFrame frame) {
+        try {
+            return MessageCodec.decode(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static void assertShared(List<WebSocketFrame> frames, Class<?> frameType) {
+        ByteBuf source = root(frames.get(0).content());
+        byte[] expected = ByteBufUtil.getBytes(frames.get(0).content());
+        // The broadcast released its own reference; only the frames hold the bytes now
+        assertEquals(frames.size(), source.refCnt());
+        for (WebSocketFrame frame : frames) {
+            assertInstanceOf(frameType, frame);
+            assertSame(source, root(frame.content()));
+            assertArrayEquals(expected, ByteBufUtil.getBytes(frame.content()));
+        }
+    }
+
+    /**
+     * The pooled buffer under a frame's duplicate, past the leak detector's wrapper when it
+     * sampled the buffer.
+     */
+    private static ByteBuf root(ByteBuf buf) {
+        while (buf.unwrap() != null) {
+            buf = buf.unwrap();
+        }
+        return buf;
+    }
+
+    private static List<DeviceSession> sessions(int count) {
+        List<DeviceSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            EmbeddedChannel channel = new EmbeddedChannel();
+            MessageCodec.setWireFormat(channel, i % 2 == 0 ? WireFormat.JSON : WireFormat.BINARY);
+            sessions.add(new DeviceSession("device-" + i, "Phone " + i, channel, null, false, null));
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceRegistryTest {
+
+    private static final int THREADS = 8;
+    private static final int DEVICES = 4;
+    private static final int ROUNDS = 2_000;
+
+    @Test
+    void newestConnectionBecomesActiveAndTakesOverOnClose() throws InterruptedException {
+        DeviceRegistry registry = new DeviceRegistry();
+        DeviceSession first = session("a");
+        Thread.sleep(2);
+        DeviceSession second = session("b");
+
+        registry.register(first);
+        registry.register(second);
+        assertSame(second, registry.getActive());
+
+        assertTrue(registry.setActive("a"));
+        assertSame(first, registry.getActive());
+        assertFalse(registry.setActive("missing"));
+        assertSame(first, registry.getActive());
+
+        assertTrue(registry.unregister(first));
+        assertSame(second, registry.getActive());
+        assertTrue(registry.unregister(second));
+        assertNull(registry.getActive());
+    }
+
+    @Test
+    void lateCloseOfAReplacedSessionIsIgnored() {
+        DeviceRegistry registry = new DeviceRegistry();
+        DeviceSession old = session("a");
+        DeviceSession reconnected = session("a");
+
+        registry.register(old);
+        assertSame(old, registry.register(reconnected));
+
+        assertFalse(registry.unregister(old));
+        assertSame(reconnected, registry.get("a"));
+        assertSame(reconnected, registry.getActive());
+        assertNull(registry.get(old.getChannel()));
+        assertSame(reconnected, registry.get(reconnected.getChannel()));
+    }
+
+    /**
+     * Devices connect, reconnect, close and get picked in the UI from many threads at once. The
+     * active device must always be one that is registered, or null only when none is.
+     */
+    @RepeatedTest(20)
+    void activeDeviceStaysRoutableUnderConcurrentChurn() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < ROUNDS; i++) {
+                        String deviceId = "device-" + random.nextInt(DEVICES);
+                        switch (random.nextInt(3)) {
+                            case 0 -> registry.register(session(deviceId));
+                            case 1 -> {
+                                DeviceSession current = registry.get(deviceId);
+                                if (current != null) {
+                                    registry.unregister(current);
+                                }
+                            }
+                            default -> registry.setActive(deviceId);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // Plays the UI: whatever it routes to must be a registered session
+            Future<Integer> observer = pool.submit(() -> {
+                start.await();
+                int checks = 0;
+                while (running.get()) {
+                    DeviceSession active = registry.getActive();
+                    if (active != null) {
+                        DeviceSession byChannel = active.getChannel().attr(DeviceSession.KEY).get();
+                        assertSame(active, byChannel);
+                    }
+                    checks++;
+                }
+                return checks;
+            });
+
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(1, TimeUnit.MINUTES);
+            }
+            running.set(false);
+            assertTrue(observer.get(1, TimeUnit.MINUTES) > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Once the churn settles, UI actions go to a device that is still connected
+        DeviceSession active = registry.getActive();
+        if (registry.isEmpty()) {
+            assertNull(active);
+        } else {
+            assertNotNull(active);
+            assertSame(active, registry.get(active.getDeviceId()));
+            assertSame(active, registry.get(active.getChannel()));
+        }
+        assertEquals(registry.getSessions().size(), registry.size());
+        assertTrue(registry.size() <= DEVICES);
+
+        // Closing every remaining session always ends with no active device
+        for (DeviceSession session : List.copyOf(registry.getSessions())) {
+            assertTrue(registry.unregister(session));
+        }
+        assertTrue(registry.isEmpty());
+        assertNull(registry.getActive());
+    }
+
+    @Test
+    void concurrentReconnectsOfOneDeviceLeaveExactlyOneSession() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<DeviceSession> registered = new ArrayList<>();
+        try {
+            List<Future<DeviceSession>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                DeviceSession session = session("same");
+                registered.add(session);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    registry.register(session);
+                    return session;
+                }));
+            }
+            start.countDown();
+            for (Future<DeviceSession> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, registry.size());
+        DeviceSession winner = registry.get("same");
+        int stale = 0;
+        for (DeviceSession session : registered) {
+            if (session != winner) {
+                assertFalse(registry.unregister(session));
+                stale++;
+            }
+        }
+        assertEquals(THREADS - 1, stale);
+        assertSame(winner, registry.get("same"));
+    }
+
+    private static DeviceSession session(String deviceId) {
+        return new DeviceSession(deviceId, deviceId, new EmbeddedChannel(), null, false, null);
+    }
+}
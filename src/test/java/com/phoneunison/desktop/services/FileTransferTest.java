@@ -0,0 +1,100 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.network.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileTransferTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final FileTransfer transfer = new FileTransfer(FileTransfer.Direction.SEND, "phone", "Phone", null,
+            "video.mp4", 10 * MB, new TokenBucket(0), new TokenBucket(0), FileTransfer.State.QUEUED, () -> { });
+
+    @Test
+    void smoothsThroughputAndDerivesTheTimeLeft() {
+        transfer.started(0, 10 * MB);
+        transfer.transferred(MB);
+        transfer.refresh(0);
+        assertEquals("To Phone · 1.0 MB of 10.0 MB · 0 B/s", transfer.statusProperty().get());
+
+        transfer.transferred(MB);
+        transfer.refresh(SECOND);
+        assertEquals("To Phone · 2.0 MB of 10.0 MB · 1.0 MB/s · 0:08 left", transfer.statusProperty().get());
+
+        // 3 MB/s for a second only moves the estimate part of the way
+        transfer.transferred(3 * MB);
+        transfer.refresh(2 * SECOND);
+        assertEquals("To Phone · 5.0 MB of 10.0 MB · 1.6 MB/s · 0:03 left", transfer.statusProperty().get());
+        assertEquals(0.5, transfer.progressProperty().get());
+    }
+
+    @Test
+    void startsOverOnceNoLongerActive() {
+        transfer.started(0, 10 * MB);
+        transfer.refresh(0);
+        transfer.transferred(MB);
+        transfer.refresh(SECOND);
+
+        transfer.pause();
+        transfer.refresh(2 * SECOND);
+        assertEquals("To Phone · 1.0 MB of 10.0 MB · Paused", transfer.statusProperty().get());
+
+        // The pause does not drag the rate down once moving again
+        transfer.resume();
+        transfer.transferred(2 * MB);
+        transfer.refresh(3 * SECOND);
+        assertEquals("To Phone · 3.0 MB of 10.0 MB · 2.0 MB/s · 0:03 left", transfer.statusProperty().get());
+    }
+
+    @Test
+    void reportsHowItEnded() {
+        transfer.started(0, 10 * MB);
+        transfer.finished(true, null);
+        transfer.refresh(0);
+        assertEquals(FileTransfer.State.COMPLETED, transfer.stateProperty().get());
+        assertEquals(1.0, transfer.progressProperty().get());
+
+        transfer.finished(false, new IOException("Connection reset"));
+        transfer.refresh(SECOND);
+        assertEquals("To Phone · 0 B of 10.0 MB · Failed: Connection reset", transfer.statusProperty().get());
+
+        transfer.finished(false, null);
+        assertEquals(FileTransfer.State.INTERRUPTED, transfer.getState());
+
+        transfer.cancel();
+        transfer.finished(false, null);
+        assertEquals(FileTransfer.State.CANCELLED, transfer.getState());
+    }
+
+    @Test
+    void hasNoProgressWhileTheLengthIsUnknown() {
+        FileTransfer upload = new FileTransfer(FileTransfer.Direction.RECEIVE, "phone", "Phone", null, "photo.jpg",
+                -1, new TokenBucket(0), new TokenBucket(0), FileTransfer.State.ACTIVE, () -> { });
+        upload.transferred(2048);
+        upload.refresh(0);
+
+        assertEquals(-1, upload.progressProperty().get());
+        assertEquals("From Phone · 2 KB · 0 B/s", upload.statusProperty().get());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsEntry;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import com.phoneunison.desktop.protocol.payload.SmsMessagesPayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentInputStreamTest {
+
+    private static final int CONVERSATIONS = 20_000;
+    private static final int BATCH_SIZE = 200;
+    private static final int FRAGMENT_BYTES = 16 * 1024;
+    private static final int HIGH_WATER_MARK = 256 * 1024;
+
+    private EmbeddedChannel channel;
+    private InboundLane lane;
+
+    @BeforeEach
+    void setUp() {
+        channel = new EmbeddedChannel();
+        lane = new InboundLane(channel, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void streamsAFullListInBatches() throws Exception {
+        byte[] json = smsList(true, false);
+        assertTrue(json.length > 2 * 1024 * 1024);
+
+        List<SmsListPayload> batches = decodeInFragments(json);
+
+        // The last batch fills up with the last conversation, leaving the final payload empty
+        assertEquals(CONVERSATIONS / BATCH_SIZE + 1, batches.size());
+        assertContiguous(batches);
+        for (SmsListPayload batch : batches) {
+            assertFalse(batch.delta());
+        }
+        assertTrue(channel.config().isAutoRead(), "reads stay paused after the stream ended");
+    }
+
+    @Test
+    void flagsEveryBatchOfADeltaThatSaysSoFirst() throws Exception {
+        List<SmsListPayload> batches = decodeInFragments(smsList(true, true));
+
+        assertEquals(CONVERSATIONS / BATCH_SIZE + 1, batches.size());
+        assertContiguous(batches);
+        for (SmsListPayload batch : batches) {
+            assertTrue(batch.delta(), "batch at " + batch.offset() + " would replace the list");
+        }
+    }
+
+    @Test
+    void holdsBatchesUntilALateDeltaFlagIsKnown() throws Exception {
+        List<SmsListPayload> batches = decodeInFragments(smsList(false, true));
+
+        // Nothing can be flagged before the flag arrives, so the whole delta comes at once
+        assertEquals(1, batches.size());
+        SmsListPayload only = batches.get(0);
+        assertTrue(only.delta());
+        assertTrue(only.complete());
+        assertEquals(CONVERSATIONS, only.conversations().size());
+        assertEquals(List.of("gone"), only.removed());
+    }
+
+    @Test
+    void holdsThreadBatchesUntilTheThreadIdIsKnown() throws Exception {
+        StringBuilder json = new StringBuilder("{\"type\":\"SMS_MESSAGES\",\"id\":\"1\",\"timestamp\":1,\"data\":{");
+        json.append("\"messages\":[");
+        for (int i = 0; i < 1_000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"body\":\"message ").append(i)
+                    .append("\",\"timestamp\":").append(i).append(",\"type\":2}");
+        }
+        json.append("],\"threadId\":\"42\"}}");
+
+        List<Message> messages = decode(json.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, messages.size());
+        SmsMessagesPayload thread = messages.get(0).getPayload(SmsMessagesPayload.class);
+        assertEquals("42", thread.threadId());
+        assertEquals(1_000, thread.messages().size());
+        assertEquals(new SmsEntry("message 999", 999, 2), thread.messages().get(999));
+    }
+
+    @Test
+    void failsTheReaderWhenTheStreamIsClosedEarly() throws Exception {
+        FragmentInputStream stream = new FragmentInputStream(lane, HIGH_WATER_MARK);
+        stream.append(Unpooled.copiedBuffer("{\"type\":\"SMS_LIST\",\"data\":{\"delta\":false,", StandardCharsets.UTF_8));
+        CompletableFuture<Message> decoded = CompletableFuture.supplyAsync(() -> {
+            try {
+                return MessageCodec.decodeStreaming(stream, BATCH_SIZE, batch -> { });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        stream.close();
+
+        Exception e = assertThrows(Exception.class, () -> decoded.get(1, TimeUnit.MINUTES));
+        assertTrue(e.getMessage().contains("Message stream closed"), e.getMessage());
+    }
+
+    /**
+     * Feeds the message in fragments from another thread, as the event loop would, while this
+     * thread decodes it, and returns every batch including the final one.
+     */
+    private List<SmsListPayload> decodeInFragments(byte[] json) throws Exception {
+        List<SmsListPayload> payloads = new ArrayList<>();
+        for (Message message : decode(json)) {
+            assertEquals(Message.SMS_LIST, message.getType());
+            assertEquals("1", message.getId());
+            payloads.add(message.getPayload(SmsListPayload.class));
+        }
+        assertTrue(payloads.get(payloads.size() - 1).complete());
+        return payloads;
+    }
+
+    private List<Message> decode(byte[] json) throws Exception {
+        FragmentInputStream stream = new FragmentInputStream(lane, HIGH_WATER_MARK);
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            for (int off = 0; off < json.length; off += FRAGMENT_BYTES) {
+                ByteBuf fragment = Unpooled.wrappedBuffer(json, off, Math.min(FRAGMENT_BYTES, json.length - off));
+                stream.append(fragment);
+            }
+            stream.finish();
+        });
+        List<Message> messages = new ArrayList<>();
+        try (stream) {
+            Message last = MessageCodec.decodeStreaming(stream, BATCH_SIZE, messages::add);
+            messages.add(last);
+        }
+        producer.get(1, TimeUnit.MINUTES);
+        return messages;
+    }
+
+    private static void assertContiguous(List<SmsListPayload> batches) {
+        int offset = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            SmsListPayload batch = batches.get(i);
+            assertEquals(offset, batch.offset());
+            assertEquals(i == batches.size() - 1, batch.complete());
+            for (SmsConversation conversation : batch.conversations()) {
+                assertEquals("thread-" + offset++, conversation.threadId());
+            }
+        }
+        assertEquals(CONVERSATIONS, offset);
+    }
+
+    /**
+     * An SMS_LIST of {@link #CONVERSATIONS} conversations with its delta flag written before or
+     * after them.
+     */
+    private static byte[] smsList(boolean deltaFirst, boolean delta) {
+        StringBuilder json = new StringBuilder("{\"type\":\"SMS_LIST\",\"id\":\"1\",\"timestamp\":1,\"data\":{");
+        if (deltaFirst) {
+            json.append("\"delta\":").append(delta).append(',');
+        }
+        json.append("\"conversations\":[");
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"threadId\":\"thread-").append(i)
+                    .append("\",\"address\":\"+1555").append(String.format("%07d", i))
+                    .append("\",\"contactName\":\"Contact ").append(i)
+                    .append("\",\"snippet\":\"See you at the station at seven, I will bring the tickets\"}");
+        }
+        json.append("],");
+        if (!deltaFirst) {
+            json.append("\"delta\":").append(delta).append(',');
+        }
+        json.append("\"removed\":[\"gone\"]}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.services.InboundLane.Priority;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency of call state events from being handed to the {@link InboundLane} until their handler
+ * runs, while an SMS list is streamed in as CPU-bound batches faster than they are handled.
+ * Compares every message on one FIFO lane with the priority lanes, where call state takes the
+ * fast lane.
+ *
+ * <p>Run with {@code mvn test -Pbenchmark -Dtest=InboundLaneBenchmark}.
+ */
+@Tag("benchmark")
+class InboundLaneBenchmark {
+
+    private static final long DURATION_MILLIS = 3000;
+    private static final long CALL_STATE_EVERY_MILLIS = 15;
+    private static final long LIST_BATCH_EVERY_MILLIS = 30;
+    private static final long LIST_BATCH_CPU_MILLIS = 40;
+
+    @Test
+    void compareFifoWithPriorityLanes() throws InterruptedException {
+        System.out.printf("%-16s %8s %10s %10s %10s%n", "lanes", "events", "p50 ms", "p99 ms", "max ms");
+        // The first round warms both paths up
+        for (int round = 0; round < 2; round++) {
+            LatencyHistogram fifo = run(Priority.SYNC);
+            LatencyHistogram priority = run(Priority.URGENT);
+            if (round == 1) {
+                print("single FIFO", fifo);
+                print("priority lanes", priority);
+            }
+        }
+    }
+
+    /**
+     * Streams the list and the call states for {@link #DURATION_MILLIS}, call states at
+     * {@code callStatePriority}, and returns their latencies once the lane has drained.
+     */
+    private static LatencyHistogram run(Priority callStatePriority) throws InterruptedException {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        InboundLane lane = new InboundLane(channel, Integer.MAX_VALUE);
+        LatencyHistogram latency = new LatencyHistogram();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        long nextCallState = start;
+        long nextBatch = start;
+        long submitted = 0;
+        while (System.nanoTime() < end) {
+            long now = System.nanoTime();
+            if (now >= nextBatch) {
+                lane.submit(Priority.SYNC, () -> spin(LIST_BATCH_CPU_MILLIS));
+                nextBatch += TimeUnit.MILLISECONDS.toNanos(LIST_BATCH_EVERY_MILLIS);
+                submitted++;
+            }
+            if (now >= nextCallState) {
+                long receivedAt = System.nanoTime();
+                lane.submit(callStatePriority, () -> latency.record(System.nanoTime() - receivedAt));
+                nextCallState += TimeUnit.MILLISECONDS.toNanos(CALL_STATE_EVERY_MILLIS);
+                submitted++;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        while (lane.getCompletedCount() < submitted) {
+            Thread.sleep(10);
+        }
+        channel.finishAndReleaseAll();
+        return latency;
+    }
+
+    /**
+     * Keeps the CPU busy the way parsing a batch of the list does.
+     */
+    private static void spin(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void print(String name, LatencyHistogram latency) {
+        System.out.printf("%-16s %8d %10.2f %10.2f %10.2f%n", name, latency.getCount(),
+                latency.getPercentileMillis(50), latency.getPercentileMillis(99), latency.getMaxMillis());
+    }
+}
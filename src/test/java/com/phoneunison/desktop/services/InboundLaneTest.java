@@ -0,0 +1,198 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.payload.BatchPayload;
+import com.phoneunison.desktop.services.InboundLane.Priority;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InboundLaneTest {
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void classifiesMessagesByHowSoonTheyMatter() {
+        assertEquals(Priority.URGENT, priority(Message.CALL_STATE));
+        assertEquals(Priority.URGENT, priority(Message.HEARTBEAT));
+        assertEquals(Priority.INTERACTIVE, priority(Message.NOTIFICATION));
+        assertEquals(Priority.INTERACTIVE, priority(Message.PAIRING_REQUEST));
+        assertEquals(Priority.INTERACTIVE, priority(Message.HELLO));
+        assertEquals(Priority.INTERACTIVE, priority(null));
+        assertEquals(Priority.SYNC, priority(Message.SMS_LIST));
+        assertEquals(Priority.SYNC, priority(Message.SMS_RECEIVED));
+        assertEquals(Priority.SYNC, priority(Message.SMS_MESSAGES));
+        assertEquals(Priority.SYNC, priority(Message.FILE_CHUNK));
+
+        // A batch goes with the SMS stream as soon as it carries any of it
+        assertEquals(Priority.INTERACTIVE, Priority.of(batch(Message.NOTIFICATION, Message.NOTIFICATION)));
+        assertEquals(Priority.SYNC, Priority.of(batch(Message.NOTIFICATION, Message.SMS_RECEIVED)));
+    }
+
+    @Test
+    void servesInteractiveBeforeSyncEachInOrder() throws InterruptedException {
+        InboundLane lane = new InboundLane(channel, 100);
+        block(lane);
+        lane.submit(Priority.SYNC, record("sync 1"));
+        lane.submit(Priority.INTERACTIVE, record("interactive 1"));
+        lane.submit(Priority.SYNC, record("sync 2"));
+        lane.submit(Priority.INTERACTIVE, record("interactive 2"));
+
+        release.countDown();
+        waitFor(() -> ran.size() == 5);
+        assertEquals(List.of("blocker", "interactive 1", "interactive 2", "sync 1", "sync 2"), ran);
+    }
+
+    @Test
+    void keepsTheSmsStreamInSequence() throws InterruptedException {
+        InboundLane lane = new InboundLane(channel, 100);
+        ResumeState resume = new ResumeState("phone");
+        List<Long> applied = new CopyOnWriteArrayList<>();
+        List<Message> messages = List.of(sequenced(Message.SMS_LIST, 1), sequenced(Message.NOTIFICATION, 1),
+                sequenced(Message.SMS_RECEIVED, 2), batch(sequenced(Message.SMS_RECEIVED, 3)),
+                sequenced(Message.NOTIFICATION, 2), sequenced(Message.SMS_RECEIVED, 4));
+        block(lane);
+        for (Message message : messages) {
+            lane.submit(Priority.of(message), () -> {
+                Message sms = Message.BATCH.equals(message.getType())
+                        ? message.getPayload(BatchPayload.class).messages().get(0) : message;
+                if (!Message.NOTIFICATION.equals(sms.getType()) && resume.accept(sms)) {
+                    applied.add(sms.getSeq());
+                    resume.acknowledge(sms);
+                }
+                ran.add(sms.getType());
+            });
+        }
+
+        release.countDown();
+        waitFor(() -> ran.size() == messages.size() + 1);
+        // Out of order, a later number would have made the earlier ones look like duplicates
+        assertEquals(List.of(1L, 2L, 3L, 4L), applied);
+    }
+
+    @Test
+    void urgentMessagesDoNotWaitForTheMainLane() throws InterruptedException {
+        InboundLane lane = new InboundLane(channel, 100);
+        block(lane);
+        lane.submit(Priority.SYNC, record("sync"));
+        lane.submit(Priority.URGENT, record("urgent"));
+
+        waitFor(() -> ran.contains("urgent"));
+        assertEquals(List.of("blocker", "urgent"), ran);
+        assertEquals(1, lane.getUrgentCompletedCount());
+    }
+
+    @Test
+    void pausesReadsUntilTheBacklogHalves() throws Exception {
+        // Reads resume on the event loop, so this one needs a real one
+        DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+        try {
+            LocalChannel local = new LocalChannel();
+            group.register(local).sync();
+            InboundLane lane = new InboundLane(local, 4);
+            local.eventLoop().submit(() -> {
+                block(lane);
+                return null;
+            }).sync();
+            local.eventLoop().submit(() -> {
+                for (int i = 0; i < 3; i++) {
+                    lane.submit(Priority.SYNC, record("sync " + i));
+                }
+            }).sync();
+            assertFalse(local.config().isAutoRead());
+            assertEquals(1, lane.getPauseCount());
+
+            release.countDown();
+            waitFor(() -> ran.size() == 4);
+            waitFor(() -> local.config().isAutoRead());
+            assertEquals(0, lane.getPending());
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Occupies the main lane until {@link #release} is counted down.
+     */
+    private void block(InboundLane lane) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        lane.submit(Priority.INTERACTIVE, () -> {
+            ran.add("blocker");
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private Runnable record(String name) {
+        return () -> ran.add(name);
+    }
+
+    private static Priority priority(String type) {
+        return Priority.of(new Message(type));
+    }
+
+    private static Message batch(String... types) {
+        return batch(Arrays.stream(types).map(Message::new).toArray(Message[]::new));
+    }
+
+    private static Message batch(Message... messages) {
+        Message batch = new Message(Message.BATCH);
+        batch.setPayload(new BatchPayload(List.of(messages)));
+        return batch;
+    }
+
+    private static Message sequenced(String type, long seq) {
+        Message message = new Message(type);
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
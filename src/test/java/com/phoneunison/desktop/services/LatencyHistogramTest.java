@@ -0,0 +1,76 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    void reportsNothingWithoutSamples() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(50));
+        assertEquals(0, histogram.getPercentileMillis(99));
+    }
+
+    @Test
+    void isExactForTheSmallestLatencies() {
+        for (int micros = 1; micros <= 10; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(0.005, histogram.getPercentileMillis(50), 1e-9);
+        assertEquals(0.010, histogram.getPercentileMillis(99), 1e-9);
+        assertEquals(0.010, histogram.getMaxMillis(), 1e-9);
+    }
+
+    @Test
+    void findsPercentilesWithinTheBucketError() {
+        // 1 to 1000 ms, each once
+        for (int millis = 1000; millis >= 1; millis--) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getPercentileMillis(50), 500 * 0.06);
+        assertEquals(990, histogram.getPercentileMillis(99), 990 * 0.06);
+        assertEquals(1, histogram.getPercentileMillis(0.1), 0.06);
+        assertEquals(1000, histogram.getMaxMillis());
+    }
+
+    @Test
+    void neverReportsMoreThanTheLargestSample() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(100, histogram.getPercentileMillis(100), 1e-9);
+        assertEquals(3, histogram.getPercentileMillis(50), 3 * 0.06);
+    }
+
+    @Test
+    void countsNegativeLatenciesAsZero() {
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(50));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundJournalTest {
+
+    private static final String DEVICE = "phone-1";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mergesTheFileWithWhatWasAppendedBeforeItWasRead() throws Exception {
+        Message first = sms("first");
+        Message oldClip = clip("old");
+        OutboundJournal before = new OutboundJournal(dir, 100, DAY_MILLIS);
+        before.append(DEVICE, first);
+        before.append(DEVICE, oldClip);
+        assertTrue(before.flush(10, TimeUnit.SECONDS));
+
+        // After a restart, sends can come in before the file has been read
+        OutboundJournal after = new OutboundJournal(dir, 100, DAY_MILLIS);
+        Message newClip = clip("new");
+        Message second = sms("second");
+        after.append(DEVICE, newClip);
+        after.append(DEVICE, second);
+
+        assertEquals(List.of(first.getId(), newClip.getId(), second.getId()), ids(after.pending(DEVICE).get()));
+        // Numbered after what was read, however the read and the appends interleaved, and the
+        // messages handed in are left as they were
+        List<Long> seqs = seqs(after.pending(DEVICE).get());
+        assertEquals(1L, seqs.get(0));
+        assertTrue(seqs.get(0) < seqs.get(1) && seqs.get(1) < seqs.get(2), seqs::toString);
+        assertEquals(0, second.getSeq());
+
+        assertTrue(after.flush(10, TimeUnit.SECONDS));
+        OutboundJournal reopened = new OutboundJournal(dir, 100, DAY_MILLIS);
+        assertEquals(List.of(first.getId(), newClip.getId(), second.getId()), ids(reopened.pending(DEVICE).get()));
+    }
+
+    @Test
+    void forgetsOnlyWhatWasDelivered() throws Exception {
+        OutboundJournal journal = new OutboundJournal(dir, 100, DAY_MILLIS);
+        Message delivered = sms("delivered");
+        Message refused = sms("refused");
+        journal.append(DEVICE, delivered);
+        journal.append(DEVICE, refused);
+        List<Message> pending = journal.pending(DEVICE).get();
+
+        journal.remove(DEVICE, List.of(pending.get(0)));
+        assertTrue(journal.flush(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(refused.getId()), ids(journal.pending(DEVICE).get()));
+        OutboundJournal reopened = new OutboundJournal(dir, 100, DAY_MILLIS);
+        assertEquals(List.of(refused.getId()), ids(reopened.pending(DEVICE).get()));
+    }
+
+    @Test
+    void forgetsWhatThePhoneAcknowledged() throws Exception {
+        OutboundJournal journal = new OutboundJournal(dir, 100, DAY_MILLIS);
+        journal.append(DEVICE, sms("one"));
+        journal.append(DEVICE, sms("two"));
+        Message three = sms("three");
+        journal.append(DEVICE, three);
+
+        journal.acknowledge(DEVICE, 2);
+        assertEquals(List.of(three.getId()), ids(journal.pending(DEVICE).get()));
+        assertTrue(journal.flush(10, TimeUnit.SECONDS));
+
+        // The numbers survive a restart and carry on from the last one
+        OutboundJournal reopened = new OutboundJournal(dir, 100, DAY_MILLIS);
+        reopened.append(DEVICE, sms("four"));
+        assertEquals(List.of(3L, 4L), seqs(reopened.pending(DEVICE).get()));
+        assertTrue(reopened.flush(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void waitsForTheFileBeforeActingOnAnAcknowledgement() throws Exception {
+        OutboundJournal before = new OutboundJournal(dir, 100, DAY_MILLIS);
+        before.append(DEVICE, sms("one"));
+        assertTrue(before.flush(10, TimeUnit.SECONDS));
+
+        // Until the file is read, "two" is numbered 1 here; the acknowledgement means "one"
+        OutboundJournal after = new OutboundJournal(dir, 100, DAY_MILLIS);
+        Message two = sms("two");
+        after.append(DEVICE, two);
+        after.acknowledge(DEVICE, 1);
+
+        assertEquals(List.of(two.getId()), ids(after.pending(DEVICE).get()));
+        assertEquals(List.of(2L), seqs(after.pending(DEVICE).get()));
+        assertTrue(after.flush(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void keepsOnlyDurableTypes() throws Exception {
+        OutboundJournal journal = new OutboundJournal(dir, 100, DAY_MILLIS);
+
+        assertFalse(journal.append(DEVICE, new Message(Message.CALL_DIAL, Map.of("number", "+1555"))));
+        assertTrue(journal.pending(DEVICE).get().isEmpty());
+    }
+
+    private static Message sms(String body) {
+        return new Message(Message.SMS_SEND, Map.of("address", "+1555", "body", body));
+    }
+
+    private static Message clip(String content) {
+        return new Message(Message.CLIPBOARD, Map.of("content", content));
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    private static List<Long> seqs(List<Message> messages) {
+        return messages.stream().map(Message::getSeq).toList();
+    }
+}
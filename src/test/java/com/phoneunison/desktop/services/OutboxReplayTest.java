@@ -0,0 +1,155 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.MessageCodec;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboxReplayTest {
+
+    private static final String DEVICE = "phone-1";
+
+    @TempDir
+    Path dir;
+
+    private final ConcurrentMap<String, Channel> replaying = new ConcurrentHashMap<>();
+    private OutboundJournal journal;
+
+    @AfterEach
+    void flush() throws Exception {
+        // Before the directory is deleted under the writer
+        assertTrue(journal.flush(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void keepsWhatWasWrittenUntilThePhoneAcknowledgesIt() throws Exception {
+        OutboundJournal journal = journal("first", "second");
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        ConnectionService.replay(journal, session(channel, true), journal.pending(DEVICE).get(), replaying);
+
+        List<Message> sent = sent(channel);
+        assertEquals(List.of(1L, 2L), sent.stream().map(Message::getSeq).toList());
+        // Written is not delivered: the link may drop before the phone applies them
+        assertEquals(2, journal.pending(DEVICE).get().size());
+
+        journal.acknowledge(DEVICE, 1);
+        assertEquals(List.of(sent.get(1).getId()), ids(journal.pending(DEVICE).get()));
+    }
+
+    @Test
+    void forgetsWhatWasWrittenToAPhoneThatCannotAcknowledge() throws Exception {
+        OutboundJournal journal = journal("first", "second");
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        ConnectionService.replay(journal, session(channel, false), journal.pending(DEVICE).get(), replaying);
+
+        assertEquals(2, sent(channel).size());
+        assertTrue(journal.pending(DEVICE).get().isEmpty());
+    }
+
+    @Test
+    void doesNotSendAnEntryAgainWhileItsFrameIsWaiting() throws Exception {
+        OutboundJournal journal = journal("send once");
+        HeldWrites held = new HeldWrites();
+        EmbeddedChannel first = new EmbeddedChannel(held);
+        List<Message> pending = journal.pending(DEVICE).get();
+
+        ConnectionService.replay(journal, session(first, true), pending, replaying);
+        assertEquals(1, held.promises.size());
+
+        // The phone reconnects before the first frame was written
+        EmbeddedChannel second = new EmbeddedChannel();
+        ConnectionService.replay(journal, session(second, true), pending, replaying);
+        assertEquals(0, sent(second).size());
+
+        // Once the first link is gone the entry goes out on the new one, and only there
+        first.close();
+        EmbeddedChannel third = new EmbeddedChannel();
+        ConnectionService.replay(journal, session(third, true), pending, replaying);
+        assertEquals(List.of(pending.get(0).getId()), ids(sent(third)));
+        held.promises.forEach(promise -> promise.tryFailure(new IllegalStateException("closed")));
+        assertEquals(Set.of(), replaying.keySet());
+        assertEquals(1, journal.pending(DEVICE).get().size());
+    }
+
+    private OutboundJournal journal(String... bodies) throws Exception {
+        journal = new OutboundJournal(dir, 100, TimeUnit.DAYS.toMillis(1));
+        for (String body : bodies) {
+            journal.append(DEVICE, new Message(Message.SMS_SEND, Map.of("address", "+1555", "body", body)));
+        }
+        assertTrue(journal.flush(10, TimeUnit.SECONDS));
+        return journal;
+    }
+
+    private static DeviceSession session(Channel channel, boolean acknowledges) {
+        DeviceSession session = new DeviceSession(DEVICE, "Phone", channel, null, false, null);
+        session.setCapabilities(acknowledges ? Set.of(OutboundJournal.ACK_CAPABILITY) : Set.of());
+        return session;
+    }
+
+    private static List<Message> sent(EmbeddedChannel channel) {
+        List<Message> messages = new ArrayList<>();
+        WebSocketFrame frame;
+        while ((frame = channel.readOutbound()) != null) {
+            try {
+                messages.add(MessageCodec.decode(frame));
+            } finally {
+                frame.release();
+            }
+        }
+        return messages;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    /**
+     * Holds every write, as a socket that stopped draining would.
+     */
+    private static final class HeldWrites extends ChannelOutboundHandlerAdapter {
+        final List<ChannelPromise> promises = new ArrayList<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            ReferenceCountUtil.release(msg);
+            promises.add(promise);
+        }
+    }
+}
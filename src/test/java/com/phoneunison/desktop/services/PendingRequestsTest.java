@@ -0,0 +1,169 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.payload.SmsMessagesPayload;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRequestsTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final List<Message> cancels = new CopyOnWriteArrayList<>();
+    private final PendingRequests requests = new PendingRequests(cancels::add);
+
+    @Test
+    void completesTheRequestAReplyNames() throws Exception {
+        Message first = thread("1");
+        Message second = thread("2");
+        CompletableFuture<Message> firstReply = requests.register(first, TIMEOUT, null, null, true).future();
+        CompletableFuture<Message> secondReply = requests.register(second, TIMEOUT, null, null, true).future();
+
+        // Answered out of order
+        Message answer = reply(second, "2");
+        assertTrue(requests.complete(answer));
+        assertSame(answer, secondReply.get());
+        assertFalse(firstReply.isDone());
+
+        assertTrue(requests.complete(reply(first, "1")));
+        assertTrue(firstReply.isDone());
+        assertEquals(0, requests.size());
+        assertTrue(cancels.isEmpty());
+    }
+
+    @Test
+    void passesEarlierBatchesToThePartialConsumer() throws Exception {
+        List<Message> batches = new CopyOnWriteArrayList<>();
+        Message request = thread("1");
+        CompletableFuture<Message> future = requests.register(request, TIMEOUT, null, batches::add, true).future();
+
+        Message batch = reply(request, "1");
+        batch.setPayload(new SmsMessagesPayload("1", List.of(), 0, false));
+        requests.complete(batch);
+
+        assertEquals(List.of(batch), batches);
+        assertFalse(future.isDone());
+        Message last = reply(request, "1");
+        requests.complete(last);
+        assertSame(last, future.get());
+    }
+
+    @Test
+    void aNewerRequestSupersedesTheOlderOne() throws Exception {
+        Message older = thread("1");
+        Message newer = thread("2");
+        CompletableFuture<Message> olderReply = requests.register(older, TIMEOUT, "thread", null, true).future();
+        PendingRequests.Pending pending = requests.register(newer, TIMEOUT, "thread", null, true);
+
+        assertTrue(pending.isNew());
+        assertThrows(CancellationException.class, olderReply::join);
+        // The phone is told to stop, and its answer to the old request is dropped
+        assertEquals(1, cancels.size());
+        assertEquals(older.getId(), cancels.get(0).getDataField("id"));
+        assertFalse(requests.complete(reply(older, "1")));
+        assertFalse(pending.future().isDone());
+
+        // The same request again shares the one in flight
+        PendingRequests.Pending again = requests.register(thread("2"), TIMEOUT, "thread", null, true);
+        assertFalse(again.isNew());
+        assertSame(pending.future(), again.future());
+    }
+
+    @Test
+    void timesOutAndWithdrawsTheRequest() throws Exception {
+        Message request = thread("1");
+        CompletableFuture<Message> future = requests.register(request, 50, null, null, true).future();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        waitFor(() -> cancels.size() == 1);
+        assertEquals(request.getId(), cancels.get(0).getDataField("id"));
+        assertEquals(0, requests.size());
+        assertFalse(requests.complete(reply(request, "1")));
+    }
+
+    @Test
+    void matchesALegacyPhonesRepliesByTypeAndThread() throws Exception {
+        CompletableFuture<Message> threadReply = requests.register(thread("7"), 50, Message.SMS_MESSAGES, null, false)
+                .future();
+        CompletableFuture<Message> simReply = requests.register(new Message(Message.SIM_LIST_REQUEST, null), 50,
+                Message.SIM_LIST_REQUEST, null, false).future();
+
+        // Long past the timeout a correlated request would have had
+        Thread.sleep(200);
+        assertFalse(threadReply.isDone());
+        assertFalse(simReply.isDone());
+
+        // Neither names its request; another thread's list is not this request's reply
+        assertFalse(requests.complete(new Message(Message.SMS_MESSAGES, Map.of("threadId", "8"))));
+        Message messages = new Message(Message.SMS_MESSAGES, Map.of("threadId", "7"));
+        assertTrue(requests.complete(messages));
+        Message sims = new Message(Message.SIM_LIST, Map.of("sims", List.of()));
+        assertTrue(requests.complete(sims));
+
+        assertSame(messages, threadReply.get());
+        assertSame(sims, simReply.get());
+        assertEquals(0, requests.size());
+    }
+
+    @Test
+    void neverSendsALegacyPhoneACancel() {
+        CompletableFuture<Message> older = requests.register(thread("1"), TIMEOUT, Message.SMS_MESSAGES, null, false)
+                .future();
+        requests.register(thread("2"), TIMEOUT, Message.SMS_MESSAGES, null, false);
+
+        assertTrue(older.isCancelled());
+        assertTrue(cancels.isEmpty());
+        // The older thread's list, if it still comes, is not mistaken for a reply
+        assertFalse(requests.complete(new Message(Message.SMS_MESSAGES, Map.of("threadId", "1"))));
+    }
+
+    private static Message thread(String threadId) {
+        return new Message(Message.SMS_MESSAGES, Map.of("threadId", threadId));
+    }
+
+    private static Message reply(Message request, String threadId) {
+        Message reply = new Message(Message.SMS_MESSAGES, Map.of("threadId", threadId));
+        reply.setReplyTo(request.getId());
+        return reply;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.protocol.Message;
+import com.phoneunison.desktop.protocol.SyncStream;
+import com.phoneunison.desktop.protocol.payload.SmsConversation;
+import com.phoneunison.desktop.protocol.payload.SmsListPayload;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumeStateTest {
+
+    private final ResumeState state = new ResumeState("phone");
+
+    @Test
+    void dropsWhatWasAlreadyApplied() {
+        Message first = sequenced(Message.NOTIFICATION, 5);
+        assertTrue(state.accept(first));
+        state.acknowledge(first);
+
+        // Resent after a reconnect, or overtaken by a newer one
+        assertFalse(state.accept(sequenced(Message.NOTIFICATION, 5)));
+        assertFalse(state.accept(sequenced(Message.NOTIFICATION, 3)));
+        assertTrue(state.accept(sequenced(Message.NOTIFICATION, 6)));
+
+        // Unnumbered messages and types outside the streams always pass
+        assertTrue(state.accept(sequenced(Message.NOTIFICATION, 0)));
+        assertTrue(state.accept(sequenced(Message.CLIPBOARD, 1)));
+    }
+
+    @Test
+    void keepsEachStreamApart() {
+        state.acknowledge(sequenced(Message.NOTIFICATION, 9));
+        state.acknowledge(sequenced(Message.SMS_RECEIVED, 2));
+        state.acknowledge(sequenced(Message.SMS_LIST, 1));
+
+        assertTrue(state.accept(sequenced(Message.SMS_LIST, 3)));
+        assertTrue(state.accept(sequenced(Message.SIM_LIST, 1)));
+        assertEquals(9, state.getAcked(SyncStream.NOTIFICATIONS));
+        // An acknowledgement never moves a stream back
+        assertEquals(2, state.getAcked(SyncStream.SMS));
+        assertEquals(Map.of("notifications", 9L, "sms", 2L, "sims", 0L), state.getAckedSeqs());
+    }
+
+    @Test
+    void hasNoConversationsUntilTheListIsComplete() {
+        state.applyConversations(new SmsListPayload(List.of(conversation("1"), conversation("2")), 0, false));
+        assertNull(state.getConversations());
+
+        state.applyConversations(new SmsListPayload(List.of(conversation("3")), 2, true));
+        assertEquals(List.of("1", "2", "3"), threadIds());
+
+        // A full list replaces the snapshot from its first batch on
+        state.applyConversations(new SmsListPayload(List.of(conversation("4")), 0, true));
+        assertEquals(List.of("4"), threadIds());
+    }
+
+    @Test
+    void mergesADeltaIntoTheSnapshot() {
+        state.applyConversations(new SmsListPayload(
+                List.of(conversation("1"), conversation("2"), conversation("3"), conversation("4")), 0, true));
+
+        // 3 has a new message and moves to the top, 2 was deleted
+        state.applyConversations(new SmsListPayload(List.of(new SmsConversation("3", "+1", null, "new")),
+                List.of("2"), true, 0, true));
+        assertEquals(List.of("3", "1", "4"), threadIds());
+        assertEquals("new", state.getConversations().get(0).snippet());
+
+        // A second batch of the same delta goes below the first
+        state.applyConversations(new SmsListPayload(List.of(conversation("5")), List.of(), true, 0, false));
+        state.applyConversations(new SmsListPayload(List.of(conversation("4")), List.of(), true, 1, true));
+        assertEquals(List.of("5", "4", "3", "1"), threadIds());
+    }
+
+    @Test
+    void acceptsEachTokenOnce() {
+        String token = state.getToken();
+        assertTrue(state.matches(token));
+        assertFalse(state.matches(null));
+
+        String next = state.rotateToken();
+        assertNotEquals(token, next);
+        assertFalse(state.matches(token));
+        assertTrue(state.matches(next));
+    }
+
+    private List<String> threadIds() {
+        return state.getConversations().stream().map(SmsConversation::threadId).toList();
+    }
+
+    private static Message sequenced(String type, long seq) {
+        Message message = new Message(type, Map.of());
+        message.setSeq(seq);
+        return message;
+    }
+
+    private static SmsConversation conversation(String threadId) {
+        return new SmsConversation(threadId, "+" + threadId, null, "hello");
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.utils.TlsIdentity;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.net.ssl.SSLSession;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A phone that pinned the desktop's certificate reconnects: the first handshake sends the
+ * certificate, the second resumes the session without it.
+ */
+class TlsResumptionTest {
+
+    private static final String HOST = "192.168.1.20";
+    private static final int PORT = 8765;
+
+    @TempDir
+    static Path dir;
+
+    private static TlsIdentity identity;
+
+    @BeforeAll
+    static void createIdentity() throws Exception {
+        identity = TlsIdentity.create(dir, "PhoneUnison test");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"TLSv1.3", "TLSv1.2"})
+    void resumesTheSessionOnReconnect(String protocol) throws Exception {
+        SslContext server = ConnectionService.newServerContext(identity, 64, 3600);
+        SslContext phone = phoneContext(identity, protocol);
+
+        Handshake full = handshake(server, phone);
+        Handshake resumed = handshake(server, phone);
+
+        assertEquals(protocol, full.session.getProtocol());
+        assertEquals(protocol, resumed.session.getProtocol());
+        assertEquals(identity.getFingerprint(), fingerprint(full.session.getPeerCertificates()[0]));
+        // The resumed session still identifies the pinned certificate, without sending it again
+        assertEquals(identity.getFingerprint(), fingerprint(resumed.session.getPeerCertificates()[0]));
+        int certificateBytes = identity.getCertificate().getEncoded().length;
+        assertTrue(full.serverBytes - resumed.serverBytes > certificateBytes,
+                "full " + full.serverBytes + " B, resumed " + resumed.serverBytes + " B");
+        if (protocol.equals("TLSv1.2")) {
+            assertArrayEquals(full.session.getId(), resumed.session.getId());
+        }
+    }
+
+    @Test
+    void doesNotResumeWithAnotherIdentity(@TempDir Path otherDir) throws Exception {
+        TlsIdentity rotated = TlsIdentity.create(otherDir, "PhoneUnison test");
+        SslContext phone = phoneContext(identity, "TLSv1.2");
+
+        handshake(ConnectionService.newServerContext(identity, 64, 3600), phone);
+        // After disconnectAndClear the desktop serves a new certificate the phone has not pinned
+        Handshake refused = handshake(ConnectionService.newServerContext(rotated, 64, 3600), phone);
+
+        assertFalse(refused.completed);
+    }
+
+    /**
+     * A phone trusting exactly the certificate it pinned while pairing.
+     */
+    private static SslContext phoneContext(TlsIdentity pinned, String protocol) throws Exception {
+        return SslContextBuilder.forClient()
+                .sslProvider(SslProvider.JDK)
+                .trustManager(pinned.getCertificate())
+                .protocols(protocol)
+                .build();
+    }
+
+    /**
+     * Runs one handshake between fresh channels, shuttling records until both sides are done or
+     * one gives up, and counts the bytes the server sent.
+     */
+    private static Handshake handshake(SslContext server, SslContext phone) {
+        SslHandler serverSsl = server.newHandler(UnpooledByteBufAllocator.DEFAULT);
+        // The host and port key the phone's session cache, as for a real reconnect
+        SslHandler phoneSsl = phone.newHandler(UnpooledByteBufAllocator.DEFAULT, HOST, PORT);
+        EmbeddedChannel serverChannel = new EmbeddedChannel(serverSsl);
+        EmbeddedChannel phoneChannel = new EmbeddedChannel(phoneSsl);
+        long serverBytes = 0;
+        try {
+            for (int round = 0; round < 20; round++) {
+                boolean moved = shuttle(phoneChannel, serverChannel) > 0;
+                int sent = shuttle(serverChannel, phoneChannel);
+                serverBytes += sent;
+                if (!moved && sent == 0) {
+                    break;
+                }
+            }
+            boolean completed = phoneSsl.handshakeFuture().isSuccess() && serverSsl.handshakeFuture().isSuccess();
+            SSLSession session = phoneSsl.engine().getSession();
+            if (completed) {
+                assertNotNull(session);
+            }
+            return new Handshake(completed, session, serverBytes);
+        } finally {
+            phoneChannel.finishAndReleaseAll();
+            serverChannel.finishAndReleaseAll();
+        }
+    }
+
+    private static int shuttle(EmbeddedChannel from, EmbeddedChannel to) {
+        int bytes = 0;
+        ByteBuf record;
+        while ((record = from.readOutbound()) != null) {
+            bytes += record.readableBytes();
+            try {
+                to.writeInbound(record);
+            } catch (Exception e) {
+                // A refused handshake surfaces here; the handshake future records it
+            }
+        }
+        return bytes;
+    }
+
+    private static String fingerprint(Certificate certificate) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private record Handshake(boolean completed, SSLSession session, long serverBytes) {
+    }
+}
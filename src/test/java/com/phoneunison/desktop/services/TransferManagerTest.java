@@ -0,0 +1,180 @@
+/*
+ * Copyright 2026 PhoneUnison Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phoneunison.desktop.services;
+
+import com.phoneunison.desktop.config.AppConfig;
+import com.phoneunison.desktop.network.TransferControl;
+import com.phoneunison.desktop.protocol.Message;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private StandInPhones phones;
+    private TransferManager manager;
+
+    @BeforeEach
+    void setUp() {
+        AppConfig config = new AppConfig();
+        config.setOutboxEnabled(false);
+        config.setDownloadDir(dir.resolve("downloads").toString());
+        config.setMaxConcurrentTransfers(2);
+        phones = new StandInPhones(config);
+        manager = new TransferManager(phones, config, Runnable::run);
+    }
+
+    @Test
+    void runsAtMostTheAllowedNumberAtOnce() throws Exception {
+        FileTransfer first = manager.send(phones.phone, file("1"));
+        FileTransfer second = manager.send(phones.phone, file("2"));
+        FileTransfer third = manager.send(phones.phone, file("3"));
+
+        waitFor(() -> phones.sends.size() == 2);
+        assertEquals(FileTransfer.State.QUEUED, third.getState());
+        assertEquals(List.of(first, second, third), manager.getTransfers());
+
+        // A finished send makes room for the next
+        phones.complete(first);
+        waitFor(() -> phones.sends.containsKey(third));
+        assertEquals(FileTransfer.State.COMPLETED, first.getState());
+    }
+
+    @Test
+    void cancelsAQueuedTransferWithoutStartingIt() throws Exception {
+        FileTransfer first = manager.send(phones.phone, file("1"));
+        FileTransfer second = manager.send(phones.phone, file("2"));
+        FileTransfer queued = manager.send(phones.phone, file("3"));
+        waitFor(() -> phones.sends.size() == 2);
+
+        manager.cancel(queued);
+        assertEquals(FileTransfer.State.CANCELLED, queued.getState());
+        phones.complete(first);
+        phones.complete(second);
+
+        // Both slots are free again, and the cancelled one never took one
+        FileTransfer fourth = manager.send(phones.phone, file("4"));
+        FileTransfer fifth = manager.send(phones.phone, file("5"));
+        waitFor(() -> phones.sends.containsKey(fourth) && phones.sends.containsKey(fifth));
+        assertEquals(4, phones.sends.size());
+    }
+
+    @Test
+    void resumingAPausedTransferStartsTheQueueAgain() throws Exception {
+        FileTransfer first = manager.send(phones.phone, file("1"));
+        FileTransfer second = manager.send(phones.phone, file("2"));
+        FileTransfer paused = manager.send(phones.phone, file("3"));
+        FileTransfer next = manager.send(phones.phone, file("4"));
+        manager.pause(paused);
+        waitFor(() -> phones.sends.size() == 2);
+
+        // The paused transfer is passed over, not started
+        phones.complete(first);
+        waitFor(() -> phones.sends.containsKey(next));
+        assertEquals(FileTransfer.State.PAUSED, paused.getState());
+        phones.complete(second);
+        assertEquals(FileTransfer.State.COMPLETED, second.getState());
+        assertEquals(3, phones.sends.size());
+
+        manager.resume(paused);
+        waitFor(() -> phones.sends.containsKey(paused));
+    }
+
+    @Test
+    void freesTheSlotOfASendThatFails() throws Exception {
+        FileTransfer first = manager.send(phones.phone, file("1"));
+        FileTransfer second = manager.send(phones.phone, file("2"));
+        FileTransfer gone = manager.send(phones.absent, file("3"));
+        FileTransfer third = manager.send(phones.phone, file("4"));
+        waitFor(() -> phones.sends.size() == 2);
+
+        // Its phone disconnected while it was queued
+        phones.complete(first);
+        assertEquals(FileTransfer.State.FAILED, gone.getState());
+        waitFor(() -> phones.sends.containsKey(third));
+
+        phones.sends.get(second).completeExceptionally(new IOException("Connection refused"));
+        assertEquals(FileTransfer.State.FAILED, second.getState());
+        FileTransfer fourth = manager.send(phones.phone, file("5"));
+        waitFor(() -> phones.sends.containsKey(fourth));
+    }
+
+    private File file(String name) throws IOException {
+        return Files.writeString(dir.resolve(name + ".txt"), "file " + name).toFile();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * A connected phone whose sends finish when the test says so, and one that has gone away.
+     */
+    private static final class StandInPhones extends ConnectionService {
+
+        final DeviceSession phone = new DeviceSession("phone", "Phone", new EmbeddedChannel(), null, false, null);
+        final DeviceSession absent = new DeviceSession("absent", "Gone", new EmbeddedChannel(), null, false, null);
+        final Map<FileTransfer, CompletableFuture<Void>> sends = new ConcurrentHashMap<>();
+
+        StandInPhones(AppConfig config) {
+            super(config);
+        }
+
+        void complete(FileTransfer transfer) {
+            sends.get(transfer).complete(null);
+        }
+
+        @Override
+        public DeviceSession getDevice(String deviceId) {
+            return phone.getDeviceId().equals(deviceId) ? phone : null;
+        }
+
+        @Override
+        public CompletableFuture<Void> sendMessage(String deviceId, Message message) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> sendFile(DeviceSession target, File file, String sha256,
+                TransferControl control) {
+            CompletableFuture<Void> send = new CompletableFuture<>();
+            sends.put((FileTransfer) control, send);
+            return send;
+        }
+    }
+}